@@ -6,14 +6,48 @@ package com.saankaa.rapidxend.config;
  */
 public class AppEnvVariable {
 
+    // Instance
+    public final static String INSTANCE_ID = "INSTANCE.id"; // Unique for each instance
+
     // Redis
     public final static String REDIS_HOST = "REDIS.host";
     public final static String REDIS_PORT = "REDIS.port";
     public final static String REDIS_CHANNEL = "REDIS.channel"; // Used to listen all application event (Peering, file download...)
+    public final static String REDIS_SERIALIZER = "REDIS.serializer"; // Encoding of published notifications, json or binary. Both are read
 
     // Mongo
     public final static String MONGO_DB_NAME = "MONGO.db_name";
     public final static String MONGO_CONNECTION_URL = "MONGO.connection_url";
 
+    // Data blocks storage
+    public final static String BLOCK_STORE_TYPE = "BLOCKSTORE.type"; // gridfs or filesystem
+    public final static String BLOCK_STORE_DATA_DIR = "BLOCKSTORE.data_dir"; // Used by filesystem block store
+    public final static String BLOCK_STORE_CACHE_SIZE = "BLOCKSTORE.cache_size"; // In bytes. Used by gridfs block store, 0 disables cache
+
+    // Transfers
+    public final static String TRANSFER_MAX_FILE_SIZE = "TRANSFER.max_file_size"; // In bytes
+    public final static String TRANSFER_EXPIRATION = "TRANSFER.expiration"; // In hours. Transfers in progress are cancelled after it without activity
+    public final static String TRANSFER_UPLOAD_MODE = "TRANSFER.upload_mode"; // sync or pipelined
+    public final static String TRANSFER_SPOOL_DIR = "TRANSFER.spool_dir"; // Used by pipelined upload
+    public final static String TRANSFER_UPLOAD_WORKERS = "TRANSFER.upload_workers";
+    public final static String TRANSFER_UPLOAD_QUEUE_SIZE = "TRANSFER.upload_queue_size";
+    public final static String TRANSFER_PUSH_MAX_CREDIT = "TRANSFER.push_max_credit"; // Frames of data blocks pushed to a websocket session and not acknowledged yet
+    public final static String TRANSFER_RELAY_BUFFER_SIZE = "TRANSFER.relay_buffer_size"; // In bytes. Used by relay transfers, 0 disables relay
+
+    // Notifications
+    public final static String NOTIFICATION_COALESCING_WINDOW = "NOTIFICATION.coalescing_window"; // In milliseconds, 0 disables coalescing
+    public final static String NOTIFICATION_COALESCING_MAX_DELAY = "NOTIFICATION.coalescing_max_delay"; // In milliseconds
+
+    /**
+     * Get variable value from environment, then from system properties
+     *
+     * @param name         Variable name
+     * @param defaultValue Value returned if variable is not set
+     * @return Variable value
+     */
+    public static String getValue(String name, String defaultValue) {
+        if (System.getenv(name) != null) return System.getenv(name);
+        return System.getProperty(name, defaultValue);
+    }
 
 }
@@ -0,0 +1,32 @@
+package com.saankaa.rapidxend.config.reactive;
+
+import com.saankaa.rapidxend.controller.ReactiveTransferHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.reactive.TomcatHttpHandlerAdapter;
+
+/**
+ * Non-blocking endpoints for sending and receiving data blocks.
+ * They are served by a servlet which uses servlet non-blocking IO, next to the spring MVC one.
+ * Tomcat threads are only used when there is data to read or when client can receive data. So a slow client doesn't
+ * hold a thread during the whole request. Blocking endpoints of {@link com.saankaa.rapidxend.controller.TransferController}
+ * are still available.
+ * Requests go through the same security filters as other endpoints.
+ */
+@Configuration
+public class ReactiveTransferConfig {
+
+    public static final String REACTIVE_TRANSFER_PATH = "/stream/transfers";
+
+    @Bean
+    public ServletRegistrationBean<TomcatHttpHandlerAdapter> reactiveTransferServlet(@Autowired ReactiveTransferHandler reactiveTransferHandler) {
+        ServletRegistrationBean<TomcatHttpHandlerAdapter> registration = new ServletRegistrationBean<>(
+                new TomcatHttpHandlerAdapter(reactiveTransferHandler), REACTIVE_TRANSFER_PATH + "/*");
+        registration.setName("reactiveTransfer");
+        registration.setAsyncSupported(true); // Required by non-blocking IO
+        registration.setLoadOnStartup(1);
+        return registration;
+    }
+}
@@ -3,6 +3,9 @@ package com.saankaa.rapidxend.config.redis;
 import com.saankaa.rapidxend.config.AppEnvVariable;
 import com.saankaa.rapidxend.model.Notification;
 import com.saankaa.rapidxend.service.notification.INotificationService;
+import com.saankaa.rapidxend.service.notification.NotificationBinarySerializer;
+import com.saankaa.rapidxend.service.websocket.IPresenceService;
+import com.saankaa.rapidxend.service.websocket.IWebsocketSessionService;
 import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -10,10 +13,11 @@ import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 @Configuration
@@ -33,15 +37,16 @@ public class RedisConfiguration {
 
     @Bean
     RedisMessageListenerContainer container(RedisConnectionFactory connectionFactory,
-                                            MessageListenerAdapter listenerAdapter) {
+                                            MessageListenerAdapter listenerAdapter,
+                                            IPresenceService presenceService,
+                                            IWebsocketSessionService websocketSessionService) {
 
-        // Set channel to listen
-        String channel = System.getenv(AppEnvVariable.REDIS_CHANNEL) != null ? System.getenv(AppEnvVariable.REDIS_CHANNEL)
-                :(System.getProperty(AppEnvVariable.REDIS_CHANNEL) != null ? System.getenv(AppEnvVariable.REDIS_CHANNEL):"notification");
+        // Listen channel of current instance. Notifications are published only to instances holding receiver sessions
+        String channel = presenceService.getChannel(websocketSessionService.getInstanceId());
 
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
-        container.addMessageListener(listenerAdapter, new PatternTopic(channel));
+        container.addMessageListener(listenerAdapter, new ChannelTopic(channel));
 
         return container;
     }
@@ -50,18 +55,30 @@ public class RedisConfiguration {
     MessageListenerAdapter listenerAdapter(INotificationService receiver) {
 
         // Set method will be called when incoming redis message
-        return new MessageListenerAdapter(receiver, "onMessage");
+        MessageListenerAdapter listenerAdapter = new MessageListenerAdapter(receiver, "onMessage");
+        // Binary serializer reads both encodings, whatever other instances write
+        listenerAdapter.setSerializer(new NotificationBinarySerializer());
+        return listenerAdapter;
 
     }
 
     @Bean
-    RedisTemplate<String, Notification> template(RedisConnectionFactory connectionFactory) {
+    RedisSerializer<Object> notificationSerializer() {
+        // Only encoding of published notifications is configured. Instances read both, so they can switch one by one
+        if ("binary".equalsIgnoreCase(AppEnvVariable.getValue(AppEnvVariable.REDIS_SERIALIZER, "json"))) {
+            return new NotificationBinarySerializer();
+        }
+        return new GenericJackson2JsonRedisSerializer();
+    }
+
+    @Bean
+    RedisTemplate<String, Notification> template(RedisConnectionFactory connectionFactory, RedisSerializer<Object> notificationSerializer) {
 
         // Set message serialization
         RedisTemplate<String, Notification> redisTemplate = new RedisTemplate<>();
         redisTemplate.setConnectionFactory(connectionFactory);
         redisTemplate.setKeySerializer(new StringRedisSerializer());
-        redisTemplate.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+        redisTemplate.setValueSerializer(notificationSerializer);
 
         return redisTemplate;
 
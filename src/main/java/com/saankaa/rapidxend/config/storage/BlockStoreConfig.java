@@ -0,0 +1,73 @@
+package com.saankaa.rapidxend.config.storage;
+
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.saankaa.rapidxend.config.AppEnvVariable;
+import com.saankaa.rapidxend.service.storage.BlockCache;
+import com.saankaa.rapidxend.service.storage.CachingBlockStore;
+import com.saankaa.rapidxend.service.storage.FileSystemBlockStore;
+import com.saankaa.rapidxend.service.storage.GridFsBlockStore;
+import com.saankaa.rapidxend.service.storage.IBlockStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+
+@Configuration
+public class BlockStoreConfig {
+
+    private static final String DATA_BLOCK_BUCKET = "dataBlockContent"; // GridFS bucket which contains data blocks content
+    private static final String DEFAULT_CACHE_SIZE = "134217728"; // 128 MiB
+    private static final String BLOCK_CACHE_MBEAN_NAME = "com.saankaa.rapidxend:type=BlockCache";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(BlockStoreConfig.class);
+
+    @Bean
+    public IBlockStore blockStore(MongoDatabaseFactory mongoDatabaseFactory) throws IOException {
+
+        // Select where data blocks content is saved. Metadata always stay in mongo
+        String type = AppEnvVariable.getValue(AppEnvVariable.BLOCK_STORE_TYPE, "gridfs");
+        LOGGER.info("Block store type: {}", type);
+
+        switch (type.toLowerCase()) {
+            case "gridfs":
+                IBlockStore blockStore = new GridFsBlockStore(GridFSBuckets.create(mongoDatabaseFactory.getMongoDatabase(), DATA_BLOCK_BUCKET));
+                // Data blocks read by many receivers are read once from mongo
+                long cacheSize = Long.parseLong(AppEnvVariable.getValue(AppEnvVariable.BLOCK_STORE_CACHE_SIZE, DEFAULT_CACHE_SIZE));
+                if (cacheSize <= 0) return blockStore;
+                LOGGER.info("Block cache size: {} bytes", cacheSize);
+                return new CachingBlockStore(blockStore, this.registerMetrics(new BlockCache(cacheSize)));
+            case "filesystem":
+                // Files are cached by operating system
+                return new FileSystemBlockStore(Paths.get(AppEnvVariable.getValue(AppEnvVariable.BLOCK_STORE_DATA_DIR, "data/blocks")));
+            default:
+                throw new IllegalArgumentException("Invalid block store type " + type);
+        }
+    }
+
+    /**
+     * Expose block cache metrics with JMX
+     *
+     * @param blockCache Block cache
+     * @return Block cache
+     */
+    private BlockCache registerMetrics(BlockCache blockCache) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(BLOCK_CACHE_MBEAN_NAME);
+            // Cache of a previous application context in the same JVM (tests) is replaced
+            if (mBeanServer.isRegistered(objectName)) mBeanServer.unregisterMBean(objectName);
+            mBeanServer.registerMBean(blockCache, objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Unable to expose block cache metrics", e);
+        }
+        return blockCache;
+    }
+}
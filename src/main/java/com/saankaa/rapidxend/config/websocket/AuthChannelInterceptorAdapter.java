@@ -2,8 +2,12 @@ package com.saankaa.rapidxend.config.websocket;
 
 import com.saankaa.rapidxend.config.security.IJwtUtils;
 import com.saankaa.rapidxend.service.Authentication.InvalidCredentials;
+import com.saankaa.rapidxend.model.WebsocketSession;
+import com.saankaa.rapidxend.service.websocket.IPresenceService;
 import com.saankaa.rapidxend.service.websocket.IWebsocketSessionService;
 import lombok.SneakyThrows;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.messaging.Message;
@@ -17,12 +21,17 @@ import org.springframework.stereotype.Component;
 @Component
 public class AuthChannelInterceptorAdapter implements ChannelInterceptor {
 
+    private final Logger LOGGER = LoggerFactory.getLogger(AuthChannelInterceptorAdapter.class);
+
     private final IJwtUtils jwtUtils;
     private final IWebsocketSessionService websocketSessionService;
+    private final IPresenceService presenceService;
 
-    public AuthChannelInterceptorAdapter(@Autowired IJwtUtils jwtUtils, @Autowired IWebsocketSessionService websocketSessionService) {
+    public AuthChannelInterceptorAdapter(@Autowired IJwtUtils jwtUtils, @Autowired IWebsocketSessionService websocketSessionService,
+                                         @Autowired IPresenceService presenceService) {
         this.jwtUtils = jwtUtils;
         this.websocketSessionService = websocketSessionService;
+        this.presenceService = presenceService;
     }
 
     @SneakyThrows
@@ -44,17 +53,33 @@ public class AuthChannelInterceptorAdapter implements ChannelInterceptor {
             StompPrincipal user = new StompPrincipal(jwtUtils.getUserId(jwt));
             accessor.setUser(user);
 
-            // Save to connected device id list
-            websocketSessionService.addConnectedDevice(user.getName());
-        }
-
-        if (StompCommand.DISCONNECT == accessor.getCommand()) {
-            // Get device id
-            String deviceId = accessor.getUser().getName();
-            // Remove to connected device id list
-            websocketSessionService.removeConnectedDevice(deviceId);
+            // Save session of connected device, other instances send its notifications to current one
+            websocketSessionService.addSession(user.getName(), accessor.getSessionId());
+            this.updatePresence(user.getName(), true);
+        } else if (StompCommand.DISCONNECT == accessor.getCommand()) {
+            // Sent by device or when connection is lost. Device stays connected with its other sessions
+            WebsocketSession session = websocketSessionService.removeSession(accessor.getSessionId());
+            if ((session != null) && !websocketSessionService.isConnected(session.getDeviceId())) {
+                this.updatePresence(session.getDeviceId(), false);
+            }
+        } else {
+            // Any frame, heartbeats included, shows session is alive
+            websocketSessionService.heartbeat(accessor.getSessionId());
         }
 
         return message;
     }
+
+    private void updatePresence(String deviceId, boolean connected) {
+        try {
+            if (connected) {
+                presenceService.register(deviceId);
+            } else {
+                presenceService.unregister(deviceId);
+            }
+        } catch (Exception e) {
+            // Presence of connected devices is refreshed periodically, others expire
+            LOGGER.error("Unable to update presence of device {}", deviceId, e);
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.saankaa.rapidxend.config.websocket;
 
+import com.saankaa.rapidxend.service.push.DataBlockPushService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
@@ -9,12 +10,15 @@ import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 @Configuration
 @EnableWebSocketMessageBroker
 @Order(Ordered.HIGHEST_PRECEDENCE + 99)
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private static final int SEND_TIME_LIMIT = 60 * 1000; // Sending a pushed data block to a slow device takes time
+
     AuthChannelInterceptorAdapter authChannelInterceptorAdapter;
 
     public WebSocketConfig(@Autowired AuthChannelInterceptorAdapter authChannelInterceptorAdapter) {
@@ -29,6 +33,16 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         config.enableSimpleBroker("/queue");
+        config.setApplicationDestinationPrefixes("/app"); // Messages sent by devices, see PushController
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Frames of pushed data blocks wait in session send buffer while they are sent. They are limited by credits,
+        // one more frame leaves room for STOMP headers and notifications
+        long sendBufferSize = (DataBlockPushService.getMaxCredit() + 1L) * DataBlockPushService.FRAME_SIZE;
+        registration.setSendBufferSizeLimit((int) Math.min(Integer.MAX_VALUE, sendBufferSize));
+        registration.setSendTimeLimit(SEND_TIME_LIMIT);
     }
 
     @Override
@@ -0,0 +1,42 @@
+package com.saankaa.rapidxend.controller;
+
+import com.saankaa.rapidxend.model.DataBlockPushRequest;
+import com.saankaa.rapidxend.service.push.IDataBlockPushService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Controller;
+
+import java.security.Principal;
+
+/**
+ * Websocket messages sent by receivers for data block push.
+ * A receiver sends a {@link DataBlockPushRequest} to /app/push, then data blocks are pushed to its session
+ */
+@Controller
+public class PushController {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(PushController.class);
+
+    private final IDataBlockPushService dataBlockPushService;
+
+    public PushController(@Autowired IDataBlockPushService dataBlockPushService) {
+        this.dataBlockPushService = dataBlockPushService;
+    }
+
+    @MessageMapping("/push")
+    public void grantCredit(@Payload DataBlockPushRequest request, Principal principal, SimpMessageHeaderAccessor headerAccessor) {
+        if (principal == null) {
+            LOGGER.error("Push request from a session without device");
+            return;
+        }
+        try {
+            dataBlockPushService.grantCredit(headerAccessor.getSessionId(), principal.getName(), request);
+        } catch (IllegalArgumentException iae) {
+            LOGGER.error("Invalid push request: {}", iae.getMessage());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.saankaa.rapidxend.controller;
+
+import com.saankaa.rapidxend.model.DataBlock;
+import com.saankaa.rapidxend.service.device.Exception.DeviceNotFoundException;
+import com.saankaa.rapidxend.service.transfer.compression.BlockCompression;
+import com.saankaa.rapidxend.service.transfer.exception.FileCorruptedException;
+import com.saankaa.rapidxend.service.transfer.exception.FileTooLargeException;
+import com.saankaa.rapidxend.service.transfer.exception.InvalidDataBlockException;
+import com.saankaa.rapidxend.service.transfer.exception.TransferNotFoundException;
+import com.saankaa.rapidxend.service.transfer.exception.UploadQueueFullException;
+import com.saankaa.rapidxend.service.transfer.pipeline.SpooledDataBlock;
+import com.saankaa.rapidxend.service.transfer.pipeline.UploadPipeline;
+import com.saankaa.rapidxend.service.transfer.reactive.IReactiveTransferService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Non-blocking endpoints for sending and receiving data blocks, see {@link com.saankaa.rapidxend.config.reactive.ReactiveTransferConfig}.
+ * They are the same as {@link TransferController} endpoints, but a request doesn't hold a thread while client
+ * sends or receives content. Other transfer endpoints are only provided by {@link TransferController}
+ */
+@Component
+public class ReactiveTransferHandler implements HttpHandler {
+
+    private static final PathPattern SEND_PATTERN = PathPatternParser.defaultInstance.parse("/{transferId}/send");
+    private static final PathPattern RECEIVE_PATTERN = PathPatternParser.defaultInstance.parse("/{transferId}/receive/{dataBlockNumber}");
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ReactiveTransferHandler.class);
+
+    private final IReactiveTransferService reactiveTransferService;
+    private final UploadPipeline uploadPipeline;
+
+    public ReactiveTransferHandler(@Autowired IReactiveTransferService reactiveTransferService, @Autowired UploadPipeline uploadPipeline) {
+        this.reactiveTransferService = reactiveTransferService;
+        this.uploadPipeline = uploadPipeline;
+    }
+
+    @Override
+    public Mono<Void> handle(ServerHttpRequest request, ServerHttpResponse response) {
+        PathContainer path = request.getPath().pathWithinApplication();
+
+        PathPattern.PathMatchInfo sendMatch = SEND_PATTERN.matchAndExtract(path);
+        PathPattern.PathMatchInfo receiveMatch = RECEIVE_PATTERN.matchAndExtract(path);
+        if ((sendMatch == null) && (receiveMatch == null)) {
+            response.setStatusCode(HttpStatus.NOT_FOUND);
+            return response.setComplete();
+        }
+        if (request.getMethod() != HttpMethod.POST) {
+            response.setStatusCode(HttpStatus.METHOD_NOT_ALLOWED);
+            response.getHeaders().setAllow(Set.of(HttpMethod.POST));
+            return response.setComplete();
+        }
+
+        if (sendMatch != null) {
+            return this.sendData(sendMatch.getUriVariables().get("transferId"), request, response);
+        }
+        return this.receiveData(receiveMatch.getUriVariables().get("transferId"), receiveMatch.getUriVariables().get("dataBlockNumber"), request, response);
+    }
+
+    /**
+     * Save data block sent in request body. Response body is data block number
+     */
+    private Mono<Void> sendData(String transferId, ServerHttpRequest request, ServerHttpResponse response) {
+        Integer dataBlockNumber;
+        try {
+            String value = request.getQueryParams().getFirst("dataBlockNumber");
+            dataBlockNumber = (value != null) ? Integer.valueOf(value) : null;
+        } catch (NumberFormatException nfe) {
+            return this.errorResponse(response, new IllegalArgumentException("Invalid data block number"));
+        }
+        String crc32c = request.getHeaders().getFirst(TransferController.CRC32C_HEADER);
+        String deviceId = "deviceId"; // TODO set device Id
+
+        // Data block is spooled when upload is pipelined, it's saved later
+        Mono<Integer> result;
+        if (uploadPipeline.isEnabled()) {
+            response.setStatusCode(HttpStatus.ACCEPTED);
+            result = reactiveTransferService.submitData(transferId, deviceId, dataBlockNumber, crc32c, request.getBody())
+                    .map(SpooledDataBlock::getDataBlockNumber);
+        } else {
+            response.setStatusCode(HttpStatus.OK);
+            result = reactiveTransferService.sendData(transferId, deviceId, dataBlockNumber, crc32c, request.getBody());
+        }
+
+        return result.flatMap(number -> {
+            byte[] body = String.valueOf(number).getBytes(StandardCharsets.UTF_8);
+            response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            response.getHeaders().setContentLength(body.length);
+            return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+        }).onErrorResume(e -> this.errorResponse(response, e));
+    }
+
+    /**
+     * Send data block content in response body.
+     * Compressed content is sent as stored when receiver accepts its encoding, otherwise it's decompressed
+     */
+    private Mono<Void> receiveData(String transferId, String dataBlockNumber, ServerHttpRequest request, ServerHttpResponse response) {
+        int number;
+        try {
+            number = Integer.parseInt(dataBlockNumber);
+        } catch (NumberFormatException nfe) {
+            return this.errorResponse(response, new IllegalArgumentException("Invalid data block number"));
+        }
+        String acceptEncoding = request.getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING);
+
+        return reactiveTransferService.getDataBlock(transferId, "deviceId", number) // TODO set device Id
+                .flatMap(dataBlock -> this.writeDataBlock(dataBlock, acceptEncoding, response))
+                .onErrorResume(e -> !response.isCommitted(), e -> this.errorResponse(response, e));
+    }
+
+    private Mono<Void> writeDataBlock(DataBlock dataBlock, String acceptEncoding, ServerHttpResponse response) {
+        HttpHeaders headers = response.getHeaders();
+        response.setStatusCode(HttpStatus.OK);
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        if (dataBlock.getCrc32c() != null) {
+            headers.set(TransferController.CRC32C_HEADER, dataBlock.getCrc32c()); // So receiver can verify data block
+        }
+
+        boolean decode = false;
+        long contentLength = dataBlock.getSize();
+        if (dataBlock.getEncoding() != null) {
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            decode = !BlockCompression.isAccepted(acceptEncoding, dataBlock.getEncoding());
+            if (!decode) {
+                headers.set(HttpHeaders.CONTENT_ENCODING, dataBlock.getEncoding());
+                if (dataBlock.getStoredSize() != null) contentLength = dataBlock.getStoredSize();
+            }
+        }
+        headers.setContentLength(contentLength);
+
+        return response.writeWith(reactiveTransferService.readData(dataBlock, decode));
+    }
+
+    /**
+     * Complete response with status of an error. Status is the same as {@link TransferController}
+     *
+     * @param response Response, not committed yet
+     * @param e        Error
+     * @return Completion
+     */
+    private Mono<Void> errorResponse(ServerHttpResponse response, Throwable e) {
+        HttpStatus status;
+        if ((e instanceof IllegalArgumentException) || (e instanceof FileCorruptedException) || (e instanceof InvalidDataBlockException)) {
+            status = HttpStatus.BAD_REQUEST;
+        } else if ((e instanceof DeviceNotFoundException) || (e instanceof TransferNotFoundException)) {
+            status = HttpStatus.NOT_FOUND;
+        } else if (e instanceof FileTooLargeException) {
+            status = HttpStatus.PAYLOAD_TOO_LARGE;
+        } else if (e instanceof UploadQueueFullException) {
+            // Sender must wait before sending next data blocks
+            status = HttpStatus.SERVICE_UNAVAILABLE;
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+        } else {
+            // TODO sent email to admin
+            LOGGER.error("Unable to handle data block request", e);
+            status = HttpStatus.INTERNAL_SERVER_ERROR;
+        }
+
+        response.setStatusCode(status);
+        response.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+        response.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+        String message = ((status == HttpStatus.INTERNAL_SERVER_ERROR) || (e.getMessage() == null)) ? status.getReasonPhrase() : e.getMessage();
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        response.getHeaders().setContentType(MediaType.TEXT_PLAIN);
+        response.getHeaders().setContentLength(body.length);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+}
@@ -2,33 +2,77 @@ package com.saankaa.rapidxend.controller;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.saankaa.rapidxend.model.DataBlock;
+import com.saankaa.rapidxend.model.DataBlockRange;
 import com.saankaa.rapidxend.model.File;
+import com.saankaa.rapidxend.model.FileContent;
+import com.saankaa.rapidxend.model.FileManifest;
 import com.saankaa.rapidxend.model.Transfer;
 import com.saankaa.rapidxend.service.device.Exception.DeviceNotFoundException;
+import com.saankaa.rapidxend.service.storage.IBlockStore;
 import com.saankaa.rapidxend.service.transfer.TransferService;
+import com.saankaa.rapidxend.service.transfer.compression.BlockCompression;
 import com.saankaa.rapidxend.service.transfer.exception.FileCorruptedException;
 import com.saankaa.rapidxend.service.transfer.exception.FileTooLargeException;
 import com.saankaa.rapidxend.service.transfer.exception.InvalidDataBlockException;
 import com.saankaa.rapidxend.service.transfer.exception.TransferNotFoundException;
+import com.saankaa.rapidxend.service.transfer.exception.UploadQueueFullException;
+import com.saankaa.rapidxend.service.transfer.pipeline.SpooledDataBlock;
+import com.saankaa.rapidxend.service.transfer.pipeline.UploadPipeline;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/transfers")
 public class TransferController {
 
+    // Tomcat request attributes for sending a file with sendfile system call
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    // Data block checksum (hex). Sent by sender with data block and to receivers with data block content
+    static final String CRC32C_HEADER = "X-Checksum-CRC32C";
+
+    // Batch of data blocks. Each data block is sent as a header followed by its content:
+    // number (int32), flags (byte), content length (int64), CRC32C (int32). Integers are big-endian
+    private static final int BATCH_HEADER_SIZE = 17;
+    private static final byte BATCH_FLAG_DEFLATE = 0x01; // Content is compressed with deflate
+    private static final byte BATCH_FLAG_CRC32C = 0x02; // CRC32C of content (before compression) is set
+    private static final String DATA_BLOCK_COUNT_HEADER = "X-Data-Block-Count";
+
     private final TransferService transferService;
+    private final IBlockStore blockStore;
+    private final UploadPipeline uploadPipeline;
 
-    public TransferController(@Autowired TransferService transferService) {
+    public TransferController(@Autowired TransferService transferService, @Autowired IBlockStore blockStore,
+                              @Autowired UploadPipeline uploadPipeline) {
         this.transferService = transferService;
+        this.blockStore = blockStore;
+        this.uploadPipeline = uploadPipeline;
     }
 
 
@@ -82,6 +126,7 @@ public class TransferController {
 
             Transfer transfer = new Transfer();
             transfer.setFile(file);
+            transfer.setRelay(Boolean.TRUE.equals(body.get("relay")));
 
             // TODO set sender Id
             return transferService.create("senderId", transfer, receiverIds);
@@ -115,21 +160,45 @@ public class TransferController {
     }
 
     @PostMapping("/{transferId}/send")
-    @ResponseStatus(HttpStatus.OK)
-    public int sendData(@PathVariable("transferId") String transferId, @RequestParam("file") MultipartFile data) {
+    public ResponseEntity<Integer> sendData(@PathVariable("transferId") String transferId, @RequestParam("file") MultipartFile data,
+                        @RequestParam(value = "dataBlockNumber", required = false) Integer dataBlockNumber,
+                        @RequestHeader(value = CRC32C_HEADER, required = false) String crc32c) {
+
+        try (InputStream inputStream = data.getInputStream()) {
+            return this.send(transferId, dataBlockNumber, crc32c, inputStream);
+        } catch (IllegalArgumentException | FileCorruptedException | InvalidDataBlockException iae) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
+        } catch (DeviceNotFoundException | TransferNotFoundException tne) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, tne.getMessage());
+        } catch (FileTooLargeException idb) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, idb.getMessage());
+        } catch (UploadQueueFullException qfe) {
+            // Sender must wait before sending next data blocks
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        } catch (Exception e) {
+            // TODO sent email to admin
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+
+    }
+
+    @PostMapping(value = "/{transferId}/send", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Integer> sendRawData(@PathVariable("transferId") String transferId, InputStream data,
+                           @RequestParam(value = "dataBlockNumber", required = false) Integer dataBlockNumber,
+                           @RequestHeader(value = CRC32C_HEADER, required = false) String crc32c) {
 
         try {
-            return transferService.sendData(
-                    transferId,
-                    "deviceId", // TODO set device Id
-                    data.getBytes()
-            );
-        } catch (IllegalArgumentException | FileCorruptedException iae) {
+            // Request body is streamed to storage. It's never fully loaded in memory
+            return this.send(transferId, dataBlockNumber, crc32c, data);
+        } catch (IllegalArgumentException | FileCorruptedException | InvalidDataBlockException iae) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
         } catch (DeviceNotFoundException | TransferNotFoundException tne) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, tne.getMessage());
         } catch (FileTooLargeException idb) {
             throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, idb.getMessage());
+        } catch (UploadQueueFullException qfe) {
+            // Sender must wait before sending next data blocks
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
         } catch (Exception e) {
             // TODO sent email to admin
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
@@ -137,16 +206,56 @@ public class TransferController {
 
     }
 
-    @PostMapping("/{transferId}/receive/{dataBlockNumber}")
+    /**
+     * Save data block now, or spool it when upload is pipelined. Data block number is then required
+     *
+     * @return Data block number. Status is 202 when data block is spooled, it's saved later
+     */
+    private ResponseEntity<Integer> send(String transferId, Integer dataBlockNumber, String crc32c, InputStream data) throws Exception {
+        String deviceId = "deviceId"; // TODO set device Id
+        if (uploadPipeline.isEnabled()) {
+            SpooledDataBlock spooledDataBlock = uploadPipeline.submit(transferId, deviceId, dataBlockNumber, crc32c, data);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(spooledDataBlock.getDataBlockNumber());
+        }
+        return ResponseEntity.ok(transferService.sendData(transferId, deviceId, dataBlockNumber, crc32c, data));
+    }
+
+    @PostMapping("/{transferId}/dataBlockSize")
     @ResponseStatus(HttpStatus.OK)
-    public byte[] receiveData(@PathVariable("transferId") String transferId, @PathVariable("dataBlockNumber") int dataBlockNumber) {
+    public File updateDataBlockSize(@PathVariable("transferId") String transferId,
+                                    @RequestBody(required = false) Map<String, Double> body) {
+
+        try {
+            // Throughput in bytes per second and RTT in milliseconds, measured by sender. Both are optional
+            Map<String, Double> linkQuality = body != null ? body : Map.of();
+            return transferService.updateDataBlockSize(
+                    transferId,
+                    "deviceId", // TODO set device Id
+                    linkQuality.get("throughput"),
+                    linkQuality.get("rtt")
+            );
+        } catch (IllegalArgumentException iae) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
+        } catch (DeviceNotFoundException | TransferNotFoundException tne) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, tne.getMessage());
+        } catch (Exception e) {
+            // TODO sent email to admin
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "/{transferId}/receive/{dataBlockNumber}", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> receiveData(@PathVariable("transferId") String transferId, @PathVariable("dataBlockNumber") int dataBlockNumber,
+                                                             @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                                             HttpServletRequest request) {
 
         try {
-            return transferService.receiveData(
+            DataBlock dataBlock = transferService.getDataBlock(
                     transferId,
                     "deviceId",
                     dataBlockNumber
             );
+            return this.dataBlockResponse(dataBlock, acceptEncoding, request);
         } catch (IllegalArgumentException | InvalidDataBlockException iae) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
         } catch (DeviceNotFoundException dne) {
@@ -159,4 +268,307 @@ public class TransferController {
         }
     }
 
+    @PostMapping(value = "/{transferId}/relay/{dataBlockNumber}", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> relayData(@PathVariable("transferId") String transferId, @PathVariable("dataBlockNumber") int dataBlockNumber) {
+
+        InputStream inputStream;
+        try {
+            inputStream = transferService.relayData(transferId, "deviceId", dataBlockNumber); // TODO set device Id
+        } catch (IllegalArgumentException iae) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
+        } catch (DeviceNotFoundException | TransferNotFoundException tne) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, tne.getMessage());
+        } catch (Exception e) {
+            // TODO sent email to admin
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+        if (inputStream == null) {
+            // Receiver reads data block from /receive when it is available
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Data block is not relayed");
+        }
+
+        // Content length is not known before the end of upload. If relay fails, response is not terminated,
+        // so receiver can't take an incomplete data block for a valid one
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(inputStream::transferTo);
+    }
+
+    @PostMapping(value = "/{transferId}/receive", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> receiveDataBlocks(@PathVariable("transferId") String transferId,
+                                                                   @RequestBody List<DataBlockRange> ranges,
+                                                                   @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+
+        List<DataBlock> dataBlocks;
+        try {
+            dataBlocks = transferService.getDataBlocks(transferId, "deviceId", ranges); // TODO set device Id
+        } catch (IllegalArgumentException iae) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
+        } catch (DeviceNotFoundException | TransferNotFoundException tne) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, tne.getMessage());
+        } catch (Exception e) {
+            // TODO sent email to admin
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+
+        // Compressed data blocks are sent as stored if receiver accepts deflate
+        boolean deflateAccepted = BlockCompression.isAccepted(acceptEncoding, BlockCompression.DEFLATE);
+        long length = 0;
+        for (DataBlock dataBlock : dataBlocks) {
+            length += BATCH_HEADER_SIZE + this.getBatchContentLength(dataBlock, deflateAccepted);
+        }
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(length)
+                .header(DATA_BLOCK_COUNT_HEADER, String.valueOf(dataBlocks.size()))
+                .body(outputStream -> this.writeDataBlocks(dataBlocks, deflateAccepted, outputStream));
+    }
+
+    @PostMapping("/{transferId}/ack")
+    @ResponseStatus(HttpStatus.OK)
+    public List<DataBlockRange> acknowledgeData(@PathVariable("transferId") String transferId,
+                                                @RequestBody List<DataBlockRange> ranges) {
+
+        try {
+            return transferService.acknowledgeData(transferId, "deviceId", ranges); // TODO set device Id
+        } catch (IllegalArgumentException | InvalidDataBlockException iae) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
+        } catch (DeviceNotFoundException | TransferNotFoundException tne) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, tne.getMessage());
+        } catch (Exception e) {
+            // TODO sent email to admin
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+
+    @GetMapping("/{transferId}/manifest")
+    public FileManifest getManifest(@PathVariable("transferId") String transferId) {
+
+        try {
+            return transferService.getManifest(transferId, "deviceId"); // TODO set device Id
+        } catch (IllegalArgumentException iae) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
+        } catch (DeviceNotFoundException | TransferNotFoundException tne) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, tne.getMessage());
+        } catch (Exception e) {
+            // TODO sent email to admin
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+
+    @GetMapping(value = "/{transferId}/content", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> getContent(@PathVariable("transferId") String transferId,
+                                                            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range) {
+
+        FileContent content;
+        try {
+            content = transferService.getContent(transferId, "deviceId"); // TODO set device Id
+        } catch (IllegalArgumentException iae) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
+        } catch (DeviceNotFoundException | TransferNotFoundException tne) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, tne.getMessage());
+        } catch (Exception e) {
+            // TODO sent email to admin
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+
+        // Whole file length is sent, even when only its beginning is available
+        List<DataBlock> dataBlocks = content.getDataBlocks();
+        long length = content.getSize();
+        long availableLength = content.getAvailableSize();
+        List<HttpRange> ranges = List.of();
+        try {
+            if (range != null) ranges = HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException iae) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, iae.getMessage());
+        }
+
+        // Multiple ranges are not supported, whole content is sent
+        if (ranges.size() != 1) {
+            if (availableLength < length) {
+                // A client would take a truncated response for the whole file
+                return this.unavailableContent(content);
+            }
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .contentLength(length)
+                    .body(outputStream -> this.writeContent(dataBlocks, 0, length, outputStream));
+        }
+
+        long start, end;
+        try {
+            start = ranges.get(0).getRangeStart(length);
+            end = ranges.get(0).getRangeEnd(length);
+        } catch (IllegalArgumentException iae) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                    .build();
+        }
+        if (end >= availableLength) {
+            // Range is in the file, but its data blocks are not received yet or have been deleted
+            return this.unavailableContent(content);
+        }
+
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(end - start + 1)
+                .body(outputStream -> this.writeContent(dataBlocks, start, end - start + 1, outputStream));
+    }
+
+    /**
+     * Response for bytes which are not available: not received yet, or deleted after all receivers acknowledged them
+     */
+    private ResponseEntity<StreamingResponseBody> unavailableContent(FileContent content) {
+        if (content.isDeleted()) {
+            throw new ResponseStatusException(HttpStatus.GONE, "Data blocks have been deleted after being acknowledged");
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+    }
+
+    /**
+     * Write a part of file content. Data blocks are read in order, only the bytes in the part are copied.
+     * Compressed data blocks are decompressed, positions are in file content as sent by sender
+     *
+     * @param dataBlocks   Data blocks sorted by number
+     * @param position     Position in file of first byte to write
+     * @param count        Number of bytes to write
+     * @param outputStream Response stream
+     */
+    private void writeContent(List<DataBlock> dataBlocks, long position, long count, OutputStream outputStream) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        long blockStart = 0, end = position + count;
+        for (DataBlock dataBlock : dataBlocks) {
+            long blockEnd = blockStart + dataBlock.getSize();
+            if (blockEnd > position && blockStart < end) {
+                long from = Math.max(position, blockStart);
+                long to = Math.min(end, blockEnd);
+                this.transferTo(dataBlock, from - blockStart, to - from, channel);
+            }
+            if (blockEnd >= end) break;
+            blockStart = blockEnd;
+        }
+    }
+
+    /**
+     * Copy a part of data block content, as sent by sender, to a channel
+     *
+     * @param dataBlock Data block
+     * @param position  Position of first byte to copy
+     * @param count     Number of bytes to copy
+     * @param target    Channel where content is written
+     */
+    private void transferTo(DataBlock dataBlock, long position, long count, WritableByteChannel target) throws IOException {
+        if (dataBlock.getEncoding() == null) {
+            blockStore.transferTo(dataBlock.getStorageKey(), position, count, target);
+            return;
+        }
+        try (InputStream inputStream = BlockCompression.decode(blockStore.stream(dataBlock.getStorageKey()), dataBlock.getEncoding())) {
+            if (!BlockCompression.skip(inputStream, position)) return;
+            byte[] buffer = new byte[64 * 1024];
+            long copied = 0;
+            int read;
+            while (copied < count && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, count - copied))) != -1) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    target.write(byteBuffer);
+                }
+                copied += read;
+            }
+        }
+    }
+
+    /**
+     * Length of data block content in a batch
+     *
+     * @param dataBlock       Data block
+     * @param deflateAccepted true if compressed content is sent as stored
+     * @return Content length
+     */
+    private long getBatchContentLength(DataBlock dataBlock, boolean deflateAccepted) {
+        if ((dataBlock.getEncoding() != null) && deflateAccepted && (dataBlock.getStoredSize() != null)) {
+            return dataBlock.getStoredSize();
+        }
+        return dataBlock.getSize();
+    }
+
+    /**
+     * Write data blocks back to back, each one after its header
+     *
+     * @param dataBlocks      Data blocks
+     * @param deflateAccepted true if compressed content is sent as stored
+     * @param outputStream    Response stream
+     */
+    private void writeDataBlocks(List<DataBlock> dataBlocks, boolean deflateAccepted, OutputStream outputStream) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_SIZE); // Big-endian
+        for (DataBlock dataBlock : dataBlocks) {
+            boolean sentAsStored = (dataBlock.getEncoding() != null) && deflateAccepted && (dataBlock.getStoredSize() != null);
+            long contentLength = this.getBatchContentLength(dataBlock, deflateAccepted);
+            byte flags = 0;
+            if (sentAsStored) flags |= BATCH_FLAG_DEFLATE;
+            if (dataBlock.getCrc32c() != null) flags |= BATCH_FLAG_CRC32C;
+
+            header.clear();
+            header.putInt(dataBlock.getNumber())
+                    .put(flags)
+                    .putLong(contentLength)
+                    .putInt(dataBlock.getCrc32c() != null ? Integer.parseUnsignedInt(dataBlock.getCrc32c(), 16) : 0)
+                    .flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+
+            if (sentAsStored) {
+                blockStore.transferTo(dataBlock.getStorageKey(), 0, contentLength, channel);
+            } else {
+                this.transferTo(dataBlock, 0, contentLength, channel);
+            }
+        }
+    }
+
+    /**
+     * Build response which contains data block content.
+     * Content is copied from block store to the response, it's never loaded in memory.
+     * Compressed content is sent as stored when receiver accepts its encoding, otherwise it's decompressed
+     *
+     * @param dataBlock      Data block to send
+     * @param acceptEncoding Accept-Encoding header of request
+     * @param request        Current request
+     * @return Response
+     */
+    private ResponseEntity<StreamingResponseBody> dataBlockResponse(DataBlock dataBlock, String acceptEncoding, HttpServletRequest request) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM);
+        if (dataBlock.getCrc32c() != null) {
+            response.header(CRC32C_HEADER, dataBlock.getCrc32c()); // So receiver can verify data block
+        }
+
+        if (dataBlock.getEncoding() != null) {
+            response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (!BlockCompression.isAccepted(acceptEncoding, dataBlock.getEncoding())) {
+                return response.contentLength(dataBlock.getSize())
+                        .body(outputStream -> this.transferTo(dataBlock, 0, dataBlock.getSize(), Channels.newChannel(outputStream)));
+            }
+            response.header(HttpHeaders.CONTENT_ENCODING, dataBlock.getEncoding());
+        }
+        long storedSize = dataBlock.getStoredSize() != null ? dataBlock.getStoredSize() : dataBlock.getSize();
+        response.contentLength(storedSize);
+
+        // When content is a local file, tomcat sends it with sendfile system call. So bytes don't go through java heap
+        Optional<Path> localPath = blockStore.getLocalPath(dataBlock.getStorageKey());
+        if (localPath.isPresent() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, localPath.get().toString());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, 0L);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, storedSize);
+            return response.build();
+        }
+
+        return response.body(outputStream ->
+                blockStore.transferTo(dataBlock.getStorageKey(), 0, storedSize, Channels.newChannel(outputStream)));
+    }
+
 }
@@ -0,0 +1,40 @@
+package com.saankaa.rapidxend.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.Date;
+
+/**
+ * Data block content stored once for all data blocks with the same bytes, whatever their transfer.
+ * Content is deleted from block store when no data block uses it.
+ */
+@Document
+@Data
+@NoArgsConstructor
+public class BlockContent {
+
+    @Id
+    private String id; // SHA-256 of content (hex)
+
+    @Field
+    private String storageKey; // Key of content in block store
+
+    @Field
+    private Long size; // In bytes, before compression
+
+    @Field
+    private String encoding; // Compression of content in block store. Null if not compressed
+
+    @Field
+    private Long storedSize; // Size of content in block store, in bytes
+
+    @Field
+    private Integer refCount = 1; // Data blocks using this content
+
+    @Field
+    private Date createdDate = new Date();
+}
@@ -3,12 +3,14 @@ package com.saankaa.rapidxend.model;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.util.Date;
 
 @Document
+@CompoundIndex(name = "file_number", def = "{'fileId': 1, 'number': 1}", unique = true)
 @Data
 @NoArgsConstructor
 public class DataBlock {
@@ -16,11 +18,29 @@ public class DataBlock {
     @Id
     private String id;
 
+    @Field
+    private String fileId;
+
     @Field
     private Integer number;
 
     @Field
-    private byte[] data;
+    private String storageKey; // Key of block content in block store
+
+    @Field
+    private Long size; // In bytes, as sent by sender
+
+    @Field
+    private String encoding; // Compression of content in block store (see BlockCompression). Null if not compressed
+
+    @Field
+    private Long storedSize; // Size of content in block store, in bytes
+
+    @Field
+    private String crc32c; // Checksum of content (hex)
+
+    @Field
+    private String contentId; // Id of shared content (see BlockContent). Null if content is only used by this data block
 
     @Field
     private Date createdDate = new Date();
@@ -0,0 +1,22 @@
+package com.saankaa.rapidxend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Sent by a receiver on its websocket session, so data blocks of a transfer are pushed to it.
+ * Credit is the number of frames the receiver can receive now. Data blocks are pushed in frames of 256 KiB, each frame
+ * uses one credit. Receiver sends a new request when it has processed frames
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DataBlockPushRequest {
+
+    private String transferId;
+
+    private Integer credit;
+
+    private String acceptEncoding; // Same as Accept-Encoding HTTP header, can be null
+}
@@ -0,0 +1,18 @@
+package com.saankaa.rapidxend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Data blocks which follow each other, from first to last (included)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DataBlockRange {
+
+    private Integer first;
+
+    private Integer last;
+}
@@ -1,10 +1,13 @@
 package com.saankaa.rapidxend.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
@@ -12,6 +15,7 @@ import java.util.Date;
 import java.util.List;
 
 @Document
+@CompoundIndex(name = "sender_checksum_size", def = "{'senderDeviceId': 1, 'MD5ChecksumHex': 1, 'size': 1}") // Files already received
 @Data
 public class File {
 
@@ -25,23 +29,64 @@ public class File {
     private String mimetype;
 
     @Field
-    private Double size;   // in MB
+    private Long size; // In bytes
 
     @Getter
     @Setter
     @Field
+    @Indexed
     private String MD5ChecksumHex;
 
+    @JsonIgnore
+    @Field
+    private String senderDeviceId; // Device which sent the file content
+
+    @JsonIgnore
+    @Field
+    private byte[] md5DigestState; // Running MD5 of data blocks received. See ResumableMD5
+
+    @JsonIgnore
+    @Field
+    private Integer md5DataBlockCount = 0; // Data blocks included in MD5 state, from the first one
+
+    @Field
+    private List<Long> receivedDataBlocks; // Bitmap of data blocks received, 64 data blocks per word
+
+    @Field
+    private Integer receivedDataBlockCount = 0;
+
+    @JsonIgnore
+    @Field
+    private List<FileManifest.DataBlockChecksum> dataBlockChecksums; // Checksums of received data blocks, by number. Kept when data blocks are deleted
+
     @Field
     private Integer lastDataBlockNumber = -1;
 
-    @DBRef
-    private List<DataBlock> dataBlocks;
+    @Field
+    private Long dataBlockSize = 5L * 1024 * 1024; // In bytes. Size of data blocks from dataBlockSizeStartNumber
 
     @Field
-    private Integer dataBlockSize = 5; // In Mio
+    private Integer dataBlockSizeStartNumber = 0; // Data blocks before this one are received with a previous data block size
+
+    @Field
+    private Long dataBlockSizeStartOffset = 0L; // Size in bytes of data blocks before dataBlockSizeStartNumber
+
+    @Field
+    private Double throughput; // Average bytes per second measured while receiving data blocks
 
     @Field
     private Date createdDate = new Date();
 
+    /**
+     * Number of data blocks. Data blocks before dataBlockSizeStartNumber are received,
+     * remaining bytes are split in data blocks of dataBlockSize. Last data block may be smaller
+     *
+     * @return Data block count
+     */
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public int getDataBlockCount() {
+        long remainingSize = size - dataBlockSizeStartOffset;
+        return dataBlockSizeStartNumber + (int) ((remainingSize + dataBlockSize - 1) / dataBlockSize);
+    }
+
 }
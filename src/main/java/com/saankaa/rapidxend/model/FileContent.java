@@ -0,0 +1,30 @@
+package com.saankaa.rapidxend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Content of a file available for a receiver.
+ * While transfer is in progress, data blocks only cover the beginning of the file.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileContent {
+
+    private Long size; // Size of whole file, in bytes
+
+    private List<DataBlock> dataBlocks; // Data blocks which follow each other from the first one, sorted by number
+
+    private boolean deleted; // Data block after them has been acknowledged by all receivers and deleted, so rest of file is gone
+
+    /**
+     * @return Number of bytes available from the beginning of the file
+     */
+    public long getAvailableSize() {
+        return dataBlocks.stream().mapToLong(DataBlock::getSize).sum();
+    }
+}
@@ -0,0 +1,42 @@
+package com.saankaa.rapidxend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Data blocks of a file with their checksum.
+ * Sender finds the data blocks to send again, receivers verify each data block when it's downloaded.
+ */
+@Data
+@NoArgsConstructor
+public class FileManifest {
+
+    private String transferId;
+
+    private String fileId;
+
+    private Long dataBlockSize; // In bytes
+
+    private Integer dataBlockCount;
+
+    private List<DataBlockChecksum> dataBlocks; // Data blocks received, sorted by number
+
+    private String merkleRoot; // Root of data block SHA-256 (see MerkleTree). Null until all data blocks are received
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DataBlockChecksum {
+
+        private Integer number;
+
+        private Long size; // In bytes
+
+        private String crc32c; // Detects corruption in transport only
+
+        private String sha256; // Leaf of Merkle tree
+    }
+}
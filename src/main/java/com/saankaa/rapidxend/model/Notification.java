@@ -3,6 +3,7 @@ package com.saankaa.rapidxend.model;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
 import java.util.Objects;
 
 @Data
@@ -13,9 +14,13 @@ public class Notification {
 
     private String receiverDeviceId;
 
+    private List<String> receiverDeviceIds; // Set instead of receiver id when notification is sent to several receivers
+
     private String transferId;
 
-    private Integer dataBlockNumber;
+    private Integer dataBlockNumber; // Last data block when there are several
+
+    private List<DataBlockRange> dataBlockRanges; // Set when notifications of several data blocks have been coalesced
 
     private int notificationType;
 
@@ -54,12 +59,13 @@ public class Notification {
             isEqual &= transferId.equals(n.transferId);
         }
 
-        return isEqual && (notificationType == n.notificationType);
+        return isEqual && Objects.equals(receiverDeviceIds, n.receiverDeviceIds) && Objects.equals(dataBlockRanges, n.dataBlockRanges)
+                && (notificationType == n.notificationType);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(senderDeviceId, receiverDeviceId, dataBlockNumber, transferId, notificationType);
+        return Objects.hash(senderDeviceId, receiverDeviceId, receiverDeviceIds, dataBlockNumber, dataBlockRanges, transferId, notificationType);
     }
 
     @Override
@@ -67,8 +73,10 @@ public class Notification {
         return "Notification{" +
                 "senderDeviceId='" + senderDeviceId + '\'' +
                 ", receiverDeviceId='" + receiverDeviceId + '\'' +
+                ", receiverDeviceIds=" + receiverDeviceIds +
                 ", transferId='" + transferId + '\'' +
                 ", dataBlockNumber=" + dataBlockNumber +
+                ", dataBlockRanges=" + dataBlockRanges +
                 ", notificationType=" + notificationType +
                 '}';
     }
@@ -1,11 +1,15 @@
 package com.saankaa.rapidxend.model;
 
+import java.util.List;
+
 public class NotificationBuilder {
 
     private String senderDeviceId;
     private String receiverDeviceId;
+    private List<String> receiverDeviceIds;
     private String transferId;
     private Integer dataBlockNumber;
+    private List<DataBlockRange> dataBlockRanges;
     private int notificationType;
 
     private Notification notification;
@@ -20,6 +24,11 @@ public class NotificationBuilder {
         return this;
     }
 
+    public NotificationBuilder receiverDeviceIds(List<String> receiverDeviceIds) {
+        this.receiverDeviceIds = receiverDeviceIds;
+        return this;
+    }
+
     public NotificationBuilder transferId(String transferId) {
         this.transferId = transferId;
         return this;
@@ -30,16 +39,40 @@ public class NotificationBuilder {
         return this;
     }
 
+    public NotificationBuilder dataBlockRanges(List<DataBlockRange> dataBlockRanges) {
+        this.dataBlockRanges = dataBlockRanges;
+        return this;
+    }
+
     public NotificationBuilder notificationType(int notificationType) {
         this.notificationType = notificationType;
         return this;
     }
 
+    /**
+     * Start from another notification
+     *
+     * @param notification Notification to copy
+     * @return Builder with all fields of notification
+     */
+    public static NotificationBuilder from(Notification notification) {
+        return new NotificationBuilder()
+                .senderDeviceId(notification.getSenderDeviceId())
+                .receiverDeviceId(notification.getReceiverDeviceId())
+                .receiverDeviceIds(notification.getReceiverDeviceIds())
+                .transferId(notification.getTransferId())
+                .dataBlockNumber(notification.getDataBlockNumber())
+                .dataBlockRanges(notification.getDataBlockRanges())
+                .notificationType(notification.getNotificationType());
+    }
+
     public Notification build() {
         Notification notification = new Notification();
         notification.setSenderDeviceId(this.senderDeviceId);
         notification.setReceiverDeviceId(receiverDeviceId);
+        notification.setReceiverDeviceIds(receiverDeviceIds);
         notification.setDataBlockNumber(dataBlockNumber);
+        notification.setDataBlockRanges(dataBlockRanges);
         notification.setTransferId(this.transferId);
         notification.setNotificationType(this.notificationType);
 
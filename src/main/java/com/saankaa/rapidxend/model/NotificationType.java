@@ -14,7 +14,8 @@ public enum NotificationType {
     TRANSFER_CANCELLED(22),
     TRANSFER_DATA_AVAILABLE(23),
     TRANSFER_FILE_CORRUPTED(24),
-    TRANSFER_FINISHED(25);
+    TRANSFER_FINISHED(25),
+    TRANSFER_DATA_RELAYED(26); // Data block can be read while sender uploads it
 
 
     @Getter
@@ -3,14 +3,17 @@ package com.saankaa.rapidxend.model;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 @Document
+@CompoundIndex(name = "state_lastActivityDate", def = "{'state': 1, 'lastActivityDate': 1}") // Find expired transfers
 public class Transfer {
 
     @Getter
@@ -36,6 +39,18 @@ public class Transfer {
     @Getter
     @Setter
     @Field
+    private Map<String, List<DataBlockRange>> acknowledgedDataBlocks; // Data blocks acknowledged by each receiver (receiver id as key)
+    @Getter
+    @Setter
+    @Field
     private Date createdDate = new Date();
+    @Getter
+    @Setter
+    @Field
+    private Date lastActivityDate = new Date(); // Last data block received or acknowledged. Transfers expire after a while without activity
+    @Getter
+    @Setter
+    @Field
+    private Boolean relay; // Receivers online read data blocks while sender uploads them
 
 }
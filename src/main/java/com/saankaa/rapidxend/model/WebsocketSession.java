@@ -0,0 +1,31 @@
+package com.saankaa.rapidxend.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Date;
+
+/**
+ * Websocket session of a connected device. A device can have several sessions (several tabs, reconnection before
+ * the end of previous session...)
+ */
+public class WebsocketSession {
+
+    @Getter
+    private final String sessionId;
+    @Getter
+    private final String deviceId;
+    @Getter
+    private final String instanceId; // Instance which holds the session
+    @Getter
+    private final Date connectedDate = new Date();
+    @Getter
+    @Setter
+    private volatile Date lastHeartbeatDate = connectedDate; // Last frame received from device, heartbeats included
+
+    public WebsocketSession(String sessionId, String deviceId, String instanceId) {
+        this.sessionId = sessionId;
+        this.deviceId = deviceId;
+        this.instanceId = instanceId;
+    }
+}
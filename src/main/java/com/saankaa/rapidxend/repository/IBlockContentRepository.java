@@ -0,0 +1,8 @@
+package com.saankaa.rapidxend.repository;
+
+import com.saankaa.rapidxend.model.BlockContent;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface IBlockContentRepository extends MongoRepository<BlockContent, String>, IBlockContentRepositoryCustom {
+
+}
@@ -0,0 +1,44 @@
+package com.saankaa.rapidxend.repository;
+
+import com.saankaa.rapidxend.model.BlockContent;
+
+/**
+ * Atomic updates of block content reference count
+ */
+public interface IBlockContentRepositoryCustom {
+
+    /**
+     * Add a reference to a content, if it's still used.
+     * A content without reference is being deleted, so it can't be used again
+     *
+     * @param id Content id
+     * @return Content updated or null if there is no content used with this id
+     */
+    BlockContent acquire(String id);
+
+    /**
+     * Remove a reference to a content
+     *
+     * @param id Content id
+     * @return Content updated or null if not found
+     */
+    BlockContent release(String id);
+
+    /**
+     * Take over a content without reference with a new stored content, so it's used again.
+     * It happens when a content has been released but not deleted, for instance when instance stopped in between
+     *
+     * @param content Content just stored, with one reference
+     * @return Content before update, whose stored content must be deleted, or null if there is no content without
+     * reference with this id
+     */
+    BlockContent reclaim(BlockContent content);
+
+    /**
+     * Delete content if no data block uses it
+     *
+     * @param id Content id
+     * @return true if content has been deleted
+     */
+    boolean deleteIfUnreferenced(String id);
+}
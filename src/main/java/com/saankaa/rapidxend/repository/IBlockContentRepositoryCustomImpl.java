@@ -0,0 +1,49 @@
+package com.saankaa.rapidxend.repository;
+
+import com.saankaa.rapidxend.model.BlockContent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+public class IBlockContentRepositoryCustomImpl implements IBlockContentRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public IBlockContentRepositoryCustomImpl(@Autowired MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public BlockContent acquire(String id) {
+        Query query = new Query(Criteria.where("_id").is(id).and("refCount").gt(0));
+        return mongoTemplate.findAndModify(query, new Update().inc("refCount", 1), FindAndModifyOptions.options().returnNew(true), BlockContent.class);
+    }
+
+    @Override
+    public BlockContent release(String id) {
+        Query query = new Query(Criteria.where("_id").is(id));
+        return mongoTemplate.findAndModify(query, new Update().inc("refCount", -1), FindAndModifyOptions.options().returnNew(true), BlockContent.class);
+    }
+
+    @Override
+    public BlockContent reclaim(BlockContent content) {
+        Query query = new Query(Criteria.where("_id").is(content.getId()).and("refCount").lte(0));
+        Update update = new Update()
+                .set("storageKey", content.getStorageKey())
+                .set("size", content.getSize())
+                .set("encoding", content.getEncoding())
+                .set("storedSize", content.getStoredSize())
+                .set("refCount", 1)
+                .set("createdDate", content.getCreatedDate());
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(false), BlockContent.class);
+    }
+
+    @Override
+    public boolean deleteIfUnreferenced(String id) {
+        Query query = new Query(Criteria.where("_id").is(id).and("refCount").lte(0));
+        return mongoTemplate.remove(query, BlockContent.class).getDeletedCount() > 0;
+    }
+}
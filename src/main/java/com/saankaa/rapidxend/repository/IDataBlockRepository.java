@@ -2,6 +2,23 @@ package com.saankaa.rapidxend.repository;
 
 import com.saankaa.rapidxend.model.DataBlock;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.util.List;
 
 public interface IDataBlockRepository extends MongoRepository<DataBlock, String> {
+
+    @Query(value = "{'fileId': ?0, 'number': ?1}", fields = "{'fileId': 1, 'number': 1, 'storageKey': 1, 'size': 1, 'crc32c': 1, 'contentId': 1, 'encoding': 1, 'storedSize': 1}")
+    DataBlock findByFileIdAndNumber(String fileId, Integer number);
+
+    List<DataBlock> findByFileIdOrderByNumberAsc(String fileId);
+
+    @Query(value = "{'fileId': ?0, 'number': {'$gte': ?1, '$lte': ?2}}", sort = "{'number': 1}",
+            fields = "{'fileId': 1, 'number': 1, 'storageKey': 1, 'size': 1, 'crc32c': 1, 'contentId': 1, 'encoding': 1, 'storedSize': 1}")
+    List<DataBlock> findByFileIdAndNumberRange(String fileId, Integer first, Integer last);
+
+    long deleteByFileIdAndNumber(String fileId, Integer number);
+
+    void deleteByFileId(String fileId);
+
 }
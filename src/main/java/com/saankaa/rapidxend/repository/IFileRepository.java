@@ -1,8 +1,15 @@
 package com.saankaa.rapidxend.repository;
 
 import com.saankaa.rapidxend.model.File;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
-public interface IFileRepository extends MongoRepository<File, String> {
+import java.util.List;
+
+public interface IFileRepository extends MongoRepository<File, String>, IFileRepositoryCustom {
+
+    @Query("{'senderDeviceId': ?0, 'MD5ChecksumHex': ?1, 'size': ?2}")
+    List<File> findBySenderAndChecksumAndSize(String senderDeviceId, String md5ChecksumHex, Long size, Pageable pageable);
 
 }
@@ -0,0 +1,62 @@
+package com.saankaa.rapidxend.repository;
+
+import com.saankaa.rapidxend.model.File;
+import com.saankaa.rapidxend.model.FileManifest;
+
+import java.util.List;
+
+/**
+ * Atomic updates of file data blocks bookkeeping.
+ * Each update only writes the fields changed, so data blocks of a file can be received in parallel.
+ */
+public interface IFileRepositoryCustom {
+
+    /**
+     * Set data block bit in received data blocks bitmap, if not already set
+     *
+     * @param fileId                   File id
+     * @param dataBlockNumber          Data block number
+     * @param dataBlockSizeStartNumber Number of first data block with current data block size, when data block was sent.
+     *                                 Data block is not added if data block size has changed since
+     * @param mimetype                 File mimetype. Not changed if null
+     * @param md5DigestState           MD5 state including this data block. Not changed if null, else MD5 must include
+     *                                 all data blocks before this one
+     * @param throughput               Average throughput. Not changed if null
+     * @param dataBlockChecksum        Checksums of data block, saved at its number in file checksums. Not saved if null
+     * @return File updated or null if data block was already received or data block size has changed
+     */
+    File markDataBlockReceived(String fileId, int dataBlockNumber, int dataBlockSizeStartNumber, String mimetype, byte[] md5DigestState, Double throughput, FileManifest.DataBlockChecksum dataBlockChecksum);
+
+    /**
+     * Save MD5 state only if no other MD5 state has been saved since it was read
+     *
+     * @param fileId               File id
+     * @param md5DataBlockCount    Data blocks included in MD5 state read
+     * @param newMd5DataBlockCount Data blocks included in new MD5 state
+     * @param md5DigestState       New MD5 state
+     * @return File updated or null if MD5 state has changed
+     */
+    File updateMD5DigestState(String fileId, int md5DataBlockCount, int newMd5DataBlockCount, byte[] md5DigestState);
+
+    /**
+     * Change size of data blocks not received yet, if received data blocks have not changed
+     *
+     * @param fileId                 File id
+     * @param receivedDataBlockCount Data blocks received. They must follow each other from the first one
+     * @param dataBlockSize          New data block size in bytes
+     * @param startOffset            Size in bytes of data blocks received
+     * @param receivedDataBlocks     Bitmap words for the new data block count
+     * @return File updated or null if data blocks have been received since
+     */
+    File updateDataBlockSize(String fileId, int receivedDataBlockCount, long dataBlockSize, long startOffset, List<Long> receivedDataBlocks);
+
+    /**
+     * Set received data blocks bitmap of a file created without it
+     *
+     * @param fileId                 File id
+     * @param receivedDataBlocks     Bitmap words
+     * @param receivedDataBlockCount Data blocks received
+     * @param md5DataBlockCount      Data blocks included in MD5 state
+     */
+    void initReceivedDataBlocks(String fileId, List<Long> receivedDataBlocks, int receivedDataBlockCount, int md5DataBlockCount);
+}
@@ -0,0 +1,89 @@
+package com.saankaa.rapidxend.repository;
+
+import com.saankaa.rapidxend.model.File;
+import com.saankaa.rapidxend.model.FileManifest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Collections;
+import java.util.List;
+
+public class IFileRepositoryCustomImpl implements IFileRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public IFileRepositoryCustomImpl(@Autowired MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public File markDataBlockReceived(String fileId, int dataBlockNumber, int dataBlockSizeStartNumber, String mimetype, byte[] md5DigestState, Double throughput, FileManifest.DataBlockChecksum dataBlockChecksum) {
+        String word = "receivedDataBlocks." + (dataBlockNumber / 64);
+        int bit = dataBlockNumber % 64;
+
+        Criteria criteria = Criteria.where("_id").is(fileId)
+                .and(word).bits().allClear(Collections.singletonList(bit)); // Bit positions, mask can't be negative
+        if (dataBlockSizeStartNumber == 0) {
+            criteria.and("dataBlockSizeStartNumber").in(0, null); // Not saved for files created before it was added
+        } else {
+            criteria.and("dataBlockSizeStartNumber").is(dataBlockSizeStartNumber);
+        }
+        Update update = new Update()
+                .inc("receivedDataBlockCount", 1)
+                .max("lastDataBlockNumber", dataBlockNumber);
+        update.bitwise(word).or(1L << bit);
+
+        if (mimetype != null) {
+            update.set("mimetype", mimetype);
+        }
+        if (md5DigestState != null) {
+            criteria.and("md5DataBlockCount").is(dataBlockNumber);
+            update.set("md5DigestState", md5DigestState).set("md5DataBlockCount", dataBlockNumber + 1);
+        }
+        if (throughput != null) {
+            update.set("throughput", throughput);
+        }
+        if (dataBlockChecksum != null) {
+            // Array saved at file creation is padded with nulls up to data block number
+            update.set("dataBlockChecksums." + dataBlockNumber, dataBlockChecksum);
+        }
+
+        return mongoTemplate.findAndModify(new Query(criteria), update, FindAndModifyOptions.options().returnNew(true), File.class);
+    }
+
+    @Override
+    public File updateMD5DigestState(String fileId, int md5DataBlockCount, int newMd5DataBlockCount, byte[] md5DigestState) {
+        Query query = new Query(Criteria.where("_id").is(fileId).and("md5DataBlockCount").is(md5DataBlockCount));
+        Update update = new Update()
+                .set("md5DigestState", md5DigestState)
+                .set("md5DataBlockCount", newMd5DataBlockCount);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), File.class);
+    }
+
+    @Override
+    public File updateDataBlockSize(String fileId, int receivedDataBlockCount, long dataBlockSize, long startOffset, List<Long> receivedDataBlocks) {
+        Query query = new Query(Criteria.where("_id").is(fileId)
+                .and("receivedDataBlockCount").is(receivedDataBlockCount)
+                .and("lastDataBlockNumber").is(receivedDataBlockCount - 1));
+        Update update = new Update()
+                .set("dataBlockSize", dataBlockSize)
+                .set("dataBlockSizeStartNumber", receivedDataBlockCount)
+                .set("dataBlockSizeStartOffset", startOffset)
+                .set("receivedDataBlocks", receivedDataBlocks);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), File.class);
+    }
+
+    @Override
+    public void initReceivedDataBlocks(String fileId, List<Long> receivedDataBlocks, int receivedDataBlockCount, int md5DataBlockCount) {
+        Query query = new Query(Criteria.where("_id").is(fileId).and("receivedDataBlocks").exists(false));
+        Update update = new Update()
+                .set("receivedDataBlocks", receivedDataBlocks)
+                .set("receivedDataBlockCount", receivedDataBlockCount)
+                .set("md5DataBlockCount", md5DataBlockCount);
+        mongoTemplate.updateFirst(query, update, File.class);
+    }
+}
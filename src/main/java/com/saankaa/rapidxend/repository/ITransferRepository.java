@@ -8,7 +8,7 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.util.List;
 
-public interface ITransferRepository extends MongoRepository<Transfer, String> {
+public interface ITransferRepository extends MongoRepository<Transfer, String>, ITransferRepositoryCustom {
 
     List<Transfer> findAllBySenderIsOrReceiversContains(Device device1, Device device2, Pageable pageable);
 
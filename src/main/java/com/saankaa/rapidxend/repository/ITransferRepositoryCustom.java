@@ -0,0 +1,52 @@
+package com.saankaa.rapidxend.repository;
+
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.Transfer;
+import com.saankaa.rapidxend.model.TransferState;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Atomic updates of transfer
+ */
+public interface ITransferRepositoryCustom {
+
+    /**
+     * Change transfer state without saving the whole transfer
+     *
+     * @param transferId Transfer id
+     * @param state      New state
+     */
+    void updateState(String transferId, TransferState state);
+
+    /**
+     * Set last activity date of transfer to now
+     *
+     * @param transferId Transfer id
+     */
+    void updateLastActivityDate(String transferId);
+
+    /**
+     * Find transfers without activity since a date. Transfers saved before last activity date existed are found
+     * by their creation date
+     *
+     * @param state              Transfer state
+     * @param lastActivityBefore Last activity date limit
+     * @param limit              Maximum number of transfers
+     * @return Transfers found
+     */
+    List<Transfer> findInactive(TransferState state, Date lastActivityBefore, int limit);
+
+    /**
+     * Replace data blocks acknowledged by a receiver, only if they have not changed since they were read.
+     * Last activity date of transfer is set to now
+     *
+     * @param transferId Transfer id
+     * @param deviceId   Receiver device id
+     * @param expected   Ranges read before, empty if receiver has not acknowledged data blocks yet
+     * @param ranges     New ranges
+     * @return Transfer updated or null if acknowledged data blocks have changed
+     */
+    Transfer updateAcknowledgedDataBlocks(String transferId, String deviceId, List<DataBlockRange> expected, List<DataBlockRange> ranges);
+}
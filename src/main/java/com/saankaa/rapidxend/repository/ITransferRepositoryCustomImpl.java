@@ -0,0 +1,65 @@
+package com.saankaa.rapidxend.repository;
+
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.Transfer;
+import com.saankaa.rapidxend.model.TransferState;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class ITransferRepositoryCustomImpl implements ITransferRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public ITransferRepositoryCustomImpl(@Autowired MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void updateState(String transferId, TransferState state) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(transferId)), Update.update("state", state), Transfer.class);
+    }
+
+    @Override
+    public void updateLastActivityDate(String transferId) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(transferId)), Update.update("lastActivityDate", new Date()), Transfer.class);
+    }
+
+    @Override
+    public List<Transfer> findInactive(TransferState state, Date lastActivityBefore, int limit) {
+        Criteria criteria = Criteria.where("state").is(state).orOperator(
+                Criteria.where("lastActivityDate").lt(lastActivityBefore),
+                Criteria.where("lastActivityDate").exists(false).and("createdDate").lt(lastActivityBefore));
+        return mongoTemplate.find(new Query(criteria).limit(limit), Transfer.class);
+    }
+
+    @Override
+    public Transfer updateAcknowledgedDataBlocks(String transferId, String deviceId, List<DataBlockRange> expected, List<DataBlockRange> ranges) {
+        String key = "acknowledgedDataBlocks." + deviceId;
+        Criteria criteria = Criteria.where("_id").is(transferId);
+        if (expected.isEmpty()) {
+            criteria.and(key).exists(false);
+        } else {
+            criteria.and(key).is(toDocuments(expected)); // Whole list is compared
+        }
+        return mongoTemplate.findAndModify(new Query(criteria), new Update().set(key, toDocuments(ranges)).set("lastActivityDate", new Date()),
+                FindAndModifyOptions.options().returnNew(true), Transfer.class);
+    }
+
+    /**
+     * Ranges as stored, so lists can be compared in queries
+     */
+    private static List<Document> toDocuments(List<DataBlockRange> ranges) {
+        return ranges.stream()
+                .map(range -> new Document("first", range.getFirst()).append("last", range.getLast()))
+                .collect(Collectors.toList());
+    }
+}
@@ -2,6 +2,8 @@ package com.saankaa.rapidxend.service.notification;
 
 import com.saankaa.rapidxend.model.Notification;
 
+import java.util.Collection;
+
 public interface INotificationService {
 
     /**
@@ -12,6 +14,16 @@ public interface INotificationService {
      */
     void notifyDevice(Notification notification);
 
+    /**
+     * Notify several devices for the same event.
+     * Notification is published once to each other instance holding sessions of receivers, whatever the number
+     * of receivers
+     *
+     * @param notification      Notification, its receiver is ignored
+     * @param receiverDeviceIds Receivers device id
+     */
+    void notifyDevices(Notification notification, Collection<String> receiverDeviceIds);
+
     /**
      * This method is called by spring when incoming message from broke like (kafka, redis, rabbitmq...)
      *
@@ -0,0 +1,193 @@
+package com.saankaa.rapidxend.service.notification;
+
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.Notification;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary encoding of notifications sent between instances.
+ * Message starts with a version byte and a byte of flags telling which fields are set, followed by set fields.
+ * Integers are varints. Strings are a varint header (length and a hex bit) then their bytes: ids in lowercase hex
+ * (ObjectId) are packed two characters per byte. Ranges are encoded as offsets from the previous range.
+ * Messages encoded as JSON (first byte '{') are read too, so instances can switch encoding one by one.
+ */
+public class NotificationBinarySerializer implements RedisSerializer<Object> {
+
+    static final byte VERSION = 2; // Version 1 has no receivers list
+
+    private static final int SENDER_FLAG = 0x01;
+    private static final int RECEIVER_FLAG = 0x02;
+    private static final int TRANSFER_FLAG = 0x04;
+    private static final int DATA_BLOCK_NUMBER_FLAG = 0x08;
+    private static final int DATA_BLOCK_RANGES_FLAG = 0x10;
+    private static final int RECEIVERS_FLAG = 0x20;
+
+    private final GenericJackson2JsonRedisSerializer jsonSerializer = new GenericJackson2JsonRedisSerializer();
+
+    @Override
+    public byte[] serialize(Object o) throws SerializationException {
+        if (o == null) {
+            return new byte[0];
+        }
+        if (!(o instanceof Notification)) {
+            throw new SerializationException("Cannot serialize " + o.getClass().getName());
+        }
+        Notification notification = (Notification) o;
+        int flags = (notification.getSenderDeviceId() != null ? SENDER_FLAG : 0)
+                | (notification.getReceiverDeviceId() != null ? RECEIVER_FLAG : 0)
+                | (notification.getTransferId() != null ? TRANSFER_FLAG : 0)
+                | (notification.getDataBlockNumber() != null ? DATA_BLOCK_NUMBER_FLAG : 0)
+                | (notification.getDataBlockRanges() != null ? DATA_BLOCK_RANGES_FLAG : 0)
+                | (notification.getReceiverDeviceIds() != null ? RECEIVERS_FLAG : 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        out.write(flags);
+        writeVarint(out, notification.getNotificationType());
+        if (notification.getSenderDeviceId() != null) writeString(out, notification.getSenderDeviceId());
+        if (notification.getReceiverDeviceId() != null) writeString(out, notification.getReceiverDeviceId());
+        if (notification.getTransferId() != null) writeString(out, notification.getTransferId());
+        if (notification.getDataBlockNumber() != null) writeVarint(out, notification.getDataBlockNumber());
+        if (notification.getDataBlockRanges() != null) {
+            writeVarint(out, notification.getDataBlockRanges().size());
+            int previous = 0;
+            for (DataBlockRange range : notification.getDataBlockRanges()) {
+                writeVarint(out, range.getFirst() - previous);
+                writeVarint(out, range.getLast() - range.getFirst());
+                previous = range.getLast();
+            }
+        }
+        if (notification.getReceiverDeviceIds() != null) {
+            writeVarint(out, notification.getReceiverDeviceIds().size());
+            for (String receiverDeviceId : notification.getReceiverDeviceIds()) {
+                writeString(out, receiverDeviceId);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == '{') {
+            return jsonSerializer.deserialize(bytes);
+        }
+        if ((bytes[0] < 1) || (bytes[0] > VERSION)) {
+            throw new SerializationException("Unknown notification encoding version " + bytes[0]);
+        }
+        try {
+            Reader reader = new Reader(bytes);
+            int flags = reader.data[reader.position++];
+            Notification notification = new Notification();
+            notification.setNotificationType(reader.readVarint());
+            if ((flags & SENDER_FLAG) != 0) notification.setSenderDeviceId(reader.readString());
+            if ((flags & RECEIVER_FLAG) != 0) notification.setReceiverDeviceId(reader.readString());
+            if ((flags & TRANSFER_FLAG) != 0) notification.setTransferId(reader.readString());
+            if ((flags & DATA_BLOCK_NUMBER_FLAG) != 0) notification.setDataBlockNumber(reader.readVarint());
+            if ((flags & DATA_BLOCK_RANGES_FLAG) != 0) {
+                int count = reader.readVarint();
+                List<DataBlockRange> ranges = new ArrayList<>(Math.min(count, bytes.length));
+                int previous = 0;
+                for (int i = 0; i < count; i++) {
+                    int first = previous + reader.readVarint();
+                    int last = first + reader.readVarint();
+                    ranges.add(new DataBlockRange(first, last));
+                    previous = last;
+                }
+                notification.setDataBlockRanges(ranges);
+            }
+            if ((flags & RECEIVERS_FLAG) != 0) {
+                int count = reader.readVarint();
+                List<String> receiverDeviceIds = new ArrayList<>(Math.min(count, bytes.length));
+                for (int i = 0; i < count; i++) {
+                    receiverDeviceIds.add(reader.readString());
+                }
+                notification.setReceiverDeviceIds(receiverDeviceIds);
+            }
+            return notification;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new SerializationException("Truncated notification", e);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (isPackable(value)) {
+            writeVarint(out, (value.length() << 1) | 1);
+            for (int i = 0; i < value.length(); i += 2) {
+                out.write((Character.digit(value.charAt(i), 16) << 4) | Character.digit(value.charAt(i + 1), 16));
+            }
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length << 1);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    // Lowercase hex with an even number of characters, like ObjectId
+    private static boolean isPackable(String value) {
+        if (value.isEmpty() || (value.length() % 2 != 0)) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) return false;
+        }
+        return true;
+    }
+
+    private static class Reader {
+        private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+        final byte[] data;
+        int position = 1; // After version
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new SerializationException("Invalid varint");
+        }
+
+        String readString() {
+            int header = readVarint();
+            int length = header >>> 1;
+            if (position + ((header & 1) != 0 ? length / 2 : length) > data.length) {
+                throw new SerializationException("Truncated notification");
+            }
+            if ((header & 1) != 0) {
+                char[] chars = new char[length];
+                for (int i = 0; i < length; i += 2) {
+                    int b = data[position++] & 0xFF;
+                    chars[i] = HEX_DIGITS[b >>> 4];
+                    chars[i + 1] = HEX_DIGITS[b & 0x0F];
+                }
+                return new String(chars);
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
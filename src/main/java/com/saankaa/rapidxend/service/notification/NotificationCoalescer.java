@@ -0,0 +1,135 @@
+package com.saankaa.rapidxend.service.notification;
+
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.Notification;
+import com.saankaa.rapidxend.model.NotificationBuilder;
+import com.saankaa.rapidxend.model.NotificationType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Merge TRANSFER_DATA_AVAILABLE notifications of the same receiver (or receivers) and transfer.
+ * A notification is held until no other data block of the transfer has been notified to the receiver for a window,
+ * but never longer than max delay, so data blocks of small transfers are still notified quickly.
+ * Merged notification has the ranges of notified data blocks, and the last of them as data block number.
+ */
+class NotificationCoalescer {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(NotificationCoalescer.class);
+
+    private final Consumer<Notification> delivery;
+    private final long window; // Milliseconds
+    private final long maxDelay; // Milliseconds
+    private final Map<String, Pending> pendings = new ConcurrentHashMap<>(); // Receiver id and transfer id as key
+    private final ScheduledExecutorService scheduler;
+
+    NotificationCoalescer(Consumer<Notification> delivery, long window, long maxDelay) {
+        this.delivery = delivery;
+        this.window = window;
+        this.maxDelay = Math.max(window, maxDelay);
+        this.scheduler = window > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Hold a notification to merge it with next ones
+     *
+     * @param notification Notification
+     * @return true if notification will be delivered later, false if it can't be merged and has to be delivered now
+     */
+    boolean add(Notification notification) {
+        if ((scheduler == null) || (notification.getNotificationType() != NotificationType.TRANSFER_DATA_AVAILABLE.getValue())
+                || (notification.getDataBlockNumber() == null) || (notification.getDataBlockRanges() != null)) {
+            return false;
+        }
+        // Notification of several receivers is merged with notifications of the same receivers
+        String receiverKey = notification.getReceiverDeviceIds() != null ? String.join(",", notification.getReceiverDeviceIds()) : notification.getReceiverDeviceId();
+        String key = receiverKey + ":" + notification.getTransferId();
+        long now = System.currentTimeMillis();
+        pendings.compute(key, (k, pending) -> {
+            if (pending == null) {
+                pending = new Pending(notification, now);
+                scheduler.schedule(() -> this.flush(k), window, TimeUnit.MILLISECONDS);
+            }
+            pending.dataBlockNumbers.set(notification.getDataBlockNumber());
+            pending.last = now;
+            return pending;
+        });
+        return true;
+    }
+
+    private void flush(String key) {
+        long now = System.currentTimeMillis();
+        List<Pending> flushed = new ArrayList<>(1);
+        pendings.computeIfPresent(key, (k, pending) -> {
+            long deadline = Math.min(pending.last + window, pending.first + maxDelay);
+            if (deadline > now) {
+                // Other data blocks notified meanwhile
+                scheduler.schedule(() -> this.flush(k), deadline - now, TimeUnit.MILLISECONDS);
+                return pending;
+            }
+            flushed.add(pending);
+            return null;
+        });
+        for (Pending pending : flushed) {
+            try {
+                delivery.accept(pending.toNotification());
+            } catch (Exception e) {
+                LOGGER.error("Unable to deliver coalesced notification of transfer {}", pending.notification.getTransferId(), e);
+            }
+        }
+    }
+
+    /**
+     * Deliver notifications held now
+     */
+    void shutdown() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        for (String key : new ArrayList<>(pendings.keySet())) {
+            Pending pending = pendings.remove(key);
+            if (pending != null) delivery.accept(pending.toNotification());
+        }
+    }
+
+    private static class Pending {
+        final Notification notification; // First notification
+        final long first;
+        long last;
+        final BitSet dataBlockNumbers = new BitSet();
+
+        Pending(Notification notification, long first) {
+            this.notification = notification;
+            this.first = first;
+        }
+
+        Notification toNotification() {
+            if (dataBlockNumbers.cardinality() == 1) {
+                return notification;
+            }
+            List<DataBlockRange> ranges = new ArrayList<>();
+            for (int first = dataBlockNumbers.nextSetBit(0); first >= 0; ) {
+                int end = dataBlockNumbers.nextClearBit(first);
+                ranges.add(new DataBlockRange(first, end - 1));
+                first = dataBlockNumbers.nextSetBit(end);
+            }
+            return NotificationBuilder.from(notification)
+                    .dataBlockNumber(dataBlockNumbers.length() - 1)
+                    .dataBlockRanges(ranges)
+                    .build();
+        }
+    }
+}
@@ -2,6 +2,9 @@ package com.saankaa.rapidxend.service.notification;
 
 import com.saankaa.rapidxend.config.AppEnvVariable;
 import com.saankaa.rapidxend.model.Notification;
+import com.saankaa.rapidxend.model.NotificationBuilder;
+import com.saankaa.rapidxend.service.push.IDataBlockPushService;
+import com.saankaa.rapidxend.service.websocket.IPresenceService;
 import com.saankaa.rapidxend.service.websocket.IWebsocketSessionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,44 +13,147 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 @Service
 public class NotificationService implements INotificationService {
 
+    private static final String DEFAULT_COALESCING_WINDOW = "20"; // In milliseconds
+    private static final String DEFAULT_COALESCING_MAX_DELAY = "100"; // In milliseconds
+
     private final Logger LOGGER = LoggerFactory.getLogger(NotificationService.class);
 
     private final IWebsocketSessionService websocketSessionService;
     private final SimpMessagingTemplate simpMessagingTemplate; // Websocket messaging
     private final RedisTemplate<String, Notification> redisTemplate;
+    private final IDataBlockPushService dataBlockPushService;
+    private final IPresenceService presenceService;
+    private final NotificationCoalescer coalescer; // Data blocks available for the same receiver and transfer are notified together
 
 
-    public NotificationService(@Autowired IWebsocketSessionService websocketSessionService, @Autowired SimpMessagingTemplate simpMessagingTemplate, @Autowired RedisTemplate<String, Notification> redisTemplate) {
+    public NotificationService(@Autowired IWebsocketSessionService websocketSessionService, @Autowired SimpMessagingTemplate simpMessagingTemplate, @Autowired RedisTemplate<String, Notification> redisTemplate,
+                               @Autowired IDataBlockPushService dataBlockPushService, @Autowired IPresenceService presenceService) {
         this.websocketSessionService = websocketSessionService;
         this.simpMessagingTemplate = simpMessagingTemplate;
         this.redisTemplate = redisTemplate;
+        this.dataBlockPushService = dataBlockPushService;
+        this.presenceService = presenceService;
+        this.coalescer = new NotificationCoalescer(this::deliver,
+                Long.parseLong(AppEnvVariable.getValue(AppEnvVariable.NOTIFICATION_COALESCING_WINDOW, DEFAULT_COALESCING_WINDOW)),
+                Long.parseLong(AppEnvVariable.getValue(AppEnvVariable.NOTIFICATION_COALESCING_MAX_DELAY, DEFAULT_COALESCING_MAX_DELAY)));
     }
 
     @Override
     public void notifyDevice(Notification notification) {
 
+        // Data block is pushed now to receiver which asked it, other notifications of data blocks wait to be merged
+        if (websocketSessionService.isConnected(notification.getReceiverDeviceId()) && dataBlockPushService.offer(notification)) return;
+        if (coalescer.add(notification)) return;
+        this.deliver(notification);
+    }
+
+    @Override
+    public void notifyDevices(Notification notification, Collection<String> receiverDeviceIds) {
+        List<String> receivers = new ArrayList<>();
+        for (String receiverDeviceId : receiverDeviceIds) {
+            // Data block is pushed now to receivers which asked it
+            if (websocketSessionService.isConnected(receiverDeviceId)
+                    && dataBlockPushService.offer(NotificationBuilder.from(notification).receiverDeviceId(receiverDeviceId).build())) continue;
+            receivers.add(receiverDeviceId);
+        }
+        if (receivers.isEmpty()) return;
+
+        Notification multicastNotification = NotificationBuilder.from(notification)
+                .receiverDeviceId(null)
+                .receiverDeviceIds(receivers)
+                .build();
+        if (coalescer.add(multicastNotification)) return;
+        this.deliver(multicastNotification);
+    }
+
+    private void deliver(Notification notification) {
+        if (notification.getReceiverDeviceIds() != null) {
+            this.deliverToReceivers(notification);
+            return;
+        }
+
         // Check if receiver to notify is connected to current instance
         if (websocketSessionService.isConnected(notification.getReceiverDeviceId())) {
-            simpMessagingTemplate.convertAndSendToUser(notification.getReceiverDeviceId(), "/user", notification);
+            this.deliverToSession(notification);
         } else {
-            // Publish notification via redis to others instances
-            redisTemplate.convertAndSend(AppEnvVariable.REDIS_CHANNEL, notification);
+            // Publish notification via redis only to instances which hold receiver sessions
+            for (String instanceId : presenceService.getInstanceIds(notification.getReceiverDeviceId())) {
+                if (instanceId.equals(websocketSessionService.getInstanceId())) continue; // Session closed meanwhile
+                redisTemplate.convertAndSend(presenceService.getChannel(instanceId), notification);
+            }
         }
 
     }
 
+    /**
+     * Notify receivers connected to current instance, and publish a single notification to each other instance
+     * holding sessions of other receivers
+     */
+    private void deliverToReceivers(Notification notification) {
+        List<String> remoteReceivers = new ArrayList<>();
+        for (String receiverDeviceId : notification.getReceiverDeviceIds()) {
+            if (websocketSessionService.isConnected(receiverDeviceId)) {
+                this.deliverToSession(NotificationBuilder.from(notification).receiverDeviceIds(null).receiverDeviceId(receiverDeviceId).build());
+            } else {
+                remoteReceivers.add(receiverDeviceId);
+            }
+        }
+        if (remoteReceivers.isEmpty()) return;
+
+        Map<String, List<String>> receiversByInstance = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : presenceService.getInstanceIds(remoteReceivers).entrySet()) {
+            for (String instanceId : entry.getValue()) {
+                if (instanceId.equals(websocketSessionService.getInstanceId())) continue; // Session closed meanwhile
+                receiversByInstance.computeIfAbsent(instanceId, id -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : receiversByInstance.entrySet()) {
+            redisTemplate.convertAndSend(presenceService.getChannel(entry.getKey()),
+                    NotificationBuilder.from(notification).receiverDeviceIds(entry.getValue()).build());
+        }
+    }
+
+    private void deliverToSession(Notification notification) {
+        // Data block is sent instead of notification when receiver asked it
+        if (dataBlockPushService.offer(notification)) return;
+        simpMessagingTemplate.convertAndSendToUser(notification.getReceiverDeviceId(), "/user", notification);
+    }
+
     @Override
     public void onMessage(Notification notification) {
         // Message from redis
         LOGGER.info("On receive notification from redis... {}", notification);
 
+        // Notification of several receivers is sent to each receiver connected to current instance
+        if (notification.getReceiverDeviceIds() != null) {
+            for (String receiverDeviceId : notification.getReceiverDeviceIds()) {
+                if (websocketSessionService.isConnected(receiverDeviceId)) {
+                    this.deliverToSession(NotificationBuilder.from(notification).receiverDeviceIds(null).receiverDeviceId(receiverDeviceId).build());
+                }
+            }
+            return;
+        }
+
         // Check if the receiver of this current notification
         if (websocketSessionService.isConnected(notification.getReceiverDeviceId())) {
             LOGGER.info("Receiver is connected to current instance");
-            simpMessagingTemplate.convertAndSendToUser(notification.getReceiverDeviceId(), "/user", notification);
+            this.deliverToSession(notification);
         }
     }
+
+    @PreDestroy
+    public void shutdown() {
+        coalescer.shutdown();
+    }
 }
@@ -0,0 +1,371 @@
+package com.saankaa.rapidxend.service.push;
+
+import com.saankaa.rapidxend.config.AppEnvVariable;
+import com.saankaa.rapidxend.model.DataBlock;
+import com.saankaa.rapidxend.model.DataBlockPushRequest;
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.Notification;
+import com.saankaa.rapidxend.model.NotificationBuilder;
+import com.saankaa.rapidxend.model.NotificationType;
+import com.saankaa.rapidxend.service.storage.IBlockStore;
+import com.saankaa.rapidxend.service.transfer.ITransferService;
+import com.saankaa.rapidxend.service.transfer.compression.BlockCompression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Push data blocks to receivers on their websocket session, instead of notifying them then waiting for their request.
+ * Data blocks are split in frames of {@link #FRAME_SIZE} bytes, sent as binary STOMP messages to {@link #PUSH_DESTINATION}
+ * with transfer id, data block number, checksum and offset of frame in headers. Last frame of a data block has
+ * {@link #LAST_FRAME_HEADER}. Binary messages need websocket transport, SockJS fallbacks only send text.
+ * Receiver controls how many frames are sent with credits, see {@link DataBlockPushRequest}. So frames waiting in
+ * session send buffer are limited, and a data block is never loaded in memory.
+ * Frames of a transfer are sent in order by one worker at a time, data block after data block.
+ */
+@Service
+public class DataBlockPushService implements IDataBlockPushService {
+
+    public static final String PUSH_DESTINATION = "/queue/data";
+    public static final String TRANSFER_ID_HEADER = "transferId";
+    public static final String DATA_BLOCK_NUMBER_HEADER = "dataBlockNumber";
+    public static final String CRC32C_HEADER = "X-Checksum-CRC32C";
+    public static final String CONTENT_ENCODING_HEADER = "content-encoding";
+    public static final String OFFSET_HEADER = "offset"; // Position of frame in data block
+    public static final String LAST_FRAME_HEADER = "last";
+    public static final int FRAME_SIZE = 256 * 1024; // 256 KiB
+
+    private static final String DEFAULT_MAX_CREDIT = "8";
+    private static final int WORKER_COUNT = 4;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(DataBlockPushService.class);
+
+    private final ITransferService transferService;
+    private final IBlockStore blockStore;
+    private final SimpMessagingTemplate simpMessagingTemplate;
+    private final ExecutorService workers; // Data blocks are read and sent out of the sender request
+    private final int maxCredit;
+    private final Map<String, PushSession> sessions = new ConcurrentHashMap<>(); // By websocket session id
+
+    @Autowired
+    public DataBlockPushService(@Lazy ITransferService transferService, IBlockStore blockStore, SimpMessagingTemplate simpMessagingTemplate) {
+        this(transferService, blockStore, simpMessagingTemplate, newWorkers(), getMaxCredit());
+    }
+
+    DataBlockPushService(ITransferService transferService, IBlockStore blockStore, SimpMessagingTemplate simpMessagingTemplate,
+                         ExecutorService workers, int maxCredit) {
+        this.transferService = transferService;
+        this.blockStore = blockStore;
+        this.simpMessagingTemplate = simpMessagingTemplate;
+        this.workers = workers;
+        this.maxCredit = maxCredit;
+    }
+
+    /**
+     * @return Max credit of a session for a transfer, in frames. Client credits above it are ignored
+     */
+    public static int getMaxCredit() {
+        return Integer.parseInt(AppEnvVariable.getValue(AppEnvVariable.TRANSFER_PUSH_MAX_CREDIT, DEFAULT_MAX_CREDIT));
+    }
+
+    private static ExecutorService newWorkers() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(WORKER_COUNT, runnable -> {
+            Thread thread = new Thread(runnable, "push-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void grantCredit(String sessionId, String deviceId, DataBlockPushRequest request) {
+        if ((sessionId == null) || (deviceId == null) || (request == null) || (request.getTransferId() == null)) {
+            LOGGER.error("Parameters contains null values");
+            throw new IllegalArgumentException("Parameters contains null values");
+        }
+        if ((request.getCredit() == null) || (request.getCredit() <= 0)) {
+            LOGGER.error("Invalid credit {}", request.getCredit());
+            throw new IllegalArgumentException("Credit must be positive");
+        }
+
+        PushSession session = sessions.computeIfAbsent(sessionId, id -> new PushSession(id, deviceId));
+        if (!session.deviceId.equals(deviceId)) {
+            throw new IllegalArgumentException("Session belongs to another device");
+        }
+
+        Subscription subscription;
+        boolean started;
+        synchronized (session) {
+            subscription = session.subscriptions.computeIfAbsent(request.getTransferId(), id -> new Subscription());
+            subscription.credit = (int) Math.min(maxCredit, (long) subscription.credit + request.getCredit());
+            subscription.acceptEncoding = request.getAcceptEncoding();
+            LOGGER.debug("Session {} has {} credits for transfer {}", sessionId, subscription.credit, request.getTransferId());
+            started = this.start(subscription); // Frames waiting for credit
+        }
+        if (started) {
+            workers.execute(() -> this.push(session, request.getTransferId(), subscription));
+        }
+    }
+
+    @Override
+    public boolean offer(Notification notification) {
+        if ((notification.getNotificationType() != NotificationType.TRANSFER_DATA_AVAILABLE.getValue())
+                || (notification.getDataBlockNumber() == null)) {
+            return false;
+        }
+        // Notification of several data blocks when notifications have been coalesced
+        List<Integer> dataBlockNumbers = new ArrayList<>();
+        if (notification.getDataBlockRanges() != null) {
+            for (DataBlockRange range : notification.getDataBlockRanges()) {
+                for (int n = range.getFirst(); n <= range.getLast(); n++) dataBlockNumbers.add(n);
+            }
+        } else {
+            dataBlockNumbers.add(notification.getDataBlockNumber());
+        }
+
+        // Only one session of receiver gets the data blocks
+        for (PushSession session : sessions.values()) {
+            if (!session.deviceId.equals(notification.getReceiverDeviceId())) continue;
+            Subscription subscription;
+            boolean started;
+            synchronized (session) {
+                subscription = session.subscriptions.get(notification.getTransferId());
+                if (subscription == null) continue;
+                subscription.waiting.addAll(dataBlockNumbers);
+                if (subscription.credit == 0) {
+                    LOGGER.debug("Data blocks {} wait for credit of session {}", dataBlockNumbers, session.id);
+                }
+                started = this.start(subscription);
+            }
+            if (started) {
+                workers.execute(() -> this.push(session, notification.getTransferId(), subscription));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void removeSession(String sessionId) {
+        PushSession session = sessions.remove(sessionId);
+        if (session == null) return;
+        LOGGER.debug("Stop pushing data blocks to session {}", sessionId);
+        synchronized (session) {
+            // Data blocks being sent by a worker are closed by it
+            for (Subscription subscription : session.subscriptions.values()) {
+                if (!subscription.pushing) this.close(subscription);
+            }
+            session.subscriptions.clear();
+        }
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        this.removeSession(event.getSessionId());
+    }
+
+    /**
+     * Start a worker which sends frames of a subscription, if it has credit and data blocks. Guarded by session lock
+     *
+     * @return true if caller must execute the worker
+     */
+    private boolean start(Subscription subscription) {
+        if (subscription.pushing || (subscription.credit == 0)
+                || ((subscription.current == null) && subscription.waiting.isEmpty())) {
+            return false;
+        }
+        subscription.pushing = true;
+        return true;
+    }
+
+    /**
+     * Send frames of data blocks to session while it has credit. When a data block fails, credit of frame is given
+     * back and receiver is notified, so it requests the whole data block
+     */
+    void push(PushSession session, String transferId, Subscription subscription) {
+        while (true) {
+            Integer dataBlockNumber = null;
+            String acceptEncoding;
+            synchronized (session) {
+                if (session.subscriptions.get(transferId) != subscription) {
+                    // Session closed
+                    subscription.pushing = false;
+                    this.close(subscription);
+                    return;
+                }
+                if ((subscription.credit == 0) || ((subscription.current == null) && subscription.waiting.isEmpty())) {
+                    subscription.pushing = false; // Next frame is sent when credit or data block is given
+                    return;
+                }
+                subscription.credit--;
+                if (subscription.current == null) dataBlockNumber = subscription.waiting.pollFirst();
+                acceptEncoding = subscription.acceptEncoding;
+            }
+
+            // Only this worker uses current data block
+            if (dataBlockNumber == null) dataBlockNumber = subscription.current.number;
+            try {
+                if (subscription.current == null) {
+                    subscription.current = this.open(session, transferId, dataBlockNumber, acceptEncoding);
+                }
+                if (this.sendFrame(session, transferId, subscription.current)) {
+                    LOGGER.debug("Data block {} of transfer {} pushed to session {}", dataBlockNumber, transferId, session.id);
+                    this.close(subscription);
+                }
+            } catch (Exception e) {
+                LOGGER.error("Unable to push data block {} of transfer {} to session {}", dataBlockNumber, transferId, session.id, e);
+                this.close(subscription);
+                synchronized (session) {
+                    subscription.credit = Math.min(maxCredit, subscription.credit + 1);
+                }
+
+                // Receiver requests data block itself, frames already received are ignored
+                simpMessagingTemplate.convertAndSendToUser(session.deviceId, "/user", new NotificationBuilder()
+                        .transferId(transferId)
+                        .receiverDeviceId(session.deviceId)
+                        .dataBlockNumber(dataBlockNumber)
+                        .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build());
+            }
+        }
+    }
+
+    /**
+     * Open data block content. Compressed content is sent as stored when receiver accepts its encoding
+     */
+    private PushedDataBlock open(PushSession session, String transferId, int dataBlockNumber, String acceptEncoding) throws Exception {
+        DataBlock dataBlock = transferService.getDataBlock(transferId, session.deviceId, dataBlockNumber);
+        InputStream inputStream = blockStore.stream(dataBlock.getStorageKey());
+        String encoding = null;
+        if ((dataBlock.getEncoding() != null) && BlockCompression.isAccepted(acceptEncoding, dataBlock.getEncoding())) {
+            encoding = dataBlock.getEncoding();
+        } else {
+            inputStream = BlockCompression.decode(inputStream, dataBlock.getEncoding());
+        }
+        return new PushedDataBlock(dataBlockNumber, dataBlock.getCrc32c(), encoding, new PushbackInputStream(inputStream));
+    }
+
+    /**
+     * Send next frame of a data block
+     *
+     * @return true if it's the last frame
+     */
+    private boolean sendFrame(PushSession session, String transferId, PushedDataBlock dataBlock) throws IOException {
+        byte[] frame = dataBlock.inputStream.readNBytes(FRAME_SIZE);
+        boolean last = (frame.length < FRAME_SIZE);
+        if (!last) {
+            int next = dataBlock.inputStream.read();
+            if (next == -1) {
+                last = true;
+            } else {
+                dataBlock.inputStream.unread(next);
+            }
+        }
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(session.id); // Only this session gets the data block
+        accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM); // Sent in a binary frame
+        accessor.setNativeHeader(TRANSFER_ID_HEADER, transferId);
+        accessor.setNativeHeader(DATA_BLOCK_NUMBER_HEADER, String.valueOf(dataBlock.number));
+        accessor.setNativeHeader(OFFSET_HEADER, String.valueOf(dataBlock.offset));
+        if (dataBlock.crc32c != null) {
+            accessor.setNativeHeader(CRC32C_HEADER, dataBlock.crc32c);
+        }
+        if (dataBlock.encoding != null) {
+            accessor.setNativeHeader(CONTENT_ENCODING_HEADER, dataBlock.encoding);
+        }
+        if (last) {
+            accessor.setNativeHeader(LAST_FRAME_HEADER, "true");
+        }
+        accessor.setLeaveMutable(true);
+
+        simpMessagingTemplate.convertAndSendToUser(session.deviceId, PUSH_DESTINATION, frame, accessor.getMessageHeaders());
+        dataBlock.offset += frame.length;
+        return last;
+    }
+
+    /**
+     * Close data block being sent to a subscription
+     */
+    private void close(Subscription subscription) {
+        if (subscription.current == null) return;
+        try {
+            subscription.current.inputStream.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close data block {}", subscription.current.number, e);
+        }
+        subscription.current = null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Websocket session which receives data blocks. Subscriptions are guarded by session lock
+     */
+    static class PushSession {
+
+        private final String id;
+        private final String deviceId;
+        private final Map<String, Subscription> subscriptions = new HashMap<>(); // By transfer id
+
+        private PushSession(String id, String deviceId) {
+            this.id = id;
+            this.deviceId = deviceId;
+        }
+    }
+
+    /**
+     * Data blocks of a transfer pushed to a session
+     */
+    static class Subscription {
+
+        private int credit; // In frames
+        private String acceptEncoding;
+        private final TreeSet<Integer> waiting = new TreeSet<>(); // Data blocks available, waiting for credit
+        private boolean pushing; // A worker sends frames. Current data block is only used by this worker
+        private PushedDataBlock current; // Data block being sent, waiting for credit when worker is stopped
+    }
+
+    /**
+     * Data block which is sent frame by frame
+     */
+    private static class PushedDataBlock {
+
+        private final int number;
+        private final String crc32c;
+        private final String encoding; // Encoding of frames, null when content is decompressed
+        private final PushbackInputStream inputStream;
+        private long offset; // Of next frame
+
+        private PushedDataBlock(int number, String crc32c, String encoding, PushbackInputStream inputStream) {
+            this.number = number;
+            this.crc32c = crc32c;
+            this.encoding = encoding;
+            this.inputStream = inputStream;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.saankaa.rapidxend.service.push;
+
+import com.saankaa.rapidxend.model.DataBlockPushRequest;
+import com.saankaa.rapidxend.model.Notification;
+
+public interface IDataBlockPushService {
+
+    /**
+     * Push data blocks of a transfer to a websocket session, or give it more credit.
+     * Data blocks waiting for credit are pushed
+     *
+     * @param sessionId Websocket session id
+     * @param deviceId  Receiver device id
+     * @param request   Transfer and credit
+     */
+    void grantCredit(String sessionId, String deviceId, DataBlockPushRequest request);
+
+    /**
+     * Push a data block instead of notifying receiver, if receiver asked it on a session of current instance.
+     * Data block is pushed now if session has credit, otherwise when credit is given
+     *
+     * @param notification TRANSFER_DATA_AVAILABLE notification
+     * @return true if data block is pushed, so receiver must not be notified
+     */
+    boolean offer(Notification notification);
+
+    /**
+     * Stop pushing data blocks to a session
+     *
+     * @param sessionId Websocket session id
+     */
+    void removeSession(String sessionId);
+}
@@ -0,0 +1,245 @@
+package com.saankaa.rapidxend.service.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of data blocks content, limited by size in bytes.
+ * When a transfer has many receivers, they all read the same data block at nearly the same time. Content is read
+ * once from block store, then from the cache.
+ * - Contents are saved in direct buffers, out of java heap. So they don't make garbage collection slower.
+ * JVM limits direct memory with -XX:MaxDirectMemorySize, which is the max heap size by default
+ * - Concurrent misses of the same content share one read of block store
+ * - Least recently used contents are evicted when cache is full
+ */
+public class BlockCache implements BlockCacheMXBean {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024 * 1024; // 1 MiB. Buffer grows until content fits
+
+    private final Logger LOGGER = LoggerFactory.getLogger(BlockCache.class);
+
+    private final long capacity;
+    private final long maxEntrySize;
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true); // Access order
+    private final Map<String, CompletableFuture<ByteBuffer>> loads = new ConcurrentHashMap<>();
+    private long size; // Guarded by this
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param capacity Max bytes used by cached contents. A content larger than a quarter of capacity is not cached,
+     *                 so a single content doesn't evict the whole cache
+     */
+    public BlockCache(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.maxEntrySize = capacity / 4;
+    }
+
+    /**
+     * Get content from cache, or load it.
+     * If content is being loaded by another thread, wait for it instead of loading it again
+     *
+     * @param key        Content key
+     * @param sizeLoader Get size of content in block store. It's called on a miss only, before content is opened
+     * @param loader     Open content in block store
+     * @return Read only buffer of content, null if content can't be cached. Caller must then read block store
+     */
+    public ByteBuffer get(String key, SizeLoader sizeLoader, ContentLoader loader) throws IOException {
+        ByteBuffer buffer = this.lookup(key);
+        if (buffer != null) {
+            hitCount.increment();
+            return buffer.duplicate();
+        }
+        missCount.increment();
+
+        CompletableFuture<ByteBuffer> load = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> currentLoad = loads.putIfAbsent(key, load);
+        if (currentLoad != null) {
+            return this.await(currentLoad);
+        }
+
+        try {
+            // Content may have been loaded since lookup
+            buffer = this.lookup(key);
+            if (buffer == null) {
+                // Content too large is not read twice, once here and once by caller
+                long contentSize = sizeLoader.size();
+                if (contentSize > maxEntrySize) {
+                    LOGGER.debug("Content {} is too large to be cached", key);
+                    load.complete(null);
+                    return null;
+                }
+                loadCount.increment();
+                buffer = this.read(key, contentSize, loader);
+                if (buffer != null) this.store(key, buffer, load);
+            }
+            load.complete(buffer);
+            return (buffer != null) ? buffer.duplicate() : null;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    /**
+     * Remove content from cache. A load in progress is not cached
+     *
+     * @param key Content key
+     */
+    public synchronized void invalidate(String key) {
+        loads.remove(key);
+        ByteBuffer buffer = entries.remove(key);
+        if (buffer != null) size -= buffer.capacity();
+    }
+
+    private synchronized ByteBuffer lookup(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void store(String key, ByteBuffer buffer, CompletableFuture<ByteBuffer> load) {
+        if (loads.get(key) != load) return; // Invalidated while it was loaded
+
+        ByteBuffer previous = entries.put(key, buffer);
+        if (previous != null) size -= previous.capacity();
+        size += buffer.capacity();
+
+        // Evict least recently used contents. Their memory is freed when readers don't use them anymore
+        Iterator<Map.Entry<String, ByteBuffer>> iterator = entries.entrySet().iterator();
+        while (size > capacity && iterator.hasNext()) {
+            Map.Entry<String, ByteBuffer> entry = iterator.next();
+            if (entry.getKey().equals(key)) continue;
+            size -= entry.getValue().capacity();
+            iterator.remove();
+            evictionCount.increment();
+        }
+    }
+
+    private ByteBuffer await(CompletableFuture<ByteBuffer> load) throws IOException {
+        ByteBuffer buffer;
+        try {
+            buffer = load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        return (buffer != null) ? buffer.duplicate() : null;
+    }
+
+    /**
+     * Read content in a direct buffer
+     *
+     * @param contentSize Size of content, -1 if unknown. Buffer is allocated with this size when it's known
+     * @return Read only buffer, null if content is larger than max entry size or direct memory is full
+     */
+    private ByteBuffer read(String key, long contentSize, ContentLoader loader) throws IOException {
+        try (InputStream inputStream = loader.open()) {
+            long initialSize = (contentSize >= 0) ? contentSize : INITIAL_BUFFER_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(initialSize, maxEntrySize));
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                if (buffer.remaining() < read) {
+                    if (buffer.position() + (long) read > maxEntrySize) {
+                        LOGGER.debug("Content {} is too large to be cached", key);
+                        return null;
+                    }
+                    ByteBuffer larger = ByteBuffer.allocateDirect((int) Math.min(maxEntrySize, 2L * buffer.capacity() + read));
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                buffer.put(chunk, 0, read);
+            }
+            buffer.flip();
+
+            // Memory is not wasted by a buffer larger than content
+            if (buffer.limit() < buffer.capacity()) {
+                ByteBuffer exact = ByteBuffer.allocateDirect(buffer.limit());
+                exact.put(buffer).flip();
+                buffer = exact;
+            }
+            return buffer.asReadOnlyBuffer();
+        } catch (OutOfMemoryError e) {
+            // Direct memory is limited by -XX:MaxDirectMemorySize. Content is read from block store instead
+            LOGGER.warn("Not enough direct memory for caching content {}", key);
+            return null;
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = hitCount.sum(), requests = hits + missCount.sum();
+        return (requests == 0) ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Get size of content in block store, -1 if unknown
+     */
+    @FunctionalInterface
+    public interface SizeLoader {
+        long size() throws IOException;
+    }
+
+    /**
+     * Open content in block store
+     */
+    @FunctionalInterface
+    public interface ContentLoader {
+        InputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,32 @@
+package com.saankaa.rapidxend.service.storage;
+
+/**
+ * Block cache metrics, exposed with JMX. They are used for sizing the cache
+ */
+public interface BlockCacheMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    /**
+     * @return Number of contents read from block store. Lower than miss count when concurrent misses share a load
+     */
+    long getLoadCount();
+
+    long getEvictionCount();
+
+    double getHitRate();
+
+    /**
+     * @return Bytes used by cached contents
+     */
+    long getSize();
+
+    /**
+     * @return Max bytes used by cached contents
+     */
+    long getCapacity();
+
+    int getEntryCount();
+}
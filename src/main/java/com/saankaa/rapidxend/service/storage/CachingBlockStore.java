@@ -0,0 +1,125 @@
+package com.saankaa.rapidxend.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Block store which reads contents through a {@link BlockCache}.
+ * Contents are never modified under the same key, so cached contents are only removed when they are deleted
+ */
+public class CachingBlockStore implements IBlockStore {
+
+    private final IBlockStore blockStore;
+    private final BlockCache blockCache;
+
+    public CachingBlockStore(IBlockStore blockStore, BlockCache blockCache) {
+        this.blockStore = blockStore;
+        this.blockCache = blockCache;
+    }
+
+    @Override
+    public long put(String key, InputStream data) throws IOException {
+        blockCache.invalidate(key);
+        return blockStore.put(key, data);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        ByteBuffer buffer = this.getCached(key);
+        if (buffer == null) {
+            return blockStore.get(key);
+        }
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    @Override
+    public InputStream stream(String key) throws IOException {
+        ByteBuffer buffer = this.getCached(key);
+        if (buffer == null) {
+            return blockStore.stream(key);
+        }
+        return new ByteBufferInputStream(buffer);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return blockStore.size(key);
+    }
+
+    @Override
+    public long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = this.getCached(key);
+        if (buffer == null) {
+            return blockStore.transferTo(key, position, count, target);
+        }
+        if (position >= buffer.limit()) return 0;
+
+        // Direct buffer is written to channel without copy in java heap
+        buffer.position((int) position);
+        buffer.limit((int) Math.min(buffer.limit(), position + count));
+        long copied = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return copied;
+    }
+
+    @Override
+    public Optional<Path> getLocalPath(String key) {
+        return blockStore.getLocalPath(key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        blockCache.invalidate(key);
+        blockStore.delete(key);
+    }
+
+    private ByteBuffer getCached(String key) throws IOException {
+        return blockCache.get(key, () -> blockStore.size(key), () -> blockStore.stream(key));
+    }
+
+    /**
+     * Stream on a cached content
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
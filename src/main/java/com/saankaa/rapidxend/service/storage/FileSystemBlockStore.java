@@ -0,0 +1,120 @@
+package com.saankaa.rapidxend.service.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Block store which saves each content in a file under a data directory.
+ * Files are spread in sub directories named with the two last characters of the key, to keep directories small.
+ */
+public class FileSystemBlockStore implements IBlockStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024; // 64 KiB
+    private static final Pattern KEY_PATTERN = Pattern.compile("^[A-Za-z0-9_-]{2,}$"); // Avoid path traversal
+
+    private final Logger LOGGER = LoggerFactory.getLogger(FileSystemBlockStore.class);
+
+    private final Path dataDirectory;
+
+    public FileSystemBlockStore(Path dataDirectory) throws IOException {
+        this.dataDirectory = dataDirectory.toAbsolutePath();
+        Files.createDirectories(this.dataDirectory);
+        LOGGER.info("Data blocks are stored in {}", this.dataDirectory);
+    }
+
+    /**
+     * @param key Content key
+     * @return Path of file which contains content
+     */
+    protected Path resolve(String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid block key");
+        }
+        return dataDirectory.resolve(key.substring(key.length() - 2)).resolve(key);
+    }
+
+    @Override
+    public long put(String key, InputStream data) throws IOException {
+        Path path = resolve(key);
+        Files.createDirectories(path.getParent());
+
+        // Write in temporary file then rename it. So a partial content is never visible with the key
+        Path temporaryPath = path.resolveSibling(key + ".part");
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long size = 0;
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int read;
+            while ((read = data.read(buffer.array())) != -1) {
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+                size += read;
+            }
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Abort write of {}", key);
+            Files.deleteIfExists(temporaryPath);
+            throw e;
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return size;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) ;
+            return buffer.array();
+        }
+    }
+
+    @Override
+    public InputStream stream(String key) throws IOException {
+        return Channels.newInputStream(FileChannel.open(resolve(key), StandardOpenOption.READ));
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    @Override
+    public long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+            // Kernel copies bytes to target without going through java heap when target is a socket or a file
+            long end = Math.min(position + count, channel.size());
+            long transferred = position;
+            while (transferred < end) {
+                transferred += channel.transferTo(transferred, end - transferred, target);
+            }
+            return transferred - position;
+        }
+    }
+
+    @Override
+    public Optional<Path> getLocalPath(String key) {
+        Path path = resolve(key);
+        return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+}
@@ -0,0 +1,72 @@
+package com.saankaa.rapidxend.service.storage;
+
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSUploadStream;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Block store based on a mongo GridFS bucket. Content key is used as GridFS filename.
+ * GridFS splits content in chunks, so it's not limited by the 16 MB mongo document size.
+ */
+public class GridFsBlockStore implements IBlockStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024; // 64 KiB
+
+    private final Logger LOGGER = LoggerFactory.getLogger(GridFsBlockStore.class);
+
+    private final GridFSBucket gridFSBucket;
+
+    public GridFsBlockStore(GridFSBucket gridFSBucket) {
+        this.gridFSBucket = gridFSBucket;
+    }
+
+    @Override
+    public long put(String key, InputStream data) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        GridFSUploadStream uploadStream = gridFSBucket.openUploadStream(key);
+        try {
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+                uploadStream.write(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Abort upload of {}", key);
+            uploadStream.abort();
+            throw e;
+        }
+        uploadStream.close();
+        return size;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try (InputStream inputStream = stream(key)) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    @Override
+    public InputStream stream(String key) {
+        return gridFSBucket.openDownloadStream(key);
+    }
+
+    @Override
+    public long size(String key) {
+        // Length is saved in files collection, chunks are not read
+        GridFSFile file = gridFSBucket.find(Filters.eq("filename", key)).first();
+        return (file != null) ? file.getLength() : -1;
+    }
+
+    @Override
+    public void delete(String key) {
+        gridFSBucket.find(Filters.eq("filename", key)).forEach(f -> gridFSBucket.delete(f.getObjectId()));
+    }
+}
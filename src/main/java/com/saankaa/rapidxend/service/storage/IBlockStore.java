@@ -0,0 +1,109 @@
+package com.saankaa.rapidxend.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Storage of data blocks content.
+ * Data blocks metadata are saved in mongo, their content is saved by an implementation of this interface.
+ * Each content is identified by a key generated by the caller.
+ */
+public interface IBlockStore {
+
+    /**
+     * Store content. Data is copied with a fixed size buffer, so it's never fully loaded in memory.
+     * If reading data fails, nothing is stored and the exception is rethrown.
+     *
+     * @param key  Content key
+     * @param data Content to store. It's not closed by this method
+     * @return Number of bytes stored
+     */
+    long put(String key, InputStream data) throws IOException;
+
+    /**
+     * Get whole content
+     *
+     * @param key Content key
+     * @return Content
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Open a stream on content. Caller must close it
+     *
+     * @param key Content key
+     * @return Content stream
+     */
+    InputStream stream(String key) throws IOException;
+
+    /**
+     * Get size of content from store metadata, without reading content.
+     * Default implementation returns -1, for stores which can't get it without reading content
+     *
+     * @param key Content key
+     * @return Number of bytes of content, -1 if unknown
+     */
+    default long size(String key) throws IOException {
+        return -1;
+    }
+
+    /**
+     * Copy a part of content to a channel.
+     * Default implementation copies content through a buffer. Implementations should override it when
+     * content can be sent without going through java heap
+     *
+     * @param key      Content key
+     * @param position Position of first byte to copy
+     * @param count    Number of bytes to copy
+     * @param target   Channel where content is written. It's not closed by this method
+     * @return Number of bytes copied
+     */
+    default long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        try (InputStream inputStream = stream(key)) {
+            long skipped = 0;
+            while (skipped < position) {
+                long n = inputStream.skip(position - skipped);
+                if (n <= 0) {
+                    if (inputStream.read() == -1) return 0; // Position is after the end of content
+                    n = 1;
+                }
+                skipped += n;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long copied = 0;
+            int read;
+            while (copied < count && (read = inputStream.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), count - copied))) != -1) {
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                buffer.clear();
+                copied += read;
+            }
+            return copied;
+        }
+    }
+
+    /**
+     * Get path of file which contains content, when it's saved on local disk.
+     * It allows web server to send file with sendfile system call
+     *
+     * @param key Content key
+     * @return Path of content or empty if content is not a local file
+     */
+    default Optional<Path> getLocalPath(String key) {
+        return Optional.empty();
+    }
+
+    /**
+     * Delete content. Nothing is done if key doesn't exist
+     *
+     * @param key Content key
+     */
+    void delete(String key) throws IOException;
+
+}
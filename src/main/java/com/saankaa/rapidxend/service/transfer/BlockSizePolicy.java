@@ -0,0 +1,81 @@
+package com.saankaa.rapidxend.service.transfer;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Choose data block size of a transfer.
+ * A data block must be large enough for the time waiting for each response to be small compared to sending time,
+ * and small enough to be sent before request times out on a weak link.
+ */
+@Component
+public class BlockSizePolicy {
+
+    public static final long MIN_DATA_BLOCK_SIZE = 1024 * 1024; // 1 Mio
+    public static final long MAX_DATA_BLOCK_SIZE = 50 * 1024 * 1024; // 50 Mio. Multipart requests are limited to 50MB
+    public static final int MAX_DATA_BLOCK_COUNT = 65536; // Checksums of each data block are saved in file document (16MB max)
+
+    private static final double MIN_DATA_BLOCK_DURATION = 2; // Seconds
+    private static final double MAX_DATA_BLOCK_DURATION = 10; // Seconds
+    private static final int ROUND_TRIPS_PER_DATA_BLOCK = 20; // So waiting for response costs less than 5% of time
+    private static final double THROUGHPUT_WEIGHT = 0.3; // Weight of last measure in average throughput
+
+    /**
+     * Data block size when nothing is known about the link. It only depends on file size
+     *
+     * @param fileSize File size in bytes
+     * @return Data block size in bytes
+     */
+    public long getInitialDataBlockSize(long fileSize) {
+        if (fileSize > 300L * 1024 * 1024 && fileSize < 1024L * 1024 * 1024) { // >300 Mio < 1GiB
+            return 10L * 1024 * 1024;
+        } else if (fileSize >= 1024L * 1024 * 1024) { // > 1GiB
+            return MAX_DATA_BLOCK_SIZE;
+        }
+        return 5L * 1024 * 1024;
+    }
+
+    /**
+     * Data block size for a link
+     *
+     * @param throughput Bytes per second
+     * @param rtt        Round trip time in milliseconds
+     * @return Data block size in bytes, a multiple of 1 Mio
+     */
+    public long getDataBlockSize(double throughput, double rtt) {
+        if ((throughput <= 0) || (rtt < 0)) {
+            throw new IllegalArgumentException("Throughput must be positive and RTT must not be negative");
+        }
+        double duration = Math.min(MAX_DATA_BLOCK_DURATION, Math.max(MIN_DATA_BLOCK_DURATION, rtt / 1000 * ROUND_TRIPS_PER_DATA_BLOCK));
+        long dataBlockSize = (long) (throughput * duration / MIN_DATA_BLOCK_SIZE) * MIN_DATA_BLOCK_SIZE;
+        return Math.min(MAX_DATA_BLOCK_SIZE, Math.max(MIN_DATA_BLOCK_SIZE, dataBlockSize));
+    }
+
+    /**
+     * Smallest data block size which splits remaining bytes in at most a number of data blocks
+     *
+     * @param remainingSize  Bytes not received yet
+     * @param dataBlockCount Max data block count for these bytes
+     * @return Data block size in bytes, a multiple of 1 Mio
+     */
+    public long getMinDataBlockSize(long remainingSize, int dataBlockCount) {
+        if (dataBlockCount <= 0) {
+            throw new IllegalArgumentException("Data block count must be positive");
+        }
+        long dataBlockSize = (remainingSize + dataBlockCount - 1) / dataBlockCount;
+        return Math.max(MIN_DATA_BLOCK_SIZE, (dataBlockSize + MIN_DATA_BLOCK_SIZE - 1) / MIN_DATA_BLOCK_SIZE * MIN_DATA_BLOCK_SIZE);
+    }
+
+    /**
+     * Add a measure to average throughput (exponentially weighted)
+     *
+     * @param throughput Average throughput in bytes per second. Null if there is no measure yet
+     * @param size       Bytes received
+     * @param duration   Receiving duration in nanoseconds
+     * @return New average throughput
+     */
+    public double updateThroughput(Double throughput, long size, long duration) {
+        double measure = size / (Math.max(duration, 1) / 1e9);
+        if (throughput == null) return measure;
+        return throughput + THROUGHPUT_WEIGHT * (measure - throughput);
+    }
+}
@@ -0,0 +1,102 @@
+package com.saankaa.rapidxend.service.transfer;
+
+import com.saankaa.rapidxend.service.transfer.checksum.ResumableMD5;
+import com.saankaa.rapidxend.service.transfer.exception.FileTooLargeException;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/**
+ * Stream of a data block sent by a device.
+ * It updates file MD5 with bytes read (if any), computes data block CRC32C and SHA-256, and fails when data block is larger than max size.
+ * So checks are done while data is copied to block store.
+ */
+class DataBlockInputStream extends FilterInputStream {
+
+    private final long maxSize;
+    private final ResumableMD5 md5;
+    private final CRC32C crc32c = new CRC32C();
+    private final MessageDigest sha256;
+    private long size = 0;
+
+    DataBlockInputStream(InputStream in, long maxSize, ResumableMD5 md5) {
+        super(in);
+        this.maxSize = maxSize;
+        this.md5 = md5;
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count(1);
+            if (md5 != null) md5.update(new byte[]{(byte) b});
+            crc32c.update(b);
+            sha256.update((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            count(read);
+            if (md5 != null) md5.update(b, off, read);
+            crc32c.update(b, off, read);
+            sha256.update(b, off, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        return 0; // All bytes must be read to compute checksum
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(int read) {
+        size += read;
+        if (size > maxSize) {
+            throw new FileTooLargeException("Data received is too large that data block size.");
+        }
+    }
+
+    /**
+     * @return Number of bytes read
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * @return CRC32C of bytes read (hex)
+     */
+    String getCRC32C() {
+        return String.format("%08X", crc32c.getValue());
+    }
+
+    /**
+     * Must be called once, after all bytes are read
+     *
+     * @return SHA-256 of bytes read (hex). Identifies data block content
+     */
+    String getSHA256() {
+        return DatatypeConverter.printHexBinary(sha256.digest());
+    }
+}
@@ -0,0 +1,79 @@
+package com.saankaa.rapidxend.service.transfer;
+
+import com.saankaa.rapidxend.model.DataBlockRange;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Operations on lists of data block ranges.
+ * Lists are normalized: ranges are sorted, they don't overlap and don't follow each other.
+ * So a receiver which acknowledges data blocks one by one in order has a single range.
+ */
+final class DataBlockRanges {
+
+    private DataBlockRanges() {
+    }
+
+    /**
+     * Add ranges to a list of ranges
+     *
+     * @param ranges    Normalized ranges, not modified
+     * @param newRanges Ranges to add, in any order
+     * @return Normalized ranges
+     */
+    static List<DataBlockRange> add(List<DataBlockRange> ranges, Collection<DataBlockRange> newRanges) {
+        List<DataBlockRange> all = new ArrayList<>(ranges.size() + newRanges.size());
+        all.addAll(ranges);
+        all.addAll(newRanges);
+        all.sort(Comparator.comparing(DataBlockRange::getFirst));
+
+        List<DataBlockRange> merged = new ArrayList<>();
+        DataBlockRange current = null;
+        for (DataBlockRange range : all) {
+            if (current != null && range.getFirst() <= current.getLast() + 1) {
+                current.setLast(Math.max(current.getLast(), range.getLast()));
+                continue;
+            }
+            current = new DataBlockRange(range.getFirst(), range.getLast());
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * Data blocks which are in both lists
+     *
+     * @param ranges      Normalized ranges
+     * @param otherRanges Normalized ranges
+     * @return Normalized ranges
+     */
+    static List<DataBlockRange> intersect(List<DataBlockRange> ranges, List<DataBlockRange> otherRanges) {
+        List<DataBlockRange> intersection = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < ranges.size() && j < otherRanges.size()) {
+            DataBlockRange range = ranges.get(i), otherRange = otherRanges.get(j);
+            int first = Math.max(range.getFirst(), otherRange.getFirst());
+            int last = Math.min(range.getLast(), otherRange.getLast());
+            if (first <= last) {
+                intersection.add(new DataBlockRange(first, last));
+            }
+            // Range which ends first can't intersect next ranges of the other list
+            if (range.getLast() < otherRange.getLast()) i++;
+            else j++;
+        }
+        return intersection;
+    }
+
+    /**
+     * Count data blocks in ranges
+     *
+     * @param ranges Normalized ranges
+     * @return Number of data blocks
+     */
+    static long count(List<DataBlockRange> ranges) {
+        return ranges.stream().mapToLong(range -> (long) range.getLast() - range.getFirst() + 1).sum();
+    }
+}
@@ -1,5 +1,10 @@
 package com.saankaa.rapidxend.service.transfer;
 
+import com.saankaa.rapidxend.model.DataBlock;
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.File;
+import com.saankaa.rapidxend.model.FileContent;
+import com.saankaa.rapidxend.model.FileManifest;
 import com.saankaa.rapidxend.model.Transfer;
 import com.saankaa.rapidxend.service.device.Exception.DeviceNotFoundException;
 import com.saankaa.rapidxend.service.transfer.exception.FileCorruptedException;
@@ -9,7 +14,10 @@ import com.saankaa.rapidxend.service.transfer.exception.TransferNotFoundExceptio
 import org.apache.commons.codec.DecoderException;
 import org.springframework.data.domain.Pageable;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
+import java.util.Date;
 import java.util.List;
 
 public interface ITransferService {
@@ -37,7 +45,8 @@ public interface ITransferService {
      * @param senderDeviceId    Sender device id
      * @param transfer          Transfer information. Information about file, sender and receivers.
      * @param receiverDeviceIds Receivers device id
-     * @return transfer created
+     * @return transfer created. If a file with the same checksum and size has already been received, its data blocks
+     * are used and transfer is in FINISHED state, so sender doesn't have to send data
      */
     Transfer create(String senderDeviceId, Transfer transfer, List<String> receiverDeviceIds) throws DeviceNotFoundException, FileTooLargeException;
 
@@ -49,6 +58,15 @@ public interface ITransferService {
      */
     void cancel(String transferId, String deviceId) throws DeviceNotFoundException, TransferNotFoundException;
 
+    /**
+     * Cancel transfers still in progress without data block received or acknowledged since a date.
+     * Sender and receivers are notified
+     *
+     * @param lastActivityBefore Last activity date limit
+     * @return Number of transfers cancelled
+     */
+    int cancelExpiredTransfers(Date lastActivityBefore);
+
     /**
      * Sending data
      *
@@ -59,6 +77,74 @@ public interface ITransferService {
      */
     int sendData(String transferId, String senderDeviceId, byte[] data) throws TransferNotFoundException, InvalidDataBlockException, NoSuchAlgorithmException, FileTooLargeException, FileCorruptedException, DeviceNotFoundException, DecoderException;
 
+    /**
+     * Sending data from a stream.
+     * Data is copied to storage with a fixed size buffer, so memory used doesn't depend on data block size
+     *
+     * @param transferId     Transfer id
+     * @param senderDeviceId Sender device id
+     * @param data           Stream of data block to send. It's not closed by this method
+     * @return Last data block number
+     */
+    int sendData(String transferId, String senderDeviceId, InputStream data) throws TransferNotFoundException, InvalidDataBlockException, NoSuchAlgorithmException, FileTooLargeException, FileCorruptedException, DeviceNotFoundException, DecoderException, IOException;
+
+    /**
+     * Sending a data block with its number. Data blocks can be sent in any order and in parallel.
+     * Sending again a data block already received with the same content has no effect.
+     * Transfer is finished when all data blocks are received
+     *
+     * @param transferId      Transfer id
+     * @param senderDeviceId  Sender device id
+     * @param dataBlockNumber Data block number. If null, data block following the last one received
+     * @param crc32c          CRC32C (hex) of data block computed by sender. If set, data block is rejected when
+     *                        checksum of data received is different, so only this data block has to be sent again
+     * @param data            Stream of data block to send, read from sender. It's not closed by this method.
+     *                        Throughput of sender link is measured while reading it
+     * @return Data block number
+     */
+    int sendData(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, InputStream data) throws TransferNotFoundException, InvalidDataBlockException, NoSuchAlgorithmException, FileTooLargeException, FileCorruptedException, DeviceNotFoundException, DecoderException, IOException;
+
+    /**
+     * Check a data block can be sent, without reading it. Used before accepting a data block saved later
+     *
+     * @param transferId      Transfer id
+     * @param senderDeviceId  Sender device id
+     * @param dataBlockNumber Data block number
+     * @throws TransferNotFoundException If transfer doesn't exist or is finished
+     * @throws DeviceNotFoundException   If device is not the sender of transfer
+     * @throws InvalidDataBlockException If file has no data block with this number
+     */
+    void checkDataBlock(String transferId, String senderDeviceId, int dataBlockNumber) throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException;
+
+    /**
+     * Sending a data block already received from sender (in a local file for example), with its number.
+     * Same as {@link #sendData(String, String, Integer, String, InputStream)}, but throughput of sender link is the one
+     * measured while data block was received, not while reading data
+     *
+     * @param transferId      Transfer id
+     * @param senderDeviceId  Sender device id
+     * @param dataBlockNumber Data block number. If null, data block following the last one received
+     * @param crc32c          CRC32C (hex) of data block computed by sender, can be null
+     * @param data            Stream of data block to send. It's not closed by this method
+     * @param receiveDuration Nanoseconds spent receiving data block from sender. If null, throughput is not updated
+     * @return Data block number
+     */
+    int sendData(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, InputStream data, Long receiveDuration) throws TransferNotFoundException, InvalidDataBlockException, NoSuchAlgorithmException, FileTooLargeException, FileCorruptedException, DeviceNotFoundException, DecoderException, IOException;
+
+    /**
+     * Choose data block size for the rest of the transfer from sender link quality.
+     * Data block size is changed only if data blocks received follow each other from the first one. Then data blocks
+     * not received yet are numbered from the number of data blocks received, with the new size
+     *
+     * @param transferId     Transfer id
+     * @param senderDeviceId Sender device id
+     * @param throughput     Throughput measured by sender in bytes per second. If null, throughput measured while
+     *                       receiving data blocks is used
+     * @param rtt            Round trip time measured by sender in milliseconds. Can be null
+     * @return File with data block size and data block count to use
+     */
+    File updateDataBlockSize(String transferId, String senderDeviceId, Double throughput, Double rtt) throws TransferNotFoundException, DeviceNotFoundException;
+
     /**
      * Receive data
      *
@@ -67,4 +153,71 @@ public interface ITransferService {
      * @return data
      */
     byte[] receiveData(String transferId, String receiverDeviceId, Integer dataBlockNumber) throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException;
+
+    /**
+     * Get data block metadata for a receiver. Same checks and notification as {@link #receiveData(String, String, Integer)},
+     * but content is not read. So caller can copy it from block store to the client without loading it in memory
+     *
+     * @param transferId       Transfer id
+     * @param receiverDeviceId Receiver device id
+     * @param dataBlockNumber  data block number
+     * @return Data block. Its storage key identifies its content in block store
+     */
+    DataBlock getDataBlock(String transferId, String receiverDeviceId, Integer dataBlockNumber) throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException;
+
+    /**
+     * Read a data block of a relay transfer while sender uploads it.
+     * Stream fails if data block is refused or if receiver is too slow, then data block has to be read from block store
+     * when it's available
+     *
+     * @param transferId       Transfer id
+     * @param receiverDeviceId Receiver device id
+     * @param dataBlockNumber  Data block number
+     * @return Stream of data block content as sent by sender, null if data block is not being relayed
+     */
+    InputStream relayData(String transferId, String receiverDeviceId, Integer dataBlockNumber) throws TransferNotFoundException, DeviceNotFoundException;
+
+    /**
+     * Get metadata of data blocks available for a receiver, sorted by number, with the size of the whole file.
+     * Only data blocks which follow each other from the first one are returned, so their content
+     * can be read as the beginning of the file. Content tells if the data block after them has been deleted
+     * after being acknowledged, so the rest of the file can't be read anymore
+     *
+     * @param transferId       Transfer id
+     * @param receiverDeviceId Receiver device id
+     * @return File size and data blocks available
+     */
+    FileContent getContent(String transferId, String receiverDeviceId) throws TransferNotFoundException, DeviceNotFoundException;
+
+    /**
+     * Get metadata of data blocks in ranges for a receiver, sorted by number. Receiver is checked once for all data blocks.
+     * Data blocks not received from sender, or already deleted, are not returned. Sender is notified
+     * when the last data block is returned, like with {@link #getDataBlock(String, String, Integer)}
+     *
+     * @param transferId       Transfer id
+     * @param receiverDeviceId Receiver device id
+     * @param ranges           Data blocks to get
+     * @return Data blocks available in ranges
+     */
+    List<DataBlock> getDataBlocks(String transferId, String receiverDeviceId, List<DataBlockRange> ranges) throws TransferNotFoundException, DeviceNotFoundException;
+
+    /**
+     * Acknowledge data blocks saved by a receiver.
+     * Data blocks acknowledged by all receivers are deleted, so they can't be received again
+     *
+     * @param transferId       Transfer id
+     * @param receiverDeviceId Receiver device id
+     * @param ranges           Data blocks saved by receiver. Data blocks must have been received from sender
+     * @return All data blocks acknowledged by receiver
+     */
+    List<DataBlockRange> acknowledgeData(String transferId, String receiverDeviceId, List<DataBlockRange> ranges) throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException;
+
+    /**
+     * Get data blocks received with their CRC32C and SHA-256, and Merkle root of their SHA-256 when all data blocks are received
+     *
+     * @param transferId Transfer id
+     * @param deviceId   Sender or receiver device id
+     * @return Manifest
+     */
+    FileManifest getManifest(String transferId, String deviceId) throws TransferNotFoundException, DeviceNotFoundException;
 }
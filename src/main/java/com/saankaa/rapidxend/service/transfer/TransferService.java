@@ -1,30 +1,48 @@
 package com.saankaa.rapidxend.service.transfer;
 
+import com.saankaa.rapidxend.config.AppEnvVariable;
 import com.saankaa.rapidxend.model.*;
+import com.saankaa.rapidxend.repository.IBlockContentRepository;
 import com.saankaa.rapidxend.repository.IDataBlockRepository;
 import com.saankaa.rapidxend.repository.IDeviceRepository;
 import com.saankaa.rapidxend.repository.IFileRepository;
 import com.saankaa.rapidxend.repository.ITransferRepository;
 import com.saankaa.rapidxend.service.device.Exception.DeviceNotFoundException;
 import com.saankaa.rapidxend.service.notification.INotificationService;
+import com.saankaa.rapidxend.service.storage.IBlockStore;
+import com.saankaa.rapidxend.service.transfer.checksum.MerkleTree;
+import com.saankaa.rapidxend.service.transfer.checksum.ResumableMD5;
+import com.saankaa.rapidxend.service.transfer.compression.BlockCompression;
 import com.saankaa.rapidxend.service.transfer.exception.FileCorruptedException;
 import com.saankaa.rapidxend.service.transfer.exception.FileTooLargeException;
 import com.saankaa.rapidxend.service.transfer.exception.InvalidDataBlockException;
 import com.saankaa.rapidxend.service.transfer.exception.TransferNotFoundException;
+import com.saankaa.rapidxend.service.transfer.relay.RelayBuffer;
+import com.saankaa.rapidxend.service.transfer.relay.RelayService;
 import org.apache.commons.codec.DecoderException;
 import org.apache.tika.Tika;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import javax.xml.bind.DatatypeConverter;
-import java.security.MessageDigest;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -32,6 +50,11 @@ import java.util.stream.Collectors;
 @Service
 public class TransferService implements ITransferService {
 
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024; // 64 KiB. Memory used per upload or download
+    private static final int MAX_BATCH_DATA_BLOCKS = 1000; // Data blocks returned by one call of getDataBlocks with ranges
+    private static final int MAX_CONTENT_ATTEMPTS = 5; // Concurrent requests storing the same content
+    private static final String DEFAULT_MAX_FILE_SIZE = String.valueOf(1024L * 1024 * 1024 * 1024); // 1 TiB
+
     private final Logger LOGGER = LoggerFactory.getLogger(TransferService.class);
 
     private final ITransferRepository transferRepository;
@@ -39,15 +62,27 @@ public class TransferService implements ITransferService {
     private final IDataBlockRepository dataBlockRepository;
     private final IDeviceRepository deviceRepository;
     private final INotificationService notificationService;
+    private final IBlockStore blockStore;
+    private final IBlockContentRepository blockContentRepository;
+    private final BlockSizePolicy blockSizePolicy;
+    private final RelayService relayService;
+    private final long maxFileSize;
 
     public TransferService(@Autowired ITransferRepository transferRepository, @Autowired IFileRepository fileRepository,
                            @Autowired IDataBlockRepository dataBlockRepository, @Autowired IDeviceRepository deviceRepository,
-                           @Autowired INotificationService notificationService) {
+                           @Autowired INotificationService notificationService, @Autowired IBlockStore blockStore,
+                           @Autowired IBlockContentRepository blockContentRepository, @Autowired BlockSizePolicy blockSizePolicy,
+                           @Autowired RelayService relayService) {
         this.transferRepository = transferRepository;
         this.fileRepository = fileRepository;
         this.dataBlockRepository = dataBlockRepository;
         this.deviceRepository = deviceRepository;
         this.notificationService = notificationService;
+        this.blockStore = blockStore;
+        this.blockContentRepository = blockContentRepository;
+        this.blockSizePolicy = blockSizePolicy;
+        this.relayService = relayService;
+        this.maxFileSize = Long.parseLong(AppEnvVariable.getValue(AppEnvVariable.TRANSFER_MAX_FILE_SIZE, DEFAULT_MAX_FILE_SIZE));
     }
 
 
@@ -90,6 +125,10 @@ public class TransferService implements ITransferService {
         if ((file.getSize() == null)) {
             throw new IllegalArgumentException("File size is required");
         }
+        if (file.getSize() <= 0) {
+            LOGGER.error("File size must be positive");
+            throw new IllegalArgumentException("File size must be positive");
+        }
     }
 
     @Override
@@ -113,20 +152,22 @@ public class TransferService implements ITransferService {
 
         Transfer newTransfer = new Transfer();
         newTransfer.setState(TransferState.IN_PROGRESS);
+        newTransfer.setRelay(Boolean.TRUE.equals(transfer.getRelay()));
         File file = new File();
         file.setFilename(transfer.getFile().getFilename());
         file.setSize(transfer.getFile().getSize());
         file.setMD5ChecksumHex(transfer.getFile().getMD5ChecksumHex().toUpperCase());
+        file.setSenderDeviceId(senderDeviceId);
         // Check if file size is not superior than max size
-        if (file.getSize() > 3000) {
-            LOGGER.error("File size is too large. Max size=3GiB");
-            throw new FileTooLargeException("File size is too large. Max size=3GiB");
+        if (file.getSize() > maxFileSize) {
+            LOGGER.error("File size is too large. Max size={} bytes", maxFileSize);
+            throw new FileTooLargeException("File size is too large. Max size=" + maxFileSize + " bytes");
         }
-        // Determine data block size
-        if (file.getSize() > 300 && file.getSize() < 1000) { // >300 Mio < 1GiB
-            file.setDataBlockSize(10); // 10 MB
-        } else if (file.getSize() >= 1000) { // > 1GiB
-            file.setDataBlockSize(50);
+        // Determine data block size. Sender can change it with measured throughput
+        file.setDataBlockSize(blockSizePolicy.getInitialDataBlockSize(file.getSize()));
+        if (file.getDataBlockCount() > BlockSizePolicy.MAX_DATA_BLOCK_COUNT) {
+            LOGGER.error("File has too many data blocks. Max count={}", BlockSizePolicy.MAX_DATA_BLOCK_COUNT);
+            throw new FileTooLargeException("File size is too large. Max data block count=" + BlockSizePolicy.MAX_DATA_BLOCK_COUNT);
         }
 
         LOGGER.debug("Verify sender device id validity...");
@@ -152,6 +193,18 @@ public class TransferService implements ITransferService {
             newTransfer.getReceivers().add(optionalDevice.get());
         }
 
+        // No data block received yet
+        file.setId(new ObjectId().toHexString());
+        file.setReceivedDataBlocks(this.toBitmapWords(new BitSet(), file.getDataBlockCount()));
+        file.setDataBlockChecksums(new ArrayList<>());
+
+        LOGGER.debug("Check if file has already been received...");
+        boolean received = this.copyReceivedFile(file);
+        if (received) {
+            LOGGER.info("File already received. Sender doesn't have to send data");
+            newTransfer.setState(TransferState.FINISHED);
+        }
+
         fileRepository.save(file);
         transferRepository.save(newTransfer);
 
@@ -160,22 +213,32 @@ public class TransferService implements ITransferService {
                 .senderDeviceId(senderDeviceId)
                 .transferId(newTransfer.getId())
                 .notificationType(NotificationType.TRANSFER_CREATED.getValue());
-        for (String id : receiverDeviceIds) {
-            notificationService.notifyDevice(notificationBuilder.receiverDeviceId(id).build());
+        notificationService.notifyDevices(notificationBuilder.build(), receiverDeviceIds);
+
+        if (received) {
+            LOGGER.info("Notify receivers that all data blocks are available");
+            notificationBuilder.notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue())
+                    .dataBlockNumber(file.getDataBlockCount() - 1)
+                    .dataBlockRanges(new ArrayList<>(List.of(new DataBlockRange(0, file.getDataBlockCount() - 1))));
+            notificationService.notifyDevices(notificationBuilder.build(), receiverDeviceIds);
         }
         return newTransfer;
     }
 
+    private List<String> getDeviceIds(List<Device> devices) {
+        return devices.stream().map(Device::getId).collect(Collectors.toCollection(ArrayList::new));
+    }
+
     private void deleteTransfer(Transfer transfer) {
         if (transfer != null) {
             LOGGER.debug("Delete file");
             File file = transfer.getFile();
             if (file != null) {
                 LOGGER.debug("Delete all dataBlock");
-                fileRepository.delete(transfer.getFile());
-                List<DataBlock> dataBlocks = transfer.getFile().getDataBlocks();
-                if (dataBlocks != null)
-                    dataBlockRepository.deleteAll(dataBlocks);
+                fileRepository.delete(file);
+                dataBlockRepository.findByFileIdOrderByNumberAsc(file.getId())
+                        .forEach(this::releaseContent);
+                dataBlockRepository.deleteByFileId(file.getId());
             }
             LOGGER.debug("Delete transfer");
             transferRepository.delete(transfer);
@@ -197,14 +260,10 @@ public class TransferService implements ITransferService {
             this.deleteTransfer(transfer);
 
             LOGGER.debug("Notify all receivers that transfer has been deleted");
-            List<Device> receivers = transfer.getReceivers();
-            for (Device r : receivers) {
-                notificationService.notifyDevice(new NotificationBuilder()
-                        .transferId(transfer.getId())
-                        .senderDeviceId(deviceId)
-                        .receiverDeviceId(r.getId())
-                        .notificationType(NotificationType.TRANSFER_CANCELLED.getValue()).build());
-            }
+            notificationService.notifyDevices(new NotificationBuilder()
+                    .transferId(transfer.getId())
+                    .senderDeviceId(deviceId)
+                    .notificationType(NotificationType.TRANSFER_CANCELLED.getValue()).build(), this.getDeviceIds(transfer.getReceivers()));
             return; // To avoid execution of code below
         }
 
@@ -242,22 +301,335 @@ public class TransferService implements ITransferService {
             }
 
             transferRepository.save(transfer);
+
+            LOGGER.debug("Data blocks may now be acknowledged by all remaining receivers");
+            this.deleteAcknowledgedDataBlocks(transfer);
         } else {
             LOGGER.debug("Transfer not found");
             throw new TransferNotFoundException("Transfer not found");
         }
     }
 
-    private String MD5Hex(List<DataBlock> dataBlocks) throws NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        for (DataBlock dataBlock : dataBlocks)
-            md.update(dataBlock.getData());
+    @Override
+    public int cancelExpiredTransfers(Date lastActivityBefore) {
+        if (lastActivityBefore == null) {
+            LOGGER.error("Date is null");
+            throw new IllegalArgumentException("Date can't be null");
+        }
+
+        int count = 0;
+        List<Transfer> transfers;
+        // Cancelled transfers are deleted, so first page always contains the next ones
+        while (!(transfers = transferRepository.findInactive(TransferState.IN_PROGRESS, lastActivityBefore, 100)).isEmpty()) {
+            for (Transfer transfer : transfers) {
+                LOGGER.info("Transfer {} has expired. Delete it", transfer.getId());
+                this.deleteTransfer(transfer);
+                count++;
+
+                String senderDeviceId = transfer.getSender() != null ? transfer.getSender().getId() : null;
+                List<String> deviceIds = this.getDeviceIds(transfer.getReceivers() != null ? transfer.getReceivers() : List.of());
+                if (senderDeviceId != null) {
+                    deviceIds.add(0, senderDeviceId);
+                }
+                notificationService.notifyDevices(new NotificationBuilder()
+                        .transferId(transfer.getId())
+                        .senderDeviceId(senderDeviceId)
+                        .notificationType(NotificationType.TRANSFER_CANCELLED.getValue()).build(), deviceIds);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Size of a data block. Data blocks have the data block size of the file, except the last one which
+     * contains remaining bytes
+     *
+     * @param file            File
+     * @param dataBlockNumber Data block number, not before the first data block with current data block size
+     * @return Data block size in bytes
+     */
+    private long getDataBlockSize(File file, int dataBlockNumber) {
+        long offset = file.getDataBlockSizeStartOffset() + (long) (dataBlockNumber - file.getDataBlockSizeStartNumber()) * file.getDataBlockSize();
+        return Math.min(file.getDataBlockSize(), file.getSize() - offset);
+    }
+
+    /**
+     * Data blocks received as a bitmap. Bit n is set when data block n has been stored.
+     *
+     * @param file File
+     * @return Received data blocks
+     */
+    private BitSet getReceivedDataBlocks(File file) {
+        return BitSet.valueOf(file.getReceivedDataBlocks().stream().mapToLong(Long::longValue).toArray());
+    }
+
+    /**
+     * Bitmap words saved with the file. All words are kept, even the empty ones,
+     * so the list size only depends on data block count
+     *
+     * @param received       Received data blocks
+     * @param dataBlockCount Data block count
+     * @return Bitmap words
+     */
+    private List<Long> toBitmapWords(BitSet received, int dataBlockCount) {
+        long[] words = Arrays.copyOf(received.toLongArray(), (dataBlockCount + 63) / 64);
+        return Arrays.stream(words).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * Save received data blocks bitmap of files created before it was saved.
+     * Their data blocks were received in order, and MD5 state (if any) includes all of them
+     *
+     * @param file File
+     * @return File with received data blocks bitmap
+     */
+    private File initReceivedDataBlocks(File file) {
+        LOGGER.info("Save received data blocks of file");
+        int receivedCount = file.getLastDataBlockNumber() + 1;
+        BitSet received = new BitSet();
+        received.set(0, receivedCount);
+        fileRepository.initReceivedDataBlocks(file.getId(), this.toBitmapWords(received, file.getDataBlockCount()),
+                receivedCount, file.getMd5DigestState() != null ? receivedCount : 0);
+        return fileRepository.findById(file.getId()).orElse(file);
+    }
+
+    /**
+     * Restore running MD5 of file data blocks.
+     * MD5 covers data blocks which follow each other from the first one.
+     *
+     * @param file File
+     * @return MD5 of data blocks already digested
+     */
+    private ResumableMD5 loadMD5(File file) {
+        if (file.getMd5DigestState() == null) {
+            return new ResumableMD5();
+        }
+        return ResumableMD5.fromState(file.getMd5DigestState());
+    }
+
+    /**
+     * Add to MD5 the data blocks already stored which follow the ones digested.
+     * When data blocks are sent in order, there is nothing to read.
+     * MD5 state is saved only if it has not changed since it was read, so a data block is never digested twice.
+     * Loop ends when data block following the digested ones is not received yet, so the device sending it
+     * will update MD5.
+     *
+     * @param file File
+     * @return File with MD5 state updated
+     */
+    private File updateMD5(File file) throws IOException, TransferNotFoundException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        BitSet received = this.getReceivedDataBlocks(file);
+        while (received.get(file.getMd5DataBlockCount())) {
+            ResumableMD5 md5 = this.loadMD5(file);
+            int number = file.getMd5DataBlockCount();
+            while (received.get(number)) {
+                LOGGER.debug("Add data block {} to MD5", number);
+                DataBlock dataBlock = dataBlockRepository.findByFileIdAndNumber(file.getId(), number);
+                try (InputStream inputStream = this.streamData(dataBlock)) {
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1)
+                        md5.update(buffer, 0, read);
+                }
+                number++;
+            }
+
+            File updatedFile = fileRepository.updateMD5DigestState(file.getId(), file.getMd5DataBlockCount(), number, md5.getState());
+            if (updatedFile == null) {
+                LOGGER.debug("MD5 updated by another request. Reload file");
+                updatedFile = fileRepository.findById(file.getId()).orElseThrow(() -> {
+                    LOGGER.error("File not found");
+                    return new TransferNotFoundException("File not found");
+                });
+            }
+            file = updatedFile;
+            received = this.getReceivedDataBlocks(file);
+        }
+        return file;
+    }
+
+    /**
+     * Compare a data block content with data sent again
+     *
+     * @param dataBlock Data block already received
+     * @param data      Data sent
+     * @return true if data is the same
+     */
+    private boolean isSameData(DataBlock dataBlock, InputStream data) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        byte[] storedBuffer = new byte[STREAM_BUFFER_SIZE];
+        try (InputStream stored = this.streamData(dataBlock)) {
+            int read;
+            while ((read = data.readNBytes(buffer, 0, buffer.length)) > 0) {
+                if (stored.readNBytes(storedBuffer, 0, read) != read) return false;
+                if (!Arrays.equals(buffer, 0, read, storedBuffer, 0, read)) return false;
+            }
+            return stored.read() == -1;
+        }
+    }
+
+    /**
+     * Use data blocks of a file already received from the same sender with the same checksum and size.
+     * Contents are shared, so data blocks are not stored again.
+     * Files of other senders are never used: checksum and size are sent by the client, so knowing them is no proof
+     * of having the content, and MD5 collisions can be crafted.
+     *
+     * @param file New file with its sender, not saved yet
+     * @return true if data blocks have been copied, so file is received
+     */
+    private boolean copyReceivedFile(File file) {
+        Optional<File> optionalReceivedFile = fileRepository.findBySenderAndChecksumAndSize(file.getSenderDeviceId(), file.getMD5ChecksumHex(), file.getSize(), Pageable.ofSize(10))
+                .stream()
+                .filter(f -> (f.getReceivedDataBlockCount() != null) && (f.getReceivedDataBlockCount() == f.getDataBlockCount()))
+                .findFirst();
+        if (optionalReceivedFile.isEmpty()) return false;
+
+        File receivedFile = optionalReceivedFile.get();
+        int dataBlockCount = receivedFile.getDataBlockCount();
+        List<DataBlock> receivedDataBlocks = dataBlockRepository.findByFileIdOrderByNumberAsc(receivedFile.getId());
+        if ((receivedDataBlocks.size() != dataBlockCount) || receivedDataBlocks.stream().anyMatch(dataBlock -> dataBlock.getContentId() == null)) {
+            LOGGER.debug("Data blocks of file received are not shared");
+            return false;
+        }
+
+        List<DataBlock> dataBlocks = new ArrayList<>(dataBlockCount);
+        for (DataBlock receivedDataBlock : receivedDataBlocks) {
+            if (blockContentRepository.acquire(receivedDataBlock.getContentId()) == null) {
+                LOGGER.debug("File received is being deleted");
+                dataBlocks.forEach(this::releaseContent);
+                return false;
+            }
+            DataBlock dataBlock = new DataBlock();
+            dataBlock.setFileId(file.getId());
+            dataBlock.setNumber(receivedDataBlock.getNumber());
+            dataBlock.setStorageKey(receivedDataBlock.getStorageKey());
+            dataBlock.setSize(receivedDataBlock.getSize());
+            dataBlock.setEncoding(receivedDataBlock.getEncoding());
+            dataBlock.setStoredSize(receivedDataBlock.getStoredSize());
+            dataBlock.setCrc32c(receivedDataBlock.getCrc32c());
+            dataBlock.setContentId(receivedDataBlock.getContentId());
+            dataBlocks.add(dataBlock);
+        }
+        dataBlockRepository.insert(dataBlocks);
+
+        file.setMimetype(receivedFile.getMimetype());
+        file.setDataBlockSize(receivedFile.getDataBlockSize());
+        file.setDataBlockSizeStartNumber(receivedFile.getDataBlockSizeStartNumber());
+        file.setDataBlockSizeStartOffset(receivedFile.getDataBlockSizeStartOffset());
+        file.setReceivedDataBlocks(receivedFile.getReceivedDataBlocks());
+        file.setReceivedDataBlockCount(receivedFile.getReceivedDataBlockCount());
+        file.setLastDataBlockNumber(receivedFile.getLastDataBlockNumber());
+        file.setMd5DigestState(receivedFile.getMd5DigestState());
+        file.setMd5DataBlockCount(receivedFile.getMd5DataBlockCount());
+        file.setDataBlockChecksums(receivedFile.getDataBlockChecksums() != null ? receivedFile.getDataBlockChecksums()
+                : dataBlocks.stream().map(this::toDataBlockChecksum).collect(Collectors.toList()));
+        return true;
+    }
 
-        return DatatypeConverter.printHexBinary(md.digest());
+    private FileManifest.DataBlockChecksum toDataBlockChecksum(DataBlock dataBlock) {
+        return new FileManifest.DataBlockChecksum(dataBlock.getNumber(), dataBlock.getSize(), dataBlock.getCrc32c(), dataBlock.getContentId());
+    }
+
+    /**
+     * Add a reference to content already stored with the same hash, or share the content just stored.
+     * When the same content is already stored, data block uses it with its encoding.
+     *
+     * @param dataBlock Data block with content just stored. Its content is deleted if the same content is already stored
+     */
+    private void acquireContent(DataBlock dataBlock) {
+        for (int attempt = 1; attempt <= MAX_CONTENT_ATTEMPTS; attempt++) {
+            BlockContent content = blockContentRepository.acquire(dataBlock.getContentId());
+            if (content != null) {
+                LOGGER.info("Same content already stored");
+                this.deleteData(dataBlock.getStorageKey());
+                dataBlock.setStorageKey(content.getStorageKey());
+                dataBlock.setEncoding(content.getEncoding());
+                dataBlock.setStoredSize(content.getStoredSize() != null ? content.getStoredSize() : content.getSize());
+                return;
+            }
+
+            BlockContent newContent = new BlockContent();
+            newContent.setId(dataBlock.getContentId());
+            newContent.setStorageKey(dataBlock.getStorageKey());
+            newContent.setSize(dataBlock.getSize());
+            newContent.setEncoding(dataBlock.getEncoding());
+            newContent.setStoredSize(dataBlock.getStoredSize());
+            try {
+                blockContentRepository.insert(newContent);
+                return;
+            } catch (DuplicateKeyException e) {
+                // Content stored by another request, or content without reference not deleted yet
+                LOGGER.debug("Content {} already exists", dataBlock.getContentId());
+            }
+
+            // Content without reference can't be acquired. It's deleted by the request which released it, unless
+            // this request failed: then it's never deleted, so it's reused with content just stored
+            BlockContent orphanContent = blockContentRepository.reclaim(newContent);
+            if (orphanContent != null) {
+                LOGGER.info("Content {} without reference reused", orphanContent.getId());
+                if (!orphanContent.getStorageKey().equals(newContent.getStorageKey())) {
+                    this.deleteData(orphanContent.getStorageKey());
+                }
+                return;
+            }
+            LOGGER.debug("Content {} changed by another request. Retry", dataBlock.getContentId());
+        }
+        LOGGER.error("Unable to share content {}", dataBlock.getContentId());
+        this.deleteData(dataBlock.getStorageKey());
+        throw new IllegalStateException("Content is changed by too many requests");
+    }
+
+    /**
+     * Remove data block reference to its content. Content is deleted when no data block uses it
+     *
+     * @param dataBlock Data block
+     */
+    private void releaseContent(DataBlock dataBlock) {
+        if (dataBlock.getContentId() == null) {
+            this.deleteData(dataBlock.getStorageKey());
+            return;
+        }
+        BlockContent content = blockContentRepository.release(dataBlock.getContentId());
+        if ((content != null) && (content.getRefCount() <= 0) && blockContentRepository.deleteIfUnreferenced(content.getId())) {
+            LOGGER.debug("Content {} is not used anymore", content.getId());
+            this.deleteData(content.getStorageKey());
+        }
+    }
+
+    /**
+     * Open a stream on data block content, as sent by sender
+     *
+     * @param dataBlock Data block
+     * @return Content stream. Caller must close it
+     */
+    private InputStream streamData(DataBlock dataBlock) throws IOException {
+        return BlockCompression.decode(blockStore.stream(dataBlock.getStorageKey()), dataBlock.getEncoding());
+    }
+
+    private byte[] readData(DataBlock dataBlock) {
+        try {
+            if (dataBlock.getEncoding() == null) {
+                return blockStore.get(dataBlock.getStorageKey());
+            }
+            try (InputStream inputStream = this.streamData(dataBlock)) {
+                return inputStream.readAllBytes();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to read data block content");
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteData(String storageKey) {
+        if (storageKey == null) return;
+        try {
+            blockStore.delete(storageKey);
+        } catch (IOException e) {
+            LOGGER.error("Unable to delete data block content {}", storageKey, e);
+        }
     }
 
     @Override
-    @Transactional
     public int sendData(String transferId, String senderDeviceId, byte[] data) throws TransferNotFoundException, InvalidDataBlockException, NoSuchAlgorithmException, FileTooLargeException, FileCorruptedException, DeviceNotFoundException, DecoderException {
         if ((transferId == null) || (senderDeviceId == null) || (data == null)) {
             LOGGER.error("Parameters contains null values");
@@ -269,6 +641,22 @@ public class TransferService implements ITransferService {
             throw new IllegalArgumentException("Data must not be empty");
         }
 
+        try {
+            return this.sendData(transferId, senderDeviceId, new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            // Not expected with in memory stream
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Get transfer in progress if device is its sender
+     *
+     * @param transferId     Transfer id
+     * @param senderDeviceId Sender device id
+     * @return Transfer
+     */
+    private Transfer getSenderTransfer(String transferId, String senderDeviceId) throws TransferNotFoundException, DeviceNotFoundException {
         Transfer transfer = transferRepository.findById(transferId).orElseThrow(() -> {
             LOGGER.error("Transfer not found");
             return new TransferNotFoundException("Transfer not found");
@@ -285,37 +673,210 @@ public class TransferService implements ITransferService {
             LOGGER.error("Transfer with FINISHED state cannot be modified");
             throw new TransferNotFoundException("Transfer with FINISHED state can't be modified");
         }
+        return transfer;
+    }
+
+    @Override
+    public int sendData(String transferId, String senderDeviceId, InputStream data) throws TransferNotFoundException, InvalidDataBlockException, NoSuchAlgorithmException, FileTooLargeException, FileCorruptedException, DeviceNotFoundException, DecoderException, IOException {
+        return this.sendData(transferId, senderDeviceId, null, null, data);
+    }
+
+    @Override
+    @Transactional
+    public int sendData(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, InputStream data) throws TransferNotFoundException, InvalidDataBlockException, NoSuchAlgorithmException, FileTooLargeException, FileCorruptedException, DeviceNotFoundException, DecoderException, IOException {
+        return this.sendData(transferId, senderDeviceId, dataBlockNumber, crc32c, data, null, true);
+    }
+
+    @Override
+    @Transactional
+    public int sendData(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, InputStream data, Long receiveDuration) throws TransferNotFoundException, InvalidDataBlockException, NoSuchAlgorithmException, FileTooLargeException, FileCorruptedException, DeviceNotFoundException, DecoderException, IOException {
+        return this.sendData(transferId, senderDeviceId, dataBlockNumber, crc32c, data, receiveDuration, false);
+    }
+
+    @Override
+    public void checkDataBlock(String transferId, String senderDeviceId, int dataBlockNumber) throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException {
+        if ((transferId == null) || (senderDeviceId == null)) {
+            LOGGER.error("Parameters contains null values");
+            throw new IllegalArgumentException("Parameters contains null values");
+        }
+
+        File file = this.getSenderTransfer(transferId, senderDeviceId).getFile();
+        if ((dataBlockNumber < 0) || (dataBlockNumber >= file.getDataBlockCount())) {
+            LOGGER.error("Invalid dataBlock number");
+            LOGGER.debug("number={} count={}", dataBlockNumber, file.getDataBlockCount());
+            throw new InvalidDataBlockException("Invalid dataBlock number");
+        }
+    }
+
+    /**
+     * Save a data block
+     *
+     * @param receiveDuration Nanoseconds spent receiving data block from sender, null if unknown
+     * @param fromSender      true if data is read from sender, so receive duration is measured while reading it
+     */
+    private int sendData(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, InputStream data, Long receiveDuration, boolean fromSender) throws TransferNotFoundException, InvalidDataBlockException, NoSuchAlgorithmException, FileTooLargeException, FileCorruptedException, DeviceNotFoundException, DecoderException, IOException {
+        if ((transferId == null) || (senderDeviceId == null) || (data == null)) {
+            LOGGER.error("Parameters contains null values");
+            throw new IllegalArgumentException("Parameters contains null values");
+        }
+
+        Transfer transfer = this.getSenderTransfer(transferId, senderDeviceId);
 
-        // Check if its the first block to determine mimetype
         File file = transfer.getFile();
-        if (file.getDataBlocks() == null) {
+        if (file.getReceivedDataBlocks() == null) {
+            file = this.initReceivedDataBlocks(file);
+        }
+        int dataBlockCount = file.getDataBlockCount();
+        BitSet received = this.getReceivedDataBlocks(file);
+        if (dataBlockNumber == null) {
+            // Data blocks sent in order
+            dataBlockNumber = file.getLastDataBlockNumber() + 1;
+        }
+        LOGGER.info("Check data block number");
+        if ((dataBlockNumber < 0) || (dataBlockNumber >= dataBlockCount)) {
+            LOGGER.error("Invalid dataBlock number");
+            LOGGER.debug("number={} count={}", dataBlockNumber, dataBlockCount);
+            throw new InvalidDataBlockException("Invalid dataBlock number");
+        }
+
+        if (received.get(dataBlockNumber)) {
+            // Sending a data block again (after a lost response for example) has no effect
+            LOGGER.info("Data block already received. Compare content...");
+            DataBlock dataBlock = dataBlockRepository.findByFileIdAndNumber(file.getId(), dataBlockNumber);
+            if (dataBlock == null) {
+                LOGGER.info("Data block already saved by all receivers and deleted");
+                return dataBlockNumber;
+            }
+            if (!this.isSameData(dataBlock, data)) {
+                LOGGER.error("Data block already received with another content");
+                throw new InvalidDataBlockException("Data block already received with another content");
+            }
+            return dataBlockNumber;
+        }
+
+        // Check if its the first block to determine mimetype
+        String mimetype = null;
+        data = new BufferedInputStream(data, STREAM_BUFFER_SIZE);
+        if (dataBlockNumber == 0) {
             LOGGER.info("First data block");
             LOGGER.info("Get mimetype");
-            file.setMimetype(new Tika().detect(data)); // Apache tika for auto-detecting of stream mimetype
-            file.setDataBlocks(new ArrayList<>());
+            mimetype = new Tika().detect(data); // Apache tika only reads the head of stream then resets it
         }
 
-        LOGGER.info("Checking data block size...");
-        if (file.getDataBlockSize() < data.length / 1024 / 1024) { // Size is in MiB
-            LOGGER.error("Data block size is not valid");
-            LOGGER.debug("Max data block size {} MiB, data block received {} MiB", file.getDataBlockSize(), data.length * 1024);
-            throw new FileTooLargeException("Data received is too large that data block size.");
+        // Compress content unless it's already compressed. Head of data block is read then stream is reset
+        byte[] sample = new byte[BlockCompression.SAMPLE_SIZE];
+        data.mark(sample.length);
+        int sampleLength = data.readNBytes(sample, 0, sample.length);
+        data.reset();
+        String encoding = BlockCompression.chooseEncoding(mimetype != null ? mimetype : file.getMimetype(), sample, sampleLength);
+        LOGGER.debug("Data block encoding {}", encoding);
+
+        // MD5 is computed while storing data block only if it follows data blocks already digested
+        ResumableMD5 md5 = dataBlockNumber.equals(file.getMd5DataBlockCount()) ? this.loadMD5(file) : null;
+
+        // Receivers online of a relay transfer read data block while it is uploaded, if they are connected to this
+        // instance. Relay buffer is not shared with other instances
+        RelayBuffer relayBuffer = null;
+        if (Boolean.TRUE.equals(transfer.getRelay()) && relayService.isEnabled()) {
+            List<String> relayReceivers = relayService.getLocalReceivers(this.getDeviceIds(transfer.getReceivers()));
+            relayBuffer = !relayReceivers.isEmpty() ? relayService.open(transferId, dataBlockNumber) : null;
+            if (relayBuffer != null) {
+                LOGGER.info("Notify receivers connected to this instance that data block is relayed");
+                notificationService.notifyDevices(new NotificationBuilder()
+                        .senderDeviceId(senderDeviceId)
+                        .dataBlockNumber(dataBlockNumber)
+                        .transferId(transferId)
+                        .notificationType(NotificationType.TRANSFER_DATA_RELAYED.getValue()).build(), relayReceivers);
+            }
         }
 
-        LOGGER.info("Create data block and add to file");
-        int nextBlockNumber = file.getLastDataBlockNumber() + 1;
-        DataBlock dataBlock = new DataBlock();
-        dataBlock.setData(data);
-        file.setLastDataBlockNumber(nextBlockNumber);
-        dataBlock.setNumber(nextBlockNumber);
-        file.getDataBlocks().add(dataBlock);
+        boolean saved = false;
+        try {
+            LOGGER.info("Store data block and check its size...");
+            DataBlock dataBlock = new DataBlock();
+            dataBlock.setFileId(file.getId());
+            dataBlock.setNumber(dataBlockNumber);
+            dataBlock.setStorageKey(new ObjectId().toHexString());
+            long dataBlockSize = this.getDataBlockSize(file, dataBlockNumber);
+            dataBlock.setEncoding(encoding);
+            DataBlockInputStream dataBlockInputStream = new DataBlockInputStream(relayBuffer != null ? relayBuffer.tee(data) : data, dataBlockSize, md5);
+            long startTime = System.nanoTime();
+            try (InputStream encodedInputStream = BlockCompression.encode(dataBlockInputStream, encoding)) {
+                dataBlock.setStoredSize(blockStore.put(dataBlock.getStorageKey(), encodedInputStream));
+            } catch (FileTooLargeException e) {
+                LOGGER.error("Data block size is not valid");
+                LOGGER.debug("Data block size {} bytes", dataBlockSize);
+                throw e;
+            }
+            if (dataBlockInputStream.getSize() == 0) {
+                LOGGER.error("Data block is 0");
+                this.deleteData(dataBlock.getStorageKey());
+                throw new IllegalArgumentException("Data must not be empty");
+            }
+            if (dataBlockInputStream.getSize() != dataBlockSize) {
+                LOGGER.error("Data block is smaller than data block size");
+                LOGGER.debug("Data block size {} bytes, received {} bytes", dataBlockSize, dataBlockInputStream.getSize());
+                this.deleteData(dataBlock.getStorageKey());
+                throw new InvalidDataBlockException("Data block is smaller than data block size");
+            }
+            dataBlock.setSize(dataBlockInputStream.getSize());
+            if (fromSender) {
+                receiveDuration = System.nanoTime() - startTime;
+            }
+            // Not updated when data is a local copy and receive duration is unknown, reading it would measure disk speed
+            Double throughput = receiveDuration != null ? blockSizePolicy.updateThroughput(file.getThroughput(), dataBlock.getSize(), receiveDuration) : null;
+            dataBlock.setCrc32c(dataBlockInputStream.getCRC32C());
+            if ((crc32c != null) && !crc32c.equalsIgnoreCase(dataBlock.getCrc32c())) {
+                LOGGER.error("Data block checksum is invalid");
+                LOGGER.debug("Checksum from user {} computed {}", crc32c, dataBlock.getCrc32c());
+                this.deleteData(dataBlock.getStorageKey());
+                throw new InvalidDataBlockException("Data block checksum is invalid");
+            }
+            // Content is shared with all data blocks with the same bytes
+            dataBlock.setContentId(dataBlockInputStream.getSHA256());
+            this.acquireContent(dataBlock);
 
-        // Check if its the last block for computing checksum to verify file integrity
-        if (nextBlockNumber == Math.round(file.getSize() / file.getDataBlockSize()) - 1) {
+            boolean inserted = true;
+            try {
+                // Unique (fileId, number) index. Only one request can create the data block
+                dataBlockRepository.insert(dataBlock);
+            } catch (DuplicateKeyException e) {
+                LOGGER.info("Data block received by another request. Compare content...");
+                DataBlock existingDataBlock = dataBlockRepository.findByFileIdAndNumber(file.getId(), dataBlockNumber);
+                this.releaseContent(dataBlock);
+                if (!dataBlock.getContentId().equals(existingDataBlock.getContentId())) {
+                    LOGGER.error("Data block already received with another content");
+                    throw new InvalidDataBlockException("Data block already received with another content");
+                }
+                // Data block may have been saved by a request which failed before adding it to file
+                inserted = false;
+                File updatedFile = fileRepository.markDataBlockReceived(file.getId(), dataBlockNumber, file.getDataBlockSizeStartNumber(), mimetype, null, null,
+                        file.getDataBlockChecksums() != null ? this.toDataBlockChecksum(existingDataBlock) : null);
+                if (updatedFile == null) {
+                    saved = true;
+                    return dataBlockNumber;
+                }
+                LOGGER.info("Data block saved by a failed request added to file");
+                file = this.updateMD5(updatedFile);
+            }
+
+            if (inserted) {
+                file = this.addDataBlock(file, dataBlock, mimetype, md5, throughput);
+            }
+            saved = true;
+        } finally {
+            if (relayBuffer != null) {
+                relayService.close(relayBuffer, saved);
+            }
+        }
+        transferRepository.updateLastActivityDate(transfer.getId()); // Transfer doesn't expire while sender uploads
+
+        // Check if all data blocks are received for computing checksum to verify file integrity
+        if (file.getReceivedDataBlockCount() == file.getDataBlockCount()) {
 
             LOGGER.debug("File checksum from user " + file.getMD5ChecksumHex());
-            LOGGER.info("Compute checksum to verify file integrity...");
-            String computedChecksum = this.MD5Hex(file.getDataBlocks());
+            LOGGER.info("Compare checksum to verify file integrity...");
+            String computedChecksum = this.loadMD5(file).hexDigest(); // Computed while receiving data blocks
             LOGGER.debug("Computed checksum " + computedChecksum);
 
             if (!computedChecksum.equals(file.getMD5ChecksumHex())) {
@@ -325,47 +886,125 @@ public class TransferService implements ITransferService {
             }
 
             LOGGER.info("Set transfer state to FINISHED state");
-            transfer.setState(TransferState.FINISHED);
+            transferRepository.updateState(transfer.getId(), TransferState.FINISHED);
         }
 
-        LOGGER.info("Update transfer info");
-        transfer.setFile(file);
-        dataBlockRepository.save(dataBlock);
-        fileRepository.save(file);
-        transferRepository.save(transfer);
-
         LOGGER.info("Notify all receivers that a new data block is available");
-        List<Device> receivers = transfer.getReceivers();
-        NotificationBuilder notificationBuilder = new NotificationBuilder()
+        notificationService.notifyDevices(new NotificationBuilder()
                 .senderDeviceId(senderDeviceId)
-                .dataBlockNumber(nextBlockNumber)
+                .dataBlockNumber(dataBlockNumber)
                 .transferId(transferId)
-                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue());
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build(), this.getDeviceIds(transfer.getReceivers()));
 
-        for (Device r : receivers) {
-            notificationService.notifyDevice(notificationBuilder.receiverDeviceId(r.getId()).build());
-        }
+        return dataBlockNumber;
+    }
 
-        return transfer.getFile().getLastDataBlockNumber();
+    /**
+     * Add a data block just stored to file, then add to MD5 the data blocks received before it
+     *
+     * @param file       File
+     * @param dataBlock  Data block saved
+     * @param mimetype   File mimetype, null if not detected
+     * @param md5        MD5 including data block, null if it doesn't follow data blocks digested
+     * @param throughput Average throughput, not changed if null
+     * @return File updated
+     */
+    private File addDataBlock(File file, DataBlock dataBlock, String mimetype, ResumableMD5 md5, Double throughput) throws InvalidDataBlockException, IOException, TransferNotFoundException {
+        LOGGER.info("Add data block to file");
+        int dataBlockNumber = dataBlock.getNumber();
+        File updatedFile = fileRepository.markDataBlockReceived(file.getId(), dataBlockNumber, file.getDataBlockSizeStartNumber(),
+                mimetype, md5 != null ? md5.getState() : null, throughput,
+                file.getDataBlockChecksums() != null ? this.toDataBlockChecksum(dataBlock) : null); // Not saved for files created before it was added
+        if (updatedFile == null) {
+            File currentFile = fileRepository.findById(file.getId()).orElse(file);
+            if (this.getReceivedDataBlocks(currentFile).get(dataBlockNumber)) {
+                LOGGER.info("Data block added to file by a request sending it again");
+                return currentFile;
+            }
+            // Data block is created once, so data block size has been changed while data block was sent
+            LOGGER.error("Data block size has changed");
+            dataBlockRepository.delete(dataBlock);
+            this.releaseContent(dataBlock);
+            throw new InvalidDataBlockException("Data block size has changed");
+        }
+        return this.updateMD5(updatedFile); // Data blocks received before this one
     }
 
     @Override
-    public byte[] receiveData(final String transferId, final String receiverDeviceId, final Integer dataBlockNumber) throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException {
-        if (transferId == null) {
-            LOGGER.error("Transfer id must not be null");
-            throw new IllegalArgumentException("Transfer id is null");
+    public File updateDataBlockSize(String transferId, String senderDeviceId, Double throughput, Double rtt) throws TransferNotFoundException, DeviceNotFoundException {
+        if ((transferId == null) || (senderDeviceId == null)) {
+            LOGGER.error("Parameters contains null values");
+            throw new IllegalArgumentException("Parameters contains null values");
         }
 
-        if (receiverDeviceId == null) {
-            LOGGER.error("Receiver id must not be null");
-            throw new IllegalArgumentException("Parameters can't be null");
+        Transfer transfer = this.getSenderTransfer(transferId, senderDeviceId);
+        File file = transfer.getFile();
+        if (file.getReceivedDataBlocks() == null) {
+            file = this.initReceivedDataBlocks(file);
         }
 
-        if (dataBlockNumber == null) {
-            LOGGER.error("Parameters contains null");
-            throw new IllegalArgumentException("Parameters can't be null");
+        if (throughput == null) {
+            LOGGER.debug("Use throughput measured while receiving data blocks");
+            throughput = file.getThroughput();
+        }
+        if (throughput == null) {
+            LOGGER.error("Throughput is unknown");
+            throw new IllegalArgumentException("Throughput is unknown. No data block received yet");
+        }
+        long dataBlockSize = blockSizePolicy.getDataBlockSize(throughput, rtt != null ? rtt : 0);
+        LOGGER.debug("Data block size {} bytes for throughput {} B/s and RTT {} ms", dataBlockSize, throughput, rtt);
+        if (dataBlockSize == file.getDataBlockSize()) {
+            return file;
         }
 
+        // Data blocks not received yet are numbered from the first one with the new size
+        int receivedDataBlockCount = file.getReceivedDataBlockCount();
+        if (receivedDataBlockCount != file.getLastDataBlockNumber() + 1) {
+            LOGGER.info("Data blocks received don't follow each other. Data block size can't be changed");
+            return file;
+        }
+        // Data blocks received may have been deleted once acknowledged, so offset is computed from data block size
+        long startOffset = Math.min(file.getSize(), file.getDataBlockSizeStartOffset()
+                + (long) (receivedDataBlockCount - file.getDataBlockSizeStartNumber()) * file.getDataBlockSize());
+        if (startOffset == file.getSize()) {
+            LOGGER.debug("All data blocks received");
+            return file;
+        }
+        // Checksums of each data block are saved in file document, which has a max size
+        dataBlockSize = Math.max(dataBlockSize, blockSizePolicy.getMinDataBlockSize(file.getSize() - startOffset,
+                BlockSizePolicy.MAX_DATA_BLOCK_COUNT - receivedDataBlockCount));
+
+        File resizedFile = new File();
+        resizedFile.setSize(file.getSize());
+        resizedFile.setDataBlockSize(dataBlockSize);
+        resizedFile.setDataBlockSizeStartNumber(receivedDataBlockCount);
+        resizedFile.setDataBlockSizeStartOffset(startOffset);
+        BitSet received = new BitSet();
+        received.set(0, receivedDataBlockCount);
+
+        LOGGER.info("Change data block size");
+        File updatedFile = fileRepository.updateDataBlockSize(file.getId(), receivedDataBlockCount, dataBlockSize, startOffset,
+                this.toBitmapWords(received, resizedFile.getDataBlockCount()));
+        if (updatedFile == null) {
+            LOGGER.info("Data block received while changing data block size. Data block size is not changed");
+            return fileRepository.findById(file.getId()).orElse(file);
+        }
+        return updatedFile;
+    }
+
+    @Override
+    public byte[] receiveData(final String transferId, final String receiverDeviceId, final Integer dataBlockNumber) throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException {
+        return this.readData(this.getDataBlock(transferId, receiverDeviceId, dataBlockNumber));
+    }
+
+    /**
+     * Get transfer if device is one of its receivers
+     *
+     * @param transferId       Transfer id
+     * @param receiverDeviceId Receiver device id
+     * @return Transfer
+     */
+    private Transfer getReceiverTransfer(String transferId, String receiverDeviceId) throws DeviceNotFoundException, TransferNotFoundException {
         LOGGER.debug("Get device");
         Optional<Device> optionalDevice = deviceRepository.findById(receiverDeviceId);
         if (optionalDevice.isEmpty()) {
@@ -380,24 +1019,183 @@ public class TransferService implements ITransferService {
             LOGGER.debug("Transfer not found");
             throw new TransferNotFoundException("Transfer not found");
         }
+        return transfer;
+    }
 
-        // Check if data block exist
-        Optional<DataBlock> optionalDataBlock = Optional.empty();
-        try {
-            optionalDataBlock = transfer.getFile().getDataBlocks().stream().filter(db -> db.getNumber().equals(dataBlockNumber)).findFirst();
-        } catch (NullPointerException ignored) {
+    @Override
+    public FileContent getContent(final String transferId, final String receiverDeviceId) throws TransferNotFoundException, DeviceNotFoundException {
+        if ((transferId == null) || (receiverDeviceId == null)) {
+            LOGGER.error("Parameters contains null");
+            throw new IllegalArgumentException("Parameters can't be null");
+        }
+
+        Transfer transfer = this.getReceiverTransfer(transferId, receiverDeviceId);
+
+        // Keep data blocks which follow each other from the first one. So they can be read as a single content
+        List<DataBlock> dataBlocks = new ArrayList<>();
+        for (DataBlock dataBlock : dataBlockRepository.findByFileIdOrderByNumberAsc(transfer.getFile().getId())) {
+            if (dataBlock.getNumber() != dataBlocks.size()) break;
+            dataBlocks.add(dataBlock);
+        }
+
+        // Data block received from sender but not found has been deleted once acknowledged by all receivers
+        File file = transfer.getFile();
+        boolean deleted = (dataBlocks.size() < file.getDataBlockCount()) && this.getReceivedDataBlocks(file).get(dataBlocks.size());
+        if (deleted) {
+            LOGGER.debug("Data block {} has been deleted", dataBlocks.size());
+        }
+        return new FileContent(file.getSize(), dataBlocks, deleted);
+    }
+
+    @Override
+    public List<DataBlock> getDataBlocks(final String transferId, final String receiverDeviceId, final List<DataBlockRange> ranges) throws TransferNotFoundException, DeviceNotFoundException {
+        if ((transferId == null) || (receiverDeviceId == null) || (ranges == null)) {
+            LOGGER.error("Parameters contains null");
+            throw new IllegalArgumentException("Parameters can't be null");
+        }
+        if (ranges.stream().anyMatch(range -> (range == null) || (range.getFirst() == null) || (range.getLast() == null) || (range.getFirst() < 0) || (range.getFirst() > range.getLast()))) {
+            LOGGER.error("Invalid data block range");
+            throw new IllegalArgumentException("Invalid data block range");
+        }
+
+        List<DataBlockRange> normalizedRanges = DataBlockRanges.add(List.of(), ranges); // Sorted, each data block once
+        if (DataBlockRanges.count(normalizedRanges) > MAX_BATCH_DATA_BLOCKS) {
+            LOGGER.error("Too many data blocks requested");
+            throw new IllegalArgumentException("Too many data blocks requested. Max=" + MAX_BATCH_DATA_BLOCKS);
+        }
+
+        Transfer transfer = this.getReceiverTransfer(transferId, receiverDeviceId);
+
+        File file = transfer.getFile();
+        List<DataBlock> dataBlocks = new ArrayList<>();
+        for (DataBlockRange range : normalizedRanges) {
+            dataBlocks.addAll(dataBlockRepository.findByFileIdAndNumberRange(file.getId(), range.getFirst(), range.getLast()));
+        }
+        LOGGER.debug("{} data blocks available in ranges", dataBlocks.size());
+
+        if (!dataBlocks.isEmpty() && (dataBlocks.get(dataBlocks.size() - 1).getNumber() == file.getDataBlockCount() - 1)) {
+            LOGGER.debug("Receiver has finished downloading");
+            LOGGER.debug("Notify sender...");
+            notificationService.notifyDevice(new NotificationBuilder()
+                    .transferId(transferId)
+                    .senderDeviceId(receiverDeviceId)
+                    .receiverDeviceId(transfer.getSender().getId())
+                    .notificationType(NotificationType.TRANSFER_FINISHED.getValue()).build());
+        }
+        return dataBlocks;
+    }
+
+    @Override
+    public List<DataBlockRange> acknowledgeData(final String transferId, final String receiverDeviceId, final List<DataBlockRange> ranges) throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException {
+        if ((transferId == null) || (receiverDeviceId == null) || (ranges == null)) {
+            LOGGER.error("Parameters contains null");
+            throw new IllegalArgumentException("Parameters can't be null");
         }
+        if (ranges.stream().anyMatch(range -> (range == null) || (range.getFirst() == null) || (range.getLast() == null) || (range.getFirst() < 0) || (range.getFirst() > range.getLast()))) {
+            LOGGER.error("Invalid data block range");
+            throw new IllegalArgumentException("Invalid data block range");
+        }
+
+        Transfer transfer = this.getReceiverTransfer(transferId, receiverDeviceId);
+
+        LOGGER.debug("Check data blocks have been received from sender");
+        File file = transfer.getFile();
+        if (file.getReceivedDataBlocks() == null) {
+            file = this.initReceivedDataBlocks(file);
+        }
+        BitSet received = this.getReceivedDataBlocks(file);
+        for (DataBlockRange range : ranges) {
+            if (received.nextClearBit(range.getFirst()) <= range.getLast()) {
+                LOGGER.error("Data block not received can't be acknowledged");
+                LOGGER.debug("range={}", range);
+                throw new InvalidDataBlockException("Data block not received can't be acknowledged");
+            }
+        }
+
+        // Compare and set, so acknowledgements sent at the same time are all saved
+        List<DataBlockRange> acknowledged;
+        while (true) {
+            Map<String, List<DataBlockRange>> acknowledgedDataBlocks = transfer.getAcknowledgedDataBlocks();
+            List<DataBlockRange> current = (acknowledgedDataBlocks != null) && acknowledgedDataBlocks.containsKey(receiverDeviceId)
+                    ? acknowledgedDataBlocks.get(receiverDeviceId) : List.of();
+            acknowledged = DataBlockRanges.add(current, ranges);
+            if (acknowledged.equals(current)) {
+                LOGGER.debug("Data blocks already acknowledged");
+                return acknowledged;
+            }
+            Transfer updatedTransfer = transferRepository.updateAcknowledgedDataBlocks(transferId, receiverDeviceId, current, acknowledged);
+            if (updatedTransfer != null) {
+                transfer = updatedTransfer;
+                break;
+            }
+            LOGGER.debug("Acknowledged data blocks changed by another request. Retry");
+            transfer = this.getReceiverTransfer(transferId, receiverDeviceId);
+        }
+
+        this.deleteAcknowledgedDataBlocks(transfer);
+        return acknowledged;
+    }
+
+    /**
+     * Delete data blocks saved by all receivers. Their content is deleted when no other data block uses it.
+     * Data blocks not digested in file MD5 yet are kept, MD5 would not be computable without them.
+     *
+     * @param transfer Transfer
+     */
+    private void deleteAcknowledgedDataBlocks(Transfer transfer) {
+        List<Device> receivers = transfer.getReceivers();
+        Map<String, List<DataBlockRange>> acknowledgedDataBlocks = transfer.getAcknowledgedDataBlocks();
+        if ((receivers == null) || receivers.isEmpty() || (acknowledgedDataBlocks == null)) return;
+
+        File file = fileRepository.findById(transfer.getFile().getId()).orElse(null);
+        if ((file == null) || (file.getMd5DataBlockCount() == 0)) return;
+
+        List<DataBlockRange> acknowledgedByAll = List.of(new DataBlockRange(0, file.getMd5DataBlockCount() - 1));
+        for (Device receiver : receivers) {
+            acknowledgedByAll = DataBlockRanges.intersect(acknowledgedByAll, acknowledgedDataBlocks.getOrDefault(receiver.getId(), List.of()));
+        }
+        LOGGER.debug("{} data blocks acknowledged by all receivers", DataBlockRanges.count(acknowledgedByAll));
 
-        if (optionalDataBlock.isEmpty()) {
+        for (DataBlockRange range : acknowledgedByAll) {
+            for (DataBlock dataBlock : dataBlockRepository.findByFileIdAndNumberRange(file.getId(), range.getFirst(), range.getLast())) {
+                // Only the request which deletes data block releases its content
+                if (dataBlockRepository.deleteByFileIdAndNumber(file.getId(), dataBlock.getNumber()) > 0) {
+                    LOGGER.debug("Delete data block {}", dataBlock.getNumber());
+                    this.releaseContent(dataBlock);
+                }
+            }
+        }
+    }
+
+    @Override
+    public DataBlock getDataBlock(final String transferId, final String receiverDeviceId, final Integer dataBlockNumber) throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException {
+        if (transferId == null) {
+            LOGGER.error("Transfer id must not be null");
+            throw new IllegalArgumentException("Transfer id is null");
+        }
+
+        if (receiverDeviceId == null) {
+            LOGGER.error("Receiver id must not be null");
+            throw new IllegalArgumentException("Parameters can't be null");
+        }
+
+        if (dataBlockNumber == null) {
+            LOGGER.error("Parameters contains null");
+            throw new IllegalArgumentException("Parameters can't be null");
+        }
+
+        Transfer transfer = this.getReceiverTransfer(transferId, receiverDeviceId);
+
+        // Check if data block exist. Only this data block is read, using (fileId, number) index
+        File file = transfer.getFile();
+        DataBlock dataBlock = dataBlockRepository.findByFileIdAndNumber(file.getId(), dataBlockNumber);
+        if (dataBlock == null) {
             LOGGER.error("Invalid dataBlock number");
             throw new InvalidDataBlockException("Invalid dataBlock number");
         }
 
         // If it's the last data block -> notify sender
-        DataBlock dataBlock = optionalDataBlock.get();
-        File file = transfer.getFile();
-
-        if (dataBlock.getNumber() == Math.round(file.getSize() / file.getDataBlockSize()) - 1) {
+        if (dataBlock.getNumber() == file.getDataBlockCount() - 1) {
 
             LOGGER.debug("Receiver has finished downloading");
             LOGGER.debug("Notify sender...");
@@ -411,6 +1209,64 @@ public class TransferService implements ITransferService {
             notificationService.notifyDevice(notification);
         }
 
-        return dataBlock.getData();
+        return dataBlock;
+    }
+
+    @Override
+    public InputStream relayData(final String transferId, final String receiverDeviceId, final Integer dataBlockNumber) throws TransferNotFoundException, DeviceNotFoundException {
+        if ((transferId == null) || (receiverDeviceId == null) || (dataBlockNumber == null)) {
+            LOGGER.error("Parameters contains null");
+            throw new IllegalArgumentException("Parameters can't be null");
+        }
+
+        this.getReceiverTransfer(transferId, receiverDeviceId);
+
+        InputStream inputStream = relayService.read(transferId, dataBlockNumber);
+        if (inputStream == null) {
+            LOGGER.debug("Data block {} is not relayed", dataBlockNumber);
+        }
+        return inputStream;
+    }
+
+    @Override
+    public FileManifest getManifest(final String transferId, final String deviceId) throws TransferNotFoundException, DeviceNotFoundException {
+        if ((transferId == null) || (deviceId == null)) {
+            LOGGER.error("Parameters contains null");
+            throw new IllegalArgumentException("Parameters can't be null");
+        }
+
+        LOGGER.debug("Check if it's the sender, else a receiver");
+        Transfer transfer = transferRepository.findByIdAndSender_Id(transferId, deviceId);
+        if (transfer == null) {
+            transfer = this.getReceiverTransfer(transferId, deviceId);
+        }
+
+        // Checksums are saved with the file, data blocks may have been deleted once acknowledged
+        File file = transfer.getFile();
+        List<FileManifest.DataBlockChecksum> dataBlocks;
+        if (file.getDataBlockChecksums() != null) {
+            dataBlocks = file.getDataBlockChecksums().stream()
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        } else {
+            LOGGER.debug("File created before checksums were saved with it");
+            dataBlocks = dataBlockRepository.findByFileIdOrderByNumberAsc(file.getId()).stream()
+                    .map(this::toDataBlockChecksum)
+                    .collect(Collectors.toList());
+        }
+
+        FileManifest manifest = new FileManifest();
+        manifest.setTransferId(transfer.getId());
+        manifest.setFileId(file.getId());
+        manifest.setDataBlockSize(file.getDataBlockSize());
+        manifest.setDataBlockCount(file.getDataBlockCount());
+        manifest.setDataBlocks(dataBlocks);
+
+        // Data blocks stored before SHA-256 were computed have no hash
+        if ((dataBlocks.size() == manifest.getDataBlockCount())
+                && dataBlocks.stream().allMatch(dataBlockChecksum -> dataBlockChecksum.getSha256() != null)) {
+            manifest.setMerkleRoot(MerkleTree.root(dataBlocks.stream().map(FileManifest.DataBlockChecksum::getSha256).collect(Collectors.toList())));
+        }
+        return manifest;
     }
 }
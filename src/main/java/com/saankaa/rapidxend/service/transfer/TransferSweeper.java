@@ -0,0 +1,46 @@
+package com.saankaa.rapidxend.service.transfer;
+
+import com.saankaa.rapidxend.config.AppEnvVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancel transfers abandoned by their sender or receivers, so their data blocks don't stay in block store forever.
+ * A transfer expires when no data block has been received or acknowledged for a while, however old it is.
+ * Every instance runs it, cancelling a transfer twice has no effect.
+ */
+@Component
+public class TransferSweeper {
+
+    private static final long SWEEP_INTERVAL = 10 * 60 * 1000; // 10 minutes
+    private static final String DEFAULT_EXPIRATION = "48"; // In hours
+
+    private final Logger LOGGER = LoggerFactory.getLogger(TransferSweeper.class);
+
+    private final ITransferService transferService;
+    private final long expiration; // In milliseconds
+
+    public TransferSweeper(@Autowired ITransferService transferService) {
+        this.transferService = transferService;
+        this.expiration = TimeUnit.HOURS.toMillis(Long.parseLong(AppEnvVariable.getValue(AppEnvVariable.TRANSFER_EXPIRATION, DEFAULT_EXPIRATION)));
+    }
+
+    @Scheduled(initialDelay = SWEEP_INTERVAL, fixedDelay = SWEEP_INTERVAL)
+    public void sweep() {
+        Date lastActivityBefore = new Date(System.currentTimeMillis() - expiration);
+        LOGGER.debug("Cancel transfers in progress without activity since {}", lastActivityBefore);
+        try {
+            int count = transferService.cancelExpiredTransfers(lastActivityBefore);
+            if (count > 0) LOGGER.info("{} expired transfers cancelled", count);
+        } catch (Exception e) {
+            // Next sweep will try again
+            LOGGER.error("Unable to cancel expired transfers", e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.saankaa.rapidxend.service.transfer.checksum;
+
+import javax.xml.bind.DatatypeConverter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merkle tree (SHA-256) of data block SHA-256 hashes.
+ * Leaves and nodes are hashed with a different prefix (like RFC 6962), so a node can't be taken for a leaf.
+ * A node without sibling is moved up to the next level unchanged.
+ * Two files have the same root only if they have the same data blocks in the same order.
+ * Leaves must be cryptographic hashes: a CRC can be forged, so a root of CRCs would prove nothing.
+ */
+public final class MerkleTree {
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private MerkleTree() {
+    }
+
+    /**
+     * Compute root hash
+     *
+     * @param checksums Data block SHA-256 (hex), sorted by data block number
+     * @return Root hash (hex)
+     */
+    public static String root(List<String> checksums) {
+        if (checksums == null || checksums.isEmpty()) {
+            throw new IllegalArgumentException("Checksum list is empty");
+        }
+
+        MessageDigest sha256 = newSha256();
+        List<byte[]> level = new ArrayList<>(checksums.size());
+        for (String checksum : checksums) {
+            sha256.update(LEAF_PREFIX);
+            sha256.update(DatatypeConverter.parseHexBinary(checksum));
+            level.add(sha256.digest());
+        }
+
+        while (level.size() > 1) {
+            List<byte[]> nextLevel = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 == level.size()) {
+                    nextLevel.add(level.get(i));
+                    break;
+                }
+                sha256.update(NODE_PREFIX);
+                sha256.update(level.get(i));
+                sha256.update(level.get(i + 1));
+                nextLevel.add(sha256.digest());
+            }
+            level = nextLevel;
+        }
+        return DatatypeConverter.printHexBinary(level.get(0));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
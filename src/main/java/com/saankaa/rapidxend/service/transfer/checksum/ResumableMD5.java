@@ -0,0 +1,172 @@
+package com.saankaa.rapidxend.service.transfer.checksum;
+
+import javax.xml.bind.DatatypeConverter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * MD5 implementation (RFC 1321) whose intermediate state can be exported and restored.
+ * {@link java.security.MessageDigest} state can't be persisted, so a file checksum could only be computed
+ * by reading all data blocks again. With this class, checksum is updated when each data block arrives
+ * and its state is saved with the file.
+ */
+public class ResumableMD5 {
+
+    private static final int BLOCK_SIZE = 64; // MD5 processes data by 512 bits blocks
+    private static final int STATE_HEADER_SIZE = 4 * Integer.BYTES + Long.BYTES; // Registers + byte count
+
+    private static final int[] SHIFTS = {
+            7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22,
+            5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20,
+            4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23,
+            6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21
+    };
+
+    private static final int[] CONSTANTS = new int[64];
+
+    static {
+        for (int i = 0; i < CONSTANTS.length; i++) {
+            CONSTANTS[i] = (int) (long) Math.floor(Math.abs(Math.sin(i + 1)) * 4294967296.0);
+        }
+    }
+
+    private final int[] registers = {0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476};
+    private final byte[] pending = new byte[BLOCK_SIZE]; // Bytes not processed yet (less than one block)
+    private final int[] words = new int[16];
+    private long byteCount = 0;
+
+    /**
+     * Restore MD5 computation from a state returned by {@link #getState()}
+     *
+     * @param state Saved state
+     * @return MD5 ready to be updated
+     */
+    public static ResumableMD5 fromState(byte[] state) {
+        if (state == null || state.length < STATE_HEADER_SIZE || state.length >= STATE_HEADER_SIZE + BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid MD5 state");
+        }
+        ResumableMD5 md5 = new ResumableMD5();
+        ByteBuffer buffer = ByteBuffer.wrap(state).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < md5.registers.length; i++) {
+            md5.registers[i] = buffer.getInt();
+        }
+        md5.byteCount = buffer.getLong();
+        int pendingLength = (int) (md5.byteCount % BLOCK_SIZE);
+        if (buffer.remaining() != pendingLength) {
+            throw new IllegalArgumentException("Invalid MD5 state");
+        }
+        buffer.get(md5.pending, 0, pendingLength);
+        return md5;
+    }
+
+    public void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        int pendingLength = (int) (byteCount % BLOCK_SIZE);
+        byteCount += length;
+
+        // Complete pending block first
+        if (pendingLength > 0) {
+            int n = Math.min(length, BLOCK_SIZE - pendingLength);
+            System.arraycopy(data, offset, pending, pendingLength, n);
+            offset += n;
+            length -= n;
+            if (pendingLength + n < BLOCK_SIZE) return;
+            processBlock(pending, 0);
+        }
+
+        while (length >= BLOCK_SIZE) {
+            processBlock(data, offset);
+            offset += BLOCK_SIZE;
+            length -= BLOCK_SIZE;
+        }
+        System.arraycopy(data, offset, pending, 0, length);
+    }
+
+    /**
+     * Export current state. It contains MD5 registers, number of bytes processed and the bytes of the last incomplete block
+     *
+     * @return State which can be restored with {@link #fromState(byte[])}
+     */
+    public byte[] getState() {
+        int pendingLength = (int) (byteCount % BLOCK_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(STATE_HEADER_SIZE + pendingLength).order(ByteOrder.LITTLE_ENDIAN);
+        for (int register : registers) {
+            buffer.putInt(register);
+        }
+        buffer.putLong(byteCount);
+        buffer.put(pending, 0, pendingLength);
+        return buffer.array();
+    }
+
+    /**
+     * Compute digest of data processed so far. Current state is not modified, so more data can be added after.
+     *
+     * @return MD5 digest
+     */
+    public byte[] digest() {
+        ResumableMD5 copy = fromState(getState());
+        long bitCount = byteCount * 8;
+
+        // Padding: 0x80 then zeros until length = 56 mod 64, then message length in bits
+        int pendingLength = (int) (byteCount % BLOCK_SIZE);
+        int paddingLength = (pendingLength < 56 ? 56 : 120) - pendingLength;
+        byte[] padding = new byte[paddingLength + Long.BYTES];
+        padding[0] = (byte) 0x80;
+        ByteBuffer.wrap(padding, paddingLength, Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(bitCount);
+        copy.update(padding);
+
+        ByteBuffer digest = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int register : copy.registers) {
+            digest.putInt(register);
+        }
+        return digest.array();
+    }
+
+    /**
+     * @return MD5 digest as upper case hexadecimal string
+     */
+    public String hexDigest() {
+        return DatatypeConverter.printHexBinary(digest());
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    private void processBlock(byte[] block, int offset) {
+        for (int i = 0; i < words.length; i++) {
+            int j = offset + i * 4;
+            words[i] = (block[j] & 0xff) | ((block[j + 1] & 0xff) << 8) | ((block[j + 2] & 0xff) << 16) | ((block[j + 3] & 0xff) << 24);
+        }
+
+        int a = registers[0], b = registers[1], c = registers[2], d = registers[3];
+        for (int i = 0; i < 64; i++) {
+            int f, g;
+            if (i < 16) {
+                f = (b & c) | (~b & d);
+                g = i;
+            } else if (i < 32) {
+                f = (d & b) | (~d & c);
+                g = (5 * i + 1) % 16;
+            } else if (i < 48) {
+                f = b ^ c ^ d;
+                g = (3 * i + 5) % 16;
+            } else {
+                f = c ^ (b | ~d);
+                g = (7 * i) % 16;
+            }
+            int tmp = d;
+            d = c;
+            c = b;
+            b = b + Integer.rotateLeft(a + f + CONSTANTS[i] + words[g], SHIFTS[i]);
+            a = tmp;
+        }
+        registers[0] += a;
+        registers[1] += b;
+        registers[2] += c;
+        registers[3] += d;
+    }
+}
@@ -0,0 +1,167 @@
+package com.saankaa.rapidxend.service.transfer.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of data block content in block store.
+ * Content is compressed with deflate (zlib format), which is also the HTTP "deflate" content coding,
+ * so compressed content can be sent as is to receivers which accept it.
+ * Content already compressed (images, videos, archives...) is stored as received: compressing it again costs
+ * CPU and saves nothing.
+ */
+public final class BlockCompression {
+
+    public static final String DEFLATE = "deflate"; // HTTP content coding
+    public static final int SAMPLE_SIZE = 4 * 1024; // Bytes read for estimating entropy
+
+    private static final double MAX_ENTROPY = 7.5; // Bits per byte. Compressed or encrypted data is close to 8
+
+    // Formats which are already compressed
+    private static final Set<String> COMPRESSED_MIMETYPES = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/vnd.rar", "application/zstd",
+            "application/x-lz4", "application/java-archive", "application/vnd.android.package-archive",
+            "application/pdf", "application/epub+zip",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/heic", "image/avif"
+    );
+
+    private BlockCompression() {
+    }
+
+    /**
+     * Choose if data block content is compressed
+     *
+     * @param mimetype File mimetype, null if not known yet
+     * @param sample   First bytes of data block
+     * @param length   Number of bytes in sample
+     * @return Encoding of content in block store, null if content is stored as received
+     */
+    public static String chooseEncoding(String mimetype, byte[] sample, int length) {
+        if (mimetype != null) {
+            String type = mimetype.toLowerCase();
+            if (COMPRESSED_MIMETYPES.contains(type) || type.startsWith("video/") || type.startsWith("audio/")) {
+                return null;
+            }
+        }
+        // Mimetype doesn't tell everything (e.g. application/octet-stream), so check bytes look compressible
+        if (length == 0 || entropy(sample, length) > MAX_ENTROPY) {
+            return null;
+        }
+        return DEFLATE;
+    }
+
+    /**
+     * Shannon entropy of bytes
+     *
+     * @param data   Bytes
+     * @param length Number of bytes
+     * @return Entropy in bits per byte, between 0 and 8
+     */
+    static double entropy(byte[] data, int length) {
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / length;
+            entropy -= p * Math.log(p) / Math.log(2);
+        }
+        return entropy;
+    }
+
+    /**
+     * Compress content while it's read.
+     * Fast level is used, data blocks are compressed while the sender uploads them
+     *
+     * @param data     Content
+     * @param encoding Encoding chosen for content, null for no compression
+     * @return Stream of encoded content. Closing it doesn't close data
+     */
+    public static InputStream encode(InputStream data, String encoding) {
+        if (encoding == null) {
+            return data;
+        }
+        checkEncoding(encoding);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        return new DeflaterInputStream(data, deflater) {
+            @Override
+            public void close() {
+                deflater.end(); // Free native memory now, data is closed by its owner
+            }
+        };
+    }
+
+    /**
+     * Decompress content while it's read
+     *
+     * @param data     Content from block store
+     * @param encoding Encoding of content, null if content is not compressed
+     * @return Stream of content as received from sender. Closing it closes data
+     */
+    public static InputStream decode(InputStream data, String encoding) {
+        if (encoding == null) {
+            return data;
+        }
+        checkEncoding(encoding);
+        return new InflaterInputStream(data);
+    }
+
+    /**
+     * Check if a client accepts content with an encoding
+     *
+     * @param acceptEncoding Value of Accept-Encoding header, may be null
+     * @param encoding       Encoding of content
+     * @return true if content can be sent encoded
+     */
+    public static boolean isAccepted(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null || encoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (!parts[0].trim().equalsIgnoreCase(encoding)) continue;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim().replace(" ", "");
+                if (parameter.matches("q=0(\\.0*)?")) return false; // Refused by client
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skip bytes of a stream
+     *
+     * @param inputStream Stream
+     * @param count       Number of bytes to skip
+     * @return true if bytes have been skipped, false if end of stream has been reached
+     */
+    public static boolean skip(InputStream inputStream, long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count) {
+            long n = inputStream.skip(count - skipped);
+            if (n <= 0) {
+                if (inputStream.read() == -1) return false;
+                n = 1;
+            }
+            skipped += n;
+        }
+        return true;
+    }
+
+    private static void checkEncoding(String encoding) {
+        if (!DEFLATE.equals(encoding)) {
+            throw new IllegalArgumentException("Unknown encoding " + encoding);
+        }
+    }
+}
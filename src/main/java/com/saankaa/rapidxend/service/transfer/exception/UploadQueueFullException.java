@@ -0,0 +1,13 @@
+package com.saankaa.rapidxend.service.transfer.exception;
+
+import lombok.Getter;
+
+public class UploadQueueFullException extends Exception {
+
+    @Getter
+    private final String message;
+
+    public UploadQueueFullException(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,30 @@
+package com.saankaa.rapidxend.service.transfer.pipeline;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+/**
+ * Journal record of a data block saved in upload spool and not persisted yet
+ */
+@Data
+@NoArgsConstructor
+public class SpooledDataBlock {
+
+    private String id; // Increases with time, so records are replayed in order
+
+    private String transferId;
+
+    private String senderDeviceId;
+
+    private Integer dataBlockNumber;
+
+    private String crc32c; // Checksum sent by sender, may be null
+
+    private Long size; // In bytes
+
+    private Long receiveDuration; // Nanoseconds spent receiving data block from sender. Null if unknown
+
+    private Date createdDate = new Date();
+}
@@ -0,0 +1,275 @@
+package com.saankaa.rapidxend.service.transfer.pipeline;
+
+import com.saankaa.rapidxend.config.AppEnvVariable;
+import com.saankaa.rapidxend.model.NotificationBuilder;
+import com.saankaa.rapidxend.model.NotificationType;
+import com.saankaa.rapidxend.service.device.Exception.DeviceNotFoundException;
+import com.saankaa.rapidxend.service.notification.INotificationService;
+import com.saankaa.rapidxend.service.transfer.BlockSizePolicy;
+import com.saankaa.rapidxend.service.transfer.ITransferService;
+import com.saankaa.rapidxend.service.transfer.exception.FileCorruptedException;
+import com.saankaa.rapidxend.service.transfer.exception.FileTooLargeException;
+import com.saankaa.rapidxend.service.transfer.exception.InvalidDataBlockException;
+import com.saankaa.rapidxend.service.transfer.exception.TransferNotFoundException;
+import com.saankaa.rapidxend.service.transfer.exception.UploadQueueFullException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipelined upload of data blocks.
+ * A data block is saved in the upload spool on local disk, then sender gets a response. Workers persist data blocks,
+ * update file and notify receivers, like a synchronous upload. So sender can send next data block without waiting
+ * for database.
+ * Transfer, sender and data block number are checked before a data block is spooled, so sender gets an error
+ * response instead of a notification when they are wrong.
+ * Number of data blocks waiting for workers is limited. When limit is reached, new data blocks are refused until
+ * workers catch up.
+ * A data block refused by a worker (invalid checksum, transfer cancelled...) is deleted and sender is notified with
+ * TRANSFER_FILE_CORRUPTED, so it can send it again. When a worker can't persist a data block (database not
+ * available...), it tries again later with an exponential backoff. After the last attempt, data block is deleted and
+ * sender is notified the same way: data block is still not received, so sender sends it again. Nobody is notified
+ * when transfer doesn't exist anymore or device is not its sender.
+ * Data blocks waiting for a retry at shutdown stay in spool and are persisted on next start.
+ */
+@Service
+public class UploadPipeline {
+
+    private static final String DEFAULT_SPOOL_DIR = "data/spool";
+    private static final String DEFAULT_WORKERS = "4";
+    private static final String DEFAULT_QUEUE_SIZE = "64";
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long RETRY_DELAY = 1000; // Milliseconds before second attempt, doubled on each attempt
+    private static final long MAX_RETRY_DELAY = 60_000; // Milliseconds
+
+    private final Logger LOGGER = LoggerFactory.getLogger(UploadPipeline.class);
+
+    private final ITransferService transferService;
+    private final INotificationService notificationService;
+    private final UploadSpool spool;
+    private final boolean enabled;
+    private final Semaphore permits; // Data blocks which can be spooled before being persisted
+    private final ExecutorService workers;
+    private final ScheduledExecutorService retryScheduler;
+    private final int maxAttempts;
+    private final long retryDelay; // Milliseconds
+
+    @Autowired
+    public UploadPipeline(ITransferService transferService, INotificationService notificationService) throws IOException {
+        this(transferService, notificationService,
+                new UploadSpool(Paths.get(AppEnvVariable.getValue(AppEnvVariable.TRANSFER_SPOOL_DIR, DEFAULT_SPOOL_DIR))),
+                "pipelined".equalsIgnoreCase(AppEnvVariable.getValue(AppEnvVariable.TRANSFER_UPLOAD_MODE, "sync")),
+                Integer.parseInt(AppEnvVariable.getValue(AppEnvVariable.TRANSFER_UPLOAD_WORKERS, DEFAULT_WORKERS)),
+                Integer.parseInt(AppEnvVariable.getValue(AppEnvVariable.TRANSFER_UPLOAD_QUEUE_SIZE, DEFAULT_QUEUE_SIZE)));
+    }
+
+    UploadPipeline(ITransferService transferService, INotificationService notificationService, UploadSpool spool,
+                   boolean enabled, int workerCount, int queueSize) {
+        this(transferService, notificationService, spool, enabled, workerCount, queueSize, MAX_ATTEMPTS, RETRY_DELAY);
+    }
+
+    UploadPipeline(ITransferService transferService, INotificationService notificationService, UploadSpool spool,
+                   boolean enabled, int workerCount, int queueSize, int maxAttempts, long retryDelay) {
+        this.transferService = transferService;
+        this.notificationService = notificationService;
+        this.spool = spool;
+        this.enabled = enabled;
+        this.permits = new Semaphore(queueSize);
+        AtomicInteger threadCount = new AtomicInteger();
+        // Queue is bounded by permits
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "upload-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upload-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+        LOGGER.info("Upload mode: {}", enabled ? "pipelined" : "sync");
+    }
+
+    /**
+     * @return true if data blocks must be sent with {@link #submit(String, String, Integer, String, InputStream)}
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Save data block in spool. It's persisted later by a worker
+     *
+     * @param transferId      Transfer id
+     * @param senderDeviceId  Sender device id
+     * @param dataBlockNumber Data block number. Required, data blocks may be persisted in any order
+     * @param crc32c          Data block checksum sent by sender, can be null
+     * @param data            Data block content, read from sender. Throughput of sender link is measured while reading it
+     * @return Data block saved in spool
+     */
+    public SpooledDataBlock submit(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, InputStream data) throws UploadQueueFullException, IOException, TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException {
+        return this.submit(transferId, senderDeviceId, dataBlockNumber, crc32c, data, null);
+    }
+
+    /**
+     * Save in spool a data block already received from sender. It's persisted later by a worker
+     *
+     * @param transferId      Transfer id
+     * @param senderDeviceId  Sender device id
+     * @param dataBlockNumber Data block number. Required, data blocks may be persisted in any order
+     * @param crc32c          Data block checksum sent by sender, can be null
+     * @param data            Data block content
+     * @param receiveDuration Nanoseconds spent receiving data block from sender. If null, it's measured while reading data
+     * @return Data block saved in spool
+     */
+    public SpooledDataBlock submit(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, InputStream data, Long receiveDuration) throws UploadQueueFullException, IOException, TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException {
+        if ((transferId == null) || (senderDeviceId == null) || (data == null)) {
+            LOGGER.error("Parameters contains null values");
+            throw new IllegalArgumentException("Parameters contains null values");
+        }
+        if ((dataBlockNumber == null) || (dataBlockNumber < 0)) {
+            LOGGER.error("Data block number is required");
+            throw new IllegalArgumentException("Data block number is required in pipelined upload mode");
+        }
+        transferService.checkDataBlock(transferId, senderDeviceId, dataBlockNumber);
+
+        if (!permits.tryAcquire()) {
+            LOGGER.warn("Upload queue is full");
+            throw new UploadQueueFullException("Too many data blocks waiting to be saved. Retry later");
+        }
+        try {
+            SpooledDataBlock record = new SpooledDataBlock();
+            record.setTransferId(transferId);
+            record.setSenderDeviceId(senderDeviceId);
+            record.setDataBlockNumber(dataBlockNumber);
+            record.setCrc32c(crc32c);
+            record.setReceiveDuration(receiveDuration);
+            long startTime = System.nanoTime();
+            record = spool.write(record, data, BlockSizePolicy.MAX_DATA_BLOCK_SIZE);
+            if (receiveDuration == null) {
+                // Workers read data block from local disk, so throughput is measured here. Unknown when replayed
+                record.setReceiveDuration(System.nanoTime() - startTime);
+            }
+            if (record.getSize() == 0) {
+                spool.delete(record.getId());
+                throw new IllegalArgumentException("Data must not be empty");
+            }
+
+            LOGGER.debug("Data block {} of transfer {} spooled", dataBlockNumber, transferId);
+            SpooledDataBlock spooledDataBlock = record;
+            workers.execute(() -> this.persist(spooledDataBlock, 1));
+            return record;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Persist data blocks left in spool by previous run
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() throws IOException, InterruptedException {
+        for (SpooledDataBlock record : spool.list()) {
+            LOGGER.info("Replay spooled data block {} of transfer {}", record.getDataBlockNumber(), record.getTransferId());
+            permits.acquire();
+            workers.execute(() -> this.persist(record, 1));
+        }
+    }
+
+    /**
+     * Persist a spooled data block, then delete it from spool.
+     * Permit of data block is kept until it's persisted or given up, so retries count in queue size
+     *
+     * @param record  Data block record
+     * @param attempt Attempt number, from 1
+     */
+    void persist(SpooledDataBlock record, int attempt) {
+        boolean done = true;
+        try (InputStream data = spool.open(record.getId())) {
+            transferService.sendData(record.getTransferId(), record.getSenderDeviceId(), record.getDataBlockNumber(), record.getCrc32c(), data, record.getReceiveDuration());
+            spool.delete(record.getId());
+        } catch (TransferNotFoundException | DeviceNotFoundException e) {
+            // Transfer cancelled or finished meanwhile, or record not written by its sender
+            LOGGER.error("Spooled data block {} of transfer {} dropped: {}", record.getDataBlockNumber(), record.getTransferId(), e.getMessage());
+            spool.delete(record.getId());
+        } catch (IllegalArgumentException | InvalidDataBlockException | FileCorruptedException | FileTooLargeException e) {
+            LOGGER.error("Spooled data block {} of transfer {} refused: {}", record.getDataBlockNumber(), record.getTransferId(), e.getMessage());
+            this.giveUp(record);
+        } catch (Exception e) {
+            if (attempt >= maxAttempts) {
+                LOGGER.error("Unable to persist spooled data block {} of transfer {} after {} attempts", record.getDataBlockNumber(), record.getTransferId(), attempt, e);
+                this.giveUp(record);
+            } else {
+                long delay = Math.min(MAX_RETRY_DELAY, retryDelay << (attempt - 1));
+                LOGGER.warn("Unable to persist spooled data block {} of transfer {}. Retry in {} ms", record.getDataBlockNumber(), record.getTransferId(), delay, e);
+                done = !this.retry(record, attempt + 1, delay);
+            }
+        } finally {
+            if (done) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Persist a data block again later
+     *
+     * @return false if pipeline is shut down. Data block is then persisted on next start
+     */
+    private boolean retry(SpooledDataBlock record, int attempt, long delay) {
+        try {
+            retryScheduler.schedule(() -> {
+                try {
+                    workers.execute(() -> this.persist(record, attempt));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Delete a data block which can't be persisted. It's not marked as received, so sender is notified to send it again
+     */
+    private void giveUp(SpooledDataBlock record) {
+        spool.delete(record.getId());
+        notificationService.notifyDevice(new NotificationBuilder()
+                .transferId(record.getTransferId())
+                .receiverDeviceId(record.getSenderDeviceId())
+                .dataBlockNumber(record.getDataBlockNumber())
+                .notificationType(NotificationType.TRANSFER_FILE_CORRUPTED.getValue()).build());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        retryScheduler.shutdownNow(); // Data blocks waiting for a retry stay in spool
+        workers.shutdown();
+        if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+            LOGGER.warn("Spooled data blocks not persisted yet will be persisted on next start");
+            workers.shutdownNow();
+        }
+    }
+}
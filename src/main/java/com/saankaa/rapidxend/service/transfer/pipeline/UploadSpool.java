@@ -0,0 +1,171 @@
+package com.saankaa.rapidxend.service.transfer.pipeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.saankaa.rapidxend.service.storage.FileSystemBlockStore;
+import com.saankaa.rapidxend.service.transfer.exception.FileTooLargeException;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local disk journal of data blocks received and not persisted yet.
+ * Content is written first, then its record. Both are flushed to disk (fsync) before being renamed, so a record
+ * is only visible when the data block is complete, and it survives a crash of the instance.
+ */
+public class UploadSpool {
+
+    private static final String RECORD_EXTENSION = ".json";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(UploadSpool.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final FileSystemBlockStore contents;
+    private final Path journalDirectory;
+
+    public UploadSpool(Path spoolDirectory) throws IOException {
+        this.contents = new FileSystemBlockStore(spoolDirectory.resolve("data"));
+        this.journalDirectory = spoolDirectory.resolve("journal").toAbsolutePath();
+        Files.createDirectories(this.journalDirectory);
+        LOGGER.info("Upload journal is in {}", this.journalDirectory);
+    }
+
+    /**
+     * Save a data block
+     *
+     * @param record  Data block record. Its id and size are set
+     * @param data    Data block content
+     * @param maxSize Max content size in bytes
+     * @return Record saved
+     */
+    public SpooledDataBlock write(SpooledDataBlock record, InputStream data, long maxSize) throws IOException {
+        record.setId(new ObjectId().toHexString());
+        try {
+            record.setSize(contents.put(record.getId(), new LimitedInputStream(data, maxSize)));
+
+            Path path = this.resolve(record.getId());
+            Path temporaryPath = path.resolveSibling(record.getId() + ".part");
+            try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(objectMapper.writeValueAsBytes(record));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            this.syncJournalDirectory();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Abort write of spooled data block {}", record.getId());
+            this.delete(record.getId());
+            throw e;
+        }
+        return record;
+    }
+
+    /**
+     * @return Records of data blocks saved, oldest first
+     */
+    public List<SpooledDataBlock> list() throws IOException {
+        List<SpooledDataBlock> records = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(journalDirectory)) {
+            for (Path path : paths.filter(p -> p.getFileName().toString().endsWith(RECORD_EXTENSION)).collect(Collectors.toList())) {
+                try {
+                    records.add(objectMapper.readValue(path.toFile(), SpooledDataBlock.class));
+                } catch (IOException e) {
+                    LOGGER.error("Invalid journal record {}", path, e);
+                }
+            }
+        }
+        records.sort(Comparator.comparing(SpooledDataBlock::getId));
+        return records;
+    }
+
+    /**
+     * Open data block content. Caller must close it
+     *
+     * @param id Record id
+     * @return Content stream
+     */
+    public InputStream open(String id) throws IOException {
+        return contents.stream(id);
+    }
+
+    /**
+     * Delete data block. Record is deleted first, so content is never referenced after being deleted
+     *
+     * @param id Record id
+     */
+    public void delete(String id) {
+        try {
+            Files.deleteIfExists(this.resolve(id));
+            Files.deleteIfExists(this.resolve(id).resolveSibling(id + ".part"));
+            contents.delete(id);
+        } catch (IOException e) {
+            LOGGER.error("Unable to delete spooled data block {}", id, e);
+        }
+    }
+
+    private Path resolve(String id) {
+        return journalDirectory.resolve(id + RECORD_EXTENSION);
+    }
+
+    /**
+     * Flush directory entries, so rename of record is durable
+     */
+    private void syncJournalDirectory() {
+        try (FileChannel channel = FileChannel.open(journalDirectory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOGGER.debug("Directory can't be synced on this system");
+        }
+    }
+
+    /**
+     * Stream which fails when more than a max number of bytes are read
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long maxSize;
+        private long size;
+
+        LimitedInputStream(InputStream in, long maxSize) {
+            super(in);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) this.count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) this.count(read);
+            return read;
+        }
+
+        private void count(int read) {
+            size += read;
+            if (size > maxSize) {
+                throw new FileTooLargeException("Data block is too large. Max size=" + maxSize + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.saankaa.rapidxend.service.transfer.reactive;
+
+import com.saankaa.rapidxend.model.DataBlock;
+import com.saankaa.rapidxend.service.transfer.pipeline.SpooledDataBlock;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking version of data block upload and download.
+ * Data block content is read from and written to clients without holding a thread, so slow clients don't use threads
+ * while they send or receive data.
+ * Errors are the exceptions of {@link com.saankaa.rapidxend.service.transfer.ITransferService}
+ */
+public interface IReactiveTransferService {
+
+    /**
+     * Send a data block. Same checks and notifications as
+     * {@link com.saankaa.rapidxend.service.transfer.ITransferService#sendData(String, String, Integer, String, java.io.InputStream)}
+     *
+     * @param transferId      Transfer id
+     * @param senderDeviceId  Sender device id
+     * @param dataBlockNumber Data block number, null for next data block
+     * @param crc32c          Data block checksum sent by sender, can be null
+     * @param data            Data block content
+     * @return Data block number
+     */
+    Mono<Integer> sendData(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, Flux<DataBuffer> data);
+
+    /**
+     * Send a data block in pipelined upload mode. It's saved later, see
+     * {@link com.saankaa.rapidxend.service.transfer.pipeline.UploadPipeline}
+     *
+     * @param transferId      Transfer id
+     * @param senderDeviceId  Sender device id
+     * @param dataBlockNumber Data block number
+     * @param crc32c          Data block checksum sent by sender, can be null
+     * @param data            Data block content
+     * @return Data block saved in spool
+     */
+    Mono<SpooledDataBlock> submitData(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, Flux<DataBuffer> data);
+
+    /**
+     * Get data block metadata for a receiver. Same checks and notification as
+     * {@link com.saankaa.rapidxend.service.transfer.ITransferService#getDataBlock(String, String, Integer)}
+     *
+     * @param transferId       Transfer id
+     * @param receiverDeviceId Receiver device id
+     * @param dataBlockNumber  Data block number
+     * @return Data block
+     */
+    Mono<DataBlock> getDataBlock(String transferId, String receiverDeviceId, Integer dataBlockNumber);
+
+    /**
+     * Read data block content. Content is read when client is ready to receive it
+     *
+     * @param dataBlock Data block
+     * @param decode    true for content as sent by sender, false for content as stored (compressed if data block has an encoding)
+     * @return Content
+     */
+    Flux<DataBuffer> readData(DataBlock dataBlock, boolean decode);
+}
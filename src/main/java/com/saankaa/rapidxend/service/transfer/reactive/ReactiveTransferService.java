@@ -0,0 +1,160 @@
+package com.saankaa.rapidxend.service.transfer.reactive;
+
+import com.saankaa.rapidxend.model.DataBlock;
+import com.saankaa.rapidxend.service.storage.IBlockStore;
+import com.saankaa.rapidxend.service.transfer.BlockSizePolicy;
+import com.saankaa.rapidxend.service.transfer.ITransferService;
+import com.saankaa.rapidxend.service.transfer.compression.BlockCompression;
+import com.saankaa.rapidxend.service.transfer.exception.FileTooLargeException;
+import com.saankaa.rapidxend.service.transfer.pipeline.SpooledDataBlock;
+import com.saankaa.rapidxend.service.transfer.pipeline.UploadPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Data block content is copied between clients and local files with non-blocking IO.
+ * Data block upload is written to a temporary file while client sends it. When it's complete, it's saved by
+ * {@link ITransferService}, which makes blocking calls to mongo and block store. These calls are made on a bounded
+ * pool of threads, they don't depend on client speed.
+ */
+@Service
+public class ReactiveTransferService implements IReactiveTransferService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String UPLOAD_FILE_PREFIX = "rapidxend-upload-";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ReactiveTransferService.class);
+
+    private final ITransferService transferService;
+    private final UploadPipeline uploadPipeline;
+    private final IBlockStore blockStore;
+    private final DataBufferFactory dataBufferFactory = new DefaultDataBufferFactory();
+    private final Scheduler scheduler; // For blocking calls
+
+    public ReactiveTransferService(@Autowired ITransferService transferService, @Autowired UploadPipeline uploadPipeline,
+                                   @Autowired IBlockStore blockStore) {
+        this.transferService = transferService;
+        this.uploadPipeline = uploadPipeline;
+        this.blockStore = blockStore;
+        this.scheduler = Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+                Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "transfer-io");
+    }
+
+    @Override
+    public Mono<Integer> sendData(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, Flux<DataBuffer> data) {
+        return this.withUploadedContent(data, (inputStream, receiveDuration) ->
+                transferService.sendData(transferId, senderDeviceId, dataBlockNumber, crc32c, inputStream, receiveDuration));
+    }
+
+    @Override
+    public Mono<SpooledDataBlock> submitData(String transferId, String senderDeviceId, Integer dataBlockNumber, String crc32c, Flux<DataBuffer> data) {
+        return this.withUploadedContent(data, (inputStream, receiveDuration) ->
+                uploadPipeline.submit(transferId, senderDeviceId, dataBlockNumber, crc32c, inputStream, receiveDuration));
+    }
+
+    @Override
+    public Mono<DataBlock> getDataBlock(String transferId, String receiverDeviceId, Integer dataBlockNumber) {
+        return Mono.fromCallable(() -> transferService.getDataBlock(transferId, receiverDeviceId, dataBlockNumber))
+                .subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flux<DataBuffer> readData(DataBlock dataBlock, boolean decode) {
+        // Local file is read with asynchronous IO
+        Optional<Path> localPath = blockStore.getLocalPath(dataBlock.getStorageKey());
+        if (localPath.isPresent() && (!decode || (dataBlock.getEncoding() == null))) {
+            return DataBufferUtils.read(localPath.get(), dataBufferFactory, BUFFER_SIZE);
+        }
+
+        // Other stores are read on demand. A buffer is read only when previous one has been sent
+        return DataBufferUtils.readInputStream(() -> {
+            InputStream inputStream = blockStore.stream(dataBlock.getStorageKey());
+            return decode ? BlockCompression.decode(inputStream, dataBlock.getEncoding()) : inputStream;
+        }, dataBufferFactory, BUFFER_SIZE).subscribeOn(scheduler);
+    }
+
+    /**
+     * Write uploaded content to a temporary file, then read it with a blocking call.
+     * Temporary file is deleted when call is finished.
+     * Receive duration is measured while client sends content, reading the temporary file would measure disk speed
+     *
+     * @param data   Uploaded content
+     * @param reader Blocking call which reads content
+     * @return Result of call
+     */
+    private <T> Mono<T> withUploadedContent(Flux<DataBuffer> data, ContentReader<T> reader) {
+        return Mono.using(
+                () -> Files.createTempFile(UPLOAD_FILE_PREFIX, null),
+                path -> Mono.defer(() -> {
+                    long startTime = System.nanoTime();
+                    return this.write(data, path)
+                            .then(Mono.fromCallable(() -> System.nanoTime() - startTime));
+                }).flatMap(receiveDuration -> Mono.fromCallable(() -> {
+                    try (InputStream inputStream = Files.newInputStream(path)) {
+                        return reader.read(inputStream, receiveDuration);
+                    }
+                }).subscribeOn(scheduler)),
+                this::delete);
+    }
+
+    /**
+     * Write content to a file. A data block can't be larger than max data block size,
+     * so content is refused as soon as it's larger
+     *
+     * @param data Content
+     * @param path File
+     * @return Completion
+     */
+    private Mono<Void> write(Flux<DataBuffer> data, Path path) {
+        AtomicLong size = new AtomicLong();
+        Flux<DataBuffer> limitedData = data.handle((dataBuffer, sink) -> {
+            if (size.addAndGet(dataBuffer.readableByteCount()) > BlockSizePolicy.MAX_DATA_BLOCK_SIZE) {
+                DataBufferUtils.release(dataBuffer);
+                sink.error(new FileTooLargeException("Data block is larger than max data block size"));
+                return;
+            }
+            sink.next(dataBuffer);
+        });
+        return DataBufferUtils.write(limitedData, path, StandardOpenOption.WRITE);
+    }
+
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete uploaded file {}", path, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+    }
+
+    /**
+     * Blocking call which reads uploaded content
+     */
+    @FunctionalInterface
+    private interface ContentReader<T> {
+        T read(InputStream inputStream, long receiveDuration) throws Exception;
+    }
+}
@@ -0,0 +1,163 @@
+package com.saankaa.rapidxend.service.transfer.relay;
+
+import lombok.Getter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Ring buffer of a data block while sender uploads it.
+ * Sender writes bytes once, each receiver reads them from its own position. Sender never waits for receivers:
+ * a receiver whose next bytes have been overwritten fails and has to get data block from block store, where it is
+ * saved as usual.
+ * Content is valid only when data block has been saved. A receiver reading a data block refused after its upload
+ * (invalid size or checksum) fails too.
+ */
+public class RelayBuffer {
+
+    private static final long READ_TIMEOUT = 30_000; // Milliseconds without bytes from sender
+
+    @Getter
+    private final String transferId;
+    @Getter
+    private final int dataBlockNumber;
+    private final byte[] ring;
+    private long written; // Bytes written since start of data block
+    private boolean completed;
+    private boolean failed;
+
+    RelayBuffer(String transferId, int dataBlockNumber, int capacity) {
+        this.transferId = transferId;
+        this.dataBlockNumber = dataBlockNumber;
+        this.ring = new byte[capacity];
+    }
+
+    /**
+     * Copy bytes read from sender stream to buffer
+     *
+     * @param data Sender stream
+     * @return Stream of the same bytes
+     */
+    public InputStream tee(InputStream data) {
+        return new FilterInputStream(data) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    write(b, off, n);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false; // Bytes read again would be written twice
+            }
+        };
+    }
+
+    synchronized void write(byte[] b, int off, int len) {
+        if (completed || failed) {
+            return;
+        }
+        if (len > ring.length) {
+            // Only last bytes stay in buffer
+            off += len - ring.length;
+            written += len - ring.length;
+            len = ring.length;
+        }
+        int position = (int) (written % ring.length);
+        int first = Math.min(len, ring.length - position);
+        System.arraycopy(b, off, ring, position, first);
+        System.arraycopy(b, off + first, ring, 0, len - first);
+        written += len;
+        notifyAll();
+    }
+
+    /**
+     * Data block has been saved, receivers read the end of content
+     */
+    public synchronized void complete() {
+        completed = true;
+        notifyAll();
+    }
+
+    /**
+     * Data block has been refused or sender has been disconnected, receivers fail
+     */
+    public synchronized void fail() {
+        failed = true;
+        notifyAll();
+    }
+
+    /**
+     * Open a stream of data block content from its first byte
+     *
+     * @return Stream of content, or null if first bytes have already been overwritten
+     */
+    public synchronized InputStream newReader() {
+        if (failed || written > ring.length) {
+            return null;
+        }
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                int n = RelayBuffer.this.read(position, b, off, len);
+                if (n > 0) {
+                    position += n;
+                }
+                return n;
+            }
+        };
+    }
+
+    synchronized int read(long position, byte[] b, int off, int len) throws IOException {
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+        while ((position == written) && !completed && !failed) {
+            long timeout = deadline - System.currentTimeMillis();
+            if (timeout <= 0) {
+                throw new IOException("No data from sender");
+            }
+            try {
+                wait(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for data from sender", e);
+            }
+        }
+        if (failed) {
+            throw new IOException("Data block has been refused");
+        }
+        if (position < written - ring.length) {
+            throw new IOException("Receiver is too slow, data has been overwritten");
+        }
+        if (position == written) {
+            return -1; // Completed
+        }
+        int start = (int) (position % ring.length);
+        int n = (int) Math.min(Math.min(len, written - position), ring.length - start);
+        System.arraycopy(ring, start, b, off, n);
+        return n;
+    }
+}
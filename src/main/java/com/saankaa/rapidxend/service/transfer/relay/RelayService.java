@@ -0,0 +1,111 @@
+package com.saankaa.rapidxend.service.transfer.relay;
+
+import com.saankaa.rapidxend.config.AppEnvVariable;
+import com.saankaa.rapidxend.service.websocket.IWebsocketSessionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Data blocks of relay transfers being uploaded.
+ * Receivers online read a data block while sender uploads it, instead of waiting for the end of upload.
+ * Data block is still saved in block store: it's read from there by receivers which come too late, are too slow
+ * or are disconnected.
+ * Buffers are in memory of the instance which receives the upload, so only receivers with a websocket session on this
+ * instance are told to read them. Their relay requests must be routed to the same instance (sticky by device),
+ * other receivers wait for the data block to be saved.
+ */
+@Service
+public class RelayService {
+
+    private static final String DEFAULT_BUFFER_SIZE = "4194304"; // 4 MiB
+
+    private final Logger LOGGER = LoggerFactory.getLogger(RelayService.class);
+
+    private final IWebsocketSessionService websocketSessionService;
+    private final Map<String, RelayBuffer> buffers = new ConcurrentHashMap<>();
+    private final int bufferSize;
+
+    @Autowired
+    public RelayService(IWebsocketSessionService websocketSessionService) {
+        this(websocketSessionService, Integer.parseInt(AppEnvVariable.getValue(AppEnvVariable.TRANSFER_RELAY_BUFFER_SIZE, DEFAULT_BUFFER_SIZE)));
+    }
+
+    RelayService(IWebsocketSessionService websocketSessionService, int bufferSize) {
+        this.websocketSessionService = websocketSessionService;
+        this.bufferSize = bufferSize;
+    }
+
+    public boolean isEnabled() {
+        return bufferSize > 0;
+    }
+
+    /**
+     * Get receivers which can read data blocks relayed by current instance
+     *
+     * @param receiverDeviceIds Receivers of transfer
+     * @return Receivers with a websocket session on current instance
+     */
+    public List<String> getLocalReceivers(List<String> receiverDeviceIds) {
+        return receiverDeviceIds.stream().filter(websocketSessionService::isConnected).collect(Collectors.toList());
+    }
+
+    /**
+     * Start relaying a data block
+     *
+     * @param transferId      Transfer id
+     * @param dataBlockNumber Data block number
+     * @return Buffer to fill with data block content, null if relay is disabled or data block is already relayed
+     * by another upload
+     */
+    public RelayBuffer open(String transferId, int dataBlockNumber) {
+        if (!this.isEnabled()) {
+            return null;
+        }
+        RelayBuffer buffer = new RelayBuffer(transferId, dataBlockNumber, bufferSize);
+        if (buffers.putIfAbsent(this.getKey(transferId, dataBlockNumber), buffer) != null) {
+            LOGGER.debug("Data block {} of transfer {} already relayed", dataBlockNumber, transferId);
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * Read a data block being relayed
+     *
+     * @param transferId      Transfer id
+     * @param dataBlockNumber Data block number
+     * @return Stream of data block content from its first byte, null if data block is not relayed or its first
+     * bytes are not in buffer anymore
+     */
+    public InputStream read(String transferId, int dataBlockNumber) {
+        RelayBuffer buffer = buffers.get(this.getKey(transferId, dataBlockNumber));
+        return buffer != null ? buffer.newReader() : null;
+    }
+
+    /**
+     * Stop relaying a data block. Receivers already reading it finish with buffer content
+     *
+     * @param buffer Buffer returned by {@link #open(String, int)}
+     * @param saved  true if data block has been saved, false if it has been refused
+     */
+    public void close(RelayBuffer buffer, boolean saved) {
+        buffers.remove(this.getKey(buffer.getTransferId(), buffer.getDataBlockNumber()), buffer);
+        if (saved) {
+            buffer.complete();
+        } else {
+            buffer.fail();
+        }
+    }
+
+    private String getKey(String transferId, int dataBlockNumber) {
+        return transferId + ":" + dataBlockNumber;
+    }
+}
@@ -0,0 +1,52 @@
+package com.saankaa.rapidxend.service.websocket;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Directory of instances holding websocket sessions of each device, shared by all instances.
+ * A notification for a device which isn't connected to current instance is published only on channels of
+ * instances which hold its sessions.
+ */
+public interface IPresenceService {
+
+    /**
+     * Save that device is connected to current instance
+     *
+     * @param deviceId Device id
+     */
+    void register(String deviceId);
+
+    /**
+     * Save that device is not connected to current instance anymore
+     *
+     * @param deviceId Device id
+     */
+    void unregister(String deviceId);
+
+    /**
+     * Get instances holding sessions of a device
+     *
+     * @param deviceId Device id
+     * @return Instance ids, empty if device is not connected
+     */
+    Set<String> getInstanceIds(String deviceId);
+
+    /**
+     * Get instances holding sessions of several devices, with a single round trip
+     *
+     * @param deviceIds Device ids
+     * @return Instance ids by device id. Devices not connected are not in map
+     */
+    Map<String, Set<String>> getInstanceIds(Collection<String> deviceIds);
+
+    /**
+     * Get channel on which an instance receives notifications
+     *
+     * @param instanceId Instance id
+     * @return Redis channel
+     */
+    String getChannel(String instanceId);
+
+}
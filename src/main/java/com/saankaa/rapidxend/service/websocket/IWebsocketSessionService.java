@@ -1,28 +1,65 @@
 package com.saankaa.rapidxend.service.websocket;
 
 
+import com.saankaa.rapidxend.model.WebsocketSession;
+
+import java.util.Collection;
+
 public interface IWebsocketSessionService {
 
     /**
      * Check if device with deviceId is connected
      *
      * @param deviceId device id
-     * @return true if current device id is connected
+     * @return true if device has at least one session on current instance
      */
     boolean isConnected(String deviceId);
 
     /**
-     * Add connected user
+     * Add a session of a connected device
      *
-     * @param deviceId Device id
+     * @param deviceId  Device id
+     * @param sessionId Websocket session id
+     */
+    void addSession(String deviceId, String sessionId);
+
+    /**
+     * Remove a session. Device stays connected while it has other sessions.
+     * Removing a session already removed has no effect
+     *
+     * @param sessionId Websocket session id
+     * @return Session removed, null if session was not found
+     */
+    WebsocketSession removeSession(String sessionId);
+
+    /**
+     * Save that a frame has been received on a session
+     *
+     * @param sessionId Websocket session id
      */
-    void addConnectedDevice(String deviceId);
+    void heartbeat(String sessionId);
 
     /**
-     * Remove device from connected device
+     * Get sessions of a device on current instance
      *
      * @param deviceId Device id
+     * @return Sessions, empty if device is not connected
+     */
+    Collection<WebsocketSession> getSessions(String deviceId);
+
+    /**
+     * @return Number of devices connected to current instance
+     */
+    int getConnectedDeviceCount();
+
+    /**
+     * @return Ids of devices connected to current instance
+     */
+    Collection<String> getConnectedDeviceIds();
+
+    /**
+     * @return Id of current instance
      */
-    void removeConnectedDevice(String deviceId);
+    String getInstanceId();
 
 }
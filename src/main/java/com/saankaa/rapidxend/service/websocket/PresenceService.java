@@ -0,0 +1,157 @@
+package com.saankaa.rapidxend.service.websocket;
+
+import com.saankaa.rapidxend.config.AppEnvVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Presence of devices in Redis. Each device has a hash with an entry for each instance holding its sessions,
+ * whose value is the expiration date of the entry (epoch milliseconds).
+ * Each instance refreshes entries of its devices periodically, so entries of an instance which stopped without
+ * removing them expire.
+ */
+@Service
+public class PresenceService implements IPresenceService {
+
+    static final String KEY_PREFIX = "presence:";
+    static final long PRESENCE_TTL = 30 * 1000; // Entry expires if it's not refreshed
+    private static final long HEARTBEAT_INTERVAL = PRESENCE_TTL / 3;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(PresenceService.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final IWebsocketSessionService websocketSessionService;
+    private final String channel; // Prefix of instance channels
+
+    public PresenceService(@Autowired StringRedisTemplate redisTemplate, @Autowired IWebsocketSessionService websocketSessionService) {
+        this.redisTemplate = redisTemplate;
+        this.websocketSessionService = websocketSessionService;
+        this.channel = AppEnvVariable.getValue(AppEnvVariable.REDIS_CHANNEL, "notification");
+    }
+
+    @Override
+    public void register(String deviceId) {
+        if (deviceId == null) return;
+        String key = KEY_PREFIX + deviceId;
+        redisTemplate.opsForHash().put(key, websocketSessionService.getInstanceId(), String.valueOf(System.currentTimeMillis() + PRESENCE_TTL));
+        redisTemplate.expire(key, Duration.ofMillis(PRESENCE_TTL));
+    }
+
+    @Override
+    public void unregister(String deviceId) {
+        if (deviceId == null) return;
+        redisTemplate.opsForHash().delete(KEY_PREFIX + deviceId, websocketSessionService.getInstanceId());
+    }
+
+    @Override
+    public Set<String> getInstanceIds(String deviceId) {
+        Set<String> instanceIds = new HashSet<>();
+        if (deviceId == null) return instanceIds;
+        String key = KEY_PREFIX + deviceId;
+        long now = System.currentTimeMillis();
+        List<Object> expiredInstanceIds = new ArrayList<>();
+        for (Map.Entry<Object, Object> entry : redisTemplate.opsForHash().entries(key).entrySet()) {
+            if (Long.parseLong((String) entry.getValue()) > now) {
+                instanceIds.add((String) entry.getKey());
+            } else {
+                expiredInstanceIds.add(entry.getKey());
+            }
+        }
+        if (!expiredInstanceIds.isEmpty()) {
+            LOGGER.debug("Remove expired presence of device {} on {}", deviceId, expiredInstanceIds);
+            redisTemplate.opsForHash().delete(key, expiredInstanceIds.toArray());
+        }
+        return instanceIds;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Set<String>> getInstanceIds(Collection<String> deviceIds) {
+        Map<String, Set<String>> instanceIds = new HashMap<>();
+        if (deviceIds == null || deviceIds.isEmpty()) return instanceIds;
+        List<String> orderedDeviceIds = new ArrayList<>(deviceIds);
+        List<Object> entries = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String deviceId : orderedDeviceIds) {
+                connection.hashCommands().hGetAll((KEY_PREFIX + deviceId).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        // Expired entries are ignored, they are removed when device is looked up alone
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < orderedDeviceIds.size(); i++) {
+            Map<String, String> deviceEntries = (Map<String, String>) entries.get(i);
+            if (deviceEntries == null) continue;
+            for (Map.Entry<String, String> entry : deviceEntries.entrySet()) {
+                if (Long.parseLong(entry.getValue()) > now) {
+                    instanceIds.computeIfAbsent(orderedDeviceIds.get(i), id -> new HashSet<>()).add(entry.getKey());
+                }
+            }
+        }
+        return instanceIds;
+    }
+
+    @Override
+    public String getChannel(String instanceId) {
+        return channel + "." + instanceId;
+    }
+
+    /**
+     * Refresh presence of devices connected to current instance, with a single round trip
+     */
+    @Scheduled(initialDelay = HEARTBEAT_INTERVAL, fixedDelay = HEARTBEAT_INTERVAL)
+    public void heartbeat() {
+        List<String> deviceIds = new ArrayList<>(websocketSessionService.getConnectedDeviceIds());
+        if (deviceIds.isEmpty()) return;
+        LOGGER.debug("Refresh presence of {} devices", deviceIds.size());
+        byte[] field = websocketSessionService.getInstanceId().getBytes(StandardCharsets.UTF_8);
+        byte[] value = String.valueOf(System.currentTimeMillis() + PRESENCE_TTL).getBytes(StandardCharsets.UTF_8);
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String deviceId : deviceIds) {
+                    this.refresh(connection, (KEY_PREFIX + deviceId).getBytes(StandardCharsets.UTF_8), field, value);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // Next heartbeat will try again, entries are valid until they expire
+            LOGGER.error("Unable to refresh presence of devices", e);
+        }
+    }
+
+    private void refresh(RedisConnection connection, byte[] key, byte[] field, byte[] value) {
+        connection.hashCommands().hSet(key, field, value);
+        connection.keyCommands().pExpire(key, PRESENCE_TTL);
+    }
+
+    /**
+     * Remove presence of devices connected to current instance, other instances stop sending notifications to it
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (String deviceId : websocketSessionService.getConnectedDeviceIds()) {
+            try {
+                this.unregister(deviceId);
+            } catch (Exception e) {
+                LOGGER.warn("Unable to remove presence of device {}", deviceId);
+                return; // Redis is not available, entries will expire
+            }
+        }
+    }
+}
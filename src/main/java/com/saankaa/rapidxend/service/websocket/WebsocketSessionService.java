@@ -1,29 +1,104 @@
 package com.saankaa.rapidxend.service.websocket;
 
+import com.saankaa.rapidxend.config.AppEnvVariable;
+import com.saankaa.rapidxend.model.WebsocketSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Websocket sessions of devices connected to current instance.
+ * Sessions are kept by session id and by device id in concurrent maps, so checking if a device is connected doesn't
+ * take any lock. Sessions of a device are added and removed atomically, a device is removed when its last session is.
+ */
 @Service
 public class WebsocketSessionService implements IWebsocketSessionService {
 
-    List<String> connectedDeviceId = new ArrayList<>();
+    private final Logger LOGGER = LoggerFactory.getLogger(WebsocketSessionService.class);
+
+    private final Map<String, WebsocketSession> sessions = new ConcurrentHashMap<>(); // Session id as key
+    private final Map<String, Map<String, WebsocketSession>> deviceSessions = new ConcurrentHashMap<>(); // Device id as key
+    private final String instanceId;
+
+    public WebsocketSessionService() {
+        this(AppEnvVariable.getValue(AppEnvVariable.INSTANCE_ID, UUID.randomUUID().toString()));
+    }
+
+    WebsocketSessionService(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    @Override
+    public boolean isConnected(String deviceId) {
+        if (deviceId == null) return false;
+        return deviceSessions.containsKey(deviceId);
+    }
+
+    @Override
+    public void addSession(String deviceId, String sessionId) {
+        if (deviceId == null || deviceId.isEmpty() || sessionId == null) return;
+        WebsocketSession session = new WebsocketSession(sessionId, deviceId, instanceId);
+        // Both maps are updated while device entry is locked, so a session is never in one map only
+        deviceSessions.compute(deviceId, (id, deviceSessionMap) -> {
+            if (sessions.putIfAbsent(sessionId, session) != null) {
+                LOGGER.debug("Session {} already added", sessionId);
+                return deviceSessionMap;
+            }
+            if (deviceSessionMap == null) deviceSessionMap = new ConcurrentHashMap<>();
+            deviceSessionMap.put(sessionId, session);
+            return deviceSessionMap;
+        });
+    }
+
+    @Override
+    public WebsocketSession removeSession(String sessionId) {
+        if (sessionId == null) return null;
+        WebsocketSession session = sessions.get(sessionId);
+        if (session == null) return null;
+        // Device is removed with its last session
+        deviceSessions.computeIfPresent(session.getDeviceId(), (id, deviceSessionMap) -> {
+            sessions.remove(sessionId, session);
+            deviceSessionMap.remove(sessionId);
+            return deviceSessionMap.isEmpty() ? null : deviceSessionMap;
+        });
+        return session;
+    }
+
+    @Override
+    public void heartbeat(String sessionId) {
+        if (sessionId == null) return;
+        WebsocketSession session = sessions.get(sessionId);
+        if (session != null) {
+            session.setLastHeartbeatDate(new Date());
+        }
+    }
+
+    @Override
+    public Collection<WebsocketSession> getSessions(String deviceId) {
+        if (deviceId == null) return Collections.emptyList();
+        Map<String, WebsocketSession> deviceSessionMap = deviceSessions.get(deviceId);
+        return deviceSessionMap != null ? Collections.unmodifiableCollection(deviceSessionMap.values()) : Collections.emptyList();
+    }
 
     @Override
-    synchronized public boolean isConnected(String deviceId) {
-        return connectedDeviceId.contains(deviceId);
+    public int getConnectedDeviceCount() {
+        return deviceSessions.size();
     }
 
     @Override
-    synchronized public void addConnectedDevice(String deviceId) {
-        if (deviceId == null || deviceId.isEmpty()) return;
-        connectedDeviceId.add(deviceId);
+    public Collection<String> getConnectedDeviceIds() {
+        return Collections.unmodifiableSet(deviceSessions.keySet());
     }
 
     @Override
-    synchronized public void removeConnectedDevice(String deviceId) {
-        if (deviceId == null || deviceId.isEmpty()) return;
-        connectedDeviceId.remove(deviceId);
+    public String getInstanceId() {
+        return instanceId;
     }
 }
@@ -0,0 +1,207 @@
+package com.saankaa.rapidxend.controller;
+
+import com.saankaa.rapidxend.model.DataBlock;
+import com.saankaa.rapidxend.service.storage.IBlockStore;
+import com.saankaa.rapidxend.service.transfer.ITransferService;
+import com.saankaa.rapidxend.service.transfer.compression.BlockCompression;
+import com.saankaa.rapidxend.service.transfer.exception.InvalidDataBlockException;
+import com.saankaa.rapidxend.service.transfer.exception.TransferNotFoundException;
+import com.saankaa.rapidxend.service.transfer.exception.UploadQueueFullException;
+import com.saankaa.rapidxend.service.transfer.pipeline.SpooledDataBlock;
+import com.saankaa.rapidxend.service.transfer.pipeline.UploadPipeline;
+import com.saankaa.rapidxend.service.transfer.reactive.ReactiveTransferService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+class ReactiveTransferHandlerTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ReactiveTransferHandlerTest.class);
+
+    @TempDir
+    Path tempDirectory;
+
+    private ITransferService transferService;
+    private UploadPipeline uploadPipeline;
+    private IBlockStore blockStore;
+    private ReactiveTransferService reactiveTransferService;
+    private ReactiveTransferHandler reactiveTransferHandler;
+
+    @BeforeEach
+    void setUp() {
+        transferService = Mockito.mock(ITransferService.class);
+        uploadPipeline = Mockito.mock(UploadPipeline.class);
+        blockStore = Mockito.mock(IBlockStore.class);
+        reactiveTransferService = new ReactiveTransferService(transferService, uploadPipeline, blockStore);
+        reactiveTransferHandler = new ReactiveTransferHandler(reactiveTransferService, uploadPipeline);
+    }
+
+    @AfterEach
+    void tearDown() {
+        reactiveTransferService.shutdown();
+    }
+
+    @Test
+    void sendData() throws Exception {
+        byte[] data = new byte[200 * 1024];
+        new Random().nextBytes(data);
+        byte[][] received = new byte[1][];
+        Mockito.doAnswer(invocation -> {
+            received[0] = invocation.getArgument(4, InputStream.class).readAllBytes();
+            return 3;
+        }).when(transferService).sendData(eq("t01"), eq("deviceId"), eq(3), eq("E3069283"), isA(InputStream.class), isA(Long.class));
+
+        LOGGER.debug("Data block sent in several buffers is saved");
+        MockServerHttpResponse response = this.send("/t01/send?dataBlockNumber=3", "E3069283", this.toBuffers(data, 3));
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("3", response.getBodyAsString().block());
+        assertArrayEquals(data, received[0]);
+
+        LOGGER.debug("Data block is spooled when upload is pipelined");
+        SpooledDataBlock spooledDataBlock = new SpooledDataBlock();
+        spooledDataBlock.setDataBlockNumber(4);
+        Mockito.doReturn(true).when(uploadPipeline).isEnabled();
+        Mockito.doReturn(spooledDataBlock).when(uploadPipeline).submit(eq("t01"), eq("deviceId"), eq(4), isNull(), isA(InputStream.class), isA(Long.class));
+        response = this.send("/t01/send?dataBlockNumber=4", null, this.toBuffers(data, 1));
+        assertEquals(202, response.getStatusCode().value());
+        assertEquals("4", response.getBodyAsString().block());
+
+        LOGGER.debug("Throw UploadQueueFullException");
+        Mockito.doThrow(new UploadQueueFullException("")).when(uploadPipeline).submit(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class), isA(Long.class));
+        response = this.send("/t01/send?dataBlockNumber=4", null, this.toBuffers(data, 1));
+        assertEquals(503, response.getStatusCode().value());
+        assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        LOGGER.debug("Data block of unknown transfer or with invalid number is refused before being spooled");
+        Mockito.doThrow(new TransferNotFoundException("Transfer not found")).when(uploadPipeline).submit(eq("t02"), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class), isA(Long.class));
+        assertEquals(404, this.send("/t02/send?dataBlockNumber=4", null, this.toBuffers(data, 1)).getStatusCode().value());
+        Mockito.doThrow(new InvalidDataBlockException("Invalid dataBlock number")).when(uploadPipeline).submit(eq("t03"), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class), isA(Long.class));
+        assertEquals(400, this.send("/t03/send?dataBlockNumber=99", null, this.toBuffers(data, 1)).getStatusCode().value());
+        Mockito.doReturn(false).when(uploadPipeline).isEnabled();
+
+        LOGGER.debug("Throw TransferNotFoundException");
+        Mockito.doThrow(new TransferNotFoundException("Transfer not found")).when(transferService).sendData(eq("t02"), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class), isA(Long.class));
+        response = this.send("/t02/send", null, this.toBuffers(data, 1));
+        assertEquals(404, response.getStatusCode().value());
+        assertEquals("Transfer not found", response.getBodyAsString().block());
+
+        LOGGER.debug("Data block larger than max data block size is refused while it's sent");
+        DefaultDataBufferFactory dataBufferFactory = new DefaultDataBufferFactory();
+        byte[] megabyte = new byte[1024 * 1024];
+        response = this.send("/t01/send?dataBlockNumber=5", null, Flux.range(0, 51).map(i -> dataBufferFactory.wrap(megabyte)));
+        assertEquals(413, response.getStatusCode().value());
+
+        LOGGER.debug("Test with invalid requests");
+        assertEquals(400, this.send("/t01/send?dataBlockNumber=a", null, this.toBuffers(data, 1)).getStatusCode().value());
+        assertEquals(404, this.send("/t01/unknown", null, this.toBuffers(data, 1)).getStatusCode().value());
+        MockServerHttpResponse getResponse = new MockServerHttpResponse();
+        reactiveTransferHandler.handle(MockServerHttpRequest.get("/t01/send").build(), getResponse).block();
+        assertEquals(405, getResponse.getStatusCode().value());
+        Mockito.verify(transferService, Mockito.never()).sendData(eq("t01"), isA(String.class), eq(5), nullable(String.class), isA(InputStream.class), isA(Long.class));
+    }
+
+    @Test
+    void receiveData() throws Exception {
+        byte[] data = "id;name;size\n1;rapidxend.csv;1024\n".repeat(1000).getBytes();
+        byte[] encoded;
+        try (InputStream inputStream = BlockCompression.encode(new ByteArrayInputStream(data), BlockCompression.DEFLATE)) {
+            encoded = inputStream.readAllBytes();
+        }
+        DataBlock dataBlock = new DataBlock();
+        dataBlock.setStorageKey("k01");
+        dataBlock.setSize((long) data.length);
+        dataBlock.setStoredSize((long) encoded.length);
+        dataBlock.setEncoding(BlockCompression.DEFLATE);
+        dataBlock.setCrc32c("E3069283");
+        Mockito.doReturn(dataBlock).when(transferService).getDataBlock(eq("t01"), eq("deviceId"), eq(2));
+        Mockito.doAnswer(invocation -> new ByteArrayInputStream(encoded)).when(blockStore).stream(eq("k01"));
+        Mockito.doReturn(Optional.empty()).when(blockStore).getLocalPath(isA(String.class));
+
+        LOGGER.debug("Compressed content is sent as stored when receiver accepts deflate");
+        MockServerHttpResponse response = this.receive("/t01/receive/2", "gzip, deflate");
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("E3069283", response.getHeaders().getFirst(TransferController.CRC32C_HEADER));
+        assertEquals(BlockCompression.DEFLATE, response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(encoded.length, response.getHeaders().getContentLength());
+        assertArrayEquals(encoded, this.toBytes(response));
+
+        LOGGER.debug("Compressed content is decompressed for other receivers");
+        response = this.receive("/t01/receive/2", null);
+        assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaders().getFirst(HttpHeaders.VARY));
+        assertEquals(data.length, response.getHeaders().getContentLength());
+        assertArrayEquals(data, this.toBytes(response));
+
+        LOGGER.debug("Local file is read with asynchronous IO");
+        Path localPath = tempDirectory.resolve("k03");
+        Files.write(localPath, data);
+        DataBlock localDataBlock = new DataBlock();
+        localDataBlock.setStorageKey("k03");
+        localDataBlock.setSize((long) data.length);
+        Mockito.doReturn(localDataBlock).when(transferService).getDataBlock(eq("t01"), eq("deviceId"), eq(3));
+        Mockito.doReturn(Optional.of(localPath)).when(blockStore).getLocalPath(eq("k03"));
+        response = this.receive("/t01/receive/3", null);
+        assertArrayEquals(data, this.toBytes(response));
+        Mockito.verify(blockStore, Mockito.never()).stream(eq("k03"));
+
+        LOGGER.debug("Throw TransferNotFoundException");
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).getDataBlock(eq("t02"), isA(String.class), isA(Integer.class));
+        assertEquals(404, this.receive("/t02/receive/2", null).getStatusCode().value());
+        assertEquals(400, this.receive("/t01/receive/a", null).getStatusCode().value());
+    }
+
+    private MockServerHttpResponse send(String path, String crc32c, Flux<DataBuffer> body) {
+        MockServerHttpRequest.BodyBuilder request = MockServerHttpRequest.post(path);
+        if (crc32c != null) request.header(TransferController.CRC32C_HEADER, crc32c);
+        MockServerHttpResponse response = new MockServerHttpResponse();
+        reactiveTransferHandler.handle(request.body(body), response).block();
+        return response;
+    }
+
+    private MockServerHttpResponse receive(String path, String acceptEncoding) {
+        MockServerHttpRequest.BodyBuilder request = MockServerHttpRequest.post(path);
+        if (acceptEncoding != null) request.header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        MockServerHttpResponse response = new MockServerHttpResponse();
+        reactiveTransferHandler.handle(request.build(), response).block();
+        return response;
+    }
+
+    private Flux<DataBuffer> toBuffers(byte[] data, int count) {
+        DefaultDataBufferFactory dataBufferFactory = new DefaultDataBufferFactory();
+        int size = (data.length + count - 1) / count;
+        return Flux.range(0, count).map(i -> {
+            int from = i * size;
+            return dataBufferFactory.wrap(Arrays.copyOfRange(data, from, Math.min(data.length, from + size)));
+        });
+    }
+
+    private byte[] toBytes(MockServerHttpResponse response) {
+        DataBuffer dataBuffer = DataBufferUtils.join(response.getBody()).block();
+        byte[] bytes = new byte[dataBuffer.readableByteCount()];
+        dataBuffer.read(bytes);
+        DataBufferUtils.release(dataBuffer);
+        return bytes;
+    }
+}
@@ -2,17 +2,26 @@ package com.saankaa.rapidxend.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.saankaa.rapidxend.config.security.JwtUtils;
+import com.saankaa.rapidxend.model.DataBlock;
+import com.saankaa.rapidxend.model.DataBlockRange;
 import com.saankaa.rapidxend.model.Device;
 import com.saankaa.rapidxend.model.File;
+import com.saankaa.rapidxend.model.FileContent;
+import com.saankaa.rapidxend.model.FileManifest;
 import com.saankaa.rapidxend.model.Transfer;
 import com.saankaa.rapidxend.model.TransferState;
 import com.saankaa.rapidxend.repository.IDeviceRepository;
 import com.saankaa.rapidxend.service.device.Exception.DeviceNotFoundException;
+import com.saankaa.rapidxend.service.storage.IBlockStore;
 import com.saankaa.rapidxend.service.transfer.TransferService;
+import com.saankaa.rapidxend.service.transfer.compression.BlockCompression;
 import com.saankaa.rapidxend.service.transfer.exception.FileCorruptedException;
 import com.saankaa.rapidxend.service.transfer.exception.FileTooLargeException;
 import com.saankaa.rapidxend.service.transfer.exception.InvalidDataBlockException;
 import com.saankaa.rapidxend.service.transfer.exception.TransferNotFoundException;
+import com.saankaa.rapidxend.service.transfer.exception.UploadQueueFullException;
+import com.saankaa.rapidxend.service.transfer.pipeline.SpooledDataBlock;
+import com.saankaa.rapidxend.service.transfer.pipeline.UploadPipeline;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -29,10 +38,18 @@ import org.springframework.http.*;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.nullable;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 class TransferControllerTest {
@@ -45,7 +62,11 @@ class TransferControllerTest {
     @MockBean
     JwtUtils jwtUtils;
     @MockBean
+    IBlockStore blockStore;
+    @MockBean
     IDeviceRepository deviceRepository;
+    @MockBean
+    UploadPipeline uploadPipeline;
     @Autowired
     private TestRestTemplate testRestTemplate;
     @LocalServerPort
@@ -219,7 +240,7 @@ class TransferControllerTest {
 
         LOGGER.debug("Test send data");
 
-        Mockito.doReturn(666).when(transferService).sendData(isA(String.class), isA(String.class), isA(byte[].class));
+        Mockito.doReturn(666).when(transferService).sendData(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
         MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
         ByteArrayResource fileAsResource = new ByteArrayResource("data".getBytes()) {
             @Override
@@ -238,44 +259,81 @@ class TransferControllerTest {
         assertEquals(200, responseEntity.getStatusCode().value());
         assertEquals("666", responseEntity.getBody());
 
-        Mockito.verify(transferService).sendData("t2120", CONNECTED_DEVICE_ID, "data".getBytes());
+        Mockito.verify(transferService).sendData(eq("t2120"), eq(CONNECTED_DEVICE_ID), isNull(), isNull(), isA(InputStream.class));
+
+        LOGGER.debug("Send data block with its number and checksum");
+        HttpHeaders checksumHeaders = new HttpHeaders();
+        checksumHeaders.putAll(httpHeaders);
+        checksumHeaders.set("X-Checksum-CRC32C", "E3069283");
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send?dataBlockNumber=3", new HttpEntity<>(body, checksumHeaders), String.class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        Mockito.verify(transferService).sendData(eq("t2120"), eq(CONNECTED_DEVICE_ID), eq(3), eq("E3069283"), isA(InputStream.class));
 
 
         LOGGER.debug("Throw IllegalArgumentException");
-        Mockito.doThrow(new IllegalArgumentException()).when(transferService).sendData(isA(String.class), isA(String.class), isA(byte[].class));
+        Mockito.doThrow(new IllegalArgumentException()).when(transferService).sendData(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send", httpHeaders, String.class);
         assertEquals(400, responseEntity.getStatusCode().value());
 
 
         LOGGER.debug("Throw DeviceNotFoundException");
-        Mockito.doThrow(new DeviceNotFoundException("")).when(transferService).sendData(isA(String.class), isA(String.class), isA(byte[].class));
+        Mockito.doThrow(new DeviceNotFoundException("")).when(transferService).sendData(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send", httpHeaders, String.class);
         assertEquals(404, responseEntity.getStatusCode().value());
 
 
         LOGGER.debug("Throw TransferNotFoundException");
-        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).sendData(isA(String.class), isA(String.class), isA(byte[].class));
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).sendData(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send", httpHeaders, String.class);
         assertEquals(404, responseEntity.getStatusCode().value());
 
 
         LOGGER.debug("Throw FileCorruptedException");
-        Mockito.doThrow(new FileCorruptedException("")).when(transferService).sendData(isA(String.class), isA(String.class), isA(byte[].class));
+        Mockito.doThrow(new FileCorruptedException("")).when(transferService).sendData(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send", httpHeaders, String.class);
+        assertEquals(400, responseEntity.getStatusCode().value());
+
+        LOGGER.debug("Throw InvalidDataBlockException");
+        Mockito.doThrow(new InvalidDataBlockException("")).when(transferService).sendData(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send", httpHeaders, String.class);
         assertEquals(400, responseEntity.getStatusCode().value());
 
         LOGGER.debug("Throw FileTooLarge");
-        Mockito.doThrow(new FileTooLargeException("")).when(transferService).sendData(isA(String.class), isA(String.class), isA(byte[].class));
+        Mockito.doThrow(new FileTooLargeException("")).when(transferService).sendData(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send", httpHeaders, String.class);
         assertEquals(413, responseEntity.getStatusCode().value());
 
 
         LOGGER.debug("Throw Exception");
-        Mockito.doThrow(new RuntimeException("")).when(transferService).sendData(isA(String.class), isA(String.class), isA(byte[].class));
+        Mockito.doThrow(new RuntimeException("")).when(transferService).sendData(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send", httpHeaders, String.class);
         assertEquals(500, responseEntity.getStatusCode().value());
 
 
+        LOGGER.debug("Data block is spooled when upload is pipelined");
+        SpooledDataBlock spooledDataBlock = new SpooledDataBlock();
+        spooledDataBlock.setDataBlockNumber(3);
+        Mockito.doReturn(true).when(uploadPipeline).isEnabled();
+        Mockito.doReturn(spooledDataBlock).when(uploadPipeline).submit(eq("t2120"), eq(CONNECTED_DEVICE_ID), eq(3), eq("E3069283"), isA(InputStream.class));
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send?dataBlockNumber=3", new HttpEntity<>(body, checksumHeaders), String.class);
+        assertEquals(202, responseEntity.getStatusCode().value());
+        assertEquals("3", responseEntity.getBody());
+
+        LOGGER.debug("Throw UploadQueueFullException");
+        Mockito.doThrow(new UploadQueueFullException("")).when(uploadPipeline).submit(isA(String.class), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t2120/send?dataBlockNumber=3", new HttpEntity<>(body, checksumHeaders), String.class);
+        assertEquals(503, responseEntity.getStatusCode().value());
+        assertEquals("1", responseEntity.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        LOGGER.debug("Data block of unknown transfer or with invalid number is refused before being spooled");
+        Mockito.doThrow(new TransferNotFoundException("Transfer not found")).when(uploadPipeline).submit(eq("t2121"), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t2121/send?dataBlockNumber=3", new HttpEntity<>(body, checksumHeaders), String.class);
+        assertEquals(404, responseEntity.getStatusCode().value());
+        Mockito.doThrow(new InvalidDataBlockException("Invalid dataBlock number")).when(uploadPipeline).submit(eq("t2122"), isA(String.class), nullable(Integer.class), nullable(String.class), isA(InputStream.class));
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t2122/send?dataBlockNumber=99", new HttpEntity<>(body, checksumHeaders), String.class);
+        assertEquals(400, responseEntity.getStatusCode().value());
+        Mockito.doReturn(false).when(uploadPipeline).isEnabled();
+
     }
 
     @Test
@@ -285,7 +343,15 @@ class TransferControllerTest {
 
         byte[] data = new byte[1024];
         new Random().nextBytes(data);
-        Mockito.doReturn(data).when(transferService).receiveData(isA(String.class), isA(String.class), isA(Integer.class));
+        DataBlock dataBlock = new DataBlock();
+        dataBlock.setStorageKey("k01");
+        dataBlock.setSize((long) data.length);
+        dataBlock.setCrc32c("E3069283");
+        Mockito.doReturn(dataBlock).when(transferService).getDataBlock(isA(String.class), isA(String.class), isA(Integer.class));
+        Mockito.doAnswer(invocation -> {
+            WritableByteChannel channel = invocation.getArgument(3);
+            return (long) channel.write(ByteBuffer.wrap(data));
+        }).when(blockStore).transferTo(eq("k01"), eq(0L), eq((long) data.length), isA(WritableByteChannel.class));
         HttpHeaders httpHeaders = new HttpHeaders();
         httpHeaders.setBearerAuth(TOKEN);
         HttpEntity<byte[]> httpEntity = new HttpEntity<>(data, httpHeaders);
@@ -294,40 +360,312 @@ class TransferControllerTest {
 
         assertEquals(200, responseEntity.getStatusCode().value());
         assertTrue(Arrays.equals(data, responseEntity.getBody()));
-        Mockito.verify(transferService).receiveData("t01", CONNECTED_DEVICE_ID, 102);
+        assertEquals("E3069283", responseEntity.getHeaders().getFirst("X-Checksum-CRC32C"));
+        Mockito.verify(transferService).getDataBlock("t01", CONNECTED_DEVICE_ID, 102);
+
+        LOGGER.debug("Compressed data block. Sent as stored to receiver which accepts deflate");
+        byte[] text = "rapidxend;".repeat(100).getBytes();
+        byte[] encoded = BlockCompression.encode(new ByteArrayInputStream(text), BlockCompression.DEFLATE).readAllBytes();
+        DataBlock compressedDataBlock = new DataBlock();
+        compressedDataBlock.setStorageKey("k02");
+        compressedDataBlock.setSize((long) text.length);
+        compressedDataBlock.setEncoding(BlockCompression.DEFLATE);
+        compressedDataBlock.setStoredSize((long) encoded.length);
+        Mockito.doReturn(compressedDataBlock).when(transferService).getDataBlock(isA(String.class), isA(String.class), isA(Integer.class));
+        Mockito.doAnswer(invocation -> {
+            WritableByteChannel channel = invocation.getArgument(3);
+            return (long) channel.write(ByteBuffer.wrap(encoded));
+        }).when(blockStore).transferTo(eq("k02"), eq(0L), eq((long) encoded.length), isA(WritableByteChannel.class));
+        Mockito.doAnswer(invocation -> new ByteArrayInputStream(encoded)).when(blockStore).stream("k02");
+        httpHeaders.set(HttpHeaders.ACCEPT_ENCODING, "deflate");
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t01", new HttpEntity<>(data, httpHeaders), byte[].class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        assertEquals("deflate", responseEntity.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(encoded, responseEntity.getBody());
+
+        LOGGER.debug("Compressed data block. Decompressed for receiver which doesn't accept deflate");
+        httpHeaders.set(HttpHeaders.ACCEPT_ENCODING, "identity");
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t01", new HttpEntity<>(data, httpHeaders), byte[].class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        assertNull(responseEntity.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(text, responseEntity.getBody());
 
         LOGGER.debug("Throw IllegalArgumentException");
 
-        Mockito.doThrow(new IllegalArgumentException()).when(transferService).receiveData(isA(String.class), isA(String.class), isA(Integer.class));
+        Mockito.doThrow(new IllegalArgumentException()).when(transferService).getDataBlock(isA(String.class), isA(String.class), isA(Integer.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t01", httpEntity, byte[].class);
         assertEquals(400, responseEntity.getStatusCode().value());
 
         LOGGER.debug("Throw DeviceNotFoundException");
 
-        Mockito.doThrow(new DeviceNotFoundException("")).when(transferService).receiveData(isA(String.class), isA(String.class), isA(Integer.class));
+        Mockito.doThrow(new DeviceNotFoundException("")).when(transferService).getDataBlock(isA(String.class), isA(String.class), isA(Integer.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t01", httpEntity, byte[].class);
         assertEquals(404, responseEntity.getStatusCode().value());
 
         LOGGER.debug("Throw InvalidDataBlockException");
 
-        Mockito.doThrow(new InvalidDataBlockException("")).when(transferService).receiveData(isA(String.class), isA(String.class), isA(Integer.class));
+        Mockito.doThrow(new InvalidDataBlockException("")).when(transferService).getDataBlock(isA(String.class), isA(String.class), isA(Integer.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t01", httpEntity, byte[].class);
         assertEquals(400, responseEntity.getStatusCode().value());
 
 
         LOGGER.debug("Throw TransferNotFoundException");
 
-        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).receiveData(isA(String.class), isA(String.class), isA(Integer.class));
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).getDataBlock(isA(String.class), isA(String.class), isA(Integer.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t01", httpEntity, byte[].class);
         assertEquals(404, responseEntity.getStatusCode().value());
 
 
         LOGGER.debug("Throw NPE");
 
-        Mockito.doThrow(new NullPointerException()).when(transferService).receiveData(isA(String.class), isA(String.class), isA(Integer.class));
+        Mockito.doThrow(new NullPointerException()).when(transferService).getDataBlock(isA(String.class), isA(String.class), isA(Integer.class));
         responseEntity = testRestTemplate.postForEntity(base_url + "/t01", httpEntity, byte[].class);
         assertEquals(500, responseEntity.getStatusCode().value());
 
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void getContent() throws Exception {
+
+        LOGGER.debug("Test get content endpoint");
+        byte[] data = "rapidxend".getBytes();
+        DataBlock db1 = new DataBlock(), db2 = new DataBlock();
+        db1.setStorageKey("k01");
+        db1.setSize(5L);
+        db2.setStorageKey("k02");
+        db2.setSize(4L);
+        Mockito.doReturn(new FileContent(9L, List.of(db1, db2), false)).when(transferService).getContent(isA(String.class), isA(String.class));
+        Mockito.doAnswer(invocation -> {
+            byte[] content = invocation.getArgument(0).equals("k01") ? "rapid".getBytes() : "xend".getBytes();
+            long position = invocation.getArgument(1), count = invocation.getArgument(2);
+            WritableByteChannel channel = invocation.getArgument(3);
+            return (long) channel.write(ByteBuffer.wrap(content, (int) position, (int) count));
+        }).when(blockStore).transferTo(isA(String.class), isA(Long.class), isA(Long.class), isA(WritableByteChannel.class));
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setBearerAuth(TOKEN);
+        ResponseEntity<byte[]> responseEntity = testRestTemplate.exchange(base_url + "/t01/content", HttpMethod.GET, new HttpEntity<>(httpHeaders), byte[].class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        assertArrayEquals(data, responseEntity.getBody());
+
+        LOGGER.debug("Get range over two data blocks");
+        httpHeaders.setRange(List.of(HttpRange.createByteRange(3, 6)));
+        responseEntity = testRestTemplate.exchange(base_url + "/t01/content", HttpMethod.GET, new HttpEntity<>(httpHeaders), byte[].class);
+        assertEquals(206, responseEntity.getStatusCode().value());
+        assertEquals("idxe", new String(responseEntity.getBody()));
+        assertEquals("bytes 3-6/9", responseEntity.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+
+        LOGGER.debug("Get range after the end of content");
+        httpHeaders.setRange(List.of(HttpRange.createByteRange(20, 30)));
+        responseEntity = testRestTemplate.exchange(base_url + "/t01/content", HttpMethod.GET, new HttpEntity<>(httpHeaders), byte[].class);
+        assertEquals(416, responseEntity.getStatusCode().value());
+        assertEquals("bytes */9", responseEntity.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+
+        LOGGER.debug("Transfer in progress. Complete length is file size, bytes not received are not available");
+        Mockito.doReturn(new FileContent(20L, List.of(db1, db2), false)).when(transferService).getContent(isA(String.class), isA(String.class));
+        httpHeaders.setRange(List.of(HttpRange.createByteRange(3, 6)));
+        responseEntity = testRestTemplate.exchange(base_url + "/t01/content", HttpMethod.GET, new HttpEntity<>(httpHeaders), byte[].class);
+        assertEquals(206, responseEntity.getStatusCode().value());
+        assertEquals("bytes 3-6/20", responseEntity.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        httpHeaders.setRange(List.of(HttpRange.createByteRange(5, 12)));
+        responseEntity = testRestTemplate.exchange(base_url + "/t01/content", HttpMethod.GET, new HttpEntity<>(httpHeaders), byte[].class);
+        assertEquals(503, responseEntity.getStatusCode().value());
+        httpHeaders.remove(HttpHeaders.RANGE);
+        responseEntity = testRestTemplate.exchange(base_url + "/t01/content", HttpMethod.GET, new HttpEntity<>(httpHeaders), byte[].class);
+        assertEquals(503, responseEntity.getStatusCode().value());
+        assertNotNull(responseEntity.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        LOGGER.debug("Data block after available ones has been deleted once acknowledged. It's never available");
+        Mockito.doReturn(new FileContent(20L, List.of(db1, db2), true)).when(transferService).getContent(isA(String.class), isA(String.class));
+        responseEntity = testRestTemplate.exchange(base_url + "/t01/content", HttpMethod.GET, new HttpEntity<>(httpHeaders), byte[].class);
+        assertEquals(410, responseEntity.getStatusCode().value());
+        Mockito.doReturn(new FileContent(20L, List.of(), true)).when(transferService).getContent(isA(String.class), isA(String.class));
+        httpHeaders.setRange(List.of(HttpRange.createByteRange(0, 3)));
+        responseEntity = testRestTemplate.exchange(base_url + "/t01/content", HttpMethod.GET, new HttpEntity<>(httpHeaders), byte[].class);
+        assertEquals(410, responseEntity.getStatusCode().value());
+        httpHeaders.remove(HttpHeaders.RANGE);
+
+        LOGGER.debug("Throw TransferNotFoundException");
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).getContent(isA(String.class), isA(String.class));
+        responseEntity = testRestTemplate.exchange(base_url + "/t01/content", HttpMethod.GET, new HttpEntity<>(httpHeaders), byte[].class);
+        assertEquals(404, responseEntity.getStatusCode().value());
+    }
+
+    @Test
+    void getManifest() throws Exception {
+
+        LOGGER.debug("Test get manifest endpoint");
+        FileManifest manifest = new FileManifest();
+        manifest.setTransferId("t01");
+        manifest.setDataBlockCount(1);
+        manifest.setDataBlocks(List.of(new FileManifest.DataBlockChecksum(0, 9L, "E3069283", "9F86D081884C7D659A2FEAA0C55AD015A3BF4F1B2B0B822CD15D6C15B0F00A08")));
+        manifest.setMerkleRoot("ROOT");
+        Mockito.doReturn(manifest).when(transferService).getManifest(isA(String.class), isA(String.class));
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setBearerAuth(TOKEN);
+        ResponseEntity<FileManifest> responseEntity = testRestTemplate.exchange(base_url + "/t01/manifest", HttpMethod.GET, new HttpEntity<>(httpHeaders), FileManifest.class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        assertEquals(manifest, responseEntity.getBody());
+        Mockito.verify(transferService).getManifest("t01", CONNECTED_DEVICE_ID);
+
+        LOGGER.debug("Throw TransferNotFoundException");
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).getManifest(isA(String.class), isA(String.class));
+        responseEntity = testRestTemplate.exchange(base_url + "/t01/manifest", HttpMethod.GET, new HttpEntity<>(httpHeaders), FileManifest.class);
+        assertEquals(404, responseEntity.getStatusCode().value());
+    }
+
+    @Test
+    void receiveDataBlocks() throws Exception {
+
+        LOGGER.debug("Test receive data blocks endpoint");
+        byte[] text = "rapidxend;".repeat(100).getBytes();
+        byte[] encoded = BlockCompression.encode(new ByteArrayInputStream(text), BlockCompression.DEFLATE).readAllBytes();
+        DataBlock db1 = new DataBlock();
+        db1.setNumber(3);
+        db1.setStorageKey("k01");
+        db1.setSize(5L);
+        db1.setCrc32c("E3069283");
+        DataBlock db2 = new DataBlock();
+        db2.setNumber(4);
+        db2.setStorageKey("k02");
+        db2.setSize((long) text.length);
+        db2.setEncoding(BlockCompression.DEFLATE);
+        db2.setStoredSize((long) encoded.length);
+        Mockito.doReturn(List.of(db1, db2)).when(transferService).getDataBlocks(isA(String.class), isA(String.class), anyList());
+        Mockito.doAnswer(invocation -> {
+            WritableByteChannel channel = invocation.getArgument(3);
+            return (long) channel.write(ByteBuffer.wrap("rapid".getBytes()));
+        }).when(blockStore).transferTo(eq("k01"), eq(0L), eq(5L), isA(WritableByteChannel.class));
+        Mockito.doAnswer(invocation -> {
+            WritableByteChannel channel = invocation.getArgument(3);
+            return (long) channel.write(ByteBuffer.wrap(encoded));
+        }).when(blockStore).transferTo(eq("k02"), eq(0L), eq((long) encoded.length), isA(WritableByteChannel.class));
+        Mockito.doAnswer(invocation -> new ByteArrayInputStream(encoded)).when(blockStore).stream("k02");
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setBearerAuth(TOKEN);
+        httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<List<DataBlockRange>> httpEntity = new HttpEntity<>(List.of(new DataBlockRange(3, 4)), httpHeaders);
+
+        LOGGER.debug("Receiver doesn't accept deflate. Data blocks are decompressed");
+        ResponseEntity<byte[]> responseEntity = testRestTemplate.postForEntity(base_url + "/t01/receive", httpEntity, byte[].class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        assertEquals("2", responseEntity.getHeaders().getFirst("X-Data-Block-Count"));
+        Mockito.verify(transferService).getDataBlocks("t01", CONNECTED_DEVICE_ID, List.of(new DataBlockRange(3, 4)));
+        ByteBuffer body = ByteBuffer.wrap(responseEntity.getBody());
+        assertEquals(3, body.getInt());
+        assertEquals(0x02, body.get());
+        assertEquals(5L, body.getLong());
+        assertEquals(0xE3069283, body.getInt());
+        byte[] content = new byte[5];
+        body.get(content);
+        assertEquals("rapid", new String(content));
+        assertEquals(4, body.getInt());
+        assertEquals(0x00, body.get());
+        assertEquals(text.length, body.getLong());
+        body.getInt();
+        content = new byte[text.length];
+        body.get(content);
+        assertArrayEquals(text, content);
+        assertFalse(body.hasRemaining());
+
+        LOGGER.debug("Receiver accepts deflate. Compressed data block is sent as stored");
+        httpHeaders.set(HttpHeaders.ACCEPT_ENCODING, "deflate");
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t01/receive", new HttpEntity<>(List.of(new DataBlockRange(3, 4)), httpHeaders), byte[].class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        body = ByteBuffer.wrap(responseEntity.getBody());
+        body.position(17 + 5 + 4);
+        assertEquals(0x01, body.get());
+        assertEquals(encoded.length, body.getLong());
+        assertEquals(17 + 5 + 17 + encoded.length, responseEntity.getBody().length);
+
+        LOGGER.debug("Throw IllegalArgumentException");
+        Mockito.doThrow(new IllegalArgumentException()).when(transferService).getDataBlocks(isA(String.class), isA(String.class), anyList());
+        assertEquals(400, testRestTemplate.postForEntity(base_url + "/t01/receive", httpEntity, byte[].class).getStatusCode().value());
+
+        LOGGER.debug("Throw TransferNotFoundException");
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).getDataBlocks(isA(String.class), isA(String.class), anyList());
+        assertEquals(404, testRestTemplate.postForEntity(base_url + "/t01/receive", httpEntity, byte[].class).getStatusCode().value());
+    }
+
+    @Test
+    void relayData() throws Exception {
+
+        LOGGER.debug("Test relay data endpoint");
+        byte[] data = "rapidxend;".repeat(100).getBytes();
+        Mockito.doReturn(new ByteArrayInputStream(data)).when(transferService).relayData(isA(String.class), isA(String.class), isA(Integer.class));
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setBearerAuth(TOKEN);
+        HttpEntity<Void> httpEntity = new HttpEntity<>(httpHeaders);
+
+        ResponseEntity<byte[]> responseEntity = testRestTemplate.postForEntity(base_url + "/t01/relay/3", httpEntity, byte[].class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        assertArrayEquals(data, responseEntity.getBody());
+        Mockito.verify(transferService).relayData("t01", CONNECTED_DEVICE_ID, 3);
+
+        LOGGER.debug("Data block is not relayed");
+        Mockito.doReturn(null).when(transferService).relayData(isA(String.class), isA(String.class), isA(Integer.class));
+        assertEquals(404, testRestTemplate.postForEntity(base_url + "/t01/relay/3", httpEntity, byte[].class).getStatusCode().value());
+
+        LOGGER.debug("Throw TransferNotFoundException");
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).relayData(isA(String.class), isA(String.class), isA(Integer.class));
+        assertEquals(404, testRestTemplate.postForEntity(base_url + "/t01/relay/3", httpEntity, byte[].class).getStatusCode().value());
+    }
+
+    @Test
+    void acknowledgeData() throws Exception {
+
+        LOGGER.debug("Test acknowledge data endpoint");
+        List<DataBlockRange> ranges = List.of(new DataBlockRange(0, 3), new DataBlockRange(5, 5));
+        Mockito.doReturn(ranges).when(transferService).acknowledgeData(isA(String.class), isA(String.class), anyList());
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setBearerAuth(TOKEN);
+        httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<List<DataBlockRange>> httpEntity = new HttpEntity<>(List.of(new DataBlockRange(5, 5)), httpHeaders);
+        ResponseEntity<DataBlockRange[]> responseEntity = testRestTemplate.postForEntity(base_url + "/t01/ack", httpEntity, DataBlockRange[].class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        assertEquals(ranges, List.of(responseEntity.getBody()));
+        Mockito.verify(transferService).acknowledgeData("t01", CONNECTED_DEVICE_ID, List.of(new DataBlockRange(5, 5)));
+
+        LOGGER.debug("Throw InvalidDataBlockException");
+        Mockito.doThrow(new InvalidDataBlockException("")).when(transferService).acknowledgeData(isA(String.class), isA(String.class), anyList());
+        assertEquals(400, testRestTemplate.postForEntity(base_url + "/t01/ack", httpEntity, String.class).getStatusCode().value());
+
+        LOGGER.debug("Throw TransferNotFoundException");
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).acknowledgeData(isA(String.class), isA(String.class), anyList());
+        assertEquals(404, testRestTemplate.postForEntity(base_url + "/t01/ack", httpEntity, String.class).getStatusCode().value());
+    }
+
+    @Test
+    void updateDataBlockSize() throws Exception {
+
+        LOGGER.debug("Test update data block size endpoint");
+        File file = new File();
+        file.setSize(100L * 1024 * 1024);
+        file.setDataBlockSize(20L * 1024 * 1024);
+        Mockito.doReturn(file).when(transferService).updateDataBlockSize(isA(String.class), isA(String.class), nullable(Double.class), nullable(Double.class));
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setBearerAuth(TOKEN);
+        httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+        Map<String, Double> linkQuality = Map.of("throughput", 10485760.0, "rtt", 5.0);
+        ResponseEntity<File> responseEntity = testRestTemplate.postForEntity(base_url + "/t01/dataBlockSize", new HttpEntity<>(linkQuality, httpHeaders), File.class);
+        assertEquals(200, responseEntity.getStatusCode().value());
+        assertNotNull(responseEntity.getBody());
+        assertEquals(20L * 1024 * 1024, responseEntity.getBody().getDataBlockSize());
+        Mockito.verify(transferService).updateDataBlockSize("t01", CONNECTED_DEVICE_ID, 10485760.0, 5.0);
+
+        LOGGER.debug("Throw IllegalArgumentException");
+        Mockito.doThrow(new IllegalArgumentException("")).when(transferService).updateDataBlockSize(isA(String.class), isA(String.class), nullable(Double.class), nullable(Double.class));
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t01/dataBlockSize", new HttpEntity<>(Map.of(), httpHeaders), File.class);
+        assertEquals(400, responseEntity.getStatusCode().value());
+
+        LOGGER.debug("Throw TransferNotFoundException");
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).updateDataBlockSize(isA(String.class), isA(String.class), nullable(Double.class), nullable(Double.class));
+        responseEntity = testRestTemplate.postForEntity(base_url + "/t01/dataBlockSize", new HttpEntity<>(Map.of(), httpHeaders), File.class);
+        assertEquals(404, responseEntity.getStatusCode().value());
+    }
+}
@@ -0,0 +1,102 @@
+package com.saankaa.rapidxend.service.notification;
+
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.Notification;
+import com.saankaa.rapidxend.model.NotificationBuilder;
+import com.saankaa.rapidxend.model.NotificationType;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Size and encode/decode time of notifications in binary and in JSON, for a notification of one data block and
+ * a coalesced notification of several ranges sent to several receivers.
+ * Not run with unit tests (class name doesn't end with Test), run it with:
+ * mvn test -Dtest=NotificationBinarySerializerBenchmark
+ */
+class NotificationBinarySerializerBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(NotificationBinarySerializerBenchmark.class);
+
+    private volatile Object sink; // Results are used, so JIT doesn't remove encoding
+
+    @Test
+    void serialize() {
+        Notification dataAvailable = new NotificationBuilder()
+                .senderDeviceId(new ObjectId().toHexString())
+                .receiverDeviceId(new ObjectId().toHexString())
+                .transferId(new ObjectId().toHexString())
+                .dataBlockNumber(42)
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue())
+                .build();
+        List<String> receiverDeviceIds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            receiverDeviceIds.add(new ObjectId().toHexString());
+        }
+        Notification coalesced = new NotificationBuilder()
+                .senderDeviceId(new ObjectId().toHexString())
+                .receiverDeviceIds(receiverDeviceIds)
+                .transferId(new ObjectId().toHexString())
+                .dataBlockNumber(600)
+                .dataBlockRanges(new ArrayList<>(List.of(new DataBlockRange(0, 127), new DataBlockRange(130, 130), new DataBlockRange(200, 600))))
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue())
+                .build();
+
+        this.measure("Data block available", dataAvailable);
+        this.measure("Coalesced, 10 receivers", coalesced);
+    }
+
+    private void measure(String name, Notification notification) {
+        RedisSerializer<Object> binarySerializer = new NotificationBinarySerializer();
+        RedisSerializer<Object> jsonSerializer = new GenericJackson2JsonRedisSerializer();
+        byte[] binary = binarySerializer.serialize(notification);
+        byte[] json = jsonSerializer.serialize(notification);
+        assertEquals(notification, binarySerializer.deserialize(binary));
+        assertEquals(notification, binarySerializer.deserialize(json));
+
+        LOGGER.info("{}: {} bytes in binary, {} bytes in JSON", name, binary.length, json.length);
+        LOGGER.info("{}: encode {} ns in binary, {} ns in JSON", name,
+                this.measureEncode(binarySerializer, notification), this.measureEncode(jsonSerializer, notification));
+        LOGGER.info("{}: decode {} ns in binary, {} ns in JSON", name,
+                this.measureDecode(binarySerializer, binary), this.measureDecode(jsonSerializer, json));
+    }
+
+    /**
+     * @return Mean time of an encoding, in ns
+     */
+    private long measureEncode(RedisSerializer<Object> serializer, Notification notification) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink = serializer.serialize(notification);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = serializer.serialize(notification);
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    /**
+     * @return Mean time of a decoding, in ns
+     */
+    private long measureDecode(RedisSerializer<Object> serializer, byte[] bytes) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink = serializer.deserialize(bytes);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = serializer.deserialize(bytes);
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+}
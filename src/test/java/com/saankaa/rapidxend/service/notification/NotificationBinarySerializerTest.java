@@ -0,0 +1,70 @@
+package com.saankaa.rapidxend.service.notification;
+
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.Notification;
+import com.saankaa.rapidxend.model.NotificationBuilder;
+import com.saankaa.rapidxend.model.NotificationType;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationBinarySerializerTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(NotificationBinarySerializerTest.class);
+
+    private final NotificationBinarySerializer serializer = new NotificationBinarySerializer();
+
+    @Test
+    void roundTrip() {
+        Notification notification = new NotificationBuilder()
+                .senderDeviceId(new ObjectId().toHexString())
+                .receiverDeviceId(new ObjectId().toHexString())
+                .transferId(new ObjectId().toHexString())
+                .dataBlockNumber(600)
+                .dataBlockRanges(new ArrayList<>(List.of(new DataBlockRange(0, 127), new DataBlockRange(130, 130), new DataBlockRange(200, 600))))
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue())
+                .build();
+
+        LOGGER.debug("Notification with all fields");
+        byte[] bytes = serializer.serialize(notification);
+        assertEquals(notification, serializer.deserialize(bytes));
+        byte[] json = new GenericJackson2JsonRedisSerializer().serialize(notification);
+        LOGGER.debug("{} bytes, {} bytes in JSON", bytes.length, json.length);
+        assertTrue(bytes.length < json.length / 5);
+
+        LOGGER.debug("Ids which are not ObjectId and fields not set");
+        Notification peering = new NotificationBuilder()
+                .senderDeviceId("Device été 01")
+                .receiverDeviceId("ABCDEF")
+                .notificationType(NotificationType.PEERING_REQUEST.getValue())
+                .build();
+        assertEquals(peering, serializer.deserialize(serializer.serialize(peering)));
+        assertEquals(new Notification(), serializer.deserialize(serializer.serialize(new Notification())));
+
+        LOGGER.debug("Notification of several receivers");
+        Notification multicast = NotificationBuilder.from(notification)
+                .receiverDeviceId(null)
+                .receiverDeviceIds(new ArrayList<>(List.of(new ObjectId().toHexString(), "d02")))
+                .build();
+        assertEquals(multicast, serializer.deserialize(serializer.serialize(multicast)));
+
+        LOGGER.debug("JSON messages from instances not switched yet are read");
+        assertEquals(notification, serializer.deserialize(json));
+
+        LOGGER.debug("Test with invalid messages");
+        assertNull(serializer.deserialize(new byte[0]));
+        assertThrows(SerializationException.class, () -> serializer.deserialize(new byte[]{3, 0, 0}));
+        assertThrows(SerializationException.class, () -> serializer.deserialize(Arrays.copyOf(bytes, bytes.length - 3)));
+        assertThrows(SerializationException.class, () -> serializer.deserialize(Arrays.copyOf(bytes, 10)));
+        assertThrows(SerializationException.class, () -> serializer.serialize("notification"));
+    }
+}
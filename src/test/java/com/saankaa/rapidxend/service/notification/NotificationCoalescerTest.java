@@ -0,0 +1,70 @@
+package com.saankaa.rapidxend.service.notification;
+
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.Notification;
+import com.saankaa.rapidxend.model.NotificationBuilder;
+import com.saankaa.rapidxend.model.NotificationType;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationCoalescerTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(NotificationCoalescerTest.class);
+
+    @Test
+    void coalesce() throws Exception {
+        LinkedBlockingQueue<Notification> delivered = new LinkedBlockingQueue<>();
+        NotificationCoalescer coalescer = new NotificationCoalescer(delivered::add, 50, 200);
+        NotificationBuilder notificationBuilder = new NotificationBuilder()
+                .senderDeviceId("d01")
+                .transferId("t01")
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue());
+
+        LOGGER.debug("Data blocks of the same receiver and transfer are notified together");
+        for (int n : new int[]{0, 1, 2, 5, 3}) {
+            assertTrue(coalescer.add(notificationBuilder.receiverDeviceId("d02").dataBlockNumber(n).build()));
+        }
+        assertTrue(coalescer.add(notificationBuilder.receiverDeviceId("d03").dataBlockNumber(0).build()));
+        Notification first = delivered.poll(1, TimeUnit.SECONDS);
+        Notification second = delivered.poll(1, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        Notification merged = "d02".equals(first.getReceiverDeviceId()) ? first : second;
+        Notification single = merged == first ? second : first;
+        assertEquals(5, merged.getDataBlockNumber());
+        assertEquals(List.of(new DataBlockRange(0, 3), new DataBlockRange(5, 5)), merged.getDataBlockRanges());
+        assertEquals("t01", merged.getTransferId());
+        assertEquals("d01", merged.getSenderDeviceId());
+        LOGGER.debug("Single data block is notified as is");
+        assertEquals(0, single.getDataBlockNumber());
+        assertNull(single.getDataBlockRanges());
+        assertTrue(delivered.isEmpty());
+
+        LOGGER.debug("Notification is delivered after max delay, even if data blocks keep coming");
+        long start = System.currentTimeMillis();
+        for (int n = 0; n < 30; n++) {
+            coalescer.add(notificationBuilder.receiverDeviceId("d02").dataBlockNumber(n).build());
+            Thread.sleep(10);
+        }
+        merged = delivered.poll(1, TimeUnit.SECONDS);
+        assertNotNull(merged);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(merged.getDataBlockNumber() < 29);
+        coalescer.shutdown();
+        Notification last = delivered.poll();
+        assertNotNull(last);
+        assertEquals(29, last.getDataBlockNumber());
+
+        LOGGER.debug("Other notifications are not held");
+        assertFalse(coalescer.add(notificationBuilder.dataBlockNumber(null).notificationType(NotificationType.TRANSFER_FINISHED.getValue()).build()));
+        assertFalse(new NotificationCoalescer(delivered::add, 0, 0).add(notificationBuilder.dataBlockNumber(1)
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build()));
+    }
+}
@@ -0,0 +1,179 @@
+package com.saankaa.rapidxend.service.notification;
+
+import com.saankaa.rapidxend.model.Notification;
+import com.saankaa.rapidxend.model.NotificationBuilder;
+import com.saankaa.rapidxend.model.NotificationType;
+import com.saankaa.rapidxend.service.push.IDataBlockPushService;
+import com.saankaa.rapidxend.service.websocket.IPresenceService;
+import com.saankaa.rapidxend.service.websocket.IWebsocketSessionService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+class NotificationServiceTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(NotificationServiceTest.class);
+
+    @Mock
+    private IWebsocketSessionService websocketSessionService;
+    @Mock
+    private SimpMessagingTemplate simpMessagingTemplate;
+    @Mock
+    private RedisTemplate<String, Notification> redisTemplate;
+    @Mock
+    private IDataBlockPushService dataBlockPushService;
+    @Mock
+    private IPresenceService presenceService;
+    @Captor
+    private ArgumentCaptor<Notification> notificationCaptor;
+    @Captor
+    private ArgumentCaptor<Collection<String>> remoteReceiversCaptor;
+
+    private AutoCloseable mocks;
+    private NotificationService notificationService;
+
+    @BeforeEach
+    void setUp() {
+        mocks = MockitoAnnotations.openMocks(this);
+        Mockito.doReturn("i01").when(websocketSessionService).getInstanceId();
+        for (String instanceId : List.of("i01", "i02", "i03")) {
+            Mockito.doReturn("notifications:" + instanceId).when(presenceService).getChannel(instanceId);
+        }
+        // r01 and r02 are connected to current instance, other receivers to other instances
+        Mockito.doReturn(true).when(websocketSessionService).isConnected("r01");
+        Mockito.doReturn(true).when(websocketSessionService).isConnected("r02");
+        notificationService = new NotificationService(websocketSessionService, simpMessagingTemplate, redisTemplate, dataBlockPushService, presenceService);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        notificationService.shutdown();
+        mocks.close();
+    }
+
+    @Test
+    void notifyDevice() {
+
+        LOGGER.debug("Receiver connected to current instance is notified on its session");
+        notificationService.notifyDevice(this.cancelled().receiverDeviceId("r01").build());
+        Mockito.verify(simpMessagingTemplate).convertAndSendToUser(eq("r01"), eq("/user"), notificationCaptor.capture());
+        assertEquals("r01", notificationCaptor.getValue().getReceiverDeviceId());
+        Mockito.verifyNoInteractions(redisTemplate);
+
+        LOGGER.debug("Other receiver is notified only on channels of instances holding its sessions");
+        Mockito.doReturn(Set.of("i01", "i02", "i03")).when(presenceService).getInstanceIds("r03");
+        Notification notification = this.cancelled().receiverDeviceId("r03").build();
+        notificationService.notifyDevice(notification);
+        Mockito.verify(redisTemplate).convertAndSend("notifications:i02", notification);
+        Mockito.verify(redisTemplate).convertAndSend("notifications:i03", notification);
+        Mockito.verify(redisTemplate, Mockito.never()).convertAndSend(eq("notifications:i01"), any());
+
+        LOGGER.debug("Receiver not connected is not notified");
+        Mockito.doReturn(Set.of()).when(presenceService).getInstanceIds("r09");
+        notificationService.notifyDevice(this.cancelled().receiverDeviceId("r09").build());
+        Mockito.verify(redisTemplate, Mockito.times(2)).convertAndSend(anyString(), any());
+        Mockito.verify(simpMessagingTemplate, Mockito.times(1)).convertAndSendToUser(anyString(), anyString(), any());
+    }
+
+    @Test
+    void notifyDevices() {
+        Map<String, Set<String>> instanceIds = new HashMap<>();
+        instanceIds.put("r03", Set.of("i02"));
+        instanceIds.put("r04", Set.of("i02"));
+        instanceIds.put("r05", Set.of("i01", "i03")); // Session on current instance closed meanwhile
+        instanceIds.put("r06", Set.of("i02", "i03"));
+        Mockito.doReturn(instanceIds).when(presenceService).getInstanceIds(anyCollection());
+
+        LOGGER.debug("Receivers connected to current instance are notified on their session");
+        notificationService.notifyDevices(this.cancelled().build(), List.of("r01", "r02", "r03", "r04", "r05", "r06", "r09"));
+        Mockito.verify(simpMessagingTemplate).convertAndSendToUser(eq("r01"), eq("/user"), notificationCaptor.capture());
+        assertEquals("r01", notificationCaptor.getValue().getReceiverDeviceId());
+        assertNull(notificationCaptor.getValue().getReceiverDeviceIds());
+        Mockito.verify(simpMessagingTemplate).convertAndSendToUser(eq("r02"), eq("/user"), isA(Notification.class));
+
+        LOGGER.debug("Presence of other receivers is read once");
+        Mockito.verify(presenceService).getInstanceIds(remoteReceiversCaptor.capture());
+        assertEquals(List.of("r03", "r04", "r05", "r06", "r09"), remoteReceiversCaptor.getValue());
+
+        LOGGER.debug("A single notification is published on channel of each other instance, with its receivers");
+        Mockito.verify(redisTemplate).convertAndSend(eq("notifications:i02"), notificationCaptor.capture());
+        assertEquals(Set.of("r03", "r04", "r06"), new HashSet<>(notificationCaptor.getValue().getReceiverDeviceIds()));
+        assertNull(notificationCaptor.getValue().getReceiverDeviceId());
+        assertEquals("t01", notificationCaptor.getValue().getTransferId());
+        Mockito.verify(redisTemplate).convertAndSend(eq("notifications:i03"), notificationCaptor.capture());
+        assertEquals(Set.of("r05", "r06"), new HashSet<>(notificationCaptor.getValue().getReceiverDeviceIds()));
+        Mockito.verify(redisTemplate, Mockito.never()).convertAndSend(eq("notifications:i01"), any());
+        Mockito.verifyNoMoreInteractions(redisTemplate);
+    }
+
+    @Test
+    void notifyDevicesWithPush() {
+        Mockito.doReturn(Map.of("r03", Set.of("i02"))).when(presenceService).getInstanceIds(anyCollection());
+        Mockito.doReturn(true).when(dataBlockPushService).offer(argThat(notification -> "r01".equals(notification.getReceiverDeviceId())));
+
+        LOGGER.debug("Data block is pushed to receiver which asked it, instead of notifying it");
+        notificationService.notifyDevice(this.dataAvailable(0).receiverDeviceId("r01").build());
+        Mockito.verifyNoInteractions(simpMessagingTemplate, redisTemplate, presenceService);
+
+        LOGGER.debug("Other receivers are notified");
+        notificationService.notifyDevices(this.dataAvailable(1).build(), List.of("r01", "r02", "r03"));
+        Mockito.verify(dataBlockPushService).offer(argThat(notification -> "r01".equals(notification.getReceiverDeviceId()) && (notification.getDataBlockNumber() == 1)));
+        Mockito.verify(simpMessagingTemplate, Mockito.timeout(5000)).convertAndSendToUser(eq("r02"), eq("/user"), notificationCaptor.capture());
+        assertEquals(1, notificationCaptor.getValue().getDataBlockNumber());
+        Mockito.verify(redisTemplate, Mockito.timeout(5000)).convertAndSend(eq("notifications:i02"), notificationCaptor.capture());
+        assertEquals(List.of("r03"), notificationCaptor.getValue().getReceiverDeviceIds());
+        Mockito.verify(simpMessagingTemplate, Mockito.never()).convertAndSendToUser(eq("r01"), anyString(), any());
+        Mockito.verify(presenceService).getInstanceIds(remoteReceiversCaptor.capture());
+        assertEquals(List.of("r03"), remoteReceiversCaptor.getValue());
+    }
+
+    @Test
+    void onMessage() {
+
+        LOGGER.debug("Notification of several receivers is sent to each receiver connected to current instance");
+        notificationService.onMessage(this.cancelled().receiverDeviceIds(List.of("r01", "r02", "r03")).build());
+        Mockito.verify(simpMessagingTemplate).convertAndSendToUser(eq("r01"), eq("/user"), notificationCaptor.capture());
+        assertEquals("r01", notificationCaptor.getValue().getReceiverDeviceId());
+        assertNull(notificationCaptor.getValue().getReceiverDeviceIds());
+        Mockito.verify(simpMessagingTemplate).convertAndSendToUser(eq("r02"), eq("/user"), isA(Notification.class));
+
+        LOGGER.debug("Notification of a receiver not connected to current instance is ignored");
+        notificationService.onMessage(this.cancelled().receiverDeviceId("r03").build());
+        Mockito.verify(simpMessagingTemplate, Mockito.times(2)).convertAndSendToUser(anyString(), anyString(), any());
+        Mockito.verifyNoInteractions(redisTemplate);
+    }
+
+    private NotificationBuilder cancelled() {
+        return new NotificationBuilder()
+                .senderDeviceId("s01")
+                .transferId("t01")
+                .notificationType(NotificationType.TRANSFER_CANCELLED.getValue());
+    }
+
+    private NotificationBuilder dataAvailable(int dataBlockNumber) {
+        return new NotificationBuilder()
+                .senderDeviceId("s01")
+                .transferId("t01")
+                .dataBlockNumber(dataBlockNumber)
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue());
+    }
+}
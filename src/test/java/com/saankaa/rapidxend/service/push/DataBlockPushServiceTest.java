@@ -0,0 +1,247 @@
+package com.saankaa.rapidxend.service.push;
+
+import com.saankaa.rapidxend.model.DataBlock;
+import com.saankaa.rapidxend.model.DataBlockPushRequest;
+import com.saankaa.rapidxend.model.DataBlockRange;
+import com.saankaa.rapidxend.model.Notification;
+import com.saankaa.rapidxend.model.NotificationBuilder;
+import com.saankaa.rapidxend.model.NotificationType;
+import com.saankaa.rapidxend.service.storage.IBlockStore;
+import com.saankaa.rapidxend.service.transfer.ITransferService;
+import com.saankaa.rapidxend.service.transfer.compression.BlockCompression;
+import com.saankaa.rapidxend.service.transfer.exception.InvalidDataBlockException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Captor;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.GenericMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+class DataBlockPushServiceTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(DataBlockPushServiceTest.class);
+
+    private ITransferService transferService;
+    private IBlockStore blockStore;
+    private SimpMessagingTemplate simpMessagingTemplate;
+    private ExecutorService workers;
+    private DataBlockPushService dataBlockPushService;
+    @Captor
+    private ArgumentCaptor<Map<String, Object>> headersCaptor; // STOMP headers of pushed frames
+    @Captor
+    private ArgumentCaptor<Object> payloadCaptor;
+    private AutoCloseable captors;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        captors = MockitoAnnotations.openMocks(this);
+        transferService = Mockito.mock(ITransferService.class);
+        blockStore = Mockito.mock(IBlockStore.class);
+        simpMessagingTemplate = Mockito.mock(SimpMessagingTemplate.class);
+        workers = Executors.newSingleThreadExecutor();
+        dataBlockPushService = new DataBlockPushService(transferService, blockStore, simpMessagingTemplate, workers, 2);
+
+        for (int number = 0; number < 4; number++) {
+            DataBlock dataBlock = new DataBlock();
+            dataBlock.setNumber(number);
+            dataBlock.setStorageKey("k0" + number);
+            dataBlock.setCrc32c("E306928" + number);
+            Mockito.doReturn(dataBlock).when(transferService).getDataBlock(eq("t01"), eq("r01"), eq(number));
+            Mockito.doReturn(dataBlock).when(transferService).getDataBlock(eq("t01"), eq("r03"), eq(number));
+            byte[] content = ("data block " + number).getBytes(StandardCharsets.UTF_8);
+            Mockito.doAnswer(invocation -> new ByteArrayInputStream(content)).when(blockStore).stream(eq("k0" + number));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        dataBlockPushService.shutdown();
+        captors.close();
+    }
+
+    @Test
+    void pushWithCredit() throws Exception {
+
+        LOGGER.debug("Data blocks are notified when receiver didn't ask push");
+        assertFalse(dataBlockPushService.offer(this.dataAvailable("r01", 0)));
+
+        LOGGER.debug("Data blocks are pushed while session has credit");
+        dataBlockPushService.grantCredit("s01", "r01", new DataBlockPushRequest("t01", 5, null));
+        assertTrue(dataBlockPushService.offer(this.dataAvailable("r01", 0)));
+        assertTrue(dataBlockPushService.offer(this.dataAvailable("r01", 1)));
+        assertTrue(dataBlockPushService.offer(this.dataAvailable("r01", 2)));
+        assertTrue(dataBlockPushService.offer(this.dataAvailable("r01", 3)));
+        this.awaitWorkers();
+        Mockito.verify(simpMessagingTemplate, Mockito.times(2)).convertAndSendToUser(eq("r01"), eq(DataBlockPushService.PUSH_DESTINATION), payloadCaptor.capture(), headersCaptor.capture());
+        assertEquals("data block 0", new String((byte[]) payloadCaptor.getAllValues().get(0), StandardCharsets.UTF_8));
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(new GenericMessage<>(new byte[0], headersCaptor.getAllValues().get(0)));
+        assertEquals("s01", accessor.getSessionId());
+        assertEquals("application/octet-stream", accessor.getContentType().toString());
+        assertEquals("0", accessor.getFirstNativeHeader(DataBlockPushService.DATA_BLOCK_NUMBER_HEADER));
+        assertEquals("E3069280", accessor.getFirstNativeHeader(DataBlockPushService.CRC32C_HEADER));
+
+        LOGGER.debug("Waiting data blocks are pushed when credit is given");
+        dataBlockPushService.grantCredit("s01", "r01", new DataBlockPushRequest("t01", 1, null));
+        this.awaitWorkers();
+        Mockito.verify(simpMessagingTemplate, Mockito.times(3)).convertAndSendToUser(eq("r01"), eq(DataBlockPushService.PUSH_DESTINATION), isA(byte[].class), ArgumentMatchers.<Map<String, Object>>any());
+        Mockito.verify(transferService).getDataBlock(eq("t01"), eq("r01"), eq(2));
+        Mockito.verify(transferService, Mockito.never()).getDataBlock(eq("t01"), eq("r01"), eq(3));
+
+        LOGGER.debug("Data blocks are notified when session is closed");
+        dataBlockPushService.removeSession("s01");
+        assertFalse(dataBlockPushService.offer(this.dataAvailable("r01", 3)));
+
+        LOGGER.debug("Coalesced notification of several data blocks");
+        dataBlockPushService.grantCredit("s03", "r03", new DataBlockPushRequest("t01", 2, null));
+        Notification notification = this.dataAvailable("r03", 4);
+        notification.setDataBlockRanges(List.of(new DataBlockRange(0, 1), new DataBlockRange(4, 4)));
+        assertTrue(dataBlockPushService.offer(notification));
+        this.awaitWorkers();
+        Mockito.verify(transferService).getDataBlock(eq("t01"), eq("r03"), eq(0));
+        Mockito.verify(transferService).getDataBlock(eq("t01"), eq("r03"), eq(1));
+        Mockito.verify(transferService, Mockito.never()).getDataBlock(eq("t01"), eq("r03"), eq(4));
+
+        LOGGER.debug("Test with invalid requests");
+        assertThrows(IllegalArgumentException.class, () -> dataBlockPushService.grantCredit("s01", "r01", new DataBlockPushRequest("t01", 0, null)));
+        assertThrows(IllegalArgumentException.class, () -> dataBlockPushService.grantCredit("s01", "r01", new DataBlockPushRequest(null, 1, null)));
+        dataBlockPushService.grantCredit("s02", "r01", new DataBlockPushRequest("t01", 1, null));
+        assertThrows(IllegalArgumentException.class, () -> dataBlockPushService.grantCredit("s02", "r02", new DataBlockPushRequest("t01", 1, null)));
+    }
+
+    @Test
+    void pushCompressedData() throws Exception {
+        byte[] data = "id;name;size\n1;rapidxend.csv;1024\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        byte[] encoded;
+        try (InputStream inputStream = BlockCompression.encode(new ByteArrayInputStream(data), BlockCompression.DEFLATE)) {
+            encoded = inputStream.readAllBytes();
+        }
+        DataBlock dataBlock = new DataBlock();
+        dataBlock.setNumber(0);
+        dataBlock.setStorageKey("k10");
+        dataBlock.setEncoding(BlockCompression.DEFLATE);
+        Mockito.doReturn(dataBlock).when(transferService).getDataBlock(eq("t02"), eq("r01"), eq(0));
+        Mockito.doReturn(encoded).when(blockStore).get(eq("k10"));
+        Mockito.doAnswer(invocation -> new ByteArrayInputStream(encoded)).when(blockStore).stream(eq("k10"));
+
+        LOGGER.debug("Compressed content is pushed as stored when receiver accepts deflate");
+        dataBlockPushService.grantCredit("s01", "r01", new DataBlockPushRequest("t02", 1, "deflate"));
+        dataBlockPushService.offer(this.dataAvailable("t02", "r01", 0));
+        this.awaitWorkers();
+        Mockito.verify(simpMessagingTemplate).convertAndSendToUser(eq("r01"), eq(DataBlockPushService.PUSH_DESTINATION), eq(encoded), headersCaptor.capture());
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(new GenericMessage<>(new byte[0], headersCaptor.getValue()));
+        assertEquals(BlockCompression.DEFLATE, accessor.getFirstNativeHeader(DataBlockPushService.CONTENT_ENCODING_HEADER));
+
+        LOGGER.debug("Compressed content is decompressed for other receivers");
+        dataBlockPushService.grantCredit("s02", "r02", new DataBlockPushRequest("t02", 1, null));
+        Mockito.doReturn(dataBlock).when(transferService).getDataBlock(eq("t02"), eq("r02"), eq(0));
+        dataBlockPushService.offer(this.dataAvailable("t02", "r02", 0));
+        this.awaitWorkers();
+        Mockito.verify(simpMessagingTemplate).convertAndSendToUser(eq("r02"), eq(DataBlockPushService.PUSH_DESTINATION), eq(data), ArgumentMatchers.<Map<String, Object>>any());
+    }
+
+    @Test
+    void pushInFrames() throws Exception {
+        byte[] data = new byte[2 * DataBlockPushService.FRAME_SIZE + 10];
+        new Random().nextBytes(data);
+        AtomicBoolean closed = new AtomicBoolean();
+        DataBlock dataBlock = new DataBlock();
+        dataBlock.setNumber(0);
+        dataBlock.setStorageKey("k20");
+        Mockito.doReturn(dataBlock).when(transferService).getDataBlock(eq("t03"), eq("r01"), eq(0));
+        Mockito.doAnswer(invocation -> new ByteArrayInputStream(data) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        }).when(blockStore).stream(eq("k20"));
+
+        LOGGER.debug("Each frame uses a credit");
+        dataBlockPushService.grantCredit("s01", "r01", new DataBlockPushRequest("t03", 2, null));
+        dataBlockPushService.offer(this.dataAvailable("t03", "r01", 0));
+        this.awaitWorkers();
+        Mockito.verify(simpMessagingTemplate, Mockito.times(2)).convertAndSendToUser(eq("r01"), eq(DataBlockPushService.PUSH_DESTINATION), isA(byte[].class), ArgumentMatchers.<Map<String, Object>>any());
+        assertFalse(closed.get());
+
+        LOGGER.debug("Last frame is sent when credit is given");
+        dataBlockPushService.grantCredit("s01", "r01", new DataBlockPushRequest("t03", 1, null));
+        this.awaitWorkers();
+        Mockito.verify(simpMessagingTemplate, Mockito.times(3)).convertAndSendToUser(eq("r01"), eq(DataBlockPushService.PUSH_DESTINATION), payloadCaptor.capture(), headersCaptor.capture());
+        assertTrue(closed.get());
+        Mockito.verify(transferService, Mockito.times(1)).getDataBlock(eq("t03"), eq("r01"), eq(0));
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            byte[] frame = (byte[]) payloadCaptor.getAllValues().get(i);
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(new GenericMessage<>(new byte[0], headersCaptor.getAllValues().get(i)));
+            assertEquals(String.valueOf(received.size()), accessor.getFirstNativeHeader(DataBlockPushService.OFFSET_HEADER));
+            assertEquals((i == 2) ? "true" : null, accessor.getFirstNativeHeader(DataBlockPushService.LAST_FRAME_HEADER));
+            received.write(frame);
+        }
+        assertArrayEquals(data, received.toByteArray());
+
+        LOGGER.debug("Data block being sent is closed with session");
+        closed.set(false);
+        dataBlockPushService.offer(this.dataAvailable("t03", "r01", 0));
+        dataBlockPushService.grantCredit("s01", "r01", new DataBlockPushRequest("t03", 1, null));
+        this.awaitWorkers();
+        Mockito.verify(simpMessagingTemplate, Mockito.times(4)).convertAndSendToUser(eq("r01"), eq(DataBlockPushService.PUSH_DESTINATION), isA(byte[].class), ArgumentMatchers.<Map<String, Object>>any());
+        assertFalse(closed.get());
+        dataBlockPushService.removeSession("s01");
+        assertTrue(closed.get());
+    }
+
+    @Test
+    void notifyWhenPushFails() throws Exception {
+        Mockito.doThrow(new InvalidDataBlockException("")).when(transferService).getDataBlock(eq("t01"), eq("r01"), eq(1));
+
+        LOGGER.debug("Receiver is notified when data block can't be pushed, and gets its credit back");
+        dataBlockPushService.grantCredit("s01", "r01", new DataBlockPushRequest("t01", 1, null));
+        dataBlockPushService.offer(this.dataAvailable("r01", 1));
+        this.awaitWorkers();
+        Mockito.verify(simpMessagingTemplate).convertAndSendToUser(eq("r01"), eq("/user"), eq(this.dataAvailable("r01", 1)));
+
+        dataBlockPushService.offer(this.dataAvailable("r01", 2));
+        this.awaitWorkers();
+        Mockito.verify(simpMessagingTemplate).convertAndSendToUser(eq("r01"), eq(DataBlockPushService.PUSH_DESTINATION), isA(byte[].class), ArgumentMatchers.<Map<String, Object>>any());
+    }
+
+    private Notification dataAvailable(String receiverDeviceId, int dataBlockNumber) {
+        return this.dataAvailable("t01", receiverDeviceId, dataBlockNumber);
+    }
+
+    private Notification dataAvailable(String transferId, String receiverDeviceId, int dataBlockNumber) {
+        return new NotificationBuilder()
+                .transferId(transferId)
+                .receiverDeviceId(receiverDeviceId)
+                .dataBlockNumber(dataBlockNumber)
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build();
+    }
+
+    private void awaitWorkers() throws Exception {
+        // Single worker runs tasks in order
+        workers.submit(() -> {
+        }).get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,163 @@
+package com.saankaa.rapidxend.service.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingBlockStoreTest {
+
+    private static final int CACHE_SIZE = 4 * 1024 * 1024;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CachingBlockStoreTest.class);
+
+    @TempDir
+    Path dataDirectory;
+
+    private FileSystemBlockStore fileSystemBlockStore;
+    private BlockCache blockCache;
+    private CachingBlockStore blockStore;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fileSystemBlockStore = new FileSystemBlockStore(dataDirectory);
+        blockCache = new BlockCache(CACHE_SIZE);
+        blockStore = new CachingBlockStore(fileSystemBlockStore, blockCache);
+    }
+
+    @Test
+    void readThroughCache() throws IOException {
+        byte[] data = new byte[200 * 1024 + 3];
+        new Random().nextBytes(data);
+        blockStore.put("k01", new ByteArrayInputStream(data));
+
+        LOGGER.debug("First read loads content, next ones hit cache");
+        assertArrayEquals(data, blockStore.get("k01"));
+        try (InputStream inputStream = blockStore.stream("k01")) {
+            assertEquals(10, inputStream.skip(10));
+            assertArrayEquals(Arrays.copyOfRange(data, 10, data.length), inputStream.readAllBytes());
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(1000, blockStore.transferTo("k01", 100, 1000, Channels.newChannel(outputStream)));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 1100), outputStream.toByteArray());
+        assertEquals(0, blockStore.transferTo("k01", data.length, 10, Channels.newChannel(new ByteArrayOutputStream())));
+        assertEquals(1, blockCache.getMissCount());
+        assertEquals(3, blockCache.getHitCount());
+        assertEquals(data.length, blockCache.getSize());
+
+        LOGGER.debug("Deleted content is removed from cache");
+        blockStore.delete("k01");
+        assertEquals(0, blockCache.getEntryCount());
+        assertThrows(IOException.class, () -> blockStore.get("k01"));
+    }
+
+    @Test
+    void evictLeastRecentlyUsed() throws IOException {
+        byte[] data = new byte[CACHE_SIZE / 4];
+        for (int i = 0; i < 5; i++) {
+            blockStore.put("k0" + i, new ByteArrayInputStream(data));
+        }
+
+        LOGGER.debug("Cache keeps contents in its size");
+        for (int i = 0; i < 4; i++) {
+            blockStore.get("k0" + i);
+        }
+        blockStore.get("k00"); // k01 is now the least recently used
+        blockStore.get("k04");
+        assertEquals(4, blockCache.getEntryCount());
+        assertEquals(CACHE_SIZE, blockCache.getSize());
+        assertEquals(1, blockCache.getEvictionCount());
+
+        blockStore.get("k00");
+        blockStore.get("k01");
+        assertEquals(6, blockCache.getMissCount()); // k01 has been evicted
+
+        LOGGER.debug("Content larger than a quarter of cache is not cached");
+        blockStore.put("k05", new ByteArrayInputStream(new byte[CACHE_SIZE / 4 + 1]));
+        assertEquals(CACHE_SIZE / 4 + 1, blockStore.get("k05").length);
+        assertEquals(CACHE_SIZE, blockCache.getSize());
+    }
+
+    @Test
+    void bypassCacheForLargeContent() throws IOException {
+        AtomicInteger streams = new AtomicInteger();
+        IBlockStore countingBlockStore = new FileSystemBlockStore(dataDirectory) {
+            @Override
+            public InputStream stream(String key) throws IOException {
+                streams.incrementAndGet();
+                return super.stream(key);
+            }
+        };
+        CachingBlockStore cachingBlockStore = new CachingBlockStore(countingBlockStore, blockCache);
+        cachingBlockStore.put("k01", new ByteArrayInputStream(new byte[CACHE_SIZE / 4 + 1]));
+
+        LOGGER.debug("Size of content is known before reading it, so content is read once from block store");
+        try (InputStream inputStream = cachingBlockStore.stream("k01")) {
+            assertEquals(CACHE_SIZE / 4 + 1, inputStream.readAllBytes().length);
+        }
+        assertEquals(1, streams.get());
+        assertEquals(0, blockCache.getLoadCount());
+        assertEquals(0, blockCache.getEntryCount());
+    }
+
+    @Test
+    void loadOnceForConcurrentMisses() throws Exception {
+        byte[] data = new byte[1024 * 1024];
+        new Random().nextBytes(data);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        IBlockStore slowBlockStore = new FileSystemBlockStore(dataDirectory) {
+            @Override
+            public InputStream stream(String key) throws IOException {
+                loads.incrementAndGet();
+                try {
+                    loading.await(); // Other readers arrive while content is loaded
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.stream(key);
+            }
+        };
+        slowBlockStore.put("k01", new ByteArrayInputStream(data));
+        CachingBlockStore cachingBlockStore = new CachingBlockStore(slowBlockStore, blockCache);
+
+        LOGGER.debug("50 receivers read the same data block");
+        ExecutorService executorService = Executors.newFixedThreadPool(50);
+        List<Future<byte[]>> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            results.add(executorService.submit(() -> cachingBlockStore.get("k01")));
+        }
+        Thread.sleep(200);
+        loading.countDown();
+        for (Future<byte[]> result : results) {
+            assertArrayEquals(data, result.get());
+        }
+        executorService.shutdown();
+        assertEquals(1, loads.get());
+        assertEquals(1, blockCache.getLoadCount());
+        assertEquals(50, blockCache.getHitCount() + blockCache.getMissCount());
+
+        LOGGER.debug("Missing content is not cached");
+        assertThrows(IOException.class, () -> cachingBlockStore.get("unknown"));
+        assertEquals(1, blockCache.getEntryCount());
+    }
+}
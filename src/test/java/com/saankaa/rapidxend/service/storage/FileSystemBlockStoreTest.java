@@ -0,0 +1,84 @@
+package com.saankaa.rapidxend.service.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSystemBlockStoreTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(FileSystemBlockStoreTest.class);
+
+    @TempDir
+    Path dataDirectory;
+
+    private FileSystemBlockStore blockStore;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        blockStore = new FileSystemBlockStore(dataDirectory);
+    }
+
+    @Test
+    void putGetStreamDelete() throws IOException {
+        byte[] data = new byte[200 * 1024 + 3];
+        new Random().nextBytes(data);
+
+        LOGGER.debug("Put content");
+        assertEquals(data.length, blockStore.put("60d5ec49f1b2c8a1e4d3b2a1", new ByteArrayInputStream(data)));
+
+        LOGGER.debug("Get content");
+        assertArrayEquals(data, blockStore.get("60d5ec49f1b2c8a1e4d3b2a1"));
+        try (InputStream inputStream = blockStore.stream("60d5ec49f1b2c8a1e4d3b2a1")) {
+            assertArrayEquals(data, inputStream.readAllBytes());
+        }
+
+        LOGGER.debug("Transfer a part of content to a channel");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(1000, blockStore.transferTo("60d5ec49f1b2c8a1e4d3b2a1", 100, 1000, Channels.newChannel(outputStream)));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 1100), outputStream.toByteArray());
+        assertTrue(blockStore.getLocalPath("60d5ec49f1b2c8a1e4d3b2a1").isPresent());
+
+        LOGGER.debug("Delete content");
+        blockStore.delete("60d5ec49f1b2c8a1e4d3b2a1");
+        assertThrows(IOException.class, () -> blockStore.get("60d5ec49f1b2c8a1e4d3b2a1"));
+        assertTrue(blockStore.getLocalPath("60d5ec49f1b2c8a1e4d3b2a1").isEmpty());
+        blockStore.delete("60d5ec49f1b2c8a1e4d3b2a1"); // Nothing is done
+    }
+
+    @Test
+    void putFailure() throws IOException {
+        LOGGER.debug("Test with stream which fails. Nothing must be stored");
+        InputStream failingStream = new InputStream() {
+            int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ > 1000) throw new IOException("Connection reset");
+                return 1;
+            }
+        };
+        assertThrows(IOException.class, () -> blockStore.put("key01", failingStream));
+        assertThrows(IOException.class, () -> blockStore.get("key01"));
+        try (var files = Files.walk(dataDirectory)) {
+            assertTrue(files.noneMatch(Files::isRegularFile));
+        }
+
+        LOGGER.debug("Test with invalid key");
+        assertThrows(IllegalArgumentException.class, () -> blockStore.put("../key01", new ByteArrayInputStream(new byte[1])));
+        assertThrows(IllegalArgumentException.class, () -> blockStore.get(null));
+    }
+}
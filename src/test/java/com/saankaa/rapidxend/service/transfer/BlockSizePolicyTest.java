@@ -0,0 +1,55 @@
+package com.saankaa.rapidxend.service.transfer;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockSizePolicyTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(BlockSizePolicyTest.class);
+    private final BlockSizePolicy blockSizePolicy = new BlockSizePolicy();
+
+    @Test
+    void getInitialDataBlockSize() {
+        assertEquals(5L * 1024 * 1024, blockSizePolicy.getInitialDataBlockSize(10L * 1024 * 1024));
+        assertEquals(10L * 1024 * 1024, blockSizePolicy.getInitialDataBlockSize(500L * 1024 * 1024));
+        assertEquals(BlockSizePolicy.MAX_DATA_BLOCK_SIZE, blockSizePolicy.getInitialDataBlockSize(2L * 1024 * 1024 * 1024));
+    }
+
+    @Test
+    void getDataBlockSize() {
+        LOGGER.debug("Test with invalid values");
+        assertThrows(IllegalArgumentException.class, () -> blockSizePolicy.getDataBlockSize(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> blockSizePolicy.getDataBlockSize(1024, -1));
+
+        LOGGER.debug("Weak link. Data block is sent in about 2 seconds");
+        assertEquals(BlockSizePolicy.MIN_DATA_BLOCK_SIZE, blockSizePolicy.getDataBlockSize(100 * 1024, 300));
+
+        LOGGER.debug("Fast link with short RTT");
+        assertEquals(20L * 1024 * 1024, blockSizePolicy.getDataBlockSize(10 * 1024 * 1024, 5));
+
+        LOGGER.debug("Long RTT. Data block is larger so waiting for responses costs less");
+        assertEquals(40L * 1024 * 1024, blockSizePolicy.getDataBlockSize(10 * 1024 * 1024, 200));
+
+        LOGGER.debug("Very fast link. Max data block size");
+        assertEquals(BlockSizePolicy.MAX_DATA_BLOCK_SIZE, blockSizePolicy.getDataBlockSize(1024 * 1024 * 1024, 5));
+    }
+
+    @Test
+    void getMinDataBlockSize() {
+        assertThrows(IllegalArgumentException.class, () -> blockSizePolicy.getMinDataBlockSize(1024, 0));
+        assertEquals(BlockSizePolicy.MIN_DATA_BLOCK_SIZE, blockSizePolicy.getMinDataBlockSize(10L * 1024 * 1024, 100));
+        assertEquals(2L * 1024 * 1024, blockSizePolicy.getMinDataBlockSize(10L * 1024 * 1024 + 1, 10));
+    }
+
+    @Test
+    void updateThroughput() {
+        LOGGER.debug("First measure");
+        assertEquals(1000, blockSizePolicy.updateThroughput(null, 1000, 1_000_000_000L), 0.001);
+
+        LOGGER.debug("Average moves toward last measure");
+        assertEquals(1300, blockSizePolicy.updateThroughput(1000.0, 2000, 1_000_000_000L), 0.001);
+    }
+}
@@ -0,0 +1,48 @@
+package com.saankaa.rapidxend.service.transfer;
+
+import com.saankaa.rapidxend.model.DataBlockRange;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataBlockRangesTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(DataBlockRangesTest.class);
+
+    @Test
+    void add() {
+        LOGGER.debug("Data blocks acknowledged one by one make a single range");
+        List<DataBlockRange> ranges = List.of();
+        for (int number = 0; number < 5; number++) {
+            ranges = DataBlockRanges.add(ranges, List.of(new DataBlockRange(number, number)));
+        }
+        assertEquals(List.of(new DataBlockRange(0, 4)), ranges);
+
+        LOGGER.debug("Ranges not following each other are kept apart, in order");
+        ranges = DataBlockRanges.add(ranges, List.of(new DataBlockRange(10, 12), new DataBlockRange(7, 7)));
+        assertEquals(List.of(new DataBlockRange(0, 4), new DataBlockRange(7, 7), new DataBlockRange(10, 12)), ranges);
+
+        LOGGER.debug("Range which fills gaps merges ranges");
+        assertEquals(List.of(new DataBlockRange(0, 12)), DataBlockRanges.add(ranges, List.of(new DataBlockRange(3, 9))));
+
+        LOGGER.debug("Ranges already included change nothing");
+        assertEquals(ranges, DataBlockRanges.add(ranges, List.of(new DataBlockRange(1, 2), new DataBlockRange(11, 11))));
+        assertEquals(9, DataBlockRanges.count(ranges));
+    }
+
+    @Test
+    void intersect() {
+        List<DataBlockRange> ranges = List.of(new DataBlockRange(0, 4), new DataBlockRange(8, 12));
+        List<DataBlockRange> otherRanges = List.of(new DataBlockRange(2, 9), new DataBlockRange(11, 20));
+
+        assertEquals(List.of(new DataBlockRange(2, 4), new DataBlockRange(8, 9), new DataBlockRange(11, 12)),
+                DataBlockRanges.intersect(ranges, otherRanges));
+        assertEquals(DataBlockRanges.intersect(ranges, otherRanges), DataBlockRanges.intersect(otherRanges, ranges));
+        assertEquals(List.of(), DataBlockRanges.intersect(ranges, List.of()));
+        assertEquals(List.of(), DataBlockRanges.intersect(ranges, List.of(new DataBlockRange(5, 7))));
+    }
+}
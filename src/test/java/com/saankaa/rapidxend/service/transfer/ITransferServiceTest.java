@@ -1,12 +1,16 @@
 package com.saankaa.rapidxend.service.transfer;
 
 import com.saankaa.rapidxend.model.*;
+import com.saankaa.rapidxend.repository.IBlockContentRepository;
 import com.saankaa.rapidxend.repository.IDataBlockRepository;
 import com.saankaa.rapidxend.repository.IDeviceRepository;
 import com.saankaa.rapidxend.repository.IFileRepository;
 import com.saankaa.rapidxend.repository.ITransferRepository;
 import com.saankaa.rapidxend.service.device.Exception.DeviceNotFoundException;
 import com.saankaa.rapidxend.service.notification.NotificationService;
+import com.saankaa.rapidxend.service.storage.IBlockStore;
+import com.saankaa.rapidxend.service.transfer.checksum.MerkleTree;
+import com.saankaa.rapidxend.service.transfer.compression.BlockCompression;
 import com.saankaa.rapidxend.service.transfer.exception.FileCorruptedException;
 import com.saankaa.rapidxend.service.transfer.exception.FileTooLargeException;
 import com.saankaa.rapidxend.service.transfer.exception.InvalidDataBlockException;
@@ -22,12 +26,22 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.Pageable;
 
 import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -48,11 +62,16 @@ class ITransferServiceTest {
     @Autowired
     private IDeviceRepository deviceRepository;
     @Autowired
+    private IBlockContentRepository blockContentRepository;
+    @Autowired
     private ITransferService transferService;
+    @Autowired
+    private IBlockStore blockStore;
 
     @BeforeEach
     void setUp() {
         dataBlockRepository.deleteAll();
+        blockContentRepository.deleteAll();
         fileRepository.deleteAll();
         transferRepository.deleteAll();
         deviceRepository.deleteAll();
@@ -172,13 +191,13 @@ class ITransferServiceTest {
 
 
         LOGGER.debug("Test with size over max size");
-        transfer.getFile().setSize(3000.0001); // > to 3 GB
+        transfer.getFile().setSize(1024L * 1024 * 1024 * 1024 + 1); // > to 1 TiB
         assertThrows(FileTooLargeException.class, () -> transferService.create(sender.getId(), transfer, receiversId));
         assertEquals(0, transferRepository.findAll().size());
         assertEquals(0, fileRepository.findAll().size());
 
         LOGGER.debug("Test with valid size but not valid sender device id");
-        transfer.getFile().setSize(178.678); // Size > 178.678 -> data block size is 5 MB (The default value)
+        transfer.getFile().setSize(178678000L); // Size < 300 MiB -> data block size is 5 MiB (The default value)
         assertThrows(DeviceNotFoundException.class, () -> transferService.create("invalid-sender-id", transfer, receiversId));
         assertEquals(0, transferRepository.findAll().size());
         assertEquals(0, fileRepository.findAll().size());
@@ -201,10 +220,11 @@ class ITransferServiceTest {
         File fileDb = fileDbOpt.get();
         assertEquals("rapidxend.png", fileDb.getFilename());
         assertNull(fileDb.getMimetype());
-        assertEquals(178.678, fileDb.getSize());
+        assertEquals(178678000L, fileDb.getSize());
         assertNotNull(fileDb.getMD5ChecksumHex());
-        assertEquals(5, fileDb.getDataBlockSize());
-        assertNull(fileDb.getDataBlocks());
+        assertEquals(5L * 1024 * 1024, fileDb.getDataBlockSize());
+        assertEquals(35, fileDb.getDataBlockCount()); // Last data block contains remaining bytes
+        assertEquals(0, dataBlockRepository.findByFileIdOrderByNumberAsc(fileDb.getId()).size());
         assertEquals(-1, fileDb.getLastDataBlockNumber());
         assertNotNull(file.getCreatedDate());
 
@@ -222,21 +242,22 @@ class ITransferServiceTest {
         transferRepository.deleteAll();
         transfer.setId(null);
         transfer.getFile().setId(null);
-        transfer.getFile().setSize(300.56);
+        transfer.getFile().setSize(315000000L);
         transferDb = transferService.create(sender.getId(), transfer, receiversId);
-        assertEquals(10, transferDb.getFile().getDataBlockSize());
+        assertEquals(10L * 1024 * 1024, transferDb.getFile().getDataBlockSize());
 
-        LOGGER.debug("Change file size(higher to 1GB");
+        LOGGER.debug("Change file size(higher to 1GB). 500GiB file");
         fileRepository.deleteAll();
         transferRepository.deleteAll();
         transfer.setId(null);
         File file1GB = new File();
         file1GB.setFilename("rapidxend.png");
         file1GB.setMD5ChecksumHex("H4567FGH567FGH");
-        file1GB.setSize(1000.10);
+        file1GB.setSize(500L * 1024 * 1024 * 1024);
         transfer.setFile(file1GB);
         transferDb = transferService.create(sender.getId(), transfer, receiversId);
-        assertEquals(50, transferDb.getFile().getDataBlockSize());
+        assertEquals(50L * 1024 * 1024, transferDb.getFile().getDataBlockSize());
+        assertEquals(10240, transferDb.getFile().getDataBlockCount());
 
     }
 
@@ -259,10 +280,10 @@ class ITransferServiceTest {
         Transfer transfer = new Transfer();
         transfer.setSender(sender);
         File file = new File();
-        file.setDataBlocks(new ArrayList<>() {{
-            add(dataBlockRepository.save(new DataBlock()));
-        }});
         fileRepository.save(file);
+        DataBlock dataBlock = new DataBlock();
+        dataBlock.setFileId(file.getId());
+        dataBlockRepository.save(dataBlock);
         transfer.setFile(file);
         transfer.setReceivers(new ArrayList<>() {{
             add(receiver1);
@@ -313,10 +334,10 @@ class ITransferServiceTest {
         LOGGER.debug("Re-create same transfer");
         transfer.setId(null);
         file.setId(null);
-        file.setDataBlocks(new ArrayList<>() {{
-            add(dataBlockRepository.save(new DataBlock()));
-        }});
         fileRepository.save(file);
+        dataBlock.setId(null);
+        dataBlock.setFileId(file.getId());
+        dataBlockRepository.save(dataBlock);
         transferRepository.save(transfer);
 
         LOGGER.debug("Cancel transfer by sender. Transfer must be deleted");
@@ -326,17 +347,10 @@ class ITransferServiceTest {
         assertEquals(0, dataBlockRepository.findAll().size());
 
         LOGGER.debug("Assert that notification service is called for notified all receivers");
-        verify(notificationService).notifyDevice(new NotificationBuilder()
+        verify(notificationService).notifyDevices(new NotificationBuilder()
                 .transferId(transfer.getId())
                 .senderDeviceId(sender.getId())
-                .receiverDeviceId(receiver1.getId())
-                .notificationType(NotificationType.TRANSFER_CANCELLED.getValue()).build());
-
-        verify(notificationService).notifyDevice(new NotificationBuilder()
-                .transferId(transfer.getId())
-                .senderDeviceId(sender.getId())
-                .receiverDeviceId(receiver2.getId())
-                .notificationType(NotificationType.TRANSFER_CANCELLED.getValue()).build());
+                .notificationType(NotificationType.TRANSFER_CANCELLED.getValue()).build(), List.of(receiver1.getId(), receiver2.getId()));
 
         LOGGER.debug("End test for cancel method");
     }
@@ -358,8 +372,8 @@ class ITransferServiceTest {
         transfer.setState(TransferState.IN_PROGRESS);
         File file = new File();
         file.setFilename("rapidXend.png");
-        file.setSize(10.0);
-        file.setDataBlockSize(5);
+        file.setSize(10L * 1024 * 1024);
+        file.setDataBlockSize(5L * 1024 * 1024);
         LOGGER.debug("Set checksum");
 
         byte[] firstByte = new byte[5 * 1024 * 1024];
@@ -388,7 +402,7 @@ class ITransferServiceTest {
         assertThrows(DeviceNotFoundException.class, () -> transferService.sendData(transfer.getId(), "invalid", firstByte));
 
         LOGGER.debug("Test send data with null data");
-        assertThrows(IllegalArgumentException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), null));
+        assertThrows(IllegalArgumentException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), (byte[]) null));
 
         LOGGER.debug("Test send data with empty data");
         assertThrows(IllegalArgumentException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), new byte[0]));
@@ -399,16 +413,16 @@ class ITransferServiceTest {
         LOGGER.debug("Send first data block");
         transferService.sendData(transfer.getId(), sender.getId(), firstByte);
         LOGGER.debug("Check if receiver has been notified");
-        verify(notificationService).notifyDevice(new NotificationBuilder()
+        verify(notificationService).notifyDevices(new NotificationBuilder()
                 .transferId(transfer.getId())
                 .senderDeviceId(sender.getId())
-                .receiverDeviceId(receiver.getId())
                 .dataBlockNumber(0)
-                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build());
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build(), List.of(receiver.getId()));
 
         assertEquals(1, dataBlockRepository.findAll().size());
         assertTrue(fileRepository.findById(file.getId()).isPresent());
         assertEquals(0, fileRepository.findById(file.getId()).get().getLastDataBlockNumber());
+        assertNotNull(fileRepository.findById(file.getId()).get().getMd5DigestState());
         assertEquals("application/octet-stream", fileRepository.findById(file.getId()).get().getMimetype());
         assertTrue(transferRepository.findById(transfer.getId()).isPresent());
         assertEquals(TransferState.IN_PROGRESS, transferRepository.findById(transfer.getId()).get().getState());
@@ -418,15 +432,18 @@ class ITransferServiceTest {
         new Random().nextBytes(bigData);
         assertThrows(FileTooLargeException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), bigData));
 
+        LOGGER.debug("Send invalid data block from stream. His size is higher than the max data block size");
+        assertThrows(FileTooLargeException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), new ByteArrayInputStream(bigData)));
+        assertEquals(1, dataBlockRepository.findAll().size());
+
         LOGGER.debug("Send last data block");
         transferService.sendData(transfer.getId(), sender.getId(), secondByte);
         LOGGER.debug("Check if receiver has been notified");
-        verify(notificationService).notifyDevice(new NotificationBuilder()
+        verify(notificationService).notifyDevices(new NotificationBuilder()
                 .transferId(transfer.getId())
                 .dataBlockNumber(1)
                 .senderDeviceId(sender.getId())
-                .receiverDeviceId(receiver.getId())
-                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build());
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build(), List.of(receiver.getId()));
 
         assertEquals(2, dataBlockRepository.findAll().size());
         assertTrue(fileRepository.findById(file.getId()).isPresent());
@@ -444,7 +461,6 @@ class ITransferServiceTest {
         dataBlockRepository.deleteAll();
         fileRepository.deleteAll();
         transferRepository.deleteAll();
-        file.setDataBlocks(null);
         fileRepository.save(file);
         transferRepository.save(transfer);
         transferService.sendData(transfer.getId(), sender.getId(), firstByte);
@@ -457,26 +473,518 @@ class ITransferServiceTest {
     }
 
     @Test
-    void receiveData() throws TransferNotFoundException, InvalidDataBlockException, DeviceNotFoundException {
-        LOGGER.debug("Test of receive data method of transfer service...");
+    void sendDataOutOfOrder() throws NoSuchAlgorithmException, TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException, FileTooLargeException, FileCorruptedException, DecoderException, IOException {
+        LOGGER.debug("Test send data blocks with their number...");
+        LOGGER.debug("Create a transfer with a 9 bytes file and data block size set to 3 bytes. So we have to send 3 data blocks");
+        Device sender = new Device();
+        deviceRepository.save(sender);
+        Device receiver = new Device();
+        deviceRepository.save(receiver);
+        Transfer transfer = new Transfer();
+        transfer.setSender(sender);
+        transfer.setReceivers(new ArrayList<>() {{
+            add(receiver);
+        }});
+        transfer.setState(TransferState.IN_PROGRESS);
+        File file = new File();
+        file.setFilename("rapidXend.txt");
+        file.setSize(9L);
+        file.setDataBlockSize(3L);
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update("rapidxend".getBytes());
+        file.setMD5ChecksumHex(DatatypeConverter.printHexBinary(md.digest()));
+        fileRepository.save(file);
+        transfer.setFile(file);
+        transferRepository.save(transfer);
 
-        LOGGER.debug("Create transfer which contains file with 2 data blocks");
-        DataBlock db1 = new DataBlock(), db2 = new DataBlock();
-        db1.setNumber(0);
-        db1.setData("rapid".getBytes());
-        db2.setNumber(1);
-        db2.setData("xend".getBytes());
-        List<DataBlock> dataBlocks = new ArrayList<>() {{
-            add(db1);
-            add(db2);
-        }};
-        dataBlockRepository.saveAll(dataBlocks);
+        doNothing().when(notificationService).notifyDevice(isA(Notification.class));
+
+        LOGGER.debug("Send last data block with invalid checksum. Data block is rejected");
+        assertThrows(InvalidDataBlockException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), 2, "00000000", new ByteArrayInputStream("end".getBytes())));
+        assertEquals(0, dataBlockRepository.findAll().size());
+
+        LOGGER.debug("Send last data block first with its checksum");
+        CRC32C crc32c = new CRC32C();
+        crc32c.update("end".getBytes());
+        String endChecksum = String.format("%08x", crc32c.getValue());
+        assertEquals(2, transferService.sendData(transfer.getId(), sender.getId(), 2, endChecksum, new ByteArrayInputStream("end".getBytes())));
+        assertTrue(endChecksum.equalsIgnoreCase(dataBlockRepository.findByFileIdAndNumber(file.getId(), 2).getCrc32c()));
+        assertEquals(2, fileRepository.findById(file.getId()).get().getLastDataBlockNumber());
+        assertEquals(0, fileRepository.findById(file.getId()).get().getMd5DataBlockCount());
+
+        LOGGER.debug("Send first data block");
+        assertEquals(0, transferService.sendData(transfer.getId(), sender.getId(), 0, null, new ByteArrayInputStream("rap".getBytes())));
+        assertEquals(1, fileRepository.findById(file.getId()).get().getMd5DataBlockCount());
+
+        LOGGER.debug("Send first data block again with the same content. Nothing is changed");
+        assertEquals(0, transferService.sendData(transfer.getId(), sender.getId(), 0, null, new ByteArrayInputStream("rap".getBytes())));
+        assertEquals(2, dataBlockRepository.findAll().size());
+
+        LOGGER.debug("Send first data block again with another content");
+        assertThrows(InvalidDataBlockException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), 0, null, new ByteArrayInputStream("rop".getBytes())));
+
+        LOGGER.debug("Send data block smaller than data block size");
+        assertThrows(InvalidDataBlockException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), 1, null, new ByteArrayInputStream("id".getBytes())));
+        assertEquals(2, dataBlockRepository.findAll().size());
+
+        LOGGER.debug("Send data block with invalid number");
+        assertThrows(InvalidDataBlockException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), 3, null, new ByteArrayInputStream("xxx".getBytes())));
+        assertThrows(InvalidDataBlockException.class, () -> transferService.sendData(transfer.getId(), sender.getId(), -1, null, new ByteArrayInputStream("xxx".getBytes())));
+        assertEquals(TransferState.IN_PROGRESS, transferRepository.findById(transfer.getId()).get().getState());
+
+        LOGGER.debug("Send missing data block. All data blocks are received");
+        assertEquals(1, transferService.sendData(transfer.getId(), sender.getId(), 1, null, new ByteArrayInputStream("idx".getBytes())));
+        assertEquals(3, dataBlockRepository.findAll().size());
+        assertEquals(3, fileRepository.findById(file.getId()).get().getMd5DataBlockCount());
+        assertEquals(TransferState.FINISHED, transferRepository.findById(transfer.getId()).get().getState());
+        verify(notificationService).notifyDevices(new NotificationBuilder()
+                .transferId(transfer.getId())
+                .dataBlockNumber(1)
+                .senderDeviceId(sender.getId())
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build(), List.of(receiver.getId()));
+
+        LOGGER.debug("Get manifest as sender and as receiver");
+        FileManifest manifest = transferService.getManifest(transfer.getId(), sender.getId());
+        assertEquals(3, manifest.getDataBlockCount());
+        assertEquals(List.of(0, 1, 2), manifest.getDataBlocks().stream().map(FileManifest.DataBlockChecksum::getNumber).collect(Collectors.toList()));
+        assertEquals(MerkleTree.root(manifest.getDataBlocks().stream().map(FileManifest.DataBlockChecksum::getSha256).collect(Collectors.toList())), manifest.getMerkleRoot());
+        assertEquals(manifest, transferService.getManifest(transfer.getId(), receiver.getId()));
+        assertThrows(DeviceNotFoundException.class, () -> transferService.getManifest(transfer.getId(), "invalid"));
+
+        LOGGER.debug("End test of send data blocks with their number");
+    }
+
+    @Test
+    void sendDataConcurrently() throws Exception {
+        LOGGER.debug("Test send data blocks of a transfer at the same time...");
+        LOGGER.debug("Create a transfer with a 36 bytes file and data block size set to 3 bytes. So we have to send 12 data blocks");
+        Device sender = new Device();
+        deviceRepository.save(sender);
+        Device receiver = new Device();
+        deviceRepository.save(receiver);
+        byte[] content = new byte[36];
+        new Random().nextBytes(content);
+        Transfer transfer = new Transfer();
+        transfer.setSender(sender);
+        transfer.setReceivers(new ArrayList<>(List.of(receiver)));
+        transfer.setState(TransferState.IN_PROGRESS);
+        File file = new File();
+        file.setFilename("rapidXend.bin");
+        file.setSize(36L);
+        file.setDataBlockSize(3L);
+        file.setMD5ChecksumHex(DatatypeConverter.printHexBinary(MessageDigest.getInstance("MD5").digest(content)));
+        fileRepository.save(file);
+        transfer.setFile(file);
+        transferRepository.save(transfer);
+
+        LOGGER.debug("Send all data blocks at the same time, data block 5 twice");
+        List<Integer> numbers = new ArrayList<>();
+        for (int number = 0; number < 12; number++) {
+            numbers.add(number);
+        }
+        numbers.add(5);
+        ExecutorService executorService = Executors.newFixedThreadPool(numbers.size());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int number : numbers) {
+                byte[] data = Arrays.copyOfRange(content, number * 3, number * 3 + 3);
+                results.add(executorService.submit(() -> {
+                    start.await();
+                    return transferService.sendData(transfer.getId(), sender.getId(), number, null, new ByteArrayInputStream(data));
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < numbers.size(); i++) {
+                assertEquals(numbers.get(i), results.get(i).get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        LOGGER.debug("Each data block is saved once and the whole file is checked");
+        File fileDb = fileRepository.findById(file.getId()).get();
+        assertEquals(12, fileDb.getReceivedDataBlockCount());
+        assertEquals(List.of((1L << 12) - 1), fileDb.getReceivedDataBlocks());
+        assertEquals(12, fileDb.getMd5DataBlockCount());
+        assertEquals(12, dataBlockRepository.findAll().size());
+        assertEquals(TransferState.FINISHED, transferRepository.findById(transfer.getId()).get().getState());
+
+        LOGGER.debug("End test of send data blocks of a transfer at the same time");
+    }
+
+    @Test
+    void createWithReceivedFile() throws NoSuchAlgorithmException, TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException, FileTooLargeException, FileCorruptedException, DecoderException, IOException {
+        LOGGER.debug("Test create transfer of a file already received...");
+        Device sender = new Device(), receiver = new Device();
+        deviceRepository.save(sender);
+        deviceRepository.save(receiver);
+        List<String> receiversId = List.of(receiver.getId());
+        doNothing().when(notificationService).notifyDevice(isA(Notification.class));
+
+        Transfer transfer = new Transfer();
+        File file = new File();
+        file.setFilename("rapidXend.txt");
+        file.setSize(10L * 1024 * 1024);
+        byte[] content = new byte[5 * 1024 * 1024];
+        new Random().nextBytes(content);
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update(content);
+        md.update(content);
+        file.setMD5ChecksumHex(DatatypeConverter.printHexBinary(md.digest()));
+        transfer.setFile(file);
+
+        LOGGER.debug("Send file. Its two data blocks have the same content, so content is stored once");
+        Transfer firstTransfer = transferService.create(sender.getId(), transfer, receiversId);
+        assertEquals(TransferState.IN_PROGRESS, firstTransfer.getState());
+        transferService.sendData(firstTransfer.getId(), sender.getId(), new ByteArrayInputStream(content));
+        transferService.sendData(firstTransfer.getId(), sender.getId(), new ByteArrayInputStream(content));
+        assertEquals(TransferState.FINISHED, transferRepository.findById(firstTransfer.getId()).get().getState());
+        assertEquals(1, blockContentRepository.findAll().size());
+        assertEquals(2, blockContentRepository.findAll().get(0).getRefCount());
+
+        LOGGER.debug("Create transfer with the same file. Data blocks are shared, nothing to send");
+        Transfer secondTransfer = transferService.create(sender.getId(), transfer, receiversId);
+        assertEquals(TransferState.FINISHED, secondTransfer.getState());
+        assertEquals(TransferState.FINISHED, transferRepository.findById(secondTransfer.getId()).get().getState());
+        assertEquals(2, dataBlockRepository.findByFileIdOrderByNumberAsc(secondTransfer.getFile().getId()).size());
+        assertEquals(4, blockContentRepository.findAll().get(0).getRefCount());
+        assertEquals(2, fileRepository.findById(secondTransfer.getFile().getId()).get().getReceivedDataBlockCount());
+        verify(notificationService).notifyDevices(new NotificationBuilder()
+                .transferId(secondTransfer.getId())
+                .senderDeviceId(sender.getId())
+                .dataBlockNumber(1)
+                .notificationType(NotificationType.TRANSFER_DATA_AVAILABLE.getValue()).build(), List.of(receiver.getId()));
+        assertArrayEquals(content, transferService.receiveData(secondTransfer.getId(), receiver.getId(), 1));
+
+        LOGGER.debug("Another sender with the same checksum and size has to send the file");
+        Transfer otherSenderTransfer = transferService.create(receiver.getId(), transfer, List.of(sender.getId()));
+        assertEquals(TransferState.IN_PROGRESS, otherSenderTransfer.getState());
+        assertEquals(4, blockContentRepository.findAll().get(0).getRefCount());
+        transferService.cancel(otherSenderTransfer.getId(), receiver.getId());
+
+        LOGGER.debug("Cancel first transfer. Content is still used by second transfer");
+        transferService.cancel(firstTransfer.getId(), sender.getId());
+        assertEquals(2, blockContentRepository.findAll().get(0).getRefCount());
+        assertArrayEquals(content, transferService.receiveData(secondTransfer.getId(), receiver.getId(), 0));
+
+        LOGGER.debug("Cancel second transfer. Content is deleted");
+        transferService.cancel(secondTransfer.getId(), sender.getId());
+        assertEquals(0, blockContentRepository.findAll().size());
+        assertEquals(0, dataBlockRepository.findAll().size());
+
+        LOGGER.debug("End test of create transfer of a file already received");
+    }
+
+    @Test
+    void updateDataBlockSize() throws NoSuchAlgorithmException, TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException, FileTooLargeException, FileCorruptedException, DecoderException, IOException {
+        LOGGER.debug("Test update data block size...");
+        Device sender = new Device(), receiver = new Device();
+        deviceRepository.save(sender);
+        deviceRepository.save(receiver);
+        doNothing().when(notificationService).notifyDevice(isA(Notification.class));
+
+        LOGGER.debug("Create transfer of a 4MB file, sent with 1MB data blocks");
+        byte[] content = new byte[4 * 1024 * 1024];
+        new Random().nextBytes(content);
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update(content);
+        Transfer transfer = new Transfer();
+        File file = new File();
+        file.setFilename("rapidXend.bin");
+        file.setSize(4L * 1024 * 1024);
+        file.setMD5ChecksumHex(DatatypeConverter.printHexBinary(md.digest()));
+        transfer.setFile(file);
+        transfer = transferService.create(sender.getId(), transfer, List.of(receiver.getId()));
+        String transferId = transfer.getId();
+        assertEquals(1, transfer.getFile().getDataBlockCount());
+
+        LOGGER.debug("Test with unknown throughput");
+        assertThrows(IllegalArgumentException.class, () -> transferService.updateDataBlockSize(transferId, sender.getId(), null, null));
+
+        LOGGER.debug("Test with invalid sender");
+        assertThrows(DeviceNotFoundException.class, () -> transferService.updateDataBlockSize(transferId, receiver.getId(), 1024.0, 10.0));
+
+        LOGGER.debug("Weak link. Data block size is 1MiB");
+        File updatedFile = transferService.updateDataBlockSize(transferId, sender.getId(), 100 * 1024.0, 300.0);
+        assertEquals(1024 * 1024, updatedFile.getDataBlockSize());
+        assertEquals(4, updatedFile.getDataBlockCount());
+
+        LOGGER.debug("Send first data block. Throughput is measured");
+        transferService.sendData(transferId, sender.getId(), 0, null, new ByteArrayInputStream(content, 0, 1024 * 1024));
+        assertNotNull(fileRepository.findById(updatedFile.getId()).get().getThroughput());
+
+        LOGGER.debug("Send third data block. Data block size can't be changed, data blocks received don't follow each other");
+        transferService.sendData(transferId, sender.getId(), 2, null, new ByteArrayInputStream(content, 2 * 1024 * 1024, 1024 * 1024));
+        assertEquals(1024 * 1024, transferService.updateDataBlockSize(transferId, sender.getId(), 10 * 1024 * 1024.0, 5.0).getDataBlockSize());
+
+        LOGGER.debug("Send second data block. Remaining 1MB are sent with a larger data block");
+        transferService.sendData(transferId, sender.getId(), 1, null, new ByteArrayInputStream(content, 1024 * 1024, 1024 * 1024));
+        transferService.acknowledgeData(transferId, receiver.getId(), List.of(new DataBlockRange(0, 2)));
+        assertEquals(0, dataBlockRepository.findByFileIdOrderByNumberAsc(updatedFile.getId()).size());
+        updatedFile = transferService.updateDataBlockSize(transferId, sender.getId(), 10 * 1024 * 1024.0, 5.0);
+        assertEquals(20L * 1024 * 1024, updatedFile.getDataBlockSize());
+        assertEquals(3, updatedFile.getDataBlockSizeStartNumber());
+        assertEquals(3L * 1024 * 1024, updatedFile.getDataBlockSizeStartOffset());
+        assertEquals(4, updatedFile.getDataBlockCount());
+
+        LOGGER.debug("Manifest keeps data blocks deleted once acknowledged");
+        assertEquals(List.of(0, 1, 2), transferService.getManifest(transferId, sender.getId()).getDataBlocks().stream()
+                .map(FileManifest.DataBlockChecksum::getNumber).collect(Collectors.toList()));
+
+        LOGGER.debug("Send last data block");
+        transferService.sendData(transferId, sender.getId(), 3, null, new ByteArrayInputStream(content, 3 * 1024 * 1024, 1024 * 1024));
+        assertEquals(TransferState.FINISHED, transferRepository.findById(transferId).get().getState());
+
+        LOGGER.debug("End test of update data block size");
+    }
+
+    @Test
+    void sendCompressibleData() throws NoSuchAlgorithmException, TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException, FileTooLargeException, FileCorruptedException, DecoderException, IOException {
+        LOGGER.debug("Test send data which can be compressed...");
+        Device sender = new Device(), receiver = new Device();
+        deviceRepository.save(sender);
+        deviceRepository.save(receiver);
+        doNothing().when(notificationService).notifyDevice(isA(Notification.class));
+
+        LOGGER.debug("Create transfer of a CSV file and a random file");
+        byte[] csv = "id;filename;size\n1;rapidxend.png;1024\n".repeat(10000).getBytes();
+        byte[] random = new byte[csv.length];
+        new Random().nextBytes(random);
+        List<String> transferIds = new ArrayList<>();
+        for (byte[] content : List.of(csv, random)) {
+            Transfer transfer = new Transfer();
+            File file = new File();
+            file.setFilename("rapidXend.csv");
+            file.setSize((long) content.length);
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            md.update(content);
+            file.setMD5ChecksumHex(DatatypeConverter.printHexBinary(md.digest()));
+            transfer.setFile(file);
+            transfer = transferService.create(sender.getId(), transfer, List.of(receiver.getId()));
+            transferService.sendData(transfer.getId(), sender.getId(), new ByteArrayInputStream(content));
+            assertEquals(TransferState.FINISHED, transferRepository.findById(transfer.getId()).get().getState());
+            transferIds.add(transfer.getId());
+        }
+
+        LOGGER.debug("CSV data block is compressed. Receiver gets data as sent");
+        DataBlock csvDataBlock = transferService.getDataBlock(transferIds.get(0), receiver.getId(), 0);
+        assertEquals(BlockCompression.DEFLATE, csvDataBlock.getEncoding());
+        assertEquals(csv.length, csvDataBlock.getSize());
+        assertTrue(csvDataBlock.getStoredSize() < csv.length / 10);
+        assertArrayEquals(csv, transferService.receiveData(transferIds.get(0), receiver.getId(), 0));
+
+        LOGGER.debug("Random data block is stored as sent");
+        DataBlock randomDataBlock = transferService.getDataBlock(transferIds.get(1), receiver.getId(), 0);
+        assertNull(randomDataBlock.getEncoding());
+        assertEquals(random.length, randomDataBlock.getStoredSize());
+        assertArrayEquals(random, transferService.receiveData(transferIds.get(1), receiver.getId(), 0));
+
+        LOGGER.debug("End test of send data which can be compressed");
+    }
+
+    @Test
+    void sendDataWithOrphanContent() throws NoSuchAlgorithmException, TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException, FileTooLargeException, FileCorruptedException, DecoderException, IOException {
+        LOGGER.debug("Test send data whose content has been released but not deleted...");
+        Device sender = new Device(), receiver = new Device();
+        deviceRepository.saveAll(List.of(sender, receiver));
+
+        LOGGER.debug("Content without reference left by an instance stopped before deleting it");
+        BlockContent orphanContent = new BlockContent();
+        orphanContent.setId(DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-256").digest("rap".getBytes())));
+        orphanContent.setStorageKey("orphan-content");
+        orphanContent.setSize(3L);
+        orphanContent.setRefCount(0);
+        blockContentRepository.save(orphanContent);
+        blockStore.put("orphan-content", new ByteArrayInputStream("rap".getBytes()));
+
+        LOGGER.debug("Same content is sent. Orphan content is reused instead of retrying forever");
+        Transfer transfer = new Transfer();
+        transfer.setSender(sender);
+        transfer.setReceivers(new ArrayList<>(List.of(receiver)));
+        transfer.setState(TransferState.IN_PROGRESS);
+        File file = new File();
+        file.setFilename("rapidXend.txt");
+        file.setSize(6L);
+        file.setDataBlockSize(3L);
+        file.setMD5ChecksumHex("00000000000000000000000000000000");
+        fileRepository.save(file);
+        transfer.setFile(file);
+        transferRepository.save(transfer);
+        assertEquals(0, transferService.sendData(transfer.getId(), sender.getId(), 0, null, new ByteArrayInputStream("rap".getBytes())));
+        BlockContent content = blockContentRepository.findById(orphanContent.getId()).orElseThrow();
+        assertEquals(1, content.getRefCount());
+        assertNotEquals("orphan-content", content.getStorageKey());
+        assertThrows(Exception.class, () -> blockStore.get("orphan-content"));
+        assertArrayEquals("rap".getBytes(), transferService.receiveData(transfer.getId(), receiver.getId(), 0));
+
+        LOGGER.debug("End test of send data with orphan content");
+    }
+
+    @Test
+    void acknowledgeData() throws NoSuchAlgorithmException, TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException, FileTooLargeException, FileCorruptedException, DecoderException, IOException {
+        LOGGER.debug("Test acknowledge data...");
+        Device sender = new Device(), receiver1 = new Device(), receiver2 = new Device();
+        deviceRepository.saveAll(List.of(sender, receiver1, receiver2));
+        doNothing().when(notificationService).notifyDevice(isA(Notification.class));
+
+        LOGGER.debug("Create transfer of a file with 3 data blocks to 2 receivers");
+        Transfer transfer = new Transfer();
+        transfer.setSender(sender);
+        transfer.setReceivers(new ArrayList<>(List.of(receiver1, receiver2)));
+        transfer.setState(TransferState.IN_PROGRESS);
+        File file = new File();
+        file.setFilename("rapidXend.txt");
+        file.setSize(9L);
+        file.setDataBlockSize(3L);
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update("rapidxend".getBytes());
+        file.setMD5ChecksumHex(DatatypeConverter.printHexBinary(md.digest()));
+        fileRepository.save(file);
+        transfer.setFile(file);
+        transferRepository.save(transfer);
+        transferService.sendData(transfer.getId(), sender.getId(), "rap".getBytes());
+        transferService.sendData(transfer.getId(), sender.getId(), "idx".getBytes());
+
+        LOGGER.debug("Test with invalid parameters");
+        assertThrows(IllegalArgumentException.class, () -> transferService.acknowledgeData(transfer.getId(), receiver1.getId(), null));
+        assertThrows(IllegalArgumentException.class, () -> transferService.acknowledgeData(transfer.getId(), receiver1.getId(), List.of(new DataBlockRange(1, 0))));
+        assertThrows(DeviceNotFoundException.class, () -> transferService.acknowledgeData(transfer.getId(), "invalid", List.of(new DataBlockRange(0, 0))));
+        assertThrows(TransferNotFoundException.class, () -> transferService.acknowledgeData(transfer.getId(), sender.getId(), List.of(new DataBlockRange(0, 0))));
+
+        LOGGER.debug("Data block not received from sender can't be acknowledged");
+        assertThrows(InvalidDataBlockException.class, () -> transferService.acknowledgeData(transfer.getId(), receiver1.getId(), List.of(new DataBlockRange(1, 2))));
+
+        LOGGER.debug("First receiver acknowledges data blocks one by one");
+        transferService.acknowledgeData(transfer.getId(), receiver1.getId(), List.of(new DataBlockRange(0, 0)));
+        assertEquals(List.of(new DataBlockRange(0, 1)),
+                transferService.acknowledgeData(transfer.getId(), receiver1.getId(), List.of(new DataBlockRange(1, 1))));
+        assertEquals(List.of(new DataBlockRange(0, 1)), transferRepository.findById(transfer.getId()).get().getAcknowledgedDataBlocks().get(receiver1.getId()));
+        assertEquals(2, dataBlockRepository.findAll().size());
+
+        LOGGER.debug("Second receiver acknowledges a data block. Data block saved by both receivers is deleted");
+        transferService.acknowledgeData(transfer.getId(), receiver2.getId(), List.of(new DataBlockRange(1, 1)));
+        assertEquals(1, dataBlockRepository.findAll().size());
+        assertNull(dataBlockRepository.findByFileIdAndNumber(file.getId(), 1));
+        assertEquals(1, blockContentRepository.findAll().size());
+        assertThrows(InvalidDataBlockException.class, () -> transferService.receiveData(transfer.getId(), receiver1.getId(), 1));
+
+        LOGGER.debug("Content stops before deleted data block and tells it's gone");
+        FileContent content = transferService.getContent(transfer.getId(), receiver1.getId());
+        assertEquals(List.of(0), content.getDataBlocks().stream().map(DataBlock::getNumber).collect(Collectors.toList()));
+        assertTrue(content.isDeleted());
+        assertEquals(9, content.getSize());
+
+        LOGGER.debug("Sender sends deleted data block again. Nothing is changed");
+        assertEquals(1, transferService.sendData(transfer.getId(), sender.getId(), 1, null, new ByteArrayInputStream("idx".getBytes())));
+        assertEquals(1, dataBlockRepository.findAll().size());
 
+        LOGGER.debug("Send last data block. File checksum is still verified");
+        transferService.sendData(transfer.getId(), sender.getId(), "end".getBytes());
+        assertEquals(TransferState.FINISHED, transferRepository.findById(transfer.getId()).get().getState());
+        transferService.acknowledgeData(transfer.getId(), receiver2.getId(), List.of(new DataBlockRange(2, 2)));
+        assertEquals(2, dataBlockRepository.findAll().size());
+
+        LOGGER.debug("First receiver cancels. Data blocks saved by the other receiver are deleted");
+        transferService.cancel(transfer.getId(), receiver1.getId());
+        assertEquals(1, dataBlockRepository.findAll().size());
+        assertNotNull(dataBlockRepository.findByFileIdAndNumber(file.getId(), 0));
+        assertEquals(1, blockContentRepository.findAll().size());
+
+        LOGGER.debug("End test of acknowledge data");
+    }
+
+    @Test
+    void checkDataBlock() throws TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException {
+        LOGGER.debug("Test check data block...");
+        Device sender = new Device(), receiver = new Device();
+        deviceRepository.saveAll(List.of(sender, receiver));
         File file = new File();
-        file.setDataBlocks(dataBlocks);
+        file.setFilename("rapidXend.txt");
+        file.setSize(9L);
+        file.setDataBlockSize(3L);
+        fileRepository.save(file);
+        Transfer transfer = new Transfer();
+        transfer.setSender(sender);
+        transfer.setReceivers(new ArrayList<>(List.of(receiver)));
+        transfer.setState(TransferState.IN_PROGRESS);
+        transfer.setFile(file);
+        transferRepository.save(transfer);
+
+        LOGGER.debug("Data blocks of file can be sent by sender");
+        transferService.checkDataBlock(transfer.getId(), sender.getId(), 0);
+        transferService.checkDataBlock(transfer.getId(), sender.getId(), 2);
+
+        LOGGER.debug("Test with invalid parameters");
+        assertThrows(IllegalArgumentException.class, () -> transferService.checkDataBlock(null, sender.getId(), 0));
+        assertThrows(TransferNotFoundException.class, () -> transferService.checkDataBlock("invalid", sender.getId(), 0));
+        assertThrows(DeviceNotFoundException.class, () -> transferService.checkDataBlock(transfer.getId(), receiver.getId(), 0));
+        assertThrows(InvalidDataBlockException.class, () -> transferService.checkDataBlock(transfer.getId(), sender.getId(), 3));
+        assertThrows(InvalidDataBlockException.class, () -> transferService.checkDataBlock(transfer.getId(), sender.getId(), -1));
 
-        file.setSize(10.0);
-        file.setDataBlockSize(5);
+        LOGGER.debug("End test of check data block");
+    }
+
+    @Test
+    void cancelExpiredTransfers() throws NoSuchAlgorithmException, TransferNotFoundException, DeviceNotFoundException, InvalidDataBlockException, FileTooLargeException, FileCorruptedException, DecoderException, IOException {
+        LOGGER.debug("Test cancel expired transfers...");
+        Device sender = new Device(), receiver = new Device();
+        deviceRepository.saveAll(List.of(sender, receiver));
+        doNothing().when(notificationService).notifyDevice(isA(Notification.class));
+        assertThrows(IllegalArgumentException.class, () -> transferService.cancelExpiredTransfers(null));
+
+        LOGGER.debug("Create two transfers 3 days ago, both in progress");
+        Date threeDaysAgo = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(3));
+        List<Transfer> transfers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Transfer transfer = new Transfer();
+            transfer.setSender(sender);
+            transfer.setReceivers(new ArrayList<>(List.of(receiver)));
+            transfer.setState(TransferState.IN_PROGRESS);
+            transfer.setCreatedDate(threeDaysAgo);
+            transfer.setLastActivityDate(threeDaysAgo);
+            File file = new File();
+            file.setFilename("rapidXend.txt");
+            file.setSize(9L);
+            file.setDataBlockSize(3L);
+            file.setMD5ChecksumHex("00000000000000000000000000000000");
+            fileRepository.save(file);
+            transfer.setFile(file);
+            transferRepository.save(transfer);
+            transfers.add(transfer);
+        }
+
+        LOGGER.debug("Sender uploads a data block of second transfer now");
+        transferService.sendData(transfers.get(1).getId(), sender.getId(), "rap".getBytes());
+        assertTrue(transferRepository.findById(transfers.get(1).getId()).get().getLastActivityDate().after(threeDaysAgo));
+
+        LOGGER.debug("Cancel transfers without activity for more than one day");
+        assertEquals(1, transferService.cancelExpiredTransfers(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1))));
+        assertFalse(transferRepository.findById(transfers.get(0).getId()).isPresent());
+        assertTrue(transferRepository.findById(transfers.get(1).getId()).isPresent());
+        assertEquals(1, dataBlockRepository.findAll().size());
+        verify(notificationService).notifyDevices(new NotificationBuilder()
+                .transferId(transfers.get(0).getId())
+                .senderDeviceId(sender.getId())
+                .notificationType(NotificationType.TRANSFER_CANCELLED.getValue()).build(), List.of(sender.getId(), receiver.getId()));
+
+        LOGGER.debug("Nothing else has expired");
+        assertEquals(0, transferService.cancelExpiredTransfers(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1))));
+
+        LOGGER.debug("End test of cancel expired transfers");
+    }
+
+    @Test
+    void receiveData() throws TransferNotFoundException, InvalidDataBlockException, DeviceNotFoundException, NoSuchAlgorithmException, FileCorruptedException, DecoderException {
+        LOGGER.debug("Test of receive data method of transfer service...");
+
+        LOGGER.debug("Create transfer which contains file with 2 data blocks");
+        File file = new File();
+        file.setSize(9L);
+        file.setDataBlockSize(5L);
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update("rapidxend".getBytes());
+        file.setMD5ChecksumHex(DatatypeConverter.printHexBinary(md.digest()));
         fileRepository.save(file);
 
         Device receiver = new Device(), sender = new Device();
@@ -486,11 +994,17 @@ class ITransferServiceTest {
         Transfer transfer = new Transfer();
         transfer.setFile(file);
         transfer.setSender(sender);
+        transfer.setState(TransferState.IN_PROGRESS);
         transfer.setReceivers(new ArrayList<>() {{
             add(receiver);
         }});
         transferRepository.save(transfer);
 
+        // Mock notification service
+        doNothing().when(notificationService).notifyDevice(isA(Notification.class));
+        transferService.sendData(transfer.getId(), sender.getId(), "rapid".getBytes());
+        transferService.sendData(transfer.getId(), sender.getId(), "xend".getBytes());
+
         LOGGER.debug("Test with null transfer id");
         assertThrows(IllegalArgumentException.class, () -> transferService.receiveData(null, receiver.getId(), 0));
 
@@ -512,16 +1026,37 @@ class ITransferServiceTest {
 
         LOGGER.debug("Get first data block");
         assertEquals(2, dataBlockRepository.findAll().size());
-        assertEquals(2, fileRepository.findById(file.getId()).get().getDataBlocks().size());
+        assertEquals(2, dataBlockRepository.findByFileIdOrderByNumberAsc(file.getId()).size());
         assertEquals("rapid",
                 new String(transferService.receiveData(transfer.getId(), receiver.getId(), 0)));
 
         LOGGER.debug("Get second data block(The last). Note that sender must be notified");
-        // Mock notification service
-        doNothing().when(notificationService).notifyDevice(isA(Notification.class));
         assertEquals("xend",
                 new String(transferService.receiveData(transfer.getId(), receiver.getId(), 1)));
 
+        LOGGER.debug("Get all data blocks");
+        FileContent content = transferService.getContent(transfer.getId(), receiver.getId());
+        assertEquals(9, content.getSize());
+        assertEquals(9, content.getAvailableSize());
+        assertFalse(content.isDeleted());
+        List<DataBlock> allDataBlocks = content.getDataBlocks();
+        assertEquals(2, allDataBlocks.size());
+        assertEquals(0, allDataBlocks.get(0).getNumber());
+        assertEquals(5, allDataBlocks.get(0).getSize());
+        assertNull(allDataBlocks.get(0).getEncoding()); // Too small to be compressed
+        assertEquals(1, allDataBlocks.get(1).getNumber());
+        assertThrows(TransferNotFoundException.class, () -> transferService.getContent(transfer.getId(), sender.getId()));
+
+        LOGGER.debug("Get data blocks in ranges. Each data block is returned once, in order");
+        List<DataBlock> dataBlocksInRanges = transferService.getDataBlocks(transfer.getId(), receiver.getId(),
+                List.of(new DataBlockRange(1, 5), new DataBlockRange(0, 1)));
+        assertEquals(List.of(0, 1), dataBlocksInRanges.stream().map(DataBlock::getNumber).collect(Collectors.toList()));
+        assertEquals(4, dataBlocksInRanges.get(1).getSize());
+        assertEquals(0, transferService.getDataBlocks(transfer.getId(), receiver.getId(), List.of(new DataBlockRange(2, 3))).size());
+        assertThrows(IllegalArgumentException.class, () -> transferService.getDataBlocks(transfer.getId(), receiver.getId(), List.of(new DataBlockRange(0, 5000))));
+        assertThrows(IllegalArgumentException.class, () -> transferService.getDataBlocks(transfer.getId(), receiver.getId(), List.of(new DataBlockRange(-1, 0))));
+        assertThrows(TransferNotFoundException.class, () -> transferService.getDataBlocks(transfer.getId(), sender.getId(), List.of(new DataBlockRange(0, 1))));
+
         LOGGER.debug("Assert that sender has been notified");
         verify(notificationService).notifyDevice(new NotificationBuilder()
                 .transferId(transfer.getId())
@@ -0,0 +1,55 @@
+package com.saankaa.rapidxend.service.transfer.checksum;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MerkleTreeTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(MerkleTreeTest.class);
+
+    @Test
+    void root() throws NoSuchAlgorithmException {
+        LOGGER.debug("Test with empty list");
+        assertThrows(IllegalArgumentException.class, () -> MerkleTree.root(List.of()));
+
+        LOGGER.debug("Root of a single data block is its leaf hash");
+        String block1 = sha256("one".getBytes());
+        String block2 = sha256("two".getBytes());
+        String block3 = sha256("three".getBytes());
+        String leaf = sha256((byte) 0, DatatypeConverter.parseHexBinary(block1));
+        assertEquals(leaf, MerkleTree.root(List.of(block1)));
+
+        LOGGER.debug("Root of three data blocks. Third leaf has no sibling");
+        String a = sha256((byte) 0, DatatypeConverter.parseHexBinary(block1));
+        String b = sha256((byte) 0, DatatypeConverter.parseHexBinary(block2));
+        String c = sha256((byte) 0, DatatypeConverter.parseHexBinary(block3));
+        String ab = sha256((byte) 1, DatatypeConverter.parseHexBinary(a + b));
+        String root = sha256((byte) 1, DatatypeConverter.parseHexBinary(ab + c));
+        assertEquals(root, MerkleTree.root(List.of(block1, block2, block3)));
+
+        LOGGER.debug("Order of data blocks changes the root");
+        assertNotEquals(root, MerkleTree.root(List.of(block2, block1, block3)));
+
+        LOGGER.debug("Case of hash doesn't change the root");
+        assertEquals(MerkleTree.root(List.of(block1)), MerkleTree.root(List.of(block1.toLowerCase())));
+    }
+
+    private String sha256(byte[] data) throws NoSuchAlgorithmException {
+        return DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    private String sha256(byte prefix, byte[] data) throws NoSuchAlgorithmException {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        sha256.update(prefix);
+        sha256.update(data);
+        return DatatypeConverter.printHexBinary(sha256.digest());
+    }
+}
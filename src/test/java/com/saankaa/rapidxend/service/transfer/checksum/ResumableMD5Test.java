@@ -0,0 +1,69 @@
+package com.saankaa.rapidxend.service.transfer.checksum;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResumableMD5Test {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ResumableMD5Test.class);
+
+    @Test
+    void digest() throws NoSuchAlgorithmException {
+        LOGGER.debug("Test with empty data");
+        assertEquals("D41D8CD98F00B204E9800998ECF8427E", new ResumableMD5().hexDigest());
+
+        LOGGER.debug("Compare with MessageDigest for sizes around block boundaries");
+        Random random = new Random(42);
+        for (int size : new int[]{1, 55, 56, 63, 64, 65, 119, 120, 128, 1000, 64 * 1024 + 7}) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            ResumableMD5 md5 = new ResumableMD5();
+            md5.update(data);
+            assertEquals(expectedHex(data), md5.hexDigest(), "size=" + size);
+        }
+    }
+
+    @Test
+    void resumeFromState() throws NoSuchAlgorithmException {
+        byte[] data = new byte[300 * 1024 + 13];
+        new Random(7).nextBytes(data);
+
+        LOGGER.debug("Update with chunks of different sizes and restore state between each chunk");
+        ResumableMD5 md5 = new ResumableMD5();
+        int offset = 0, chunkSize = 1;
+        while (offset < data.length) {
+            int length = Math.min(chunkSize, data.length - offset);
+            md5 = ResumableMD5.fromState(md5.getState());
+            md5.update(data, offset, length);
+            offset += length;
+            chunkSize = chunkSize * 3 + 1;
+        }
+        assertEquals(data.length, md5.getByteCount());
+        assertEquals(expectedHex(data), md5.hexDigest());
+
+        LOGGER.debug("Digest doesn't modify state");
+        md5.update(data);
+        byte[] twice = new byte[data.length * 2];
+        System.arraycopy(data, 0, twice, 0, data.length);
+        System.arraycopy(data, 0, twice, data.length, data.length);
+        assertEquals(expectedHex(twice), md5.hexDigest());
+
+        LOGGER.debug("Test with invalid state");
+        assertThrows(IllegalArgumentException.class, () -> ResumableMD5.fromState(null));
+        assertThrows(IllegalArgumentException.class, () -> ResumableMD5.fromState(new byte[3]));
+    }
+
+    private String expectedHex(byte[] data) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update(data);
+        return DatatypeConverter.printHexBinary(md.digest());
+    }
+}
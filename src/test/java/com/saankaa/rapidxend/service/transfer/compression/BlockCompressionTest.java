@@ -0,0 +1,78 @@
+package com.saankaa.rapidxend.service.transfer.compression;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCompressionTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(BlockCompressionTest.class);
+
+    @Test
+    void chooseEncoding() {
+        byte[] text = "2021-06-01 12:00:00 INFO Transfer created\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[BlockCompression.SAMPLE_SIZE];
+        new Random().nextBytes(random);
+
+        LOGGER.debug("Text is compressed");
+        assertEquals(BlockCompression.DEFLATE, BlockCompression.chooseEncoding("text/plain", text, text.length));
+        assertEquals(BlockCompression.DEFLATE, BlockCompression.chooseEncoding(null, text, text.length));
+
+        LOGGER.debug("Formats already compressed are not compressed");
+        assertNull(BlockCompression.chooseEncoding("image/jpeg", text, text.length));
+        assertNull(BlockCompression.chooseEncoding("video/mp4", text, text.length));
+        assertNull(BlockCompression.chooseEncoding("application/zip", text, text.length));
+
+        LOGGER.debug("Random bytes are not compressed, whatever the mimetype");
+        assertNull(BlockCompression.chooseEncoding("application/octet-stream", random, random.length));
+        assertNull(BlockCompression.chooseEncoding(null, new byte[0], 0));
+    }
+
+    @Test
+    void encodeAndDecode() throws IOException {
+        byte[] text = "id;name;size\n1;rapidxend.csv;1024\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+        LOGGER.debug("Compressed content is smaller and decompressed content is the same");
+        byte[] encoded;
+        try (InputStream inputStream = BlockCompression.encode(new ByteArrayInputStream(text), BlockCompression.DEFLATE)) {
+            encoded = inputStream.readAllBytes();
+        }
+        assertTrue(encoded.length < text.length / 10);
+        assertArrayEquals(text, BlockCompression.decode(new ByteArrayInputStream(encoded), BlockCompression.DEFLATE).readAllBytes());
+
+        LOGGER.debug("Content without encoding is unchanged");
+        InputStream data = new ByteArrayInputStream(text);
+        assertSame(data, BlockCompression.encode(data, null));
+        assertSame(data, BlockCompression.decode(data, null));
+
+        LOGGER.debug("Skip bytes of decompressed content");
+        InputStream decoded = BlockCompression.decode(new ByteArrayInputStream(encoded), BlockCompression.DEFLATE);
+        assertTrue(BlockCompression.skip(decoded, 13));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        decoded.transferTo(outputStream);
+        assertEquals(text.length - 13, outputStream.size());
+        assertFalse(BlockCompression.skip(new ByteArrayInputStream(text), text.length + 1));
+
+        LOGGER.debug("Test with unknown encoding");
+        assertThrows(IllegalArgumentException.class, () -> BlockCompression.decode(new ByteArrayInputStream(encoded), "br"));
+    }
+
+    @Test
+    void isAccepted() {
+        assertTrue(BlockCompression.isAccepted("gzip, deflate, br", BlockCompression.DEFLATE));
+        assertTrue(BlockCompression.isAccepted("Deflate;q=0.5", BlockCompression.DEFLATE));
+        assertFalse(BlockCompression.isAccepted("deflate;q=0", BlockCompression.DEFLATE));
+        assertFalse(BlockCompression.isAccepted("gzip", BlockCompression.DEFLATE));
+        assertFalse(BlockCompression.isAccepted(null, BlockCompression.DEFLATE));
+        assertFalse(BlockCompression.isAccepted("deflate", null));
+    }
+}
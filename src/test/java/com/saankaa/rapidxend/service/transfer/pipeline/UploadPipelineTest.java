@@ -0,0 +1,177 @@
+package com.saankaa.rapidxend.service.transfer.pipeline;
+
+import com.saankaa.rapidxend.model.Notification;
+import com.saankaa.rapidxend.model.NotificationType;
+import com.saankaa.rapidxend.service.device.Exception.DeviceNotFoundException;
+import com.saankaa.rapidxend.service.notification.INotificationService;
+import com.saankaa.rapidxend.service.transfer.ITransferService;
+import com.saankaa.rapidxend.service.transfer.exception.InvalidDataBlockException;
+import com.saankaa.rapidxend.service.transfer.exception.TransferNotFoundException;
+import com.saankaa.rapidxend.service.transfer.exception.UploadQueueFullException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+class UploadPipelineTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(UploadPipelineTest.class);
+
+    @TempDir
+    Path spoolDirectory;
+
+    @Test
+    void submit() throws Exception {
+        ITransferService transferService = Mockito.mock(ITransferService.class);
+        INotificationService notificationService = Mockito.mock(INotificationService.class);
+        UploadSpool spool = new UploadSpool(spoolDirectory);
+        UploadPipeline uploadPipeline = new UploadPipeline(transferService, notificationService, spool, true, 2, 4);
+        byte[] data = new byte[1024];
+        new Random().nextBytes(data);
+        byte[][] received = new byte[1][];
+        Mockito.doAnswer(invocation -> {
+            received[0] = invocation.getArgument(4, InputStream.class).readAllBytes();
+            assertNotNull(invocation.getArgument(5)); // Measured while spooling
+            return 3;
+        }).when(transferService).sendData(eq("t01"), eq("d01"), eq(3), eq("E3069283"), isA(InputStream.class), any());
+
+        LOGGER.debug("Data block is spooled, then saved by a worker");
+        SpooledDataBlock spooledDataBlock = uploadPipeline.submit("t01", "d01", 3, "E3069283", new ByteArrayInputStream(data));
+        assertEquals(3, spooledDataBlock.getDataBlockNumber());
+        assertEquals(1024, spooledDataBlock.getSize());
+        uploadPipeline.shutdown();
+        assertArrayEquals(data, received[0]);
+        assertTrue(spool.list().isEmpty());
+
+        LOGGER.debug("Test with invalid parameters");
+        assertThrows(IllegalArgumentException.class, () -> uploadPipeline.submit("t01", "d01", null, null, new ByteArrayInputStream(data)));
+        assertThrows(IllegalArgumentException.class, () -> uploadPipeline.submit(null, "d01", 3, null, new ByteArrayInputStream(data)));
+        assertThrows(IllegalArgumentException.class, () -> uploadPipeline.submit("t01", "d01", 3, null, new ByteArrayInputStream(new byte[0])));
+        assertTrue(spool.list().isEmpty());
+
+        LOGGER.debug("Data block is refused before being spooled when transfer, sender or number is wrong");
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).checkDataBlock("t02", "d01", 0);
+        Mockito.doThrow(new DeviceNotFoundException("")).when(transferService).checkDataBlock("t01", "d02", 0);
+        Mockito.doThrow(new InvalidDataBlockException("")).when(transferService).checkDataBlock("t01", "d01", 99);
+        assertThrows(TransferNotFoundException.class, () -> uploadPipeline.submit("t02", "d01", 0, null, new ByteArrayInputStream(data)));
+        assertThrows(DeviceNotFoundException.class, () -> uploadPipeline.submit("t01", "d02", 0, null, new ByteArrayInputStream(data)));
+        assertThrows(InvalidDataBlockException.class, () -> uploadPipeline.submit("t01", "d01", 99, null, new ByteArrayInputStream(data)));
+        assertTrue(spool.list().isEmpty());
+        Mockito.verify(transferService, Mockito.times(1)).sendData(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void submitWhenQueueIsFull() throws Exception {
+        ITransferService transferService = Mockito.mock(ITransferService.class);
+        INotificationService notificationService = Mockito.mock(INotificationService.class);
+        UploadPipeline uploadPipeline = new UploadPipeline(transferService, notificationService, new UploadSpool(spoolDirectory), true, 1, 2);
+        CountDownLatch latch = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            latch.await();
+            return invocation.getArgument(2);
+        }).when(transferService).sendData(isA(String.class), isA(String.class), isA(Integer.class), isNull(), isA(InputStream.class), any());
+
+        LOGGER.debug("Data blocks are refused while workers are busy");
+        uploadPipeline.submit("t01", "d01", 0, null, new ByteArrayInputStream(new byte[10]));
+        uploadPipeline.submit("t01", "d01", 1, null, new ByteArrayInputStream(new byte[10]));
+        assertThrows(UploadQueueFullException.class, () -> uploadPipeline.submit("t01", "d01", 2, null, new ByteArrayInputStream(new byte[10])));
+
+        LOGGER.debug("Data blocks are accepted again when workers have caught up");
+        latch.countDown();
+        Mockito.verify(transferService, Mockito.timeout(5000)).sendData(eq("t01"), eq("d01"), eq(1), isNull(), isA(InputStream.class), any());
+        // Permit is released after data block has been saved
+        waitUntil(() -> {
+            try {
+                uploadPipeline.submit("t01", "d01", 2, null, new ByteArrayInputStream(new byte[10]));
+                return true;
+            } catch (UploadQueueFullException e) {
+                return false;
+            }
+        });
+        uploadPipeline.shutdown();
+        Mockito.verify(transferService).sendData(eq("t01"), eq("d01"), eq(2), isNull(), isA(InputStream.class), any());
+    }
+
+    @Test
+    void persist() throws Exception {
+        ITransferService transferService = Mockito.mock(ITransferService.class);
+        INotificationService notificationService = Mockito.mock(INotificationService.class);
+        UploadSpool spool = new UploadSpool(spoolDirectory);
+
+        LOGGER.debug("Sender is notified when data block is refused");
+        UploadPipeline uploadPipeline = new UploadPipeline(transferService, notificationService, spool, true, 1, 4);
+        Mockito.doThrow(new InvalidDataBlockException("")).when(transferService).sendData(eq("t01"), eq("d01"), eq(5), isNull(), isA(InputStream.class), any());
+        uploadPipeline.submit("t01", "d01", 5, null, new ByteArrayInputStream(new byte[10]));
+        uploadPipeline.shutdown();
+        ArgumentCaptor<Notification> notificationCaptor = ArgumentCaptor.forClass(Notification.class);
+        Mockito.verify(notificationService).notifyDevice(notificationCaptor.capture());
+        assertEquals("d01", notificationCaptor.getValue().getReceiverDeviceId());
+        assertEquals(5, notificationCaptor.getValue().getDataBlockNumber());
+        assertEquals(NotificationType.TRANSFER_FILE_CORRUPTED.getValue(), notificationCaptor.getValue().getNotificationType());
+        assertTrue(spool.list().isEmpty());
+
+        LOGGER.debug("Nobody is notified when transfer has been cancelled meanwhile");
+        UploadPipeline cancelledPipeline = new UploadPipeline(transferService, notificationService, spool, true, 1, 4);
+        Mockito.doThrow(new TransferNotFoundException("")).when(transferService).sendData(eq("t02"), eq("d01"), eq(0), isNull(), isA(InputStream.class), any());
+        cancelledPipeline.submit("t02", "d01", 0, null, new ByteArrayInputStream(new byte[10]));
+        cancelledPipeline.shutdown();
+        Mockito.verify(notificationService, Mockito.times(1)).notifyDevice(any());
+        assertTrue(spool.list().isEmpty());
+
+        LOGGER.debug("Data block is saved again after a transient error");
+        UploadPipeline retryingPipeline = new UploadPipeline(transferService, notificationService, spool, true, 1, 4, 3, 10);
+        Mockito.doThrow(new RuntimeException("Database not available")).doReturn(4)
+                .when(transferService).sendData(eq("t01"), eq("d01"), eq(4), isNull(), isA(InputStream.class), any());
+        retryingPipeline.submit("t01", "d01", 4, null, new ByteArrayInputStream(new byte[10]));
+        Mockito.verify(transferService, Mockito.timeout(5000).times(2)).sendData(eq("t01"), eq("d01"), eq(4), isNull(), isA(InputStream.class), any());
+        waitUntil(() -> spool.list().isEmpty()); // Data block is deleted from spool after it has been saved
+
+        LOGGER.debug("Data block is deleted after last attempt, sender sends it again");
+        Mockito.doThrow(new RuntimeException("Database not available")).when(transferService).sendData(eq("t01"), eq("d01"), eq(7), isNull(), isA(InputStream.class), any());
+        retryingPipeline.submit("t01", "d01", 7, null, new ByteArrayInputStream(new byte[10]));
+        Mockito.verify(notificationService, Mockito.timeout(5000).times(2)).notifyDevice(notificationCaptor.capture());
+        assertEquals(7, notificationCaptor.getValue().getDataBlockNumber());
+        assertEquals(NotificationType.TRANSFER_FILE_CORRUPTED.getValue(), notificationCaptor.getValue().getNotificationType());
+        Mockito.verify(transferService, Mockito.times(3)).sendData(eq("t01"), eq("d01"), eq(7), isNull(), isA(InputStream.class), any());
+        retryingPipeline.shutdown();
+        assertTrue(spool.list().isEmpty());
+
+        LOGGER.debug("Data block waiting for a retry at shutdown is kept, and saved on next start");
+        UploadPipeline failingPipeline = new UploadPipeline(transferService, notificationService, spool, true, 1, 4, 3, 60_000);
+        Mockito.doThrow(new RuntimeException("Database not available")).when(transferService).sendData(eq("t01"), eq("d01"), eq(6), isNull(), isA(InputStream.class), any());
+        failingPipeline.submit("t01", "d01", 6, null, new ByteArrayInputStream(new byte[10]));
+        Mockito.verify(transferService, Mockito.timeout(5000)).sendData(eq("t01"), eq("d01"), eq(6), isNull(), isA(InputStream.class), any());
+        failingPipeline.shutdown();
+        assertEquals(1, spool.list().size());
+
+        Mockito.doReturn(6).when(transferService).sendData(eq("t01"), eq("d01"), eq(6), isNull(), isA(InputStream.class), any());
+        UploadPipeline restartedPipeline = new UploadPipeline(transferService, notificationService, new UploadSpool(spoolDirectory), true, 1, 4);
+        restartedPipeline.replay();
+        restartedPipeline.shutdown();
+        Mockito.verify(transferService, Mockito.times(2)).sendData(eq("t01"), eq("d01"), eq(6), isNull(), isA(InputStream.class), any());
+        assertTrue(spool.list().isEmpty());
+    }
+
+    /**
+     * Wait until a condition is true. Fail if it's still false after 5 seconds
+     */
+    private static void waitUntil(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.call()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition still false after 5 seconds");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.saankaa.rapidxend.service.transfer.relay;
+
+import com.saankaa.rapidxend.service.websocket.IWebsocketSessionService;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelayServiceTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(RelayServiceTest.class);
+
+    private final IWebsocketSessionService websocketSessionService = Mockito.mock(IWebsocketSessionService.class);
+
+    @Test
+    void relayWhileUploading() throws Exception {
+        RelayService relayService = new RelayService(websocketSessionService, 4 * 1024);
+        byte[] data = new byte[10 * 1024];
+        new Random().nextBytes(data);
+
+        LOGGER.debug("Receiver reads data block while sender uploads it");
+        RelayBuffer buffer = relayService.open("t01", 2);
+        assertNotNull(buffer);
+        assertNull(relayService.open("t01", 2));
+        InputStream reader = relayService.read("t01", 2);
+        assertNotNull(reader);
+        CompletableFuture<byte[]> received = CompletableFuture.supplyAsync(() -> {
+            try {
+                return reader.readAllBytes();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try (InputStream inputStream = buffer.tee(new ByteArrayInputStream(data))) {
+            byte[] chunk = new byte[100];
+            while (inputStream.read(chunk) != -1) {
+                // Let receiver follow, sender never waits for it
+                Thread.sleep(1);
+            }
+        }
+        relayService.close(buffer, true);
+        assertArrayEquals(data, received.get());
+
+        LOGGER.debug("Data block is not relayed anymore");
+        assertNull(relayService.read("t01", 2));
+        assertNotNull(relayService.open("t01", 2));
+
+        LOGGER.debug("Relay is disabled");
+        assertNull(new RelayService(websocketSessionService, 0).open("t01", 2));
+    }
+
+    @Test
+    void relayToLocalReceivers() {
+        RelayService relayService = new RelayService(websocketSessionService, 1024);
+        Mockito.doReturn(true).when(websocketSessionService).isConnected("r01");
+
+        LOGGER.debug("Receivers connected to another instance can't read relay buffers of this one");
+        assertEquals(List.of("r01"), relayService.getLocalReceivers(List.of("r01", "r02")));
+        assertEquals(List.of(), relayService.getLocalReceivers(List.of("r02")));
+    }
+
+    @Test
+    void spillToBlockStore() throws Exception {
+        RelayService relayService = new RelayService(websocketSessionService, 1024);
+        byte[] data = new byte[4 * 1024];
+        new Random().nextBytes(data);
+
+        LOGGER.debug("Receiver too slow fails");
+        RelayBuffer buffer = relayService.open("t01", 0);
+        InputStream reader = relayService.read("t01", 0);
+        buffer.tee(new ByteArrayInputStream(data)).readAllBytes();
+        assertThrows(IOException.class, reader::read);
+
+        LOGGER.debug("Receiver too late can't read data block");
+        assertNull(relayService.read("t01", 0));
+        relayService.close(buffer, true);
+
+        LOGGER.debug("Receiver fails when data block is refused");
+        buffer = relayService.open("t01", 1);
+        reader = relayService.read("t01", 1);
+        buffer.tee(new ByteArrayInputStream(data, 0, 100)).readAllBytes();
+        assertEquals(100, reader.readNBytes(100).length);
+        relayService.close(buffer, false);
+        assertThrows(IOException.class, reader::read);
+        assertNull(relayService.read("t01", 1));
+    }
+}
@@ -0,0 +1,95 @@
+package com.saankaa.rapidxend.service.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+class PresenceServiceTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(PresenceServiceTest.class);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void presence() {
+        StringRedisTemplate redisTemplate = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hashOperations = Mockito.mock(HashOperations.class);
+        Mockito.doReturn(hashOperations).when(redisTemplate).opsForHash();
+        WebsocketSessionService websocketSessionService = new WebsocketSessionService("i01");
+        PresenceService presenceService = new PresenceService(redisTemplate, websocketSessionService);
+
+        LOGGER.debug("Register device connected to current instance");
+        presenceService.register("d01");
+        Mockito.verify(hashOperations).put(eq("presence:d01"), eq("i01"), isA(String.class));
+        Mockito.verify(redisTemplate).expire("presence:d01", Duration.ofMillis(PresenceService.PRESENCE_TTL));
+
+        LOGGER.debug("Expired entries are ignored and removed");
+        long now = System.currentTimeMillis();
+        Mockito.doReturn(Map.of("i01", String.valueOf(now + 10_000), "i02", String.valueOf(now - 1)))
+                .when(hashOperations).entries("presence:d01");
+        assertEquals(Set.of("i01"), presenceService.getInstanceIds("d01"));
+        Mockito.verify(hashOperations).delete("presence:d01", "i02");
+        Mockito.doReturn(Map.of()).when(hashOperations).entries("presence:d02");
+        assertTrue(presenceService.getInstanceIds("d02").isEmpty());
+
+        LOGGER.debug("Instances of several devices in a single pipeline");
+        Mockito.doReturn(List.of(Map.of("i01", String.valueOf(now + 10_000), "i02", String.valueOf(now - 1)),
+                Map.of("i02", String.valueOf(now + 10_000)), Map.of()))
+                .when(redisTemplate).executePipelined(isA(RedisCallback.class));
+        assertEquals(Map.of("d01", Set.of("i01"), "d02", Set.of("i02")), presenceService.getInstanceIds(List.of("d01", "d02", "d03")));
+        Mockito.verify(redisTemplate).executePipelined(isA(RedisCallback.class));
+        assertTrue(presenceService.getInstanceIds(List.of()).isEmpty());
+
+        LOGGER.debug("Unregister device");
+        presenceService.unregister("d01");
+        Mockito.verify(hashOperations).delete("presence:d01", "i01");
+
+        LOGGER.debug("Channel of each instance");
+        assertEquals("notification.i02", presenceService.getChannel("i02"));
+    }
+
+    @Test
+    void heartbeat() {
+        StringRedisTemplate redisTemplate = Mockito.mock(StringRedisTemplate.class);
+        RedisConnection connection = Mockito.mock(RedisConnection.class, Mockito.RETURNS_DEEP_STUBS);
+        Mockito.doAnswer(invocation -> {
+            RedisCallback<?> callback = invocation.getArgument(0);
+            callback.doInRedis(connection);
+            return null;
+        }).when(redisTemplate).executePipelined(isA(RedisCallback.class));
+        WebsocketSessionService websocketSessionService = new WebsocketSessionService("i01");
+        PresenceService presenceService = new PresenceService(redisTemplate, websocketSessionService);
+
+        LOGGER.debug("No device connected, no request");
+        presenceService.heartbeat();
+        Mockito.verify(redisTemplate, Mockito.never()).executePipelined(isA(RedisCallback.class));
+
+        LOGGER.debug("Presence of connected devices is refreshed in a single pipeline");
+        websocketSessionService.addSession("d01", "s01");
+        websocketSessionService.addSession("d02", "s02");
+        websocketSessionService.addSession("d02", "s03");
+        presenceService.heartbeat();
+        Mockito.verify(redisTemplate).executePipelined(isA(RedisCallback.class));
+        byte[] field = "i01".getBytes(StandardCharsets.UTF_8);
+        Mockito.verify(connection.hashCommands()).hSet(eq("presence:d01".getBytes(StandardCharsets.UTF_8)), eq(field), isA(byte[].class));
+        Mockito.verify(connection.hashCommands()).hSet(eq("presence:d02".getBytes(StandardCharsets.UTF_8)), eq(field), isA(byte[].class));
+        Mockito.verify(connection.keyCommands(), Mockito.times(2)).pExpire(isA(byte[].class), eq(PresenceService.PRESENCE_TTL));
+
+        LOGGER.debug("Redis not available");
+        Mockito.doThrow(new RuntimeException("Connection refused")).when(redisTemplate).executePipelined(isA(RedisCallback.class));
+        assertDoesNotThrow(presenceService::heartbeat);
+    }
+}
@@ -0,0 +1,90 @@
+package com.saankaa.rapidxend.service.websocket;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Throughput of isConnected with many connected devices, compared to the synchronized list used before sessions
+ * were kept in concurrent maps. Half of the looked up devices are connected.
+ * Not run with unit tests (class name doesn't end with Test), run it with:
+ * mvn test -Dtest=WebsocketSessionServiceBenchmark
+ */
+class WebsocketSessionServiceBenchmark {
+
+    private static final int DEVICE_COUNT = 100_000;
+    private static final int THREAD_COUNT = 8;
+    private static final long WARMUP_DURATION = 2000; // In ms
+    private static final long DURATION = 5000; // In ms
+
+    private final Logger LOGGER = LoggerFactory.getLogger(WebsocketSessionServiceBenchmark.class);
+
+    @Test
+    void isConnected() throws Exception {
+        WebsocketSessionService websocketSessionService = new WebsocketSessionService("i01");
+        List<String> connectedDeviceIds = new ArrayList<>();
+        String[] deviceIds = new String[2 * DEVICE_COUNT];
+        for (int i = 0; i < deviceIds.length; i++) {
+            deviceIds[i] = new ObjectId().toHexString();
+            if (i % 2 == 0) {
+                websocketSessionService.addSession(deviceIds[i], "s" + i);
+                connectedDeviceIds.add(deviceIds[i]);
+            }
+        }
+        assertEquals(DEVICE_COUNT, websocketSessionService.getConnectedDeviceCount());
+
+        LOGGER.info("Synchronized list: {} isConnected/s", this.measure(deviceIds, new Predicate<>() {
+            @Override
+            public synchronized boolean test(String deviceId) {
+                return connectedDeviceIds.contains(deviceId);
+            }
+        }));
+        LOGGER.info("Concurrent registry: {} isConnected/s", this.measure(deviceIds, websocketSessionService::isConnected));
+    }
+
+    /**
+     * @return Calls per second of all threads
+     */
+    private long measure(String[] deviceIds, Predicate<String> isConnected) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            this.run(executorService, deviceIds, isConnected, WARMUP_DURATION);
+            return this.run(executorService, deviceIds, isConnected, DURATION) * 1000 / DURATION;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private long run(ExecutorService executorService, String[] deviceIds, Predicate<String> isConnected, long duration) throws Exception {
+        List<Future<Long>> results = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            results.add(executorService.submit(() -> {
+                long end = System.currentTimeMillis() + duration;
+                long calls = 0, connected = 0;
+                while (System.currentTimeMillis() < end) {
+                    for (int i = 0; i < 100; i++, calls++) {
+                        if (isConnected.test(deviceIds[ThreadLocalRandom.current().nextInt(deviceIds.length)])) connected++;
+                    }
+                }
+                assertTrue(connected > 0);
+                return calls;
+            }));
+        }
+        long calls = 0;
+        for (Future<Long> result : results) {
+            calls += result.get();
+        }
+        return calls;
+    }
+}
@@ -0,0 +1,93 @@
+package com.saankaa.rapidxend.service.websocket;
+
+import com.saankaa.rapidxend.model.WebsocketSession;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebsocketSessionServiceTest {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(WebsocketSessionServiceTest.class);
+
+    @Test
+    void sessions() throws Exception {
+        WebsocketSessionService websocketSessionService = new WebsocketSessionService("i01");
+
+        LOGGER.debug("Device with two sessions");
+        websocketSessionService.addSession("d01", "s01");
+        websocketSessionService.addSession("d01", "s02");
+        websocketSessionService.addSession("d01", "s02");
+        assertTrue(websocketSessionService.isConnected("d01"));
+        assertFalse(websocketSessionService.isConnected("d02"));
+        assertFalse(websocketSessionService.isConnected(null));
+        Collection<WebsocketSession> sessions = websocketSessionService.getSessions("d01");
+        assertEquals(2, sessions.size());
+        WebsocketSession session = sessions.iterator().next();
+        assertEquals("d01", session.getDeviceId());
+        assertEquals("i01", session.getInstanceId());
+        assertNotNull(session.getConnectedDate());
+        assertEquals(1, websocketSessionService.getConnectedDeviceCount());
+
+        LOGGER.debug("Heartbeat");
+        Thread.sleep(5);
+        websocketSessionService.heartbeat(session.getSessionId());
+        assertTrue(session.getLastHeartbeatDate().after(session.getConnectedDate()));
+        websocketSessionService.heartbeat("unknown");
+
+        LOGGER.debug("Device stays connected until its last session is removed");
+        websocketSessionService.removeSession("s01");
+        websocketSessionService.removeSession("s01");
+        assertTrue(websocketSessionService.isConnected("d01"));
+        websocketSessionService.removeSession("s02");
+        assertFalse(websocketSessionService.isConnected("d01"));
+        assertTrue(websocketSessionService.getSessions("d01").isEmpty());
+        assertEquals(0, websocketSessionService.getConnectedDeviceCount());
+
+        LOGGER.debug("Invalid values are ignored");
+        websocketSessionService.addSession(null, "s03");
+        websocketSessionService.addSession("", "s03");
+        websocketSessionService.removeSession(null);
+        assertEquals(0, websocketSessionService.getConnectedDeviceCount());
+    }
+
+    @Test
+    void concurrentSessions() throws Exception {
+        WebsocketSessionService websocketSessionService = new WebsocketSessionService("i01");
+
+        LOGGER.debug("Sessions of the same devices added and removed by several threads");
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    String deviceId = "d" + (i % 100);
+                    String sessionId = "s" + thread + "-" + i;
+                    websocketSessionService.addSession(deviceId, sessionId);
+                    assertTrue(websocketSessionService.isConnected(deviceId));
+                    websocketSessionService.removeSession(sessionId);
+                }
+                // Last session of thread stays
+                websocketSessionService.addSession("d" + thread, "s" + thread);
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        assertEquals(8, websocketSessionService.getConnectedDeviceCount());
+        for (int t = 0; t < 8; t++) {
+            assertEquals(1, websocketSessionService.getSessions("d" + t).size());
+        }
+    }
+}